@@ -0,0 +1,500 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.BinaryOperator;
+
+/**
+ * Generic B+ tree mapping keys of any type to values of any type, ordered by a
+ * Comparator. Keys and values are kept in Object arrays, one per node, and
+ * external nodes are linked for range searches.
+ *
+ * The tree has no parent pointers, insert and delete recurse from the root and
+ * split, borrow or merge on the way back. A node holds at most order - 1 keys
+ * and, except the root, at least (order - 1) / 2.
+ *
+ * For variable length keys a separator function can truncate the keys copied
+ * to internal nodes when an external node is split or borrows: given the last
+ * key of the left node and the first key of the right one it returns a shorter
+ * key between them, such as shortestSeparator for String and byte[] keys.
+ *
+ * For long keys with double or long values use LongDoubleBPlusTree or
+ * LongLongBPlusTree, which keep keys and values in primitive arrays and never
+ * box them.
+ *
+ * Note that this implementation is not synchronized, concurrent writes, or a
+ * write concurrent with searches, must be guarded by the caller.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class BPlusTree<K, V> {
+
+	private final int order;
+	private final int minKeys;
+	private final Comparator<? super K> comparator;
+	private final BinaryOperator<K> separator;
+	private Node root;
+	private int size;
+
+	/**
+	 * Constructs an empty B+ tree ordered by the natural order of the keys.
+	 *
+	 * @param order The order of B+ Tree. Normally an integer greater than 2.
+	 */
+	@SuppressWarnings("unchecked")
+	public BPlusTree(int order) {
+		this(order, (Comparator<? super K>) Comparator.naturalOrder());
+	}
+
+	/**
+	 * Constructs an empty B+ tree ordered by a comparator.
+	 *
+	 * @param order      The order of B+ Tree. Normally an integer greater than 2.
+	 * @param comparator the comparator of the keys
+	 */
+	public BPlusTree(int order, Comparator<? super K> comparator) {
+		this(order, comparator, null);
+	}
+
+	/**
+	 * Constructs an empty B+ tree ordered by a comparator, with suffix truncation
+	 * of the keys of internal nodes.
+	 *
+	 * @param order      The order of B+ Tree. Normally an integer greater than 2.
+	 * @param comparator the comparator of the keys
+	 * @param separator  function giving a key greater than its first argument and
+	 *                   not greater than its second, null to copy the second
+	 */
+	public BPlusTree(int order, Comparator<? super K> comparator, BinaryOperator<K> separator) {
+		if (order < 3) {
+			throw new IllegalArgumentException("Order must be greater than 2 but was " + order);
+		}
+		this.order = order;
+		this.minKeys = (order - 1) / 2;
+		this.comparator = comparator;
+		this.separator = separator;
+		this.root = new Node(order, true);
+	}
+
+	/**
+	 * Get the order
+	 *
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Get the number of elements
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Inserts an element with given key and value, an existing key gets the new
+	 * value.
+	 *
+	 * @param key   key of the element to be inserted.
+	 * @param value value of the element to be inserted.
+	 */
+	public void insert(K key, V value) {
+		if (key == null) {
+			throw new NullPointerException("Key must not be null");
+		}
+		insert(this.root, key, value);
+		if (this.root.size == this.order) {
+			Node newRoot = new Node(this.order, false);
+			newRoot.children[0] = this.root;
+			split(newRoot, 0);
+			this.root = newRoot;
+		}
+	}
+
+	/**
+	 * Deletes an element with given key.
+	 *
+	 * @param key key of the element to be deleted.
+	 * @return true if the key was in the tree
+	 */
+	public boolean delete(K key) {
+		boolean isDeleted = delete(this.root, key);
+		if (!this.root.isExternal && this.root.size == 0) {
+			this.root = this.root.children[0];
+		}
+		return isDeleted;
+	}
+
+	/**
+	 * Get the value of an element with given key.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return the value, null if the key is not in the tree
+	 */
+	public V get(K key) {
+		return getOrDefault(key, null);
+	}
+
+	/**
+	 * Get the value of an element with given key.
+	 *
+	 * @param key          key of the element to be searched.
+	 * @param defaultValue value returned if the key is not in the tree
+	 * @return the value
+	 */
+	@SuppressWarnings("unchecked")
+	public V getOrDefault(K key, V defaultValue) {
+		Node externalNode = findExternalNode(key);
+		int keyIndex = getKeyIndex(externalNode, key) - 1;
+		if (keyIndex >= 0 && compare(externalNode.keys[keyIndex], key) == 0) {
+			return (V) externalNode.values[keyIndex];
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Check if the tree has an element with given key.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return boolean value
+	 */
+	public boolean containsKey(K key) {
+		Node externalNode = findExternalNode(key);
+		int keyIndex = getKeyIndex(externalNode, key) - 1;
+		return keyIndex >= 0 && compare(externalNode.keys[keyIndex], key) == 0;
+	}
+
+	/**
+	 * Search all element that lies between and including startKey and endKey
+	 *
+	 * @param startKey starting Key of the element to be searched.
+	 * @param endKey   ending key of the element to be searched.
+	 * @return list of values between startKey and endKey
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> search(K startKey, K endKey) {
+		ArrayList<V> listValues = new ArrayList<V>();
+		Node current = findExternalNode(startKey);
+		int i = getLowerKeyIndex(current, startKey);
+		while (current != null) {
+			for (; i < current.size; i++) {
+				if (compare(current.keys[i], endKey) > 0) {
+					return listValues;
+				}
+				listValues.add((V) current.values[i]);
+			}
+			current = current.nextNode;
+			i = 0;
+		}
+		return listValues;
+	}
+
+	/**
+	 * Insert below a node, splitting the child that became overfull.
+	 *
+	 * @param node  the node
+	 * @param key   the key
+	 * @param value the value
+	 */
+	private void insert(Node node, K key, V value) {
+		int keyIndex = getKeyIndex(node, key);
+		if (node.isExternal) {
+			if (keyIndex > 0 && compare(node.keys[keyIndex - 1], key) == 0) {
+				node.values[keyIndex - 1] = value;
+				return;
+			}
+			System.arraycopy(node.keys, keyIndex, node.keys, keyIndex + 1, node.size - keyIndex);
+			System.arraycopy(node.values, keyIndex, node.values, keyIndex + 1, node.size - keyIndex);
+			node.keys[keyIndex] = key;
+			node.values[keyIndex] = value;
+			node.size++;
+			this.size++;
+			return;
+		}
+		Node child = node.children[keyIndex];
+		insert(child, key, value);
+		if (child.size == this.order) {
+			split(node, keyIndex);
+		}
+	}
+
+	/**
+	 * Split an overfull child in two halves, the first key of the right half of
+	 * an external node is copied to the parent, the middle key of an internal
+	 * node moves up.
+	 *
+	 * @param parent     the parent
+	 * @param childIndex index of the overfull child
+	 */
+	private void split(Node parent, int childIndex) {
+		Node child = parent.children[childIndex];
+		Node right = new Node(this.order, child.isExternal);
+		int midIndex = this.order / 2;
+		Object middleKey = child.isExternal ? getSeparator(child.keys[midIndex - 1], child.keys[midIndex])
+				: child.keys[midIndex];
+		if (child.isExternal) {
+			right.size = child.size - midIndex;
+			System.arraycopy(child.keys, midIndex, right.keys, 0, right.size);
+			System.arraycopy(child.values, midIndex, right.values, 0, right.size);
+			Arrays.fill(child.keys, midIndex, child.size, null);
+			Arrays.fill(child.values, midIndex, child.size, null);
+			right.nextNode = child.nextNode;
+			child.nextNode = right;
+		} else {
+			right.size = child.size - midIndex - 1;
+			System.arraycopy(child.keys, midIndex + 1, right.keys, 0, right.size);
+			System.arraycopy(child.children, midIndex + 1, right.children, 0, right.size + 1);
+			Arrays.fill(child.keys, midIndex, child.size, null);
+			Arrays.fill(child.children, midIndex + 1, child.size + 1, null);
+		}
+		child.size = midIndex;
+		System.arraycopy(parent.keys, childIndex, parent.keys, childIndex + 1, parent.size - childIndex);
+		System.arraycopy(parent.children, childIndex + 1, parent.children, childIndex + 2, parent.size - childIndex);
+		parent.keys[childIndex] = middleKey;
+		parent.children[childIndex + 1] = right;
+		parent.size++;
+	}
+
+	/**
+	 * Delete below a node, balancing the child that became deficient.
+	 *
+	 * @param node the node
+	 * @param key  the key
+	 * @return true if the key was found
+	 */
+	private boolean delete(Node node, K key) {
+		int keyIndex = getKeyIndex(node, key);
+		if (node.isExternal) {
+			if (keyIndex == 0 || compare(node.keys[keyIndex - 1], key) != 0) {
+				return false;
+			}
+			System.arraycopy(node.keys, keyIndex, node.keys, keyIndex - 1, node.size - keyIndex);
+			System.arraycopy(node.values, keyIndex, node.values, keyIndex - 1, node.size - keyIndex);
+			node.size--;
+			node.keys[node.size] = null;
+			node.values[node.size] = null;
+			this.size--;
+			return true;
+		}
+		Node child = node.children[keyIndex];
+		boolean isDeleted = delete(child, key);
+		if (child.size < this.minKeys) {
+			balance(node, keyIndex);
+		}
+		return isDeleted;
+	}
+
+	/**
+	 * Balance a deficient child by borrowing from a sibling that has keys to
+	 * spare, or else by merging it with a sibling.
+	 *
+	 * @param parent     the parent
+	 * @param childIndex index of the deficient child
+	 */
+	private void balance(Node parent, int childIndex) {
+		Node child = parent.children[childIndex];
+		Node left = childIndex > 0 ? parent.children[childIndex - 1] : null;
+		Node right = childIndex < parent.size ? parent.children[childIndex + 1] : null;
+		if (left != null && left.size > this.minKeys) {
+			System.arraycopy(child.keys, 0, child.keys, 1, child.size);
+			if (child.isExternal) {
+				System.arraycopy(child.values, 0, child.values, 1, child.size);
+				child.keys[0] = left.keys[left.size - 1];
+				child.values[0] = left.values[left.size - 1];
+				left.values[left.size - 1] = null;
+			} else {
+				System.arraycopy(child.children, 0, child.children, 1, child.size + 1);
+				child.keys[0] = parent.keys[childIndex - 1];
+				child.children[0] = left.children[left.size];
+				left.children[left.size] = null;
+				parent.keys[childIndex - 1] = left.keys[left.size - 1];
+			}
+			left.keys[left.size - 1] = null;
+			left.size--;
+			child.size++;
+			if (child.isExternal) {
+				parent.keys[childIndex - 1] = getSeparator(left.keys[left.size - 1], child.keys[0]);
+			}
+		} else if (right != null && right.size > this.minKeys) {
+			if (child.isExternal) {
+				child.keys[child.size] = right.keys[0];
+				child.values[child.size] = right.values[0];
+				System.arraycopy(right.values, 1, right.values, 0, right.size - 1);
+				right.values[right.size - 1] = null;
+			} else {
+				child.keys[child.size] = parent.keys[childIndex];
+				child.children[child.size + 1] = right.children[0];
+				parent.keys[childIndex] = right.keys[0];
+				System.arraycopy(right.children, 1, right.children, 0, right.size);
+				right.children[right.size] = null;
+			}
+			System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+			right.keys[right.size - 1] = null;
+			right.size--;
+			child.size++;
+			if (child.isExternal) {
+				parent.keys[childIndex] = getSeparator(child.keys[child.size - 1], right.keys[0]);
+			}
+		} else if (left != null) {
+			merge(parent, childIndex - 1);
+		} else {
+			merge(parent, childIndex);
+		}
+	}
+
+	/**
+	 * Merge a child with its right sibling, the key between them is removed from
+	 * the parent.
+	 *
+	 * @param parent    the parent
+	 * @param leftIndex index of the left child
+	 */
+	private void merge(Node parent, int leftIndex) {
+		Node left = parent.children[leftIndex];
+		Node right = parent.children[leftIndex + 1];
+		if (left.isExternal) {
+			System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+			System.arraycopy(right.values, 0, left.values, left.size, right.size);
+			left.size += right.size;
+			left.nextNode = right.nextNode;
+		} else {
+			left.keys[left.size] = parent.keys[leftIndex];
+			System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+			System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+			left.size += right.size + 1;
+		}
+		System.arraycopy(parent.keys, leftIndex + 1, parent.keys, leftIndex, parent.size - leftIndex - 1);
+		System.arraycopy(parent.children, leftIndex + 2, parent.children, leftIndex + 1, parent.size - leftIndex - 1);
+		parent.size--;
+		parent.keys[parent.size] = null;
+		parent.children[parent.size + 1] = null;
+	}
+
+	/**
+	 * The external node that may contain given key.
+	 *
+	 * @param key The key that needs to be found.
+	 * @return The external node.
+	 */
+	private Node findExternalNode(K key) {
+		Node current = this.root;
+		while (!current.isExternal) {
+			current = current.children[getKeyIndex(current, key)];
+		}
+		return current;
+	}
+
+	/**
+	 * Get the (index+1) child index of given key using binary search.
+	 *
+	 * @param node the node
+	 * @param key  The key whose index needs to be found.
+	 * @return the index
+	 */
+	private int getKeyIndex(Node node, Object key) {
+		int low = 0;
+		int high = node.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(node.keys[mid], key) > 0) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Get the index of the first key of a node not smaller than given key.
+	 *
+	 * @param node the node
+	 * @param key  the key
+	 * @return the index
+	 */
+	private int getLowerKeyIndex(Node node, Object key) {
+		int low = 0;
+		int high = node.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(node.keys[mid], key) >= 0) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Get the key separating two neighbouring external nodes.
+	 *
+	 * @param lastKey  last key of the left node
+	 * @param firstKey first key of the right node
+	 * @return the separator
+	 */
+	@SuppressWarnings("unchecked")
+	private Object getSeparator(Object lastKey, Object firstKey) {
+		return this.separator == null ? firstKey : this.separator.apply((K) lastKey, (K) firstKey);
+	}
+
+	/**
+	 * Shortest prefix of a String greater than another one, for suffix truncation.
+	 *
+	 * @param lastKey  the smaller String
+	 * @param firstKey the greater String
+	 * @return the shortest prefix of firstKey greater than lastKey
+	 */
+	public static String shortestSeparator(String lastKey, String firstKey) {
+		int length = 0;
+		while (length < lastKey.length() && lastKey.charAt(length) == firstKey.charAt(length)) {
+			length++;
+		}
+		return firstKey.substring(0, length + 1);
+	}
+
+	/**
+	 * Shortest prefix of a byte array greater than another one in unsigned
+	 * lexicographic order, see Arrays.compareUnsigned, for suffix truncation.
+	 *
+	 * @param lastKey  the smaller array
+	 * @param firstKey the greater array
+	 * @return the shortest prefix of firstKey greater than lastKey
+	 */
+	public static byte[] shortestSeparator(byte[] lastKey, byte[] firstKey) {
+		int length = Arrays.mismatch(lastKey, firstKey);
+		return Arrays.copyOf(firstKey, length + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(Object key1, Object key2) {
+		return this.comparator.compare((K) key1, (K) key2);
+	}
+
+	/**
+	 * Node of the tree, an external node has values and a next node, an internal
+	 * node has one child more than keys.
+	 */
+	private static final class Node {
+
+		private final boolean isExternal;
+		private final Object[] keys;
+		private final Object[] values;
+		private final Node[] children;
+		private Node nextNode;
+		private int size;
+
+		private Node(int order, boolean isExternal) {
+			this.isExternal = isExternal;
+			// room for one key more than a full node until it is split
+			this.keys = new Object[order];
+			this.values = isExternal ? new Object[order] : null;
+			this.children = isExternal ? null : new Node[order + 1];
+		}
+
+	}
+
+}
@@ -0,0 +1,2252 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32C;
+
+/**
+ * A java Application to measure B+ tree performance. Runs insert, point search,
+ * range search and delete over sequential, random, zipfian and clustered key
+ * distributions for every combination of order and tree size, and reports
+ * throughput, latency percentiles and allocation.
+ *
+ * Options are given as name=value arguments, for example
+ * {@code java BPlusTreeBenchmark benchmarks=insert,search orders=4,128 sizes=1000000}
+ * <ul>
+ * <li>benchmarks: keysearch, bulkload, concurrent, paged, bufferpool, wal,
+ * parallelscan, batch, multiget, generic, multivalue, compression, offheap, fill, snapshot,
+ * image, metrics, verify, resultcache, insert, search, get, rangesearch,
+ * rangecursor, delete</li>
+ * <li>distributions: sequential, random, zipfian, clustered</li>
+ * <li>orders: orders of the B+ tree</li>
+ * <li>sizes: number of keys in the tree</li>
+ * <li>iterations: measured iterations, one more is run as warm up</li>
+ * <li>range: number of keys covered by a range search</li>
+ * <li>threads: maximum number of threads of the concurrent and parallelscan
+ * benchmarks</li>
+ * </ul>
+ */
+public class BPlusTreeBenchmark {
+
+	private static final int[] KEY_SEARCH_ORDERS = { 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+	private static final int PROBES = 1 << 16;
+	private static final int ROUNDS = 50;
+	private static final double ZIPFIAN_CONSTANT = 0.99;
+	private static final String[] EVICTION_POLICIES = { "lru", "clock", "2q" };
+	private static final double[] POOL_FRACTIONS = { 0.01, 0.05, 0.25 };
+	private static final int WAL_WRITERS = 32;
+	private static final int WAL_FRAMES = 4096;
+	private static final int BATCH_SIZE = 4096;
+	private static final int MULTI_GET_SIZE = 1024;
+	private static final int SNAPSHOT_SCANNERS = 8;
+	private static final int SCAN_LENGTH = 100_000;
+	private static final int VERIFY_STEP = 1024;
+	private static final long[] RESULT_CACHE_SIZES = { 0, 1 << 20, 16 << 20 };
+	private static final int RESULT_CACHE_OPERATIONS = 1 << 20;
+
+	private static String[] benchmarks = { "insert", "search", "get", "rangesearch", "rangecursor", "delete" };
+	private static String[] distributions = { "sequential", "random", "zipfian", "clustered" };
+	private static int[] orders = { 4, 64, 256 };
+	private static int[] sizes = { 1_000_000 };
+	private static int iterations = 3;
+	private static int rangeLength = 100;
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	private static volatile long blackhole;
+
+	/**
+	 * Runs the benchmarks and prints the result.
+	 *
+	 * @param args benchmark options as name=value
+	 */
+	public static void main(String[] args) {
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			if (option.length != 2) {
+				throw new IllegalArgumentException("Expected name=value but was " + arg);
+			}
+			switch (option[0]) {
+			case "benchmarks":
+				benchmarks = option[1].split(",");
+				break;
+			case "distributions":
+				distributions = option[1].split(",");
+				break;
+			case "orders":
+				orders = parseInts(option[1]);
+				break;
+			case "sizes":
+				sizes = parseInts(option[1]);
+				break;
+			case "iterations":
+				iterations = Integer.parseInt(option[1]);
+				break;
+			case "range":
+				rangeLength = Integer.parseInt(option[1]);
+				break;
+			case "threads":
+				threads = Integer.parseInt(option[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option[0]);
+			}
+		}
+		boolean isHeaderPrinted = false;
+		for (String benchmark : benchmarks) {
+			if (benchmark.equals("keysearch")) {
+				benchmarkKeySearch();
+				continue;
+			}
+			if (benchmark.equals("bulkload")) {
+				benchmarkBulkLoad();
+				continue;
+			}
+			if (benchmark.equals("concurrent")) {
+				stressConcurrentTree();
+				benchmarkConcurrentSearch();
+				continue;
+			}
+			if (benchmark.equals("paged")) {
+				benchmarkPagedTree();
+				continue;
+			}
+			if (benchmark.equals("bufferpool")) {
+				benchmarkBufferPool();
+				continue;
+			}
+			if (benchmark.equals("wal")) {
+				stressWriteAheadLog();
+				benchmarkWriteAheadLog();
+				continue;
+			}
+			if (benchmark.equals("parallelscan")) {
+				benchmarkParallelScan();
+				continue;
+			}
+			if (benchmark.equals("batch")) {
+				benchmarkBatch();
+				continue;
+			}
+			if (benchmark.equals("multiget")) {
+				benchmarkMultiGet();
+				continue;
+			}
+			if (benchmark.equals("generic")) {
+				benchmarkGeneric();
+				continue;
+			}
+			if (benchmark.equals("multivalue")) {
+				benchmarkMultiValue();
+				continue;
+			}
+			if (benchmark.equals("compression")) {
+				benchmarkCompression();
+				continue;
+			}
+			if (benchmark.equals("offheap")) {
+				benchmarkOffHeap();
+				continue;
+			}
+			if (benchmark.equals("fill")) {
+				benchmarkFill();
+				continue;
+			}
+			if (benchmark.equals("snapshot")) {
+				benchmarkSnapshot();
+				continue;
+			}
+			if (benchmark.equals("image")) {
+				stressImage();
+				benchmarkImage();
+				continue;
+			}
+			if (benchmark.equals("metrics")) {
+				benchmarkMetrics();
+				continue;
+			}
+			if (benchmark.equals("verify")) {
+				stressVerifier();
+				benchmarkVerify();
+				continue;
+			}
+			if (benchmark.equals("resultcache")) {
+				stressResultCache();
+				benchmarkResultCache();
+				continue;
+			}
+			if (!isHeaderPrinted) {
+				System.out.printf("%-12s %-11s %6s %10s %12s %9s %9s %9s %10s%n", "benchmark", "keys", "order", "size",
+						"ops/s", "p50(ns)", "p99(ns)", "B/op", "MB/s");
+				isHeaderPrinted = true;
+			}
+			for (String distribution : distributions) {
+				for (int order : orders) {
+					for (int size : sizes) {
+						runBenchmark(benchmark, distribution, order, size);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one benchmark for a distribution, order and tree size and prints the
+	 * averaged result of all measured iterations.
+	 *
+	 * @param benchmark    name of the benchmark
+	 * @param distribution name of the key distribution
+	 * @param order        order of the B+ tree
+	 * @param size         number of keys in the tree
+	 */
+	private static void runBenchmark(String benchmark, String distribution, int order, int size) {
+		Random random = new Random(42);
+		long[] latencies = new long[size];
+		double opsPerSecond = 0;
+		double p50 = 0;
+		double p99 = 0;
+		double bytesPerOp = 0;
+		double bytesPerSecond = 0;
+		for (int iteration = 0; iteration <= iterations; iteration++) {
+			int[] keys = generateKeys(distribution, size, size, random);
+			BPlusTreeImpl tree = new BPlusTreeImpl(order);
+			if (!benchmark.equals("insert")) {
+				int[] treeKeys = generateKeys("random", size, size, random);
+				for (int key : treeKeys) {
+					tree.insert(key, (double) key);
+				}
+			}
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			runOperations(benchmark, tree, keys, latencies);
+			long elapsed = System.nanoTime() - start;
+			long allocated = allocatedBytes() - allocatedBefore;
+			// first iteration is the warm up
+			if (iteration > 0) {
+				Arrays.sort(latencies);
+				opsPerSecond += size * 1e9 / elapsed / iterations;
+				p50 += (double) latencies[size / 2] / iterations;
+				p99 += (double) latencies[(int) (size * 0.99)] / iterations;
+				bytesPerOp += (double) allocated / size / iterations;
+				bytesPerSecond += allocated * 1e9 / elapsed / iterations;
+			}
+		}
+		System.out.printf("%-12s %-11s %6d %10d %12.0f %9.0f %9.0f %9.1f %10.1f%n", benchmark, distribution, order,
+				size, opsPerSecond, p50, p99, bytesPerOp, bytesPerSecond / (1 << 20));
+	}
+
+	/**
+	 * Runs the operation of a benchmark once for every key and records the latency
+	 * of each operation.
+	 *
+	 * @param benchmark name of the benchmark
+	 * @param tree      the B+ tree
+	 * @param keys      the keys to be used by the operations
+	 * @param latencies array receiving the latency of each operation
+	 */
+	private static void runOperations(String benchmark, BPlusTreeImpl tree, int[] keys, long[] latencies) {
+		long sum = 0;
+		switch (benchmark) {
+		case "insert":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				tree.insert(keys[i], (double) i);
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		case "search":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				sum += tree.search(keys[i]).size();
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		case "get":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				sum += (long) tree.getOrDefault(keys[i], 0);
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		case "rangesearch":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				sum += tree.search(keys[i], keys[i] + rangeLength - 1).size();
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		case "rangecursor":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				BPlusTreeCursor cursor = tree.cursor(keys[i], keys[i] + rangeLength - 1);
+				while (cursor.advance()) {
+					sum += cursor.getKey();
+				}
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		case "delete":
+			for (int i = 0; i < keys.length; i++) {
+				long start = System.nanoTime();
+				tree.delete(keys[i]);
+				latencies[i] = System.nanoTime() - start;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown benchmark " + benchmark);
+		}
+		blackhole = sum;
+	}
+
+	/**
+	 * Generates keys following a distribution.
+	 *
+	 * @param distribution name of the key distribution
+	 * @param count        number of keys to generate
+	 * @param keySpace     keys are generated between 0 and keySpace - 1
+	 * @param random       source of randomness
+	 * @return the generated keys
+	 */
+	static int[] generateKeys(String distribution, int count, int keySpace, Random random) {
+		int[] keys = new int[count];
+		switch (distribution) {
+		case "sequential":
+			for (int i = 0; i < count; i++) {
+				keys[i] = i % keySpace;
+			}
+			break;
+		case "random":
+			// a shuffle of all keys when every key is generated once
+			for (int i = 0; i < count; i++) {
+				keys[i] = count == keySpace ? i : random.nextInt(keySpace);
+			}
+			for (int i = count - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int key = keys[i];
+				keys[i] = keys[j];
+				keys[j] = key;
+			}
+			break;
+		case "zipfian":
+			ZipfianGenerator zipfian = new ZipfianGenerator(keySpace, ZIPFIAN_CONSTANT, random);
+			for (int i = 0; i < count; i++) {
+				// scramble so that the popular keys are spread over the key space
+				keys[i] = (int) Math.floorMod(fnvHash(zipfian.next()), (long) keySpace);
+			}
+			break;
+		case "clustered":
+			int i = 0;
+			while (i < count) {
+				int clusterStart = random.nextInt(keySpace);
+				int clusterLength = 64 + random.nextInt(960);
+				for (int j = 0; j < clusterLength && i < count; j++) {
+					keys[i++] = (clusterStart + j) % keySpace;
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown distribution " + distribution);
+		}
+		return keys;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a long.
+	 *
+	 * @param value the value to be hashed
+	 * @return the hash
+	 */
+	private static long fnvHash(long value) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < 8; i++) {
+			hash ^= value & 0xFF;
+			hash *= 0x100000001B3L;
+			value >>>= 8;
+		}
+		return hash;
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far.
+	 *
+	 * @return the allocated bytes
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Parses comma separated integers.
+	 *
+	 * @param value the comma separated integers
+	 * @return the integers
+	 */
+	private static int[] parseInts(String value) {
+		return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * Measures the latency of finding a key position in a full node with linear,
+	 * binary and branch free search for orders 4 to 1024.
+	 */
+	private static void benchmarkKeySearch() {
+		System.out.println("Key search latency in a full node (ns/lookup)");
+		System.out.printf("%8s %10s %10s %10s%n", "order", "linear", "binary", "branchfree");
+		Random random = new Random(42);
+		for (int order : KEY_SEARCH_ORDERS) {
+			BPlusTreeNode node = new BPlusTreeNode(order, true);
+			for (int i = 0; i < order - 1; i++) {
+				node.addExternalData(i, i * 4, i);
+			}
+			int[] probes = new int[PROBES];
+			for (int i = 0; i < PROBES; i++) {
+				probes[i] = random.nextInt(order * 4);
+			}
+			double[] nanos = new double[3];
+			// first pass warms up, second pass is measured
+			for (int pass = 0; pass < 2; pass++) {
+				for (int strategy = 0; strategy < 3; strategy++) {
+					nanos[strategy] = timeKeySearch(node, probes, strategy);
+				}
+			}
+			System.out.printf("%8d %10.2f %10.2f %10.2f%n", order, nanos[0], nanos[1], nanos[2]);
+		}
+	}
+
+	/**
+	 * Compares building a tree from sorted keys with repeated inserts and with
+	 * the bulk loader for every order and tree size.
+	 */
+	private static void benchmarkBulkLoad() {
+		System.out.println("Build time from sorted keys (ms)");
+		System.out.printf("%6s %10s %10s %10s %10s%n", "order", "size", "insert", "bulk(0.7)", "bulk(1.0)");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("sequential", size, size, null);
+				double[] values = new double[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = i;
+				}
+				double[] millis = new double[3];
+				for (int iteration = 0; iteration <= iterations; iteration++) {
+					long start = System.nanoTime();
+					BPlusTreeImpl tree = new BPlusTreeImpl(order);
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], values[i]);
+					}
+					long insertTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					tree = BPlusTreeImpl.bulkLoad(order, keys, values, 0.7);
+					long bulkLoadTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					tree = BPlusTreeImpl.bulkLoad(order, keys, values, 1.0);
+					long fullBulkLoadTime = System.nanoTime() - start;
+					blackhole = tree.search(size / 2).size();
+					// first iteration is the warm up
+					if (iteration > 0) {
+						millis[0] += insertTime / 1e6 / iterations;
+						millis[1] += bulkLoadTime / 1e6 / iterations;
+						millis[2] += fullBulkLoadTime / 1e6 / iterations;
+					}
+				}
+				System.out.printf("%6d %10d %10.1f %10.1f %10.1f%n", order, size, millis[0], millis[1], millis[2]);
+			}
+		}
+	}
+
+	/**
+	 * Measures the tree stored in a memory mapped file: inserting random keys,
+	 * closing the file, reopening it and point searches in the reopened tree.
+	 */
+	private static void benchmarkPagedTree() {
+		System.out.println("Paged tree with " + PagedBPlusTree.DEFAULT_PAGE_SIZE + " byte pages");
+		System.out.printf("%6s %10s %12s %10s %10s %12s %10s%n", "order", "size", "insert(ms)", "close(ms)",
+				"open(ms)", "search/s", "file(MB)");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				try {
+					Path path = Files.createTempFile("bplustree", ".db");
+					Files.delete(path);
+					long start = System.nanoTime();
+					PagedBPlusTree tree = PagedBPlusTree.open(path, order);
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], i);
+					}
+					long insertTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					tree.close();
+					long closeTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					tree = PagedBPlusTree.open(path, order);
+					long openTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					long found = 0;
+					for (int i = 0; i < size; i++) {
+						found += tree.search(keys[i]).size();
+					}
+					long searchTime = System.nanoTime() - start;
+					blackhole = found;
+					tree.close();
+					System.out.printf("%6d %10d %12.1f %10.1f %10.2f %12.0f %10.1f%n", order, size, insertTime / 1e6,
+							closeTime / 1e6, openTime / 1e6, size * 1e9 / searchTime, Files.size(path) / 1e6);
+					Files.delete(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures point searches in a paged tree through a buffer pool holding a
+	 * fraction of its pages, for every eviction policy and key distribution. The
+	 * first half of the searches warms up the pool.
+	 */
+	private static void benchmarkBufferPool() {
+		System.out.println("Point search through buffer pool with " + PagedBPlusTree.DEFAULT_PAGE_SIZE + " byte pages");
+		System.out.printf("%-6s %-11s %6s %10s %8s %9s %10s %12s%n", "policy", "keys", "order", "size", "frames",
+				"hit ratio", "misses", "ops/s");
+		for (int order : orders) {
+			for (int size : sizes) {
+				try {
+					Path path = Files.createTempFile("bplustree", ".db");
+					Files.delete(path);
+					int pageCount;
+					try (PagedBPlusTree tree = PagedBPlusTree.open(path, order)) {
+						for (int i = 0; i < size; i++) {
+							tree.insert(i, i);
+						}
+						pageCount = tree.getPageCount();
+					}
+					for (String distribution : distributions) {
+						int[] keys = generateKeys(distribution, size, size, new Random(size));
+						for (double fraction : POOL_FRACTIONS) {
+							int frameCount = Math.max(8, (int) (pageCount * fraction));
+							for (String policy : EVICTION_POLICIES) {
+								BufferPool pool = new BufferPool(new PageFile(path, PagedBPlusTree.DEFAULT_PAGE_SIZE),
+										frameCount, BufferPool.createPolicy(policy, frameCount));
+								try (PagedBPlusTree tree = PagedBPlusTree.open(pool, order)) {
+									long found = 0;
+									for (int i = 0; i < size / 2; i++) {
+										found += tree.search(keys[i]).size();
+									}
+									pool.resetCounters();
+									long start = System.nanoTime();
+									for (int i = size / 2; i < size; i++) {
+										found += tree.search(keys[i]).size();
+									}
+									long time = System.nanoTime() - start;
+									blackhole = found;
+									System.out.printf("%-6s %-11s %6d %10d %8d %9.3f %10d %12.0f%n", policy, distribution,
+											order, size, frameCount, pool.getHitRatio(), pool.getMissCount(),
+											(size - size / 2) * 1e9 / time);
+								}
+							}
+						}
+					}
+					Files.delete(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks crash recovery of a paged tree with a write-ahead log. Inserts and
+	 * deletes are committed through the log in phases of growth and shrinkage,
+	 * so splits and merges cascade up to the root, then the tree crashes: the
+	 * buffer pool is dropped without writing its changed pages back and the log
+	 * is cut in the middle of the record of one more committed insert. Reopening
+	 * the tree replays the log with WriteAheadLog.recover, after which the tree
+	 * must hold exactly the operations committed before the torn record and pass
+	 * verify.
+	 */
+	private static void stressWriteAheadLog() {
+		int crashes = 5;
+		int operations = 2_000;
+		int phaseLength = 500;
+		int keySpace = 5_000;
+		int frameCount = 64;
+		for (int order : orders) {
+			Random random = new Random(order);
+			ArrayList<String> errors = new ArrayList<String>();
+			BitSet keys = new BitSet(keySpace);
+			double[] values = new double[keySpace];
+			int maxHeight = 0;
+			long start = System.nanoTime();
+			try {
+				Path path = Files.createTempFile("bplustree", ".db");
+				Path logPath = Paths.get(path + ".wal");
+				Files.delete(path);
+				for (int crash = 0; crash <= crashes && errors.isEmpty(); crash++) {
+					PageFile pageFile = new PageFile(path, PagedBPlusTree.DEFAULT_PAGE_SIZE);
+					WriteAheadLog log = new WriteAheadLog(logPath, PagedBPlusTree.DEFAULT_PAGE_SIZE, 0);
+					PagedBPlusTree tree = PagedBPlusTree.open(
+							new BufferPool(pageFile, frameCount, BufferPool.createPolicy("clock", frameCount)), order, log);
+					BPlusTreeStats stats = checkRecoveredTree(tree, keys, values, errors);
+					maxHeight = Math.max(maxHeight, stats.getHeight());
+					if (crash == crashes || !errors.isEmpty()) {
+						tree.close();
+						break;
+					}
+					for (int i = 0; i < operations; i++) {
+						boolean isGrowing = i / phaseLength % 2 == 0;
+						int key = random.nextInt(keySpace);
+						if (random.nextInt(4) < (isGrowing ? 3 : 1)) {
+							double value = random.nextInt(1_000_000);
+							tree.insert(key, value);
+							keys.set(key);
+							values[key] = value;
+						} else {
+							tree.delete(key);
+							keys.clear(key);
+						}
+						tree.commit();
+						if (i == operations / 2 && crash % 2 == 1) {
+							// a checkpoint, recovery then replays only the records after it
+							tree.flush();
+						}
+					}
+					long logSize = Files.size(logPath);
+					tree.insert(keySpace, 0);
+					tree.commit();
+					long recordLength = Files.size(logPath) - logSize;
+					// crash: the changed pages of the pool are lost and the last record is torn
+					log.close();
+					pageFile.close();
+					try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+						channel.truncate(logSize + 1 + random.nextInt((int) recordLength - 1));
+					}
+				}
+				Files.delete(path);
+				Files.deleteIfExists(logPath);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (!errors.isEmpty()) {
+				throw new IllegalStateException("Stress of write-ahead log failed: " + errors.get(0));
+			}
+			System.out.printf("Stress of write-ahead log of order %d with %d crashes up to height %d passed in %.0f ms%n",
+					order, crashes, maxHeight, elapsed / 1e6);
+		}
+	}
+
+	private static BPlusTreeStats checkRecoveredTree(PagedBPlusTree tree, BitSet keys, double[] values,
+			ArrayList<String> errors) {
+		BPlusTreeStats stats = tree.verify();
+		if (!stats.isValid()) {
+			errors.add("recovered tree reported " + stats.getErrors());
+			return stats;
+		}
+		ArrayList<Double> expected = new ArrayList<Double>();
+		for (int key = keys.nextSetBit(0); key >= 0; key = keys.nextSetBit(key + 1)) {
+			expected.add(values[key]);
+		}
+		ArrayList<Double> found = tree.search(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if (tree.size() != expected.size() || !found.equals(expected)) {
+			errors.add("recovered tree holds " + tree.size() + " elements and scans " + found.size() + " but "
+					+ expected.size() + " were committed");
+			return stats;
+		}
+		for (int key = 0; key <= values.length; key++) {
+			ArrayList<Double> value = tree.search(key);
+			if (keys.get(key) ? value.size() != 1 || value.get(0) != values[key] : !value.isEmpty()) {
+				errors.add("search " + key + " of recovered tree returned " + value);
+				break;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Measures committed inserts into a paged tree without a log, forcing the log
+	 * for every insert of a single writer, and with group commit windows of 1ms
+	 * and 5ms shared by many writers. Writers insert under a lock on the tree and
+	 * wait for their commit outside of it.
+	 */
+	private static void benchmarkWriteAheadLog() {
+		System.out.println("Committed inserts through buffer pool of " + WAL_FRAMES + " frames");
+		System.out.printf("%-10s %6s %8s %12s %10s%n", "log", "order", "writers", "ops/s", "ops/fsync");
+		String[] modes = { "none", "fsync/op", "group 1ms", "group 5ms" };
+		long[] windows = { 0, 0, 1_000_000, 5_000_000 };
+		for (int order : orders) {
+			for (int m = 0; m < modes.length; m++) {
+				int writerCount = m < 2 ? 1 : WAL_WRITERS;
+				try {
+					Path path = Files.createTempFile("bplustree", ".db");
+					Path logPath = Paths.get(path + ".wal");
+					Files.delete(path);
+					BufferPool pool = new BufferPool(new PageFile(path, PagedBPlusTree.DEFAULT_PAGE_SIZE), WAL_FRAMES,
+							BufferPool.createPolicy("clock", WAL_FRAMES));
+					WriteAheadLog log = m == 0 ? null
+							: new WriteAheadLog(logPath, PagedBPlusTree.DEFAULT_PAGE_SIZE, windows[m]);
+					PagedBPlusTree tree = log == null ? PagedBPlusTree.open(pool, order)
+							: PagedBPlusTree.open(pool, order, log);
+					double opsPerSecond = timeCommittedInserts(tree, log, writerCount);
+					double opsPerForce = log == null ? 0 : (double) tree.getLastLsn() / log.getForceCount();
+					tree.close();
+					System.out.printf("%-10s %6d %8d %12.0f %10.1f%n", modes[m], order, writerCount, opsPerSecond,
+							opsPerForce);
+					Files.delete(path);
+					Files.deleteIfExists(logPath);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs writers inserting scrambled keys for a second, each insert is
+	 * committed before the writer inserts the next key.
+	 *
+	 * @param tree        the paged tree
+	 * @param log         the write-ahead log of tree, null for none
+	 * @param writerCount number of writers
+	 * @return committed inserts per second
+	 */
+	private static double timeCommittedInserts(PagedBPlusTree tree, WriteAheadLog log, int writerCount) {
+		LongAdder operations = new LongAdder();
+		AtomicBoolean isRunning = new AtomicBoolean(true);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		Thread[] writers = new Thread[writerCount];
+		for (int t = 0; t < writerCount; t++) {
+			int writer = t;
+			writers[t] = new Thread(() -> {
+				try {
+					startLatch.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (long i = writer; isRunning.get(); i += writerCount) {
+					int key = (int) fnvHash(i);
+					long lsn;
+					synchronized (tree) {
+						tree.insert(key, i);
+						lsn = tree.getLastLsn();
+					}
+					if (log != null) {
+						log.commit(lsn);
+					}
+					operations.increment();
+				}
+			});
+			writers[t].start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		isRunning.set(false);
+		join(writers);
+		return operations.sum() * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Measures the sum of the values of the whole key range, with the cursor on one
+	 * thread and with a parallel stream in ForkJoin pools of 1 to threads
+	 * threads. The tree is bulk loaded with sequential keys, so the sizes option
+	 * may be raised to 100000000 given enough heap.
+	 */
+	private static void benchmarkParallelScan() {
+		System.out.println("Range sum over all keys (ms)");
+		System.out.printf("%6s %10s %8s %10s %12s %8s%n", "order", "size", "threads", "time", "values/s", "speedup");
+		for (int order : orders) {
+			for (int size : sizes) {
+				BPlusTreeBulkLoader loader = new BPlusTreeBulkLoader(order, 1.0);
+				for (int i = 0; i < size; i++) {
+					loader.add(i, i);
+				}
+				BPlusTreeImpl tree = loader.build();
+				double cursorMillis = 0;
+				for (int iteration = 0; iteration <= iterations; iteration++) {
+					long start = System.nanoTime();
+					BPlusTreeCursor cursor = tree.cursor(0, size - 1);
+					double sum = 0;
+					while (cursor.advance()) {
+						sum += cursor.getValue();
+					}
+					long elapsed = System.nanoTime() - start;
+					blackhole = (long) sum;
+					// first iteration is the warm up
+					if (iteration > 0) {
+						cursorMillis += elapsed / 1e6 / iterations;
+					}
+				}
+				System.out.printf("%6d %10d %8s %10.1f %12.0f %8s%n", order, size, "cursor", cursorMillis,
+						size / cursorMillis * 1e3, "");
+				for (int threadCount = 1; threadCount <= threads; threadCount = threadCount < threads
+						? Math.min(threadCount * 2, threads)
+						: threadCount + 1) {
+					ForkJoinPool pool = new ForkJoinPool(threadCount);
+					double millis = 0;
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						long start = System.nanoTime();
+						double sum = pool.submit(() -> tree.parallelValues(0, size - 1).sum()).join();
+						long elapsed = System.nanoTime() - start;
+						blackhole = (long) sum;
+						if (iteration > 0) {
+							millis += elapsed / 1e6 / iterations;
+						}
+					}
+					pool.shutdown();
+					System.out.printf("%6d %10d %8d %10.1f %12.0f %8.2f%n", order, size, threadCount, millis,
+							size / millis * 1e3, cursorMillis / millis);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures inserts and deletes one key at a time against upsertAll and
+	 * deleteAll with batches of BATCH_SIZE keys, on a tree holding random keys
+	 * from a key space twice the tree size.
+	 */
+	private static void benchmarkBatch() {
+		System.out.println("Batches of " + BATCH_SIZE + " keys (ops/s)");
+		System.out.printf("%-11s %6s %10s %12s %12s %8s %12s %12s %8s%n", "keys", "order", "size", "insert",
+				"upsertAll", "speedup", "delete", "deleteAll", "speedup");
+		for (String distribution : distributions) {
+			for (int order : orders) {
+				for (int size : sizes) {
+					Random random = new Random(42);
+					double[] opsPerSecond = new double[4];
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						int[] keys = generateKeys(distribution, size, 2 * size, random);
+						double[] values = new double[size];
+						int[] treeKeys = generateKeys("random", size, 2 * size, random);
+						for (int variant = 0; variant < 2; variant++) {
+							BPlusTreeImpl tree = new BPlusTreeImpl(order);
+							for (int key : treeKeys) {
+								tree.insert(key, (double) key);
+							}
+							long start = System.nanoTime();
+							if (variant == 0) {
+								for (int i = 0; i < size; i++) {
+									tree.insert(keys[i], values[i]);
+								}
+							} else {
+								for (int from = 0; from < size; from += BATCH_SIZE) {
+									int to = Math.min(from + BATCH_SIZE, size);
+									tree.upsertAll(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(values, from, to));
+								}
+							}
+							long insertElapsed = System.nanoTime() - start;
+							start = System.nanoTime();
+							if (variant == 0) {
+								for (int i = 0; i < size; i++) {
+									tree.delete(keys[i]);
+								}
+							} else {
+								for (int from = 0; from < size; from += BATCH_SIZE) {
+									tree.deleteAll(Arrays.copyOfRange(keys, from, Math.min(from + BATCH_SIZE, size)));
+								}
+							}
+							long deleteElapsed = System.nanoTime() - start;
+							// first iteration is the warm up
+							if (iteration > 0) {
+								opsPerSecond[variant] += size * 1e9 / insertElapsed / iterations;
+								opsPerSecond[2 + variant] += size * 1e9 / deleteElapsed / iterations;
+							}
+						}
+					}
+					System.out.printf("%-11s %6d %10d %12.0f %12.0f %8.2f %12.0f %12.0f %8.2f%n", distribution, order,
+							size, opsPerSecond[0], opsPerSecond[1], opsPerSecond[1] / opsPerSecond[0], opsPerSecond[2],
+							opsPerSecond[3], opsPerSecond[3] / opsPerSecond[2]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures point lookups with search in a loop against getAll with
+	 * MULTI_GET_SIZE keys per call, on a tree holding random keys from a key space
+	 * twice the tree size so about half of the lookups find their key.
+	 */
+	private static void benchmarkMultiGet() {
+		System.out.println("Lookups of " + MULTI_GET_SIZE + " keys per call (ops/s)");
+		System.out.printf("%-11s %6s %10s %12s %9s %12s %9s %8s%n", "keys", "order", "size", "search", "B/op",
+				"getAll", "B/op", "speedup");
+		for (String distribution : distributions) {
+			for (int order : orders) {
+				for (int size : sizes) {
+					Random random = new Random(42);
+					BPlusTreeImpl tree = new BPlusTreeImpl(order);
+					for (int key : generateKeys("random", size, 2 * size, random)) {
+						tree.insert(key, (double) key);
+					}
+					int[] keys = generateKeys(distribution, size, 2 * size, random);
+					BitSet presence = new BitSet(MULTI_GET_SIZE);
+					double[] opsPerSecond = new double[2];
+					double[] bytesPerOp = new double[2];
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						for (int variant = 0; variant < 2; variant++) {
+							long sum = 0;
+							long allocatedBefore = allocatedBytes();
+							long start = System.nanoTime();
+							if (variant == 0) {
+								for (int i = 0; i < size; i++) {
+									sum += tree.search(keys[i]).size();
+								}
+							} else {
+								for (int from = 0; from < size; from += MULTI_GET_SIZE) {
+									int[] batch = Arrays.copyOfRange(keys, from, Math.min(from + MULTI_GET_SIZE, size));
+									tree.getAll(batch, presence);
+									sum += presence.cardinality();
+								}
+							}
+							long elapsed = System.nanoTime() - start;
+							long allocated = allocatedBytes() - allocatedBefore;
+							blackhole = sum;
+							// first iteration is the warm up
+							if (iteration > 0) {
+								opsPerSecond[variant] += size * 1e9 / elapsed / iterations;
+								bytesPerOp[variant] += (double) allocated / size / iterations;
+							}
+						}
+					}
+					System.out.printf("%-11s %6d %10d %12.0f %9.1f %12.0f %9.1f %8.2f%n", distribution, order, size,
+							opsPerSecond[0], bytesPerOp[0], opsPerSecond[1], bytesPerOp[1],
+							opsPerSecond[1] / opsPerSecond[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures insert and get of BPlusTreeImpl against the generic BPlusTree with
+	 * boxed Long keys and Double values and the specialized LongDoubleBPlusTree,
+	 * reporting throughput and allocation per operation.
+	 */
+	private static void benchmarkGeneric() {
+		String[] trees = { "int-double", "generic", "long-double" };
+		System.out.printf("%-11s %-11s %6s %10s %12s %9s %12s %9s%n", "tree", "keys", "order", "size", "insert/s",
+				"B/op", "get/s", "B/op");
+		for (String distribution : distributions) {
+			for (int order : orders) {
+				for (int size : sizes) {
+					int[] keys = generateKeys(distribution, size, size, new Random(42));
+					for (String tree : trees) {
+						double[] opsPerSecond = new double[2];
+						double[] bytesPerOp = new double[2];
+						for (int iteration = 0; iteration <= iterations; iteration++) {
+							BPlusTreeImpl intTree = new BPlusTreeImpl(order);
+							BPlusTree<Long, Double> genericTree = new BPlusTree<Long, Double>(order);
+							LongDoubleBPlusTree longTree = new LongDoubleBPlusTree(order);
+							for (int operation = 0; operation < 2; operation++) {
+								double sum = 0;
+								long allocatedBefore = allocatedBytes();
+								long start = System.nanoTime();
+								for (int i = 0; i < size; i++) {
+									// spread the keys like timestamps
+									long key = keys[i] * 1000L;
+									switch (tree) {
+									case "int-double":
+										if (operation == 0) {
+											intTree.insert(keys[i], (double) i);
+										} else {
+											sum += intTree.getOrDefault(keys[i], 0);
+										}
+										break;
+									case "generic":
+										if (operation == 0) {
+											genericTree.insert(key, (double) i);
+										} else {
+											sum += genericTree.getOrDefault(key, 0.0);
+										}
+										break;
+									default:
+										if (operation == 0) {
+											longTree.insert(key, i);
+										} else {
+											sum += longTree.getOrDefault(key, 0);
+										}
+									}
+								}
+								long elapsed = System.nanoTime() - start;
+								long allocated = allocatedBytes() - allocatedBefore;
+								blackhole = (long) sum;
+								// first iteration is the warm up
+								if (iteration > 0) {
+									opsPerSecond[operation] += size * 1e9 / elapsed / iterations;
+									bytesPerOp[operation] += (double) allocated / size / iterations;
+								}
+							}
+						}
+						System.out.printf("%-11s %-11s %6d %10d %12.0f %9.1f %12.0f %9.1f%n", tree, distribution, order,
+								size, opsPerSecond[0], bytesPerOp[0], opsPerSecond[1], bytesPerOp[1]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the heap used by rows sharing keys, as a multi-value tree against a
+	 * tree of keys with a HashMap of value lists on the side, and the time to
+	 * read all values of every key. There are ten rows per key on average, keys
+	 * are drawn from the distribution.
+	 */
+	private static void benchmarkMultiValue() {
+		System.out.printf("%-11s %6s %10s %-10s %10s %9s %10s%n", "keys", "order", "rows", "layout", "heap(MB)", "B/row",
+				"scan(ms)");
+		for (String distribution : distributions) {
+			for (int order : orders) {
+				for (int size : sizes) {
+					int[] keys = generateKeys(distribution, size, Math.max(1, size / 10), new Random(42));
+					for (int layout = 0; layout < 2; layout++) {
+						long heapBefore = usedHeap();
+						BPlusTreeImpl tree = new BPlusTreeImpl(order, layout == 0);
+						HashMap<Integer, ArrayList<Double>> sideMap = layout == 0 ? null
+								: new HashMap<Integer, ArrayList<Double>>();
+						for (int i = 0; i < size; i++) {
+							tree.insert(keys[i], (double) i);
+							if (sideMap != null) {
+								sideMap.computeIfAbsent(keys[i], key -> new ArrayList<Double>()).add((double) i);
+							}
+						}
+						long heap = usedHeap() - heapBefore;
+						double scanMillis = 0;
+						for (int iteration = 0; iteration <= iterations; iteration++) {
+							double sum = 0;
+							long start = System.nanoTime();
+							for (int key = 0; key < size / 10; key++) {
+								if (sideMap == null) {
+									BPlusTreeCursor cursor = tree.cursor(key, key);
+									while (cursor.advance()) {
+										sum += cursor.getValue();
+									}
+								} else if (tree.containsKey(key)) {
+									for (double value : sideMap.get(key)) {
+										sum += value;
+									}
+								}
+							}
+							long elapsed = System.nanoTime() - start;
+							blackhole = (long) sum;
+							// first iteration is the warm up
+							if (iteration > 0) {
+								scanMillis += elapsed / 1e6 / iterations;
+							}
+						}
+						System.out.printf("%-11s %6d %10d %-10s %10.1f %9.1f %10.1f%n", distribution, order, size,
+								layout == 0 ? "multi" : "side map", heap / 1048576.0, (double) heap / size, scanMillis);
+						blackhole = tree.isMultiValue() ? 1 : sideMap.size();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures heap bytes per entry and point lookup latency of a bulk loaded tree
+	 * of sequential timestamps, in seconds with gaps of 1 to 4, before and after
+	 * its keys are compressed.
+	 */
+	private static void benchmarkCompression() {
+		System.out.println("Sequential timestamps");
+		System.out.printf("%6s %10s %-12s %9s %12s %9s%n", "order", "size", "keys", "B/entry", "lookup(ns)", "nodes");
+		for (int order : orders) {
+			for (int size : sizes) {
+				Random random = new Random(42);
+				int[] keys = new int[size];
+				double[] values = new double[size];
+				int timestamp = 1_700_000_000;
+				for (int i = 0; i < size; i++) {
+					timestamp += 1 + random.nextInt(4);
+					keys[i] = timestamp;
+					values[i] = i;
+				}
+				int[] probes = new int[PROBES];
+				for (int i = 0; i < PROBES; i++) {
+					probes[i] = keys[random.nextInt(size)];
+				}
+				long heapBefore = usedHeap();
+				BPlusTreeImpl tree = BPlusTreeImpl.bulkLoad(order, keys, values, 1.0);
+				for (int variant = 0; variant < 2; variant++) {
+					int compressedCount = variant == 0 ? 0 : tree.compressKeys();
+					long heap = usedHeap() - heapBefore;
+					double nanos = 0;
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						double sum = 0;
+						long start = System.nanoTime();
+						for (int round = 0; round < ROUNDS; round++) {
+							for (int probe : probes) {
+								sum += tree.getOrDefault(probe, 0);
+							}
+						}
+						long elapsed = System.nanoTime() - start;
+						blackhole = (long) sum;
+						// first iteration is the warm up
+						if (iteration > 0) {
+							nanos += (double) elapsed / ROUNDS / PROBES / iterations;
+						}
+					}
+					System.out.printf("%6d %10d %-12s %9.1f %12.1f %9d%n", order, size,
+							variant == 0 ? "int" : "compressed", (double) heap / size, nanos, compressedCount);
+				}
+				// keep the input arrays reachable so the heap deltas only count the tree
+				blackhole += keys[size - 1] + (long) values[size - 1];
+			}
+		}
+	}
+
+	/**
+	 * Compares a tree on the heap with a paged tree kept off heap: time and
+	 * garbage collections while inserting random keys, heap and direct memory
+	 * used by the loaded tree, time of a full garbage collection with the tree
+	 * loaded, and memory in use by the paged tree after all keys are deleted.
+	 */
+	private static void benchmarkOffHeap() {
+		System.out.println("Off heap pages of " + PagedBPlusTree.DEFAULT_PAGE_SIZE + " bytes");
+		System.out.printf("%-8s %6s %10s %11s %6s %8s %9s %12s %9s %11s %12s%n", "tree", "order", "size",
+				"insert(ms)", "gcs", "gc(ms)", "heap(MB)", "offheap(MB)", "used(MB)", "fullgc(ms)", "deleted(MB)");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				for (int variant = 0; variant < 2; variant++) {
+					long heapBefore = usedHeap();
+					long gcCount = getGarbageCollectionCount();
+					long gcTime = getGarbageCollectionTime();
+					long start = System.nanoTime();
+					BPlusTreeImpl heapTree = null;
+					PagedBPlusTree pagedTree = null;
+					OffHeapPageStore pageStore = null;
+					if (variant == 0) {
+						heapTree = new BPlusTreeImpl(order);
+						for (int i = 0; i < size; i++) {
+							heapTree.insert(keys[i], (double) i);
+						}
+					} else {
+						try {
+							pageStore = new OffHeapPageStore(PagedBPlusTree.DEFAULT_PAGE_SIZE);
+							pagedTree = PagedBPlusTree.open(pageStore, order);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						for (int i = 0; i < size; i++) {
+							pagedTree.insert(keys[i], i);
+						}
+					}
+					long insertTime = System.nanoTime() - start;
+					gcCount = getGarbageCollectionCount() - gcCount;
+					gcTime = getGarbageCollectionTime() - gcTime;
+					long heap = usedHeap() - heapBefore;
+					start = System.nanoTime();
+					System.gc();
+					long fullGcTime = System.nanoTime() - start;
+					if (variant == 0) {
+						blackhole = (long) heapTree.getOrDefault(keys[0], 0);
+						System.out.printf("%-8s %6d %10d %11.1f %6d %8d %9.1f %12s %9s %11.1f %12s%n", "heap", order,
+								size, insertTime / 1e6, gcCount, gcTime, heap / 1e6, "-", "-", fullGcTime / 1e6, "-");
+						continue;
+					}
+					long usedBytes = pagedTree.getUsedBytes();
+					for (int i = 0; i < size; i++) {
+						pagedTree.delete(keys[i]);
+					}
+					System.out.printf("%-8s %6d %10d %11.1f %6d %8d %9.1f %12.1f %9.1f %11.1f %12.1f%n", "offheap",
+							order, size, insertTime / 1e6, gcCount, gcTime, heap / 1e6,
+							pageStore.getAllocatedBytes() / 1e6, usedBytes / 1e6, fullGcTime / 1e6,
+							pagedTree.getUsedBytes() / 1e6);
+					try {
+						pagedTree.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the split and rebalancing options. Time series keys, increasing
+	 * with a small jitter, are inserted with splits at half, at 90% and with the
+	 * append split. Then a tree of random keys goes through delete heavy churn,
+	 * deleting three of every four keys in random order with one insert of a new
+	 * key for every three deletes, for several minimum occupancies, and is
+	 * compacted afterwards.
+	 */
+	private static void benchmarkFill() {
+		System.out.println("Time series inserts");
+		System.out.printf("%6s %10s %-14s %10s %9s%n", "order", "size", "split", "inserts/s", "B/entry");
+		for (int order : orders) {
+			for (int size : sizes) {
+				Random random = new Random(42);
+				int[] keys = new int[size];
+				for (int i = 0; i < size; i++) {
+					keys[i] = i * 4 + random.nextInt(16);
+				}
+				String[] splits = { "half", "0.9", "half+append", "0.9+append" };
+				for (String split : splits) {
+					long heapBefore = usedHeap();
+					BPlusTreeImpl tree = new BPlusTreeImpl(order);
+					tree.setSplitFactor(split.startsWith("half") ? 0.5 : 0.9);
+					tree.setAppendSplit(split.endsWith("append"));
+					long start = System.nanoTime();
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], (double) i);
+					}
+					long elapsed = System.nanoTime() - start;
+					long heap = usedHeap() - heapBefore;
+					blackhole = (long) tree.getOrDefault(keys[0], 0);
+					System.out.printf("%6d %10d %-14s %10.0f %9.1f%n", order, size, split, size * 1e9 / elapsed,
+							(double) heap / size);
+				}
+			}
+		}
+		System.out.println("Delete heavy churn");
+		System.out.printf("%6s %10s %8s %10s %9s %12s %9s %8s%n", "order", "size", "minimum", "churn/s", "B/entry",
+				"compact(ms)", "B/entry", "removed");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size * 4, new Random(size));
+				int[] deletedKeys = keys.clone();
+				Random shuffle = new Random(7);
+				for (int i = deletedKeys.length - 1; i > 0; i--) {
+					int j = shuffle.nextInt(i + 1);
+					int key = deletedKeys[i];
+					deletedKeys[i] = deletedKeys[j];
+					deletedKeys[j] = key;
+				}
+				int[] minimums = Arrays.stream(new int[] { 1, order / 4, order / 2 }).filter(minimum -> minimum > 0)
+						.distinct().toArray();
+				for (int minimum : minimums) {
+					long heapBefore = usedHeap();
+					BPlusTreeImpl tree = new BPlusTreeImpl(order);
+					tree.setMinOccupancy(minimum);
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], (double) i);
+					}
+					Random random = new Random(7);
+					int churn = size;
+					long start = System.nanoTime();
+					for (int i = 0; i < churn; i++) {
+						if (i % 4 < 3) {
+							tree.delete(deletedKeys[i]);
+						} else {
+							tree.insert(random.nextInt(size * 4), (double) i);
+						}
+					}
+					long churnTime = System.nanoTime() - start;
+					long heap = usedHeap() - heapBefore;
+					start = System.nanoTime();
+					int removed = tree.compact(1.0);
+					long compactTime = System.nanoTime() - start;
+					long compactedHeap = usedHeap() - heapBefore;
+					int entries = tree.search(Integer.MIN_VALUE, Integer.MAX_VALUE).size();
+					System.out.printf("%6d %10d %8d %10.0f %9.1f %12.1f %9.1f %8d%n", order, size, minimum,
+							churn * 1e9 / churnTime, (double) heap / entries, compactTime / 1e6,
+							(double) compactedHeap / entries, removed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures a writer inserting and deleting random keys while scanners run
+	 * long range scans, on a tree guarded by a read write lock, where scans block
+	 * the writer, and on the copy-on-write tree, where scans read a snapshot.
+	 */
+	private static void benchmarkSnapshot() {
+		System.out.println("One writer with " + SNAPSHOT_SCANNERS + " scanners of " + SCAN_LENGTH + " keys");
+		System.out.printf("%6s %10s %-8s %9s %12s %14s%n", "order", "size", "tree", "scanners", "writes/s",
+				"scanned/s");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size * 2, new Random(42));
+				BPlusTreeImpl lockedTree = new BPlusTreeImpl(order);
+				CopyOnWriteBPlusTree copyOnWriteTree = new CopyOnWriteBPlusTree(order);
+				for (int key : keys) {
+					lockedTree.insert(key, (double) key);
+					copyOnWriteTree.insert(key, key);
+				}
+				ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+				int keySpace = size * 2;
+				for (int scannerCount : new int[] { 0, SNAPSHOT_SCANNERS }) {
+					double[] locked = timeWritesWithScanners(scannerCount, keySpace, random -> {
+						int key = (random >>> 1) % keySpace;
+						lock.writeLock().lock();
+						try {
+							if ((random & 1) == 0) {
+								lockedTree.insert(key, (double) key);
+							} else {
+								lockedTree.delete(key);
+							}
+						} finally {
+							lock.writeLock().unlock();
+						}
+					}, startKey -> {
+						lock.readLock().lock();
+						try {
+							int count = 0;
+							BPlusTreeCursor cursor = lockedTree.cursor(startKey, startKey + SCAN_LENGTH);
+							while (cursor.advance()) {
+								count++;
+							}
+							return count;
+						} finally {
+							lock.readLock().unlock();
+						}
+					});
+					double[] copyOnWrite = timeWritesWithScanners(scannerCount, keySpace, random -> {
+						int key = (random >>> 1) % keySpace;
+						if ((random & 1) == 0) {
+							copyOnWriteTree.insert(key, key);
+						} else {
+							copyOnWriteTree.delete(key);
+						}
+					}, startKey -> {
+						int[] count = new int[1];
+						copyOnWriteTree.snapshot().forEach(startKey, startKey + SCAN_LENGTH, value -> count[0]++);
+						return count[0];
+					});
+					System.out.printf("%6d %10d %-8s %9d %12.0f %14.0f%n", order, size, "rwlock", scannerCount,
+							locked[0], locked[1]);
+					System.out.printf("%6d %10d %-8s %9d %12.0f %14.0f%n", order, size, "cow", scannerCount,
+							copyOnWrite[0], copyOnWrite[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that loading a saved image gives back the tree that was saved, for
+	 * a multi-value tree with posting lists, a tree with compressed keys, an
+	 * empty tree and a tree whose keys were all deleted: the full range scan, the
+	 * value count of every key and the verified statistics must be the same.
+	 * Then images with a corrupted node count, keys out of order in a node and
+	 * wrong value counts, each with valid checksums, must fail to load.
+	 */
+	private static void stressImage() {
+		int keySpace = 20_000;
+		long start = System.nanoTime();
+		ArrayList<String> errors = new ArrayList<String>();
+		try {
+			Path path = Files.createTempFile("bplustree", ".img");
+			for (int order : orders) {
+				Random random = new Random(order);
+				BPlusTreeImpl multiValueTree = new BPlusTreeImpl(order, true);
+				for (int i = 0; i < 5 * keySpace; i++) {
+					// few keys get many values, so posting lists spill to overflow pages
+					int key = random.nextInt(10) == 0 ? random.nextInt(10) : random.nextInt(keySpace);
+					multiValueTree.insert(key, (double) random.nextInt(100));
+					if (random.nextInt(10) == 0) {
+						multiValueTree.delete(random.nextInt(keySpace), (double) random.nextInt(100));
+					}
+				}
+				checkImageRoundTrip("multi-value", multiValueTree, path, keySpace, errors);
+				BPlusTreeImpl compressedTree = new BPlusTreeImpl(order);
+				for (int i = 0; i < keySpace; i++) {
+					compressedTree.insert(random.nextInt(keySpace), (double) i);
+				}
+				compressedTree.compressKeys();
+				checkImageRoundTrip("compressed", compressedTree, path, keySpace, errors);
+				checkImageRoundTrip("empty", new BPlusTreeImpl(order), path, keySpace, errors);
+				BPlusTreeImpl emptiedTree = new BPlusTreeImpl(order, true);
+				for (int i = 0; i < keySpace; i++) {
+					emptiedTree.insert(i % 1_000, (double) i);
+				}
+				for (int i = 0; i < 1_000; i++) {
+					emptiedTree.delete(i);
+				}
+				checkImageRoundTrip("emptied", emptiedTree, path, keySpace, errors);
+			}
+			checkCorruptImages(path, errors);
+			Files.delete(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (!errors.isEmpty()) {
+			throw new IllegalStateException("Stress of image failed: " + errors.get(0));
+		}
+		System.out.printf("Stress of image with %d orders and corrupt images passed in %.0f ms%n", orders.length,
+				elapsed / 1e6);
+	}
+
+	private static void checkImageRoundTrip(String name, BPlusTreeImpl tree, Path path, int keySpace,
+			ArrayList<String> errors) throws IOException {
+		tree.save(path);
+		BPlusTreeImpl loaded = BPlusTreeImpl.load(path);
+		String prefix = "loaded " + name + " tree of order " + tree.getOrder() + " ";
+		if (loaded.getOrder() != tree.getOrder() || loaded.isMultiValue() != tree.isMultiValue()) {
+			errors.add(prefix + "has order " + loaded.getOrder() + " and multi-value " + loaded.isMultiValue());
+			return;
+		}
+		if (!loaded.search(Integer.MIN_VALUE, Integer.MAX_VALUE)
+				.equals(tree.search(Integer.MIN_VALUE, Integer.MAX_VALUE))) {
+			errors.add(prefix + "scans other values");
+		}
+		for (int key = -1; key <= keySpace; key++) {
+			if (loaded.getValueCount(key) != tree.getValueCount(key)) {
+				errors.add(prefix + "has " + loaded.getValueCount(key) + " values of key " + key + " instead of "
+						+ tree.getValueCount(key));
+				break;
+			}
+		}
+		BPlusTreeStats stats = loaded.verify();
+		BPlusTreeStats savedStats = tree.verify();
+		if (!stats.isValid()) {
+			errors.add(prefix + "reported " + stats.getErrors());
+		} else if (stats.getKeyCount() != savedStats.getKeyCount()
+				|| stats.getValueCount() != savedStats.getValueCount()) {
+			errors.add(prefix + "has " + stats.getKeyCount() + " keys and " + stats.getValueCount()
+					+ " values instead of " + savedStats.getKeyCount() + " and " + savedStats.getValueCount());
+		}
+	}
+
+	private static void checkCorruptImages(Path path, ArrayList<String> errors) throws IOException {
+		// one external node with keys 1 to 3, key 1 having two values
+		BPlusTreeImpl tree = new BPlusTreeImpl(8, true);
+		tree.insert(1, 1.0);
+		tree.insert(1, 5.0);
+		tree.insert(2, 2.0);
+		tree.insert(3, 3.0);
+		tree.save(path);
+		byte[] image = Files.readAllBytes(path);
+		int headerLength = BPlusTreeImage.HEADER_SIZE + 4;
+		int block = headerLength + BPlusTreeImage.CHECKSUM_SIZE;
+		// key count, value count, 3 keys, 3 value counts and 4 values
+		int blockLength = 8 + 3 * 4 + 3 * 4 + 4 * 8;
+		String[] corruptions = { "no external node", "a negative external node count", "keys out of order",
+				"equal keys", "a value count of 0", "value counts not adding up" };
+		for (int c = 0; c < corruptions.length; c++) {
+			ByteBuffer buffer = ByteBuffer.wrap(image.clone()).order(ByteOrder.LITTLE_ENDIAN);
+			switch (c) {
+			case 0:
+				buffer.putInt(20, 0);
+				break;
+			case 1:
+				buffer.putInt(20, -1);
+				break;
+			case 2:
+				buffer.putInt(block + 8, 2);
+				buffer.putInt(block + 12, 1);
+				break;
+			case 3:
+				buffer.putInt(block + 12, 1);
+				break;
+			case 4:
+				buffer.putInt(block + 20, 0);
+				buffer.putInt(block + 24, 3);
+				break;
+			default:
+				buffer.putInt(block + 20, 1);
+				break;
+			}
+			// valid checksums, so only the checks of the content can reject the image
+			putImageChecksum(buffer, 0, headerLength);
+			putImageChecksum(buffer, block, blockLength);
+			Files.write(path, buffer.array());
+			try {
+				BPlusTreeImpl.load(path);
+				errors.add("image with " + corruptions[c] + " was loaded");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		Files.write(path, image);
+		if (BPlusTreeImpl.load(path).getValueCount(1) != 2) {
+			errors.add("image used for the corruptions does not load");
+		}
+	}
+
+	private static void putImageChecksum(ByteBuffer buffer, int start, int length) {
+		CRC32C checksum = new CRC32C();
+		checksum.update(buffer.array(), start, length);
+		buffer.putInt(start + length, (int) checksum.getValue());
+	}
+
+	/**
+	 * Measures restarting a tree of random keys by replaying its inserts, as the
+	 * driver does with a command log, against saving it to a binary image and
+	 * loading the image.
+	 */
+	private static void benchmarkImage() {
+		System.out.println("Restart of a tree of random keys");
+		System.out.printf("%6s %10s %12s %10s %10s %10s %12s%n", "order", "size", "replay(ms)", "save(ms)",
+				"load(ms)", "image(MB)", "load(keys/s)");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				try {
+					Path path = Files.createTempFile("bplustree", ".img");
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						long start = System.nanoTime();
+						BPlusTreeImpl tree = new BPlusTreeImpl(order);
+						for (int i = 0; i < size; i++) {
+							tree.insert(keys[i], (double) i);
+						}
+						long replayTime = System.nanoTime() - start;
+						start = System.nanoTime();
+						tree.save(path);
+						long saveTime = System.nanoTime() - start;
+						tree = null;
+						start = System.nanoTime();
+						BPlusTreeImpl loaded = BPlusTreeImpl.load(path);
+						long loadTime = System.nanoTime() - start;
+						blackhole = (long) loaded.getOrDefault(keys[0], 0);
+						if (iteration == 0) {
+							continue;
+						}
+						System.out.printf("%6d %10d %12.1f %10.1f %10.1f %10.1f %12.0f%n", order, size,
+								replayTime / 1e6, saveTime / 1e6, loadTime / 1e6, Files.size(path) / 1e6,
+								size * 1e9 / loadTime);
+					}
+					Files.delete(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures inserts, point searches and deletes of random keys with the
+	 * metrics of the tree on or off, as set by the system property
+	 * bplustree.metrics, and prints the metrics of the last tree when they are
+	 * on. Run it once with each setting to see the cost of the metrics.
+	 */
+	private static void benchmarkMetrics() {
+		System.out.println("Random keys with metrics " + (BPlusTreeMetrics.ENABLED ? "on" : "off"));
+		System.out.printf("%6s %10s %12s %12s %12s%n", "order", "size", "insert/s", "get/s", "delete/s");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				BPlusTreeImpl tree = null;
+				for (int iteration = 0; iteration <= iterations; iteration++) {
+					tree = new BPlusTreeImpl(order);
+					long start = System.nanoTime();
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], (double) i);
+					}
+					long insertTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					double sum = 0;
+					for (int i = 0; i < size; i++) {
+						sum += tree.getOrDefault(keys[i], 0);
+					}
+					long getTime = System.nanoTime() - start;
+					blackhole = (long) sum;
+					start = System.nanoTime();
+					for (int i = 0; i < size; i += 2) {
+						tree.delete(keys[i]);
+					}
+					long deleteTime = System.nanoTime() - start;
+					if (iteration == 0) {
+						continue;
+					}
+					System.out.printf("%6d %10d %12.0f %12.0f %12.0f%n", order, size, size * 1e9 / insertTime,
+							size * 1e9 / getTime, (size + 1) / 2 * 1e9 / deleteTime);
+				}
+				if (tree.getMetrics() != null) {
+					System.out.print(tree.getMetrics());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the verifier against a model of the tree. Random inserts, deletes
+	 * and compactions are run with an incremental verification interleaved
+	 * between the writes, which must never report an error, and at regular
+	 * intervals the full, stepped and parallel verifications must agree with
+	 * each other and with the model. Then keys and links of a valid tree are
+	 * corrupted, which each verification must report.
+	 */
+	private static void stressVerifier() {
+		int trials = 15;
+		int operations = 5_000;
+		int fullInterval = 250;
+		for (int order : orders) {
+			Random random = new Random(order);
+			ArrayList<String> errors = new ArrayList<String>();
+			long checks = 0;
+			long start = System.nanoTime();
+			for (int trial = 0; trial < trials && errors.isEmpty(); trial++) {
+				boolean multiValue = trial % 5 == 4;
+				BPlusTreeImpl tree = new BPlusTreeImpl(order, multiValue);
+				tree.setMinOccupancy(1 + random.nextInt(Math.max(1, order / 2)));
+				HashMap<Integer, Integer> valueCounts = new HashMap<Integer, Integer>();
+				int keySpace = 20 + random.nextInt(5_000);
+				BPlusTreeVerifier live = tree.verifier();
+				for (int i = 0; i < operations && errors.isEmpty(); i++) {
+					int key = random.nextInt(keySpace);
+					if (random.nextInt(10) < 6) {
+						tree.insert(key, (double) random.nextInt(100));
+						valueCounts.merge(key, 1, multiValue ? Integer::sum : (previous, one) -> one);
+					} else {
+						tree.delete(key);
+						valueCounts.remove(key);
+					}
+					if (random.nextInt(50) == 0) {
+						tree.compact(0.5 + random.nextInt(6) / 10.0);
+					}
+					if (live.step(1 + random.nextInt(3))) {
+						if (!live.getStats().isValid()) {
+							errors.add("verification between writes reported " + live.getStats().getErrors());
+						}
+						live = tree.verifier();
+					}
+					if (i % fullInterval == 0 || i == operations - 1) {
+						checkVerifications(tree, valueCounts, random, errors);
+						checks++;
+					}
+				}
+			}
+			if (errors.isEmpty()) {
+				checkCorruptions(order, errors);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (!errors.isEmpty()) {
+				throw new IllegalStateException("Stress of verifier failed: " + errors.get(0));
+			}
+			System.out.printf("Stress of verifier of order %d with %d full checks and corruptions passed in %.0f ms%n",
+					order, checks, elapsed / 1e6);
+		}
+	}
+
+	private static void checkVerifications(BPlusTreeImpl tree, HashMap<Integer, Integer> valueCounts, Random random,
+			ArrayList<String> errors) {
+		BPlusTreeStats stats = tree.verify();
+		if (!stats.isValid()) {
+			errors.add("verification reported " + stats.getErrors());
+			return;
+		}
+		long valueCount = 0;
+		for (int count : valueCounts.values()) {
+			valueCount += count;
+		}
+		if (stats.getKeyCount() != valueCounts.size() || stats.getValueCount() != valueCount) {
+			errors.add("verification counted " + stats.getKeyCount() + " keys and " + stats.getValueCount()
+					+ " values but " + valueCounts.size() + " and " + valueCount + " were expected");
+		}
+		int step = 1 + random.nextInt(7);
+		BPlusTreeVerifier verifier = tree.verifier();
+		while (!verifier.step(step)) {
+		}
+		if (!verifier.getStats().toString().equals(stats.toString())) {
+			errors.add("verification in steps of " + step + " found\n" + verifier.getStats() + "instead of\n" + stats);
+		}
+		long nodeCount = 0;
+		for (int depth = 0; depth < stats.getHeight(); depth++) {
+			nodeCount += stats.getNodeCount(depth);
+		}
+		if (verifier.getVisitedCount() != nodeCount) {
+			errors.add("verification in steps visited " + verifier.getVisitedCount() + " of " + nodeCount + " nodes");
+		}
+		BPlusTreeStats parallelStats = tree.verifyParallel();
+		if (!parallelStats.toString().equals(stats.toString())) {
+			errors.add("parallel verification found\n" + parallelStats + "instead of\n" + stats);
+		}
+	}
+
+	private static void checkCorruptions(int order, ArrayList<String> errors) {
+		BPlusTreeImpl tree = new BPlusTreeImpl(order, false);
+		for (int i = 0; i < 50 * order; i++) {
+			tree.insert(2 * i, (double) i);
+		}
+		BPlusTreeNode leaf = tree.getRoot();
+		while (!leaf.isExternalNode()) {
+			leaf = leaf.getChild(1);
+		}
+		int key = leaf.getKeyAt(0);
+		leaf.updateKey(0, Integer.MAX_VALUE);
+		checkCorruption(tree, "key out of order", errors);
+		leaf.updateKey(0, key);
+		BPlusTreeNode next = leaf.getNextNode();
+		leaf.setNextNode(next.getNextNode());
+		checkCorruption(tree, "skipping link", errors);
+		leaf.setNextNode(next);
+		if (!tree.verify().isValid()) {
+			errors.add("verification reported " + tree.verify().getErrors() + " once corruptions were undone");
+		}
+	}
+
+	private static void checkCorruption(BPlusTreeImpl tree, String corruption, ArrayList<String> errors) {
+		BPlusTreeStats stats = tree.verify();
+		BPlusTreeVerifier verifier = tree.verifier();
+		while (!verifier.step(1)) {
+		}
+		if (stats.isValid() || verifier.getStats().isValid() || tree.verifyParallel().isValid()) {
+			errors.add("verification did not report a " + corruption);
+		}
+	}
+
+	/**
+	 * Measures verifying a tree of random keys at once, in parallel and in steps
+	 * of VERIFY_STEP nodes, with the longest step, and prints the statistics of
+	 * the last tree.
+	 */
+	private static void benchmarkVerify() {
+		System.out.println("Verification of a tree of random keys, steps of " + VERIFY_STEP + " nodes");
+		System.out.printf("%6s %10s %12s %12s %12s %8s %12s %12s%n", "order", "size", "verify(ms)", "parallel(ms)",
+				"stepped(ms)", "steps", "p99 step(us)", "max step(us)");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				BPlusTreeImpl tree = new BPlusTreeImpl(order);
+				for (int i = 0; i < size; i++) {
+					tree.insert(keys[i], (double) i);
+				}
+				BPlusTreeStats stats = null;
+				for (int iteration = 0; iteration <= iterations; iteration++) {
+					long start = System.nanoTime();
+					stats = tree.verify();
+					long verifyTime = System.nanoTime() - start;
+					start = System.nanoTime();
+					blackhole = tree.verifyParallel().getKeyCount();
+					long parallelTime = System.nanoTime() - start;
+					LatencyHistogram steps = new LatencyHistogram();
+					BPlusTreeVerifier verifier = tree.verifier();
+					start = System.nanoTime();
+					boolean isDone = false;
+					while (!isDone) {
+						long stepStart = System.nanoTime();
+						isDone = verifier.step(VERIFY_STEP);
+						steps.record(System.nanoTime() - stepStart);
+					}
+					long steppedTime = System.nanoTime() - start;
+					if (iteration == 0) {
+						continue;
+					}
+					System.out.printf("%6d %10d %12.1f %12.1f %12.1f %8d %12.1f %12.1f%n", order, size,
+							verifyTime / 1e6, parallelTime / 1e6, steppedTime / 1e6, steps.getCount(),
+							steps.getP99() / 1e3, steps.getMax() / 1e3);
+				}
+				System.out.print(stats);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a tree with a result cache returns the same results as a tree
+	 * without one under random mixes of point and range searches, inserts,
+	 * deletes, deletes of one value in multi-value trees and batch upserts,
+	 * inserts and deletes, which all invalidate cached results, with caches of
+	 * 2 KB to 1 MB.
+	 */
+	private static void stressResultCache() {
+		long[] cacheSizes = { 2 << 10, 16 << 10, 1 << 20 };
+		int trials = 20;
+		int operations = 20_000;
+		for (int order : orders) {
+			Random random = new Random(order);
+			ArrayList<String> errors = new ArrayList<String>();
+			long hitCount = 0;
+			long start = System.nanoTime();
+			for (int trial = 0; trial < trials && errors.isEmpty(); trial++) {
+				boolean multiValue = trial % 4 == 3;
+				BPlusTreeImpl cachedTree = new BPlusTreeImpl(order, multiValue);
+				BPlusTreeImpl tree = new BPlusTreeImpl(order, multiValue);
+				cachedTree.setResultCacheSize(cacheSizes[trial % cacheSizes.length]);
+				BPlusTreeResultCache cache = cachedTree.getResultCache();
+				int keySpace = 50 + random.nextInt(3_000);
+				for (int i = 0; i < operations && errors.isEmpty(); i++) {
+					// half of the keys come from a small hot set so that cached results are hit
+					int key = random.nextBoolean() ? random.nextInt(20) * 7 % keySpace : random.nextInt(keySpace);
+					int operation = random.nextInt(100);
+					if (operation < 10) {
+						double value = random.nextInt(9);
+						cachedTree.insert(key, value);
+						tree.insert(key, value);
+					} else if (operation < 14) {
+						cachedTree.delete(key);
+						tree.delete(key);
+					} else if (operation < 15 && multiValue) {
+						double value = random.nextInt(9);
+						if (cachedTree.delete(key, value) != tree.delete(key, value)) {
+							errors.add("delete of " + key + " = " + value + " differs");
+						}
+					} else if (operation < 16) {
+						int[] keys = new int[random.nextInt(20)];
+						double[] values = new double[keys.length];
+						for (int j = 0; j < keys.length; j++) {
+							keys[j] = random.nextInt(keySpace);
+							values[j] = random.nextInt(9);
+						}
+						int batch = random.nextInt(3);
+						int cachedCount = batch == 0 ? cachedTree.upsertAll(keys, values)
+								: batch == 1 ? cachedTree.insertAll(keys, values) : cachedTree.deleteAll(keys);
+						int count = batch == 0 ? tree.upsertAll(keys, values)
+								: batch == 1 ? tree.insertAll(keys, values) : tree.deleteAll(keys);
+						if (cachedCount != count) {
+							errors.add("batch " + batch + " of " + Arrays.toString(keys) + " differs");
+						}
+					} else if (operation < 60) {
+						ArrayList<Double> values = cachedTree.search(key);
+						if (!values.equals(tree.search(key))) {
+							errors.add("search " + key + " returned " + values + " instead of " + tree.search(key));
+						}
+					} else {
+						int length = random.nextInt(4) == 0 ? random.nextInt(keySpace) : random.nextInt(30);
+						int startKey = random.nextBoolean() ? key : random.nextInt(10) * 13;
+						int endKey = random.nextInt(20) == 0 ? startKey - 3 : startKey + length;
+						ArrayList<Double> values = cachedTree.search(startKey, endKey);
+						if (!values.equals(tree.search(startKey, endKey))) {
+							errors.add("range search from " + startKey + " to " + endKey + " returned " + values
+									+ " instead of " + tree.search(startKey, endKey));
+						}
+					}
+					if (cache.getSize() > cache.getMaxSize()) {
+						errors.add("cache holds " + cache.getSize() + " of " + cache.getMaxSize() + " bytes");
+					}
+				}
+				hitCount += cache.getHitCount();
+			}
+			long elapsed = System.nanoTime() - start;
+			if (!errors.isEmpty()) {
+				throw new IllegalStateException("Stress of result cache failed: " + errors.get(0));
+			}
+			System.out.printf("Stress of result cache of order %d with %d hits passed in %.0f ms%n", order, hitCount,
+					elapsed / 1e6);
+		}
+	}
+
+	/**
+	 * Measures the result cache on zipfian searches: 90% searches of one key and
+	 * 5% range searches of range keys, and 5% inserts of random keys, which
+	 * invalidate cached results, with no cache and caches of RESULT_CACHE_SIZES
+	 * bytes.
+	 */
+	private static void benchmarkResultCache() {
+		System.out.println("Result cache, 90% search and 5% rangesearch of zipfian keys, 5% insert of random keys");
+		System.out.printf("%6s %10s %10s %12s %9s %9s %9s %9s %9s%n", "order", "size", "cache(MB)", "ops/s",
+				"hit rate", "p50(ns)", "p99(ns)", "range p50", "range p99");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(size));
+				int[] operationKeys = generateKeys("zipfian", RESULT_CACHE_OPERATIONS, size, new Random(size + 1));
+				int[] insertKeys = generateKeys("random", RESULT_CACHE_OPERATIONS, size, new Random(size + 2));
+				Random random = new Random(size + 3);
+				byte[] operations = new byte[RESULT_CACHE_OPERATIONS];
+				for (int i = 0; i < operations.length; i++) {
+					int percent = random.nextInt(100);
+					operations[i] = (byte) (percent < 90 ? 0 : percent < 95 ? 1 : 2);
+				}
+				for (long cacheSize : RESULT_CACHE_SIZES) {
+					BPlusTreeImpl tree = new BPlusTreeImpl(order);
+					for (int i = 0; i < size; i++) {
+						tree.insert(keys[i], (double) i);
+					}
+					tree.setResultCacheSize(cacheSize);
+					for (int iteration = 0; iteration <= iterations; iteration++) {
+						LatencyHistogram searchLatency = new LatencyHistogram();
+						LatencyHistogram rangeLatency = new LatencyHistogram();
+						if (tree.getResultCache() != null) {
+							tree.getResultCache().resetCounts();
+						}
+						long sum = 0;
+						long start = System.nanoTime();
+						for (int i = 0; i < RESULT_CACHE_OPERATIONS; i++) {
+							int key = operationKeys[i];
+							long operationStart = System.nanoTime();
+							if (operations[i] == 0) {
+								sum += tree.search(key).size();
+								searchLatency.record(System.nanoTime() - operationStart);
+							} else if (operations[i] == 1) {
+								sum += tree.search(key, key + rangeLength - 1).size();
+								rangeLatency.record(System.nanoTime() - operationStart);
+							} else {
+								tree.insert(insertKeys[i], (double) i);
+							}
+						}
+						long time = System.nanoTime() - start;
+						blackhole = sum;
+						if (iteration == 0) {
+							continue;
+						}
+						BPlusTreeResultCache cache = tree.getResultCache();
+						System.out.printf("%6d %10d %10.0f %12.0f %9.3f %9d %9d %9d %9d%n", order, size,
+								cacheSize / 1e6, RESULT_CACHE_OPERATIONS * 1e9 / time,
+								cache == null ? 0 : cache.getHitRate(), searchLatency.getP50(),
+								searchLatency.getP99(), rangeLatency.getP50(), rangeLatency.getP99());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one writer and several scanners for one second.
+	 *
+	 * @param scannerCount number of scanner threads
+	 * @param keySpace     scans start at keys between 0 and keySpace - 1
+	 * @param write        one write, given a random int
+	 * @param scan         one scan from a start key, returning the number of
+	 *                     elements scanned
+	 * @return writes per second and elements scanned per second
+	 */
+	private static double[] timeWritesWithScanners(int scannerCount, int keySpace, IntConsumer write,
+			IntUnaryOperator scan) {
+		LongAdder scanned = new LongAdder();
+		AtomicBoolean isRunning = new AtomicBoolean(true);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		Thread[] scanners = new Thread[scannerCount];
+		for (int t = 0; t < scannerCount; t++) {
+			int seed = t;
+			scanners[t] = new Thread(() -> {
+				Random random = new Random(seed);
+				try {
+					startLatch.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (isRunning.get()) {
+					scanned.add(scan.applyAsInt(random.nextInt(keySpace)));
+				}
+			});
+			scanners[t].start();
+		}
+		Random random = new Random(-1);
+		long writes = 0;
+		long start = System.nanoTime();
+		long end = start + 1_000_000_000L;
+		startLatch.countDown();
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 256; i++) {
+				write.accept(random.nextInt() & Integer.MAX_VALUE);
+			}
+			writes += 256;
+		}
+		long elapsed = System.nanoTime() - start;
+		isRunning.set(false);
+		join(scanners);
+		return new double[] { writes * 1e9 / elapsed, scanned.sum() * 1e9 / elapsed };
+	}
+
+	/**
+	 * Number of garbage collections since the start of the JVM.
+	 */
+	private static long getGarbageCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Time in milliseconds spent in garbage collections since the start of the
+	 * JVM.
+	 */
+	private static long getGarbageCollectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+	/**
+	 * Heap in use after a garbage collection.
+	 *
+	 * @return the used heap in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Runs writers and readers on the concurrent tree at the same time and checks
+	 * what the readers see and the final content of the tree. Each writer owns
+	 * the keys equal to its index modulo the number of writers and stores twice
+	 * the key as value, so readers can check every value they find.
+	 */
+	private static void stressConcurrentTree() {
+		int writerCount = Math.max(2, threads / 2);
+		int readerCount = Math.max(2, threads - writerCount);
+		int keySpace = 100_000;
+		int operations = 500_000;
+		for (int order : orders) {
+			ConcurrentBPlusTreeImpl tree = new ConcurrentBPlusTreeImpl(order);
+			BitSet[] writerKeys = new BitSet[writerCount];
+			AtomicBoolean isWriting = new AtomicBoolean(true);
+			ArrayList<String> errors = new ArrayList<String>();
+			Thread[] writers = new Thread[writerCount];
+			for (int w = 0; w < writerCount; w++) {
+				int writer = w;
+				writerKeys[w] = new BitSet(keySpace);
+				writers[w] = new Thread(() -> {
+					Random random = new Random(writer);
+					for (int i = 0; i < operations; i++) {
+						int key = random.nextInt(keySpace / writerCount) * writerCount + writer;
+						if (random.nextInt(3) > 0) {
+							tree.insert(key, 2.0 * key);
+							writerKeys[writer].set(key);
+						} else {
+							tree.delete(key);
+							writerKeys[writer].clear(key);
+						}
+					}
+				});
+			}
+			Thread[] readers = new Thread[readerCount];
+			for (int r = 0; r < readerCount; r++) {
+				int reader = r;
+				readers[r] = new Thread(() -> {
+					Random random = new Random(-1 - reader);
+					while (isWriting.get()) {
+						int startKey = random.nextInt(keySpace);
+						ArrayList<Double> values = tree.search(startKey, startKey + rangeLength - 1);
+						double previous = 2.0 * startKey - 1;
+						for (double value : values) {
+							if (value <= previous || value > 2.0 * (startKey + rangeLength - 1) || value % 2 != 0) {
+								synchronized (errors) {
+									errors.add("range search from " + startKey + " returned " + values);
+								}
+								return;
+							}
+							previous = value;
+						}
+						for (double value : tree.search(startKey)) {
+							if (value != 2.0 * startKey) {
+								synchronized (errors) {
+									errors.add("search " + startKey + " returned " + value);
+								}
+								return;
+							}
+						}
+					}
+				});
+			}
+			long start = System.nanoTime();
+			for (Thread thread : readers) {
+				thread.start();
+			}
+			for (Thread thread : writers) {
+				thread.start();
+			}
+			join(writers);
+			isWriting.set(false);
+			join(readers);
+			long elapsed = System.nanoTime() - start;
+			BitSet expectedKeys = new BitSet(keySpace);
+			for (BitSet keys : writerKeys) {
+				expectedKeys.or(keys);
+			}
+			ArrayList<Double> values = tree.search(Integer.MIN_VALUE, Integer.MAX_VALUE);
+			int index = 0;
+			for (int key = expectedKeys.nextSetBit(0); key >= 0; key = expectedKeys.nextSetBit(key + 1)) {
+				if (index >= values.size() || values.get(index++) != 2.0 * key) {
+					errors.add("key " + key + " is missing after stress");
+					break;
+				}
+			}
+			if (index != values.size()) {
+				errors.add("tree has " + values.size() + " keys but " + index + " were expected");
+			}
+			if (!errors.isEmpty()) {
+				throw new IllegalStateException("Stress of concurrent tree failed: " + errors.get(0));
+			}
+			System.out.printf("Stress of concurrent tree of order %d with %d writers and %d readers passed in %.0f ms%n",
+					order, writerCount, readerCount, elapsed / 1e6);
+		}
+	}
+
+	/**
+	 * Measures point search throughput with 1 to the given number of threads, for
+	 * the concurrent tree and for a tree guarded by a single lock.
+	 */
+	private static void benchmarkConcurrentSearch() {
+		System.out.println("Point search throughput with concurrent readers (ops/s)");
+		System.out.printf("%6s %10s %8s %14s %14s%n", "order", "size", "threads", "single lock", "concurrent");
+		for (int order : orders) {
+			for (int size : sizes) {
+				int[] keys = generateKeys("random", size, size, new Random(42));
+				BPlusTreeImpl lockedTree = new BPlusTreeImpl(order);
+				ConcurrentBPlusTreeImpl concurrentTree = new ConcurrentBPlusTreeImpl(order);
+				for (int key : keys) {
+					lockedTree.insert(key, (double) key);
+					concurrentTree.insert(key, key);
+				}
+				for (int threadCount = 1; threadCount <= threads; threadCount *= 2) {
+					double locked = timeConcurrentSearch(threadCount, size, key -> {
+						synchronized (lockedTree) {
+							return lockedTree.search(key).size();
+						}
+					});
+					double concurrent = timeConcurrentSearch(threadCount, size, key -> concurrentTree.search(key).size());
+					System.out.printf("%6d %10d %8d %14.0f %14.0f%n", order, size, threadCount, locked, concurrent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs point searches from several threads for one second.
+	 *
+	 * @param threadCount number of threads
+	 * @param size        searched keys are between 0 and size - 1
+	 * @param search      the search to be run
+	 * @return searches per second of all threads together
+	 */
+	private static double timeConcurrentSearch(int threadCount, int size, IntUnaryOperator search) {
+		LongAdder operations = new LongAdder();
+		AtomicBoolean isRunning = new AtomicBoolean(true);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		Thread[] searchers = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			int seed = t;
+			searchers[t] = new Thread(() -> {
+				Random random = new Random(seed);
+				long count = 0;
+				long sum = 0;
+				try {
+					startLatch.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (isRunning.get()) {
+					for (int i = 0; i < 1024; i++) {
+						sum += search.applyAsInt(random.nextInt(size));
+					}
+					count += 1024;
+				}
+				operations.add(count);
+				blackhole = sum;
+			});
+			searchers[t].start();
+		}
+		long start = System.nanoTime();
+		startLatch.countDown();
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		isRunning.set(false);
+		join(searchers);
+		return operations.sum() * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Waits for all threads to finish.
+	 *
+	 * @param threads the threads
+	 */
+	private static void join(Thread[] threads) {
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Times key search in a node with given strategy.
+	 *
+	 * @param node     the node to be searched
+	 * @param probes   the keys to be searched
+	 * @param strategy 0 for linear, 1 for binary and 2 for branch free search
+	 * @return average nanoseconds per lookup
+	 */
+	private static double timeKeySearch(BPlusTreeNode node, int[] probes, int strategy) {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int probe : probes) {
+				if (strategy == 0) {
+					sum += node.getKeyIndexLinear(probe);
+				} else if (strategy == 1) {
+					sum += node.getKeyIndexBinary(probe);
+				} else {
+					sum += node.getKeyIndexBranchFree(probe);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		blackhole = sum;
+		return (double) elapsed / ((long) ROUNDS * probes.length);
+	}
+
+	/**
+	 * Generates ranks between 0 and n - 1 following a zipfian distribution, rank 0
+	 * being the most popular. Uses the algorithm of Gray et al, "Quickly
+	 * Generating Billion-Record Synthetic Databases".
+	 */
+	static class ZipfianGenerator {
+
+		private final long items;
+		private final double theta;
+		private final double alpha;
+		private final double zetan;
+		private final double eta;
+		private final Random random;
+
+		/**
+		 * Constructs a zipfian generator.
+		 *
+		 * @param items  number of items
+		 * @param theta  the zipfian constant, skew grows with it
+		 * @param random source of randomness
+		 */
+		ZipfianGenerator(long items, double theta, Random random) {
+			this.items = items;
+			this.theta = theta;
+			this.random = random;
+			double zeta2 = 0;
+			double zetan = 0;
+			for (long i = 1; i <= items; i++) {
+				zetan += 1.0 / Math.pow(i, theta);
+				if (i == 2) {
+					zeta2 = zetan;
+				}
+			}
+			this.zetan = zetan;
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+		}
+
+		/**
+		 * Next rank of the distribution.
+		 *
+		 * @return the rank
+		 */
+		long next() {
+			double u = this.random.nextDouble();
+			double uz = u * this.zetan;
+			if (uz < 1.0) {
+				return 0;
+			}
+			if (uz < 1.0 + Math.pow(0.5, this.theta)) {
+				return 1;
+			}
+			return Math.min(this.items - 1, (long) (this.items * Math.pow(this.eta * u - this.eta + 1, this.alpha)));
+		}
+
+	}
+
+}
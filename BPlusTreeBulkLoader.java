@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds a B+ tree bottom-up from data sorted by key. External nodes are packed
+ * to the fill factor while the data is added and linked to each other, the
+ * internal levels are built in a single pass once all data has been added.
+ * This avoids walking from the root and splitting nodes for every element as
+ * repeated inserts do.
+ */
+public class BPlusTreeBulkLoader {
+
+	private final int order;
+	private final int externalNodeSize;
+	private final int internalNodeSize;
+	private final ArrayList<BPlusTreeNode> externalNodes = new ArrayList<BPlusTreeNode>();
+	private BPlusTreeNode current;
+
+	/**
+	 * Constructs a bulk loader for a B+ tree of given order.
+	 *
+	 * @param order      The order of B+ Tree. Normally an integer greater than 2.
+	 * @param fillFactor Fraction of each node that is filled, between 0.5 and 1.
+	 */
+	public BPlusTreeBulkLoader(int order, double fillFactor) {
+		if (order < 3) {
+			throw new IllegalArgumentException("Order must be greater than 2 but was " + order);
+		}
+		if (fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("Fill factor must be between 0.5 and 1 but was " + fillFactor);
+		}
+		this.order = order;
+		// a node with order keys is overfull
+		this.externalNodeSize = Math.max(1, (int) Math.round((order - 1) * fillFactor));
+		this.internalNodeSize = Math.max(2, (int) Math.round(order * fillFactor));
+	}
+
+	/**
+	 * Adds an element to the tree. Elements must be added in increasing order of
+	 * key, an element with the same key as the last one replaces its value.
+	 *
+	 * @param key   key of the element to be added
+	 * @param value value of the element to be added
+	 */
+	public void add(int key, double value) {
+		if (this.current != null) {
+			int lastIndex = this.current.getDataListSize() - 1;
+			int lastKey = this.current.getKeyAt(lastIndex);
+			if (key == lastKey) {
+				this.current.updateDataValue(lastIndex, value);
+				return;
+			}
+			if (key < lastKey) {
+				throw new IllegalArgumentException("Keys must be sorted but " + key + " was added after " + lastKey);
+			}
+		}
+		if (this.current == null || this.current.getDataListSize() == this.externalNodeSize) {
+			BPlusTreeNode node = new BPlusTreeNode(this.order, true);
+			if (this.current != null) {
+				this.current.setNextNode(node);
+				node.setPrevNode(this.current);
+			}
+			this.externalNodes.add(node);
+			this.current = node;
+		}
+		this.current.addExternalData(this.current.getDataListSize(), key, value);
+	}
+
+	/**
+	 * Adds all elements to the tree.
+	 *
+	 * @param keys   keys of the elements sorted in increasing order
+	 * @param values values of the elements
+	 * @param length number of elements to be added
+	 */
+	public void addAll(int[] keys, double[] values, int length) {
+		for (int i = 0; i < length; i++) {
+			add(keys[i], values[i]);
+		}
+	}
+
+	/**
+	 * Builds the internal levels of the tree on top of the added elements. The
+	 * loader must not be used after the tree is built.
+	 *
+	 * @return The B+ tree
+	 */
+	public BPlusTreeImpl build() {
+		if (this.externalNodes.isEmpty()) {
+			return new BPlusTreeImpl(this.order);
+		}
+		balanceLastExternalNode();
+		BPlusTreeNode root = buildInternalLevels(this.externalNodes);
+		this.externalNodes.clear();
+		this.current = null;
+		return new BPlusTreeImpl(this.order, root);
+	}
+
+	/**
+	 * Builds the internal levels of a tree on top of linked external nodes, each
+	 * internal node is filled to the fill factor.
+	 *
+	 * @param externalNodes the external nodes in increasing order of key
+	 * @return the root of the tree
+	 */
+	BPlusTreeNode buildInternalLevels(ArrayList<BPlusTreeNode> externalNodes) {
+		ArrayList<BPlusTreeNode> level = externalNodes;
+		// smallest key of the subtree under each node of the level
+		int[] minKeys = new int[level.size()];
+		for (int i = 0; i < level.size(); i++) {
+			minKeys[i] = level.get(i).getFirstKey();
+		}
+		while (level.size() > 1) {
+			int[] childCounts = getChildCounts(level.size());
+			ArrayList<BPlusTreeNode> parents = new ArrayList<BPlusTreeNode>(childCounts.length);
+			int[] parentMinKeys = new int[childCounts.length];
+			int childIndex = 0;
+			for (int i = 0; i < childCounts.length; i++) {
+				BPlusTreeNode parent = new BPlusTreeNode(this.order, false);
+				parentMinKeys[i] = minKeys[childIndex];
+				for (int j = 0; j < childCounts[i]; j++, childIndex++) {
+					if (j > 0) {
+						parent.addInternalData(j - 1, minKeys[childIndex]);
+					}
+					parent.addChild(j, level.get(childIndex));
+				}
+				parents.add(parent);
+			}
+			level = parents;
+			minKeys = parentMinKeys;
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Get the number of data of each external node
+	 *
+	 * @return the number of data
+	 */
+	int getExternalNodeSize() {
+		return this.externalNodeSize;
+	}
+
+	/**
+	 * Get the number of children of each node in the parent level. All parents
+	 * are filled to the fill factor except the last two, which share their
+	 * children evenly when the last one would be less than half full.
+	 *
+	 * @param childCount number of nodes in the child level
+	 * @return the number of children of each parent
+	 */
+	private int[] getChildCounts(int childCount) {
+		int parentCount = (childCount + this.internalNodeSize - 1) / this.internalNodeSize;
+		int[] childCounts = new int[parentCount];
+		Arrays.fill(childCounts, this.internalNodeSize);
+		int last = parentCount - 1;
+		childCounts[last] = childCount - last * this.internalNodeSize;
+		if (parentCount > 1 && (childCounts[last] < 2 || childCounts[last] * 2 < this.internalNodeSize)) {
+			int sharedCount = childCounts[last - 1] + childCounts[last];
+			if (sharedCount / 2 < 2) {
+				// an internal node needs two children, so the last one is merged
+				childCounts = Arrays.copyOf(childCounts, last);
+				childCounts[last - 1] = sharedCount;
+			} else {
+				childCounts[last - 1] = sharedCount - sharedCount / 2;
+				childCounts[last] = sharedCount / 2;
+			}
+		}
+		return childCounts;
+	}
+
+	/**
+	 * Share the data of the last two external nodes evenly in case the last one
+	 * is less than half full.
+	 */
+	private void balanceLastExternalNode() {
+		int count = this.externalNodes.size();
+		BPlusTreeNode last = this.externalNodes.get(count - 1);
+		if (count == 1 || last.getDataListSize() * 2 >= this.externalNodeSize) {
+			return;
+		}
+		BPlusTreeNode prev = this.externalNodes.get(count - 2);
+		int sharedSize = prev.getDataListSize() + last.getDataListSize();
+		BPlusTreeNode temp = new BPlusTreeNode(this.order, true);
+		last.moveDataTo(0, temp);
+		prev.moveDataTo(sharedSize - sharedSize / 2, last);
+		temp.moveDataTo(0, last);
+	}
+
+}
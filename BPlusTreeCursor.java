@@ -0,0 +1,116 @@
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Cursor over the elements of a key range of a B+ tree, in increasing order of
+ * key. The cursor starts at the external node holding the first key of the
+ * range and walks the linked list of external nodes only as elements are
+ * requested, so the first element is found in O(log n) and a scan can stop at
+ * any time. Keys and values are returned as primitives. In a multi-value tree
+ * every value of a key is a separate element with the same key.
+ *
+ * The tree must not be modified while the cursor is used.
+ */
+public class BPlusTreeCursor implements PrimitiveIterator.OfDouble {
+
+	private BPlusTreeNode node;
+	private int index;
+	private final int endKey;
+	private int key;
+	private double value;
+	// remaining values of the current key in a multi-value tree
+	private PostingList postingList;
+	private int valueIndex;
+
+	/**
+	 * Constructs a cursor starting at an element of an external node.
+	 *
+	 * @param node   the external node holding the first key of the range
+	 * @param index  index of the first key of the range in node
+	 * @param endKey ending key of the range, included
+	 */
+	BPlusTreeCursor(BPlusTreeNode node, int index, int endKey) {
+		this.node = node;
+		this.index = index;
+		this.endKey = endKey;
+	}
+
+	/**
+	 * Check if there is another element in the range.
+	 *
+	 * @return boolean value
+	 */
+	@Override
+	public boolean hasNext() {
+		if (this.postingList != null) {
+			return true;
+		}
+		while (this.node != null && this.index >= this.node.getDataListSize()) {
+			this.node = this.node.getNextNode();
+			this.index = 0;
+		}
+		if (this.node != null && this.node.getKeyAt(this.index) > this.endKey) {
+			this.node = null;
+		}
+		return this.node != null;
+	}
+
+	/**
+	 * Move to the next element in the range, its key and value are then returned
+	 * by getKey and getValue.
+	 *
+	 * @return false if there is no more element in the range
+	 */
+	public boolean advance() {
+		if (this.postingList != null) {
+			this.value = this.postingList.get(this.valueIndex++);
+			if (this.valueIndex == this.postingList.size()) {
+				this.postingList = null;
+			}
+			return true;
+		}
+		if (!hasNext()) {
+			return false;
+		}
+		this.key = this.node.getKeyAt(this.index);
+		this.value = this.node.getValueAt(this.index);
+		// the first value is also kept in the node
+		this.postingList = this.node.getPostingList(this.index);
+		this.valueIndex = 1;
+		this.index++;
+		return true;
+	}
+
+	/**
+	 * Move to the next element in the range and get its value.
+	 *
+	 * @return the value
+	 * @throws NoSuchElementException if there is no more element in the range
+	 */
+	@Override
+	public double nextDouble() {
+		if (!advance()) {
+			throw new NoSuchElementException();
+		}
+		return this.value;
+	}
+
+	/**
+	 * Get the key of the current element
+	 *
+	 * @return the key
+	 */
+	public int getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Get the value of the current element
+	 *
+	 * @return the value
+	 */
+	public double getValue() {
+		return this.value;
+	}
+
+}
@@ -0,0 +1,357 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary image of a whole B+ tree, written and read with a FileChannel. Loading
+ * an image restores the external nodes as they were saved and builds the
+ * internal levels bottom-up with BPlusTreeBulkLoader, which is much faster than
+ * replaying the inserts and deletes of a command log.
+ *
+ * Layout, little-endian: a header holding magic, version, order, flags (1 for
+ * a multi-value tree), height, external node count, key count, value count and
+ * the node count of every level from the root down, followed by its CRC32C.
+ * Then one block per external node in linked list order: key count, value
+ * count, keys, in a multi-value tree the value count of every key when some
+ * key has more than one value, values, and the CRC32C of the block.
+ *
+ * The fill of the internal nodes is restored from the level counts. The split
+ * factor, append split and minimum occupancy of a tree are settings of the
+ * program and are not saved. An image is written to a temporary file which
+ * replaces the target once complete, so a failed save leaves the previous
+ * image in place.
+ */
+public final class BPlusTreeImage {
+
+	static final int MAGIC = 0x49545042;
+	static final int VERSION = 1;
+	private static final int FLAG_MULTI_VALUE = 1;
+	static final int HEADER_SIZE = 40;
+	static final int CHECKSUM_SIZE = 4;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private BPlusTreeImage() {
+	}
+
+	/**
+	 * Writes the image of a tree to a file, replacing it if it exists.
+	 *
+	 * @param tree the tree
+	 * @param root the root of the tree
+	 * @param path path of the file
+	 * @throws IOException if the file can not be written
+	 */
+	static void write(BPlusTreeImpl tree, BPlusTreeNode root, Path path) throws IOException {
+		ArrayList<Integer> levelCounts = new ArrayList<Integer>();
+		ArrayList<BPlusTreeNode> level = new ArrayList<BPlusTreeNode>();
+		level.add(root);
+		while (!level.get(0).isExternalNode()) {
+			levelCounts.add(level.size());
+			ArrayList<BPlusTreeNode> nextLevel = new ArrayList<BPlusTreeNode>();
+			for (BPlusTreeNode node : level) {
+				for (int i = 0; i < node.getChildrensSize(); i++) {
+					nextLevel.add(node.getChild(i));
+				}
+			}
+			level = nextLevel;
+		}
+		levelCounts.add(level.size());
+		BPlusTreeNode first = level.get(0);
+		long keyCount = 0;
+		long valueCount = 0;
+		for (BPlusTreeNode node = first; node != null; node = node.getNextNode()) {
+			keyCount += node.getDataListSize();
+			valueCount += getValueCount(node);
+		}
+
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		CRC32C checksum = new CRC32C();
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(tree.getOrder());
+			buffer.putInt(tree.isMultiValue() ? FLAG_MULTI_VALUE : 0);
+			buffer.putInt(levelCounts.size());
+			buffer.putInt(levelCounts.get(levelCounts.size() - 1));
+			buffer.putLong(keyCount);
+			buffer.putLong(valueCount);
+			for (int levelCount : levelCounts) {
+				buffer.putInt(levelCount);
+			}
+			putChecksum(buffer, 0, checksum);
+			for (BPlusTreeNode node = first; node != null; node = node.getNextNode()) {
+				int size = node.getDataListSize();
+				int nodeValueCount = getValueCount(node);
+				boolean hasPostingLists = nodeValueCount != size;
+				int length = 8 + size * 4 + (hasPostingLists ? size * 4 : 0) + nodeValueCount * 8 + CHECKSUM_SIZE;
+				buffer = ensureRemaining(channel, buffer, length);
+				int start = buffer.position();
+				buffer.putInt(size);
+				buffer.putInt(nodeValueCount);
+				for (int i = 0; i < size; i++) {
+					buffer.putInt(node.getKeyAt(i));
+				}
+				if (hasPostingLists) {
+					for (int i = 0; i < size; i++) {
+						buffer.putInt(node.getValueCount(i));
+					}
+				}
+				for (int i = 0; i < size; i++) {
+					PostingList postingList = node.getPostingList(i);
+					if (postingList == null) {
+						buffer.putDouble(node.getValueAt(i));
+						continue;
+					}
+					for (int j = 0; j < postingList.size(); j++) {
+						buffer.putDouble(postingList.get(j));
+					}
+				}
+				putChecksum(buffer, start, checksum);
+			}
+			writeFully(channel, buffer);
+			channel.force(false);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a tree from its image.
+	 *
+	 * @param path path of the file
+	 * @return the tree
+	 * @throws IOException if the file can not be read or is not a valid image
+	 */
+	static BPlusTreeImpl read(Path path) throws IOException {
+		CRC32C checksum = new CRC32C();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			buffer = ensureAvailable(channel, buffer, HEADER_SIZE);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException(path + " is not a B+ tree image");
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported B+ tree image version " + buffer.getInt(4));
+			}
+			int order = buffer.getInt(8);
+			boolean isMultiValue = (buffer.getInt(12) & FLAG_MULTI_VALUE) != 0;
+			int height = buffer.getInt(16);
+			if (order < 3 || height < 1 || height > 64) {
+				throw new IOException("Corrupted B+ tree image header in " + path);
+			}
+			buffer = ensureAvailable(channel, buffer, HEADER_SIZE + height * 4 + CHECKSUM_SIZE);
+			checkChecksum(buffer, HEADER_SIZE + height * 4, checksum, "header");
+			int externalNodeCount = buffer.getInt(20);
+			if (externalNodeCount < 1) {
+				throw new IOException("Corrupted B+ tree image header in " + path);
+			}
+			long keyCount = buffer.getLong(24);
+			long valueCount = buffer.getLong(32);
+			int[] levelCounts = new int[height];
+			buffer.position(HEADER_SIZE);
+			for (int i = 0; i < height; i++) {
+				levelCounts[i] = buffer.getInt();
+			}
+			buffer.position(buffer.position() + CHECKSUM_SIZE);
+
+			int[] keys = new int[order];
+			int[] valueCounts = new int[order];
+			double[] values = new double[order];
+			ArrayList<BPlusTreeNode> externalNodes = new ArrayList<BPlusTreeNode>();
+			long readKeyCount = 0;
+			long readValueCount = 0;
+			BPlusTreeNode prev = null;
+			for (int n = 0; n < externalNodeCount; n++) {
+				buffer = ensureAvailable(channel, buffer, 8);
+				int size = buffer.getInt(buffer.position());
+				int nodeValueCount = buffer.getInt(buffer.position() + 4);
+				if (size < 0 || size >= order || nodeValueCount < size || (!isMultiValue && nodeValueCount != size)) {
+					throw new IOException("Corrupted external node " + n + " in " + path);
+				}
+				boolean hasPostingLists = nodeValueCount != size;
+				int length = 8 + size * 4 + (hasPostingLists ? size * 4 : 0) + nodeValueCount * 8;
+				buffer = ensureAvailable(channel, buffer, length + CHECKSUM_SIZE);
+				checkChecksum(buffer, length, checksum, "external node " + n);
+				buffer.position(buffer.position() + 8);
+				buffer.asIntBuffer().get(keys, 0, size);
+				buffer.position(buffer.position() + size * 4);
+				for (int i = 1; i < size; i++) {
+					if (keys[i] <= keys[i - 1]) {
+						throw new IOException("Keys out of order in external node " + n + " in " + path);
+					}
+				}
+				BPlusTreeNode node = new BPlusTreeNode(order, true);
+				if (!hasPostingLists) {
+					buffer.asDoubleBuffer().get(values, 0, size);
+					buffer.position(buffer.position() + size * 8);
+					node.setExternalData(keys, values, size);
+				} else {
+					buffer.asIntBuffer().get(valueCounts, 0, size);
+					buffer.position(buffer.position() + size * 4);
+					long valueCountSum = 0;
+					for (int i = 0; i < size; i++) {
+						if (valueCounts[i] < 1) {
+							throw new IOException("Corrupted value counts in external node " + n + " in " + path);
+						}
+						valueCountSum += valueCounts[i];
+					}
+					if (valueCountSum != nodeValueCount) {
+						throw new IOException("Corrupted value counts in external node " + n + " in " + path);
+					}
+					for (int i = 0; i < size; i++) {
+						node.addExternalData(i, keys[i], buffer.getDouble());
+						if (valueCounts[i] > 1) {
+							PostingList postingList = new PostingList();
+							postingList.add(node.getValueAt(i));
+							for (int j = 1; j < valueCounts[i]; j++) {
+								postingList.add(buffer.getDouble());
+							}
+							node.setPostingList(i, postingList);
+						}
+					}
+				}
+				buffer.position(buffer.position() + CHECKSUM_SIZE);
+				if (prev != null) {
+					if (size == 0 || keys[0] <= prev.getKeyAt(prev.getDataListSize() - 1)) {
+						throw new IOException("Keys out of order in external node " + n + " in " + path);
+					}
+					prev.setNextNode(node);
+					node.setPrevNode(prev);
+				}
+				externalNodes.add(node);
+				prev = node;
+				readKeyCount += size;
+				readValueCount += nodeValueCount;
+			}
+			if (externalNodes.isEmpty() || readKeyCount != keyCount || readValueCount != valueCount) {
+				throw new IOException("Truncated B+ tree image " + path);
+			}
+			BPlusTreeBulkLoader loader = new BPlusTreeBulkLoader(order, getInternalFillFactor(order, levelCounts));
+			return new BPlusTreeImpl(order, loader.buildInternalLevels(externalNodes), isMultiValue);
+		}
+	}
+
+	/**
+	 * Get the fill factor of the internal nodes from the number of nodes of the
+	 * two lowest levels.
+	 *
+	 * @param order       the order of the tree
+	 * @param levelCounts the node count of every level from the root down
+	 * @return the fill factor, between 0.5 and 1
+	 */
+	private static double getInternalFillFactor(int order, int[] levelCounts) {
+		int height = levelCounts.length;
+		if (height < 2) {
+			return 1;
+		}
+		double childCount = (double) levelCounts[height - 1] / levelCounts[height - 2];
+		return Math.max(0.5, Math.min(1, childCount / order));
+	}
+
+	/**
+	 * Get the number of values of an external node
+	 *
+	 * @param node the external node
+	 * @return the value count, the number of keys unless the tree is multi-value
+	 */
+	private static int getValueCount(BPlusTreeNode node) {
+		int size = node.getDataListSize();
+		int valueCount = size;
+		for (int i = 0; i < size; i++) {
+			PostingList postingList = node.getPostingList(i);
+			if (postingList != null) {
+				valueCount += postingList.size() - 1;
+			}
+		}
+		return valueCount;
+	}
+
+	/**
+	 * Append the CRC32C of the bytes from a position to the current position.
+	 */
+	private static void putChecksum(ByteBuffer buffer, int start, CRC32C checksum) {
+		checksum.reset();
+		checksum.update(buffer.array(), start, buffer.position() - start);
+		buffer.putInt((int) checksum.getValue());
+	}
+
+	/**
+	 * Compare the CRC32C of the next bytes with the one following them.
+	 */
+	private static void checkChecksum(ByteBuffer buffer, int length, CRC32C checksum, String name)
+			throws IOException {
+		checksum.reset();
+		checksum.update(buffer.array(), buffer.position(), length);
+		if ((int) checksum.getValue() != buffer.getInt(buffer.position() + length)) {
+			throw new IOException("Checksum mismatch in " + name + " of B+ tree image");
+		}
+	}
+
+	/**
+	 * Write the buffer out if it has less room than needed, growing it for a
+	 * block larger than the buffer.
+	 *
+	 * @return the buffer to continue with
+	 */
+	private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int length)
+			throws IOException {
+		if (buffer.remaining() >= length) {
+			return buffer;
+		}
+		writeFully(channel, buffer);
+		if (buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Write the content of the buffer and clear it.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Read from the channel until the buffer holds the given number of bytes
+	 * after its position, growing it for a block larger than the buffer. The
+	 * unread bytes are moved to the start of the buffer.
+	 *
+	 * @return the buffer to continue with
+	 */
+	private static ByteBuffer ensureAvailable(FileChannel channel, ByteBuffer buffer, int length)
+			throws IOException {
+		if (buffer.remaining() >= length) {
+			return buffer;
+		}
+		if (buffer.capacity() < length) {
+			ByteBuffer newBuffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < length) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Truncated B+ tree image");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+}
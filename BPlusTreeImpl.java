@@ -1,6 +1,13 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.DoubleSummaryStatistics;
 import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Spliterator;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -8,15 +15,54 @@ import java.util.Queue;
  * efficient retrieval in a block-oriented storage context in particular,
  * filesystems
  * 
+ * A multi-value tree keeps every value inserted for a key, in insertion order,
+ * so it can serve as a secondary index. Searches, cursors and streams return
+ * all values of a key, get returns the first one.
+ * 
+ * Nodes do not keep a reference to their parent, inserts and deletes record the
+ * path from the root while searching for the external node and split or balance
+ * the nodes along that path.
+ * 
+ * A full node is split at the split factor, half by default. A split of the
+ * last external node by a key appended after all others leaves the node full
+ * and moves only the new key, as do the splits of the internal nodes above it,
+ * so increasing keys fill their nodes. An external node is balanced when it has
+ * fewer keys than the minimum occupancy, one by default so only empty nodes
+ * are balanced. compact re-packs sparse external nodes left by deletes.
+ * 
+ * With the system property bplustree.metrics=true the tree keeps the metrics
+ * returned by getMetrics, see BPlusTreeMetrics. Splits and cascading
+ * rebalances are also recorded as flight recorder events.
+ * 
+ * setResultCacheSize puts a cache of search results in front of the tree, see
+ * BPlusTreeResultCache.
+ * 
  * Note that this implemenation is not snychroized.
  * 
  * @author Shaileshbhai Gothi
- *
+ * 
  */
 public class BPlusTreeImpl {
 
+	// number of probes of getAll descending the tree side by side
+	private static final int PROBE_GROUP = 8;
+	private static final int MAX_HEIGHT = 64;
+
 	private Integer order;
 	private BPlusTreeNode root = null;
+	private final boolean isMultiValue;
+	// nodes from the root to the external node of the last insert or delete, and
+	// the index of the child taken in each of them
+	private final BPlusTreeNode[] pathNodes = new BPlusTreeNode[MAX_HEIGHT];
+	private final int[] pathIndexes = new int[MAX_HEIGHT];
+	private int pathDepth;
+	private double splitFactor = 0.5;
+	private boolean isAppendSplit = true;
+	private int minOccupancy = 1;
+	// null unless BPlusTreeMetrics.ENABLED
+	private final BPlusTreeMetrics metrics;
+	// null unless set by setResultCacheSize
+	private BPlusTreeResultCache resultCache;
 
 	/**
 	 * Constructs an empty B+Tree or order provided.
@@ -24,73 +70,634 @@ public class BPlusTreeImpl {
 	 * @param order The order of B+ Tree. Normally an integer greater than 2.
 	 */
 	BPlusTreeImpl(Integer order) {
+		this(order, false);
+	}
+
+	/**
+	 * Constructs an empty B+Tree or order provided.
+	 * 
+	 * @param order        The order of B+ Tree. Normally an integer greater than 2.
+	 * @param isMultiValue true if a key keeps every value inserted for it instead
+	 *                     of the last one
+	 */
+	BPlusTreeImpl(Integer order, boolean isMultiValue) {
+		this.order = order;
+		this.root = new BPlusTreeNode(order, true);
+		this.isMultiValue = isMultiValue;
+		this.metrics = BPlusTreeMetrics.ENABLED ? new BPlusTreeMetrics(order) : null;
+		if (BPlusTreeMetrics.ENABLED) {
+			countNodes();
+		}
+	}
+
+	/**
+	 * Constructs a B+Tree of order provided with an existing root.
+	 * 
+	 * @param order The order of B+ Tree.
+	 * @param root  The root of B+ Tree.
+	 */
+	BPlusTreeImpl(Integer order, BPlusTreeNode root) {
+		this(order, root, false);
+	}
+
+	/**
+	 * Constructs a B+Tree of order provided with an existing root.
+	 * 
+	 * @param order        The order of B+ Tree.
+	 * @param root         The root of B+ Tree.
+	 * @param isMultiValue true if a key keeps every value inserted for it
+	 */
+	BPlusTreeImpl(Integer order, BPlusTreeNode root, boolean isMultiValue) {
 		this.order = order;
-		this.root = new BPlusTreeNode();
+		this.root = root;
+		this.isMultiValue = isMultiValue;
+		this.metrics = BPlusTreeMetrics.ENABLED ? new BPlusTreeMetrics(order) : null;
+		if (BPlusTreeMetrics.ENABLED) {
+			countNodes();
+		}
+	}
+
+	/**
+	 * Get the metrics of the tree, kept when the system property
+	 * bplustree.metrics is true.
+	 * 
+	 * @return the metrics, null if metrics are off
+	 * @see BPlusTreeMetrics
+	 */
+	public BPlusTreeMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Get the order
+	 * 
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Check if a key keeps every value inserted for it. In a multi-value tree
+	 * insert, insertAll and upsertAll add values to those of a key.
+	 * 
+	 * @return boolean value
+	 */
+	public boolean isMultiValue() {
+		return this.isMultiValue;
+	}
+
+	/**
+	 * Set the fraction of the keys of a full node which stay in the node when it
+	 * is split, the others move to a new node on its right. A split factor of 0.9
+	 * suits keys mostly increasing, such as time series.
+	 * 
+	 * @param splitFactor the split factor, between 0 and 1 excluded
+	 */
+	public void setSplitFactor(double splitFactor) {
+		if (!(splitFactor > 0 && splitFactor < 1)) {
+			throw new IllegalArgumentException("Split factor must be between 0 and 1 but was " + splitFactor);
+		}
+		this.splitFactor = splitFactor;
+	}
+
+	/**
+	 * Get the split factor
+	 * 
+	 * @return the split factor
+	 */
+	public double getSplitFactor() {
+		return this.splitFactor;
+	}
+
+	/**
+	 * Set if a key appended after all others splits the last external node so
+	 * that the node stays full, instead of at the split factor. Enabled by
+	 * default.
+	 * 
+	 * @param isAppendSplit true to fill nodes with increasing keys
+	 */
+	public void setAppendSplit(boolean isAppendSplit) {
+		this.isAppendSplit = isAppendSplit;
+	}
+
+	/**
+	 * Check if a key appended after all others keeps the last external node full.
+	 * 
+	 * @return boolean value
+	 */
+	public boolean isAppendSplit() {
+		return this.isAppendSplit;
+	}
+
+	/**
+	 * Set the number of keys below which an external node is balanced after a
+	 * delete, by borrowing the missing keys from a sibling which keeps the minimum
+	 * or else by merging with a sibling. A higher minimum keeps nodes fuller under deletes, one only
+	 * balances empty nodes and makes deletes cheapest.
+	 * 
+	 * @param minOccupancy the minimum occupancy, between 1 and order/2
+	 */
+	public void setMinOccupancy(int minOccupancy) {
+		if (minOccupancy < 1 || minOccupancy > this.order / 2) {
+			throw new IllegalArgumentException(
+					"Minimum occupancy must be between 1 and " + this.order / 2 + " but was " + minOccupancy);
+		}
+		this.minOccupancy = minOccupancy;
+	}
+
+	/**
+	 * Get the minimum occupancy of external nodes
+	 * 
+	 * @return the minimum occupancy
+	 */
+	public int getMinOccupancy() {
+		return this.minOccupancy;
+	}
+
+	/**
+	 * Put a cache of the results of search(int) and search(int, int) in front of
+	 * the tree, see BPlusTreeResultCache. Inserts and deletes remove the cached
+	 * results holding their keys. Suits searches concentrated on a small set of
+	 * keys and ranges.
+	 * 
+	 * @param maxBytes estimated memory the cache may use, 0 removes the cache
+	 */
+	public void setResultCacheSize(long maxBytes) {
+		this.resultCache = maxBytes == 0 ? null : new BPlusTreeResultCache(maxBytes);
+	}
+
+	/**
+	 * Get the cache of search results, with its hit rate
+	 * 
+	 * @return the cache, null if the tree has none
+	 */
+	public BPlusTreeResultCache getResultCache() {
+		return this.resultCache;
+	}
+
+	/**
+	 * Builds a B+ tree bottom-up from elements sorted by key, which is much faster
+	 * than inserting them one by one.
+	 * 
+	 * @param order      The order of B+ Tree.
+	 * @param keys       keys of the elements sorted in increasing order
+	 * @param values     values of the elements
+	 * @param fillFactor Fraction of each node that is filled, between 0.5 and 1.
+	 * @return The B+ tree
+	 * @see BPlusTreeBulkLoader
+	 */
+	public static BPlusTreeImpl bulkLoad(int order, int[] keys, double[] values, double fillFactor) {
+		BPlusTreeBulkLoader loader = new BPlusTreeBulkLoader(order, fillFactor);
+		loader.addAll(keys, values, keys.length);
+		return loader.build();
+	}
+
+	/**
+	 * Writes a binary image of the tree to a file, replacing it if it exists. The
+	 * external nodes are written in linked list order with a checksum each.
+	 * 
+	 * @param path path of the file
+	 * @throws IOException if the file can not be written
+	 * @see BPlusTreeImage
+	 */
+	public void save(Path path) throws IOException {
+		BPlusTreeImage.write(this, this.root, path);
+	}
+
+	/**
+	 * Reads a tree from a binary image written by save. The external nodes are
+	 * restored as saved and the internal levels are built bottom-up, no element
+	 * is inserted.
+	 * 
+	 * @param path path of the file
+	 * @return The B+ tree
+	 * @throws IOException if the file can not be read or is not a valid image
+	 * @see BPlusTreeImage
+	 */
+	public static BPlusTreeImpl load(Path path) throws IOException {
+		return BPlusTreeImage.read(path);
 	}
 
 	/**
-	 * Inserts an element with given key and value in the tree.
+	 * Inserts an element with given key and value in the tree. In a multi-value
+	 * tree the value is added to the values of an existing key.
 	 * 
 	 * @param key   key of the element to be inserted
 	 * @param value value of the element to be inserted
 	 */
 	public void insert(int key, Double value) {
-		BPlusTreeNode externalNode = findExternalNode(this.root, key);
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		if (this.resultCache != null) {
+			this.resultCache.invalidate(key);
+		}
+		BPlusTreeNode externalNode = findPath(key);
 		addDataToExternalNode(externalNode, key, value);
 		if (externalNode.isOverfullNode(this.order)) {
-			BPlusTreeNode middleNode = splitExternalNode(externalNode);
-			mergeNodes(externalNode.getParent(), middleNode, externalNode);
+			splitPath(this.pathDepth, isAppend(externalNode, key));
+		}
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordInsert(System.nanoTime() - start);
 		}
 	}
 
 	/**
-	 * Deletes an element with given key from the tree.
+	 * Deletes an element with given key from the tree, with all its values in a
+	 * multi-value tree.
 	 * 
 	 * @param key key of the element to be deleted
 	 */
 	public void delete(int key) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		deleteKey(key);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordDelete(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Deletes a key with all its values, without recording the latency.
+	 * 
+	 * @param key key of the element to be deleted
+	 */
+	private void deleteKey(int key) {
+		BPlusTreeNode externalNode = findPath(key);
+		int keyIndex = externalNode.getKeyIndex(key) - 1;
+		// key found
+		if (keyIndex >= 0 && keyIndex < externalNode.getDataListSize() && externalNode.getKeyAt(keyIndex) == key) {
+			externalNode.deleteData(keyIndex);
+			if (this.resultCache != null) {
+				this.resultCache.invalidate(key);
+			}
+			if (BPlusTreeMetrics.ENABLED) {
+				this.metrics.addKeys(-1);
+			}
+			// deficient external node as root is fine.
+			if (this.pathDepth > 0 && externalNode.getDataListSize() < this.minOccupancy) {
+				balanceExternalNode(externalNode, this.pathDepth);
+			}
+		}
+	}
+
+	/**
+	 * Deletes one value of a key, the key is deleted with its last value.
+	 * 
+	 * @param key   key of the element
+	 * @param value value to be deleted
+	 * @return false if the key does not have the value
+	 */
+	public boolean delete(int key, double value) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		boolean isDeleted = deleteValue(key, value);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordDelete(System.nanoTime() - start);
+		}
+		return isDeleted;
+	}
+
+	/**
+	 * Deletes one value of a key, without recording the latency.
+	 * 
+	 * @param key   key of the element
+	 * @param value value to be deleted
+	 * @return false if the key does not have the value
+	 */
+	private boolean deleteValue(int key, double value) {
+		BPlusTreeNode externalNode = findExternalNode(this.root, key);
+		int keyIndex = externalNode.getKeyIndex(key) - 1;
+		if (keyIndex < 0 || externalNode.getKeyAt(keyIndex) != key) {
+			return false;
+		}
+		if (externalNode.getValueCount(keyIndex) > 1) {
+			boolean isRemoved = externalNode.removeValue(keyIndex, value);
+			if (isRemoved && this.resultCache != null) {
+				this.resultCache.invalidate(key);
+			}
+			return isRemoved;
+		}
+		if (Double.compare(externalNode.getValueAt(keyIndex), value) != 0) {
+			return false;
+		}
+		deleteKey(key);
+		return true;
+	}
+
+	/**
+	 * Get the number of values of a key.
+	 * 
+	 * @param key the key
+	 * @return the value count, 0 if the key is not in the tree
+	 */
+	public int getValueCount(int key) {
 		BPlusTreeNode externalNode = findExternalNode(this.root, key);
 		int keyIndex = externalNode.getKeyIndex(key) - 1;
-		// key not found
-		if (keyIndex < 0 || keyIndex >= externalNode.getDataListSize() || externalNode.getKeyAt(keyIndex) != key) {
-			return;
+		if (keyIndex < 0 || externalNode.getKeyAt(keyIndex) != key) {
+			return 0;
+		}
+		return externalNode.getValueCount(keyIndex);
+	}
+
+	/**
+	 * Inserts elements with given keys and values in the tree, existing keys get
+	 * the new value. Of equal keys in the batch the last one wins. In a
+	 * multi-value tree every value is added to the values of its key in batch
+	 * order, as insert does.
+	 * 
+	 * @param keys   keys of the elements to be inserted
+	 * @param values values of the elements to be inserted
+	 * @return number of keys that were not in the tree
+	 * @see #insertAll(int[], double[], boolean)
+	 */
+	public int upsertAll(int[] keys, double[] values) {
+		return insertAll(keys, values, true);
+	}
+
+	/**
+	 * Inserts elements with given keys and values in the tree, keys already in the
+	 * tree keep their value. Of equal keys in the batch the first one wins. In a
+	 * multi-value tree every value is added to the values of its key in batch
+	 * order, as insert does.
+	 * 
+	 * @param keys   keys of the elements to be inserted
+	 * @param values values of the elements to be inserted
+	 * @return number of keys that were not in the tree
+	 * @see #insertAll(int[], double[], boolean)
+	 */
+	public int insertAll(int[] keys, double[] values) {
+		return insertAll(keys, values, false);
+	}
+
+	/**
+	 * Inserts a batch of elements. The batch is sorted so that neighbouring keys
+	 * share one descent: all keys below the upper bound of the
+	 * external node found are merged into it in one pass, as many as it has room
+	 * for, and the node is split once when it is full. After a split the keys go
+	 * on to the half they belong to without a new descent. In a multi-value tree
+	 * the values of a key are appended around the merge, see appendBatchValues.
+	 * 
+	 * @param keys        keys of the elements to be inserted
+	 * @param values      values of the elements to be inserted
+	 * @param isOverwrite true if keys already in the tree get the new value, not
+	 *                    used in a multi-value tree
+	 * @return number of keys that were not in the tree
+	 */
+	private int insertAll(int[] keys, double[] values, boolean isOverwrite) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException(
+					"Got " + keys.length + " keys but " + values.length + " values");
+		}
+		boolean isReplace = isOverwrite && !this.isMultiValue;
+		// sort key and position together, equal keys stay in batch order
+		long[] positions = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			positions[i] = (long) keys[i] << 32 | i;
+		}
+		Arrays.sort(positions);
+		int[] sortedKeys = new int[keys.length];
+		double[] sortedValues = new double[keys.length];
+		// in a multi-value tree every value is kept, those of sortedKeys[i] are
+		// batchValues[valueStarts[i]] to batchValues[valueEnds[i] - 1]
+		double[] batchValues = this.isMultiValue ? new double[keys.length] : null;
+		int[] valueStarts = this.isMultiValue ? new int[keys.length] : null;
+		int[] valueEnds = this.isMultiValue ? new int[keys.length] : null;
+		int count = 0;
+		for (int p = 0; p < positions.length; p++) {
+			int key = (int) (positions[p] >> 32);
+			double value = values[(int) positions[p]];
+			if (count > 0 && sortedKeys[count - 1] == key) {
+				if (isReplace) {
+					sortedValues[count - 1] = value;
+				}
+			} else {
+				if (batchValues != null) {
+					valueStarts[count] = p;
+				}
+				sortedKeys[count] = key;
+				sortedValues[count++] = value;
+			}
+			if (batchValues != null) {
+				batchValues[p] = value;
+				valueEnds[count - 1] = p + 1;
+			}
+		}
+		if (this.resultCache != null) {
+			this.resultCache.invalidateAll(Arrays.copyOf(sortedKeys, count));
+		}
+		int addedCount = 0;
+		int i = 0;
+		long[] pathBounds = new long[MAX_HEIGHT];
+		int pathSize = 0;
+		BPlusTreeNode externalNode = null;
+		long upperBound = Long.MIN_VALUE;
+		while (i < count) {
+			if (sortedKeys[i] >= upperBound) {
+				pathSize = findExternalNode(sortedKeys[i], pathBounds, pathSize);
+				externalNode = this.pathNodes[pathSize - 1];
+				upperBound = pathBounds[pathSize - 1];
+			}
+			int room = this.order - externalNode.getDataListSize();
+			int end = i;
+			while (end < count && end - i < room && sortedKeys[end] < upperBound) {
+				end++;
+			}
+			if (batchValues != null) {
+				appendBatchValues(externalNode, sortedKeys, batchValues, valueStarts, valueEnds, i, end, false);
+			}
+			addedCount += externalNode.mergeExternalData(sortedKeys, sortedValues, i, end, isReplace);
+			if (batchValues != null) {
+				appendBatchValues(externalNode, sortedKeys, batchValues, valueStarts, valueEnds, i, end, true);
+			}
+			i = end;
+			if (externalNode.isOverfullNode(this.order)) {
+				if (pathSize == 0) {
+					// the path was lost by an earlier split, the first key leads back to the node
+					pathSize = findExternalNode(externalNode.getFirstKey(), pathBounds, 0);
+				}
+				BPlusTreeNode rightPartNode = splitPath(pathSize - 1, isAppend(externalNode, sortedKeys[end - 1]));
+				int splitKey = rightPartNode.getFirstKey();
+				// internal nodes of the path may have been split as well
+				pathSize = 0;
+				// go on with the half holding the next key, no need to descend again
+				if (i < count && sortedKeys[i] >= splitKey) {
+					externalNode = rightPartNode;
+				} else {
+					upperBound = splitKey;
+				}
+			}
+		}
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.addKeys(addedCount);
+		}
+		return addedCount;
+	}
+
+	/**
+	 * Append the values of a batch to the values of their keys in a multi-value
+	 * tree. Before the keys are merged into the external node, the keys it already
+	 * holds get all their values of the batch. After the merge, the keys it added
+	 * with their first value get the remaining ones.
+	 * 
+	 * @param node        the external node
+	 * @param keys        sorted keys of the batch without duplicates
+	 * @param batchValues values of the batch sorted by key, in batch order for
+	 *                    equal keys
+	 * @param valueStarts index of the first value of every key not added yet,
+	 *                    updated
+	 * @param valueEnds   index after the last value of every key
+	 * @param fromIndex   index of the first key merged into the node
+	 * @param toIndex     index after the last key merged into the node
+	 * @param isMerged    true once the keys were merged into the node
+	 */
+	private static void appendBatchValues(BPlusTreeNode node, int[] keys, double[] batchValues, int[] valueStarts,
+			int[] valueEnds, int fromIndex, int toIndex, boolean isMerged) {
+		for (int j = fromIndex; j < toIndex; j++) {
+			if (valueStarts[j] == valueEnds[j]) {
+				continue;
+			}
+			int keyIndex = node.getKeyIndex(keys[j]) - 1;
+			if (isMerged) {
+				// the merge added the key with its first value
+				valueStarts[j]++;
+			} else if (keyIndex < 0 || keyIndex >= node.getDataListSize() || !node.containsKeyAtIndex(keyIndex, keys[j])) {
+				continue;
+			}
+			for (int v = valueStarts[j]; v < valueEnds[j]; v++) {
+				node.addValue(keyIndex, batchValues[v]);
+			}
+			valueStarts[j] = valueEnds[j];
+		}
+	}
+
+	/**
+	 * Find the external node holding a key for a batch of increasing keys,
+	 * recording the path in pathNodes and pathIndexes. The descent starts from
+	 * the deepest node of the previous descent whose subtree holds the key, so
+	 * neighbouring keys share the upper part of the path.
+	 * 
+	 * @param key        the key
+	 * @param pathBounds exclusive upper bound of the keys below each node of the
+	 *                   path, updated
+	 * @param pathSize   number of valid nodes in the path, 0 to start at the root
+	 * @return number of nodes in the path, the last one is the external node
+	 */
+	private int findExternalNode(int key, long[] pathBounds, int pathSize) {
+		while (pathSize > 1 && key >= pathBounds[pathSize - 1]) {
+			pathSize--;
+		}
+		if (pathSize == 0) {
+			this.pathNodes[0] = this.root;
+			pathBounds[0] = Long.MAX_VALUE;
+			pathSize = 1;
+		}
+		BPlusTreeNode node = this.pathNodes[pathSize - 1];
+		long upperBound = pathBounds[pathSize - 1];
+		while (!node.isExternalNode()) {
+			int childIndex = node.getKeyIndex(key);
+			if (childIndex < node.getDataListSize()) {
+				upperBound = node.getKeyAt(childIndex);
+			}
+			this.pathIndexes[pathSize - 1] = childIndex;
+			node = node.getChild(childIndex);
+			this.pathNodes[pathSize] = node;
+			pathBounds[pathSize++] = upperBound;
+		}
+		return pathSize;
+	}
+
+	/**
+	 * Deletes elements with given keys from the tree. The batch is sorted so that
+	 * all keys of an external node are deleted in one pass after one descent, and
+	 * the node is balanced once if it is left below the minimum occupancy, by
+	 * borrowing every missing key from a sibling or else merging with it, see
+	 * setMinOccupancy.
+	 * 
+	 * @param keys keys of the elements to be deleted
+	 * @return number of elements deleted
+	 */
+	public int deleteAll(int[] keys) {
+		int[] sortedKeys = keys.clone();
+		Arrays.sort(sortedKeys);
+		if (this.resultCache != null) {
+			this.resultCache.invalidateAll(sortedKeys);
+		}
+		int deletedCount = 0;
+		int i = 0;
+		long[] pathBounds = new long[MAX_HEIGHT];
+		int pathSize = 0;
+		while (i < sortedKeys.length) {
+			pathSize = findExternalNode(sortedKeys[i], pathBounds, pathSize);
+			BPlusTreeNode externalNode = this.pathNodes[pathSize - 1];
+			long upperBound = pathBounds[pathSize - 1];
+			int end = i;
+			while (end < sortedKeys.length && sortedKeys[end] < upperBound) {
+				end++;
+			}
+			int count = externalNode.deleteExternalData(sortedKeys, i, end);
+			deletedCount += count;
+			// deficient external node as root is fine.
+			if (count > 0 && pathSize > 1 && externalNode.getDataListSize() < this.minOccupancy) {
+				balanceExternalNode(externalNode, pathSize - 1);
+				pathSize = 0;
+			}
+			i = end;
 		}
-		externalNode.deleteData(keyIndex);
-		// deficient external node as root is fine.
-		if (externalNode != root && externalNode.getDataListSize() == 0) {
-			balanceExternalNode(externalNode, key);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.addKeys(-deletedCount);
 		}
+		return deletedCount;
 	}
 
 	/**
-	 * In case of empty External Node we need to balance it using two cases: 
-	 * 1. Borrow from adjacent sibling if they have key's greater than order/2.
+	 * In case of External Node below the minimum occupancy we need to balance it
+	 * using two cases: 
+	 * 1. Borrow the missing keys from adjacent sibling if it keeps the minimum.
 	 * 2. Merge with sibling
 	 * and delete the in between key 2. Merge parentKey and sibling
 	 * 
-	 * @param node The internal node that needs to be balanced
-	 * @param key  key which was deleted that caused the imbalance
+	 * @param node  The external node that needs to be balanced
+	 * @param depth depth of node on the recorded path
 	 */
-	private void balanceExternalNode(BPlusTreeNode node, int key) {
-		BPlusTreeNode leftSibling = getLeftSibling(node, key);
-		BPlusTreeNode rightSibling = getRightSibling(node, key);
-		if (rightSibling != null && rightSibling.getDataListSize() > 1) {
-			borrowFromRightSibling(node, rightSibling, key);
-		} else if (leftSibling != null && leftSibling.getDataListSize() > 1) {
-			borrowFromLeftSibling(node, leftSibling, key);
+	private void balanceExternalNode(BPlusTreeNode node, int depth) {
+		BPlusTreeNode parent = this.pathNodes[depth - 1];
+		int childIndex = this.pathIndexes[depth - 1];
+		BPlusTreeNode leftSibling = childIndex > 0 ? parent.getChild(childIndex - 1) : null;
+		BPlusTreeNode rightSibling = childIndex < parent.getDataListSize() ? parent.getChild(childIndex + 1) : null;
+		// a batch delete may leave the node more than one key short
+		int needed = this.minOccupancy - node.getDataListSize();
+		if (rightSibling != null && rightSibling.getDataListSize() - needed >= this.minOccupancy) {
+			borrowFromRightSibling(node, rightSibling, parent, childIndex, needed);
+		} else if (leftSibling != null && leftSibling.getDataListSize() - needed >= this.minOccupancy) {
+			borrowFromLeftSibling(node, leftSibling, parent, childIndex, needed);
 		} else {
-			BPlusTreeNode sibling = null;
-			if (rightSibling != null) {
-				mergeWithSibling(node, key, true);
-				sibling = rightSibling;
+			BPlusTreeNode removedNode = node;
+			if (node.getDataListSize() == 0) {
+				mergeWithSibling(node, parent, childIndex, rightSibling != null);
+			} else if (leftSibling != null) {
+				// the sibling can not spare the missing keys, so both nodes hold fewer
+				// than twice the minimum, at most the order, and fit in one node
+				node.moveDataTo(0, leftSibling);
+				mergeWithSibling(node, parent, childIndex, false);
 			} else {
-				mergeWithSibling(node, key, false);
-				sibling = leftSibling;
+				rightSibling.moveDataTo(0, node);
+				mergeWithSibling(rightSibling, parent, childIndex + 1, false);
+				removedNode = rightSibling;
 			}
-			node.clear();
+			removedNode.clear();
 			// deficient internal node
-			if (sibling.getParent().getDataListSize() == 0) {
-				balanceInternalNode(sibling.getParent(), key);
+			if (parent.getDataListSize() == 0) {
+				BPlusTreeRebalanceEvent event = new BPlusTreeRebalanceEvent();
+				event.begin();
+				int lastDepth = balanceInternalNode(depth - 1);
+				event.end();
+				if (event.shouldCommit()) {
+					event.order = this.order;
+					event.levels = depth - lastDepth + 1;
+					event.isRootRemoved = lastDepth == 0;
+					event.commit();
+				}
+				if (BPlusTreeMetrics.ENABLED) {
+					this.metrics.countCascadingRebalance();
+				}
 			}
 		}
 	}
@@ -101,86 +708,94 @@ public class BPlusTreeImpl {
 	 * from last leaf in case of left sibling or 2nd key in case of right sibling
 	 * 2. Merge parent and sibling.
 	 * 
-	 * @param node The internal node that needs to be balanced.
-	 * @param key The key which caused the imbalance.
+	 * @param depth depth of the internal node that needs to be balanced on the
+	 *              recorded path
+	 * @return depth of the last node balanced, 0 if the root was removed
 	 */
-	private void balanceInternalNode(BPlusTreeNode node, int key) {
-		if (node == root) {
+	private int balanceInternalNode(int depth) {
+		BPlusTreeNode node = this.pathNodes[depth];
+		if (depth == 0) {
 			// reached empty root case, delete the root and make child as root
 			this.root = node.getChild(0);
-			this.root.setParent(null);
+			if (BPlusTreeMetrics.ENABLED) {
+				this.metrics.countRootRemoval();
+			}
+			return 0;
+		}
+		BPlusTreeNode parent = this.pathNodes[depth - 1];
+		int childIndex = this.pathIndexes[depth - 1];
+		BPlusTreeNode leftSibling = childIndex > 0 ? parent.getChild(childIndex - 1) : null;
+		BPlusTreeNode rightSibling = childIndex < parent.getDataListSize() ? parent.getChild(childIndex + 1) : null;
+		if (leftSibling != null && leftSibling.getDataListSize() > 1) {
+			borrowFromInternalSibling(node, leftSibling, parent, childIndex, false);
+		} else if (rightSibling != null && rightSibling.getDataListSize() > 1) {
+			borrowFromInternalSibling(node, rightSibling, parent, childIndex, true);
 		} else {
-			BPlusTreeNode leftSibling = getLeftSibling(node, key);
-			BPlusTreeNode rightSibling = getRightSibling(node, key);
-			if (leftSibling != null && leftSibling.getDataListSize() > 1) {
-				borrowFromInternalSibling(node, leftSibling, key, false);
-			} else if (rightSibling != null && rightSibling.getDataListSize() > 1) {
-				borrowFromInternalSibling(node, rightSibling, key, true);
+			if (rightSibling != null) {
+				mergeWithSiblingAndParentKey(node, rightSibling, parent, childIndex, true);
 			} else {
-				BPlusTreeNode sibling = null;
-				if (rightSibling != null) {
-					mergeWithSiblingAndParentKey(node, rightSibling, key, true);
-					sibling = rightSibling;
-				} else {
-					mergeWithSiblingAndParentKey(node, leftSibling, key, false);
-					sibling = leftSibling;
-				}
-				node.clear();
-				// deficient internal node
-				if (sibling.getParent().getDataListSize() == 0) {
-					balanceInternalNode(sibling.getParent(), key);
-				}
+				mergeWithSiblingAndParentKey(node, leftSibling, parent, childIndex, false);
+			}
+			node.clear();
+			// deficient internal node
+			if (parent.getDataListSize() == 0) {
+				return balanceInternalNode(depth - 1);
 			}
 		}
+		return depth;
 	}
 
 	/**
-	 * Case1 of balancing external node. Borrow the first key from right sibling.
+	 * Case1 of balancing external node. Borrow the first keys from right sibling.
 	 * 
 	 * @param externalNode the node that is getting balanced
-	 * @param sibling      The right sibling which has key greater than order/2
-	 * @param deletedKey   the key that got deleted and caused imbalance.
+	 * @param sibling      The right sibling which keeps the minimum occupancy
+	 *                     after the borrow
+	 * @param parent       the parent of both nodes
+	 * @param childIndex   index of externalNode among the children of parent
+	 * @param count        number of keys to be borrowed
 	 */
-	private void borrowFromRightSibling(BPlusTreeNode externalNode, BPlusTreeNode sibling, int deletedKey) {
-		int keyIndex = externalNode.getParent().getKeyIndex(deletedKey);
-		BPlusTreeNode.Data firstData = sibling.removeFirstData();
-		externalNode.addData(0, firstData);
-		int newKey = sibling.getFirstKey();
-		externalNode.getParent().updateKey(keyIndex, newKey);
+	private void borrowFromRightSibling(BPlusTreeNode externalNode, BPlusTreeNode sibling, BPlusTreeNode parent,
+			int childIndex, int count) {
+		sibling.moveFirstDataTo(count, externalNode);
+		parent.updateKey(childIndex, sibling.getFirstKey());
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countExternalBorrow();
+		}
 	}
 
 	/**
-	 * Case1 of balancing external node. Borrow the last key from left sibling.
+	 * Case1 of balancing external node. Borrow the last keys from left sibling.
 	 * 
 	 * @param externalNode the node that is getting balanced
-	 * @param sibling      The left sibling which has key greater than order/2
-	 * @param deletedKey   the key that got deleted and caused imbalance.
+	 * @param sibling      The left sibling which keeps the minimum occupancy
+	 *                     after the borrow
+	 * @param parent       the parent of both nodes
+	 * @param childIndex   index of externalNode among the children of parent
+	 * @param count        number of keys to be borrowed
 	 */
-	private void borrowFromLeftSibling(BPlusTreeNode externalNode, BPlusTreeNode sibling, int deletedKey) {
-		int keyIndex = externalNode.getParent().getKeyIndex(deletedKey);
-		BPlusTreeNode.Data lastData = sibling.removeLastData();
-		externalNode.addData(0, lastData);
-		externalNode.getParent().updateKey(keyIndex - 1, lastData.key);
-
+	private void borrowFromLeftSibling(BPlusTreeNode externalNode, BPlusTreeNode sibling, BPlusTreeNode parent,
+			int childIndex, int count) {
+		sibling.moveLastDataTo(count, externalNode);
+		parent.updateKey(childIndex - 1, externalNode.getFirstKey());
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countExternalBorrow();
+		}
 	}
 
 	/**
 	 * Case2 of balancing external node. Delete in between key from parent and
 	 * remove the external node.
 	 * 
-	 * @param externalNode the node that is getting balanced
-	 * @param deletedKey   the key that got deleted and caused imbalance.
+	 * @param externalNode the external node to be removed
+	 * @param parent       the parent of externalNode
+	 * @param childIndex   index of externalNode among the children of parent
 	 * @param isRight      true in case of merging with right sibling.
 	 */
-	private void mergeWithSibling(BPlusTreeNode externalNode, int deletedKey, boolean isRight) {
-		int keyIndex = externalNode.getParent().getKeyIndex(deletedKey);
-		if (isRight) {
-			externalNode.getParent().deleteData(keyIndex);
-			externalNode.getParent().removeChild(keyIndex);
-		} else {
-			externalNode.getParent().deleteData(keyIndex - 1);
-			externalNode.getParent().removeChild(keyIndex);
-		}
+	private void mergeWithSibling(BPlusTreeNode externalNode, BPlusTreeNode parent, int childIndex,
+			boolean isRight) {
+		parent.deleteData(isRight ? childIndex : childIndex - 1);
+		parent.removeChild(childIndex);
 		// Adjust the doubly linked list
 		if (externalNode.getNextNode() != null) {
 			externalNode.getNextNode().setPrevNode(externalNode.getPrevNode());
@@ -188,7 +803,9 @@ public class BPlusTreeImpl {
 		if (externalNode.getPrevNode() != null) {
 			externalNode.getPrevNode().setNextNode(externalNode.getNextNode());
 		}
-
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countExternalMerge();
+		}
 	}
 
 	/**
@@ -196,31 +813,31 @@ public class BPlusTreeImpl {
 	 * change parent key from last leaf in case of left sibling or 2nd key in case
 	 * of right sibling.
 	 * 
-	 * @param node    The internal node that is getting balanced.
-	 * @param sibling The sibling which has key greater than order/2
-	 * @param key     the key that got deleted and caused imbalance.
-	 * @param isRight true in case of right sibling
+	 * @param node       The internal node that is getting balanced.
+	 * @param sibling    The sibling which has key greater than order/2
+	 * @param parent     the parent of both nodes
+	 * @param childIndex index of node among the children of parent
+	 * @param isRight    true in case of right sibling
 	 */
-	private void borrowFromInternalSibling(BPlusTreeNode node, BPlusTreeNode sibling, int key, boolean isRight) {
-		int keyIndex = node.getParent().getKeyIndex(key);
-		BPlusTreeNode borrowedChild;
-		BPlusTreeNode.Data borrowedData;
-		int parentKey;
+	private void borrowFromInternalSibling(BPlusTreeNode node, BPlusTreeNode sibling, BPlusTreeNode parent,
+			int childIndex, boolean isRight) {
+		int keyIndex = isRight ? childIndex : childIndex - 1;
+		int parentKey = parent.getKeyAt(keyIndex);
+		int borrowedKey;
 		if (isRight) {
-			parentKey = node.getParent().getKeyAt(keyIndex);
-			borrowedChild = sibling.removeChild(0);
-			node.addChild(1, borrowedChild);
-			borrowedData = sibling.removeFirstData();
+			node.addChild(1, sibling.removeChild(0));
+			borrowedKey = sibling.getFirstKey();
+			sibling.deleteData(0);
 		} else {
-			keyIndex = keyIndex - 1;
-			parentKey = node.getParent().getKeyAt(keyIndex);
-			borrowedChild = sibling.removeChild(sibling.getChildrens().size() - 1);
-			node.addChild(0, borrowedChild);
-			borrowedData = sibling.removeLastData();
+			node.addChild(0, sibling.removeChild(sibling.getChildrensSize() - 1));
+			borrowedKey = sibling.getKeyAt(sibling.getDataListSize() - 1);
+			sibling.deleteData(sibling.getDataListSize() - 1);
 		}
-		borrowedChild.setParent(node);
 		node.addInternalData(0, parentKey);
-		node.getParent().updateKey(keyIndex, borrowedData.key);
+		parent.updateKey(keyIndex, borrowedKey);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countInternalBorrow();
+		}
 	}
 
 	/**
@@ -229,65 +846,168 @@ public class BPlusTreeImpl {
 	 * 
 	 * @param node       The internal node that is getting balanced.
 	 * @param sibling    The sibling which is getting merged with parent.
-	 * @param deletedKey the key that got deleted and caused imbalance.
+	 * @param parent     the parent of both nodes
+	 * @param childIndex index of node among the children of parent
 	 * @param isRight    true in case of right sibling
 	 */
-	private void mergeWithSiblingAndParentKey(BPlusTreeNode node, BPlusTreeNode sibling, int deletedKey,
-			boolean isRight) {
-		int keyIndex = node.getParent().getKeyIndex(deletedKey);
-		int parentKey;
+	private void mergeWithSiblingAndParentKey(BPlusTreeNode node, BPlusTreeNode sibling, BPlusTreeNode parent,
+			int childIndex, boolean isRight) {
 		if (isRight) {
-			parentKey = node.getParent().getKeyAt(keyIndex);
 			sibling.addChild(0, node.getChild(0));
-			sibling.addInternalData(0, parentKey);
-			node.getChild(0).setParent(sibling);
-			node.getParent().deleteData(keyIndex);
-			node.getParent().removeChild(keyIndex);
+			sibling.addInternalData(0, parent.getKeyAt(childIndex));
+			parent.deleteData(childIndex);
 		} else {
-			keyIndex = keyIndex - 1;
-			parentKey = node.getParent().getKeyAt(keyIndex);
-			sibling.addChild(sibling.getChildrens().size(), node.getChild(0));
-			sibling.addInternalData(sibling.getDataListSize(), parentKey);
-			node.getChild(0).setParent(sibling);
-			node.getParent().deleteData(keyIndex);
-			node.getParent().removeChild(keyIndex + 1);
+			sibling.addChild(sibling.getChildrensSize(), node.getChild(0));
+			sibling.addInternalData(sibling.getDataListSize(), parent.getKeyAt(childIndex - 1));
+			parent.deleteData(childIndex - 1);
+		}
+		parent.removeChild(childIndex);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countInternalMerge();
 		}
 	}
 
 	/**
-	 * Get the right sibling for a node
+	 * Search an element with given key in the tree.
 	 * 
-	 * @param node B+ node whose right sibling is needed.
-	 * @param key  key that got deleted from node.
-	 * @return The right sibling
+	 * @param key key of the element to be searched.
+	 * @return list containing the value whose key is searched.
 	 */
-	private BPlusTreeNode getRightSibling(BPlusTreeNode node, int key) {
-		BPlusTreeNode parent = node.getParent();
-		int keyIndex = parent.getKeyIndex(key);
-		return parent.getChild(keyIndex + 1);
+	public ArrayList<Double> search(int key) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		if (this.resultCache != null) {
+			ArrayList<Double> listValues = searchResultCache(key, key);
+			if (BPlusTreeMetrics.ENABLED) {
+				this.metrics.recordSearch(System.nanoTime() - start);
+			}
+			return listValues;
+		}
+		ArrayList<Double> listValues = new ArrayList<Double>();
+		BPlusTreeNode externalNode = findExternalNode(this.root, key);
+		int keyIndex = externalNode.getKeyIndex(key) - 1;
+		if (keyIndex >= 0 && externalNode.getKeyAt(keyIndex) == key) {
+			PostingList postingList = externalNode.getPostingList(keyIndex);
+			if (postingList == null) {
+				listValues.add(externalNode.getValueAt(keyIndex));
+			} else {
+				for (int i = 0; i < postingList.size(); i++) {
+					listValues.add(postingList.get(i));
+				}
+			}
+		}
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordSearch(System.nanoTime() - start);
+		}
+		return listValues;
 	}
 
 	/**
-	 * Get the left sibling for a node
+	 * Get the value of an element with given key, without allocating. In a
+	 * multi-value tree it is the first value of the key.
 	 * 
-	 * @param node B+ node whose left sibling is needed.
-	 * @param key  key that got deleted from node.
-	 * @return The left sibling
+	 * @param key key of the element to be searched.
+	 * @return the value, NaN if the key is not in the tree
 	 */
-	private BPlusTreeNode getLeftSibling(BPlusTreeNode node, int key) {
-		BPlusTreeNode parent = node.getParent();
-		int keyIndex = parent.getKeyIndex(key);
-		return parent.getChild(keyIndex - 1);
+	public double get(int key) {
+		return getOrDefault(key, Double.NaN);
 	}
 
 	/**
-	 * Search an element with given key in the tree.
+	 * Get the value of an element with given key, without allocating. The search
+	 * descends once and stops at the external node.
+	 * 
+	 * @param key          key of the element to be searched.
+	 * @param defaultValue value returned if the key is not in the tree
+	 * @return the value
+	 */
+	public double getOrDefault(int key, double defaultValue) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		BPlusTreeNode externalNode = findExternalNode(this.root, key);
+		int keyIndex = externalNode.getKeyIndex(key) - 1;
+		double value = keyIndex >= 0 && externalNode.getKeyAt(keyIndex) == key ? externalNode.getValueAt(keyIndex)
+				: defaultValue;
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordSearch(System.nanoTime() - start);
+		}
+		return value;
+	}
+
+	/**
+	 * Check if the tree has an element with given key.
 	 * 
 	 * @param key key of the element to be searched.
-	 * @return list containing the value whose key is searched.
+	 * @return boolean value
 	 */
-	public ArrayList<Double> search(int key) {
-		return search(key, key);
+	public boolean containsKey(int key) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		BPlusTreeNode externalNode = findExternalNode(this.root, key);
+		int keyIndex = externalNode.getKeyIndex(key) - 1;
+		boolean isFound = keyIndex >= 0 && externalNode.getKeyAt(keyIndex) == key;
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordSearch(System.nanoTime() - start);
+		}
+		return isFound;
+	}
+
+	/**
+	 * Search the values of many keys at once. The keys are sorted and looked up in
+	 * groups of PROBE_GROUP which descend the tree one level at a time, so the
+	 * cache misses of different probes overlap instead of following each other.
+	 * A probe whose key lies below the upper bound of the node found by the
+	 * previous probe reuses that node without searching its parent.
+	 * 
+	 * @param keys     keys of the elements to be searched
+	 * @param presence cleared, then bit i is set if keys[i] is in the tree
+	 * @return the value of keys[i] at index i, the first one in a multi-value
+	 *         tree, 0 if the key is not in the tree
+	 */
+	public double[] getAll(int[] keys, BitSet presence) {
+		int count = keys.length;
+		long[] probes = new long[count];
+		for (int i = 0; i < count; i++) {
+			probes[i] = (long) keys[i] << 32 | i;
+		}
+		Arrays.sort(probes);
+		double[] values = new double[count];
+		presence.clear();
+		BPlusTreeNode[] nodes = new BPlusTreeNode[PROBE_GROUP];
+		long[] upperBounds = new long[PROBE_GROUP];
+		for (int from = 0; from < count; from += PROBE_GROUP) {
+			int groupSize = Math.min(PROBE_GROUP, count - from);
+			Arrays.fill(nodes, 0, groupSize, this.root);
+			Arrays.fill(upperBounds, 0, groupSize, Long.MAX_VALUE);
+			// all nodes of a level are at the same depth
+			while (!nodes[0].isExternalNode()) {
+				BPlusTreeNode previousNode = null;
+				for (int g = 0; g < groupSize; g++) {
+					int key = (int) (probes[from + g] >> 32);
+					BPlusTreeNode node = nodes[g];
+					if (node == previousNode && key < upperBounds[g - 1]) {
+						// same child as the previous probe
+						nodes[g] = nodes[g - 1];
+						upperBounds[g] = upperBounds[g - 1];
+						continue;
+					}
+					previousNode = node;
+					int childIndex = node.getKeyIndex(key);
+					if (childIndex < node.getDataListSize()) {
+						upperBounds[g] = node.getKeyAt(childIndex);
+					}
+					nodes[g] = node.getChild(childIndex);
+				}
+			}
+			for (int g = 0; g < groupSize; g++) {
+				int key = (int) (probes[from + g] >> 32);
+				int index = (int) probes[from + g];
+				BPlusTreeNode externalNode = nodes[g];
+				int keyIndex = externalNode.getKeyIndex(key) - 1;
+				if (keyIndex >= 0 && externalNode.getKeyAt(keyIndex) == key) {
+					values[index] = externalNode.getValueAt(keyIndex);
+					presence.set(index);
+				}
+			}
+		}
+		return values;
 	}
 
 	/**
@@ -298,29 +1018,113 @@ public class BPlusTreeImpl {
 	 * @return list of values between startKey and endKey
 	 */
 	public ArrayList<Double> search(int startKey, int endKey) {
+		long start = BPlusTreeMetrics.ENABLED ? System.nanoTime() : 0;
+		ArrayList<Double> listValues;
+		if (this.resultCache != null && startKey <= endKey) {
+			listValues = searchResultCache(startKey, endKey);
+		} else {
+			listValues = searchRange(startKey, endKey);
+		}
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.recordRangeSearch(System.nanoTime() - start);
+		}
+		return listValues;
+	}
+
+	private ArrayList<Double> searchRange(int startKey, int endKey) {
 		ArrayList<Double> listValues = new ArrayList<Double>();
-		BPlusTreeNode startNode = findExternalNode(this.root, startKey);
-		BPlusTreeNode current = startNode;
-		boolean isEndKeyReached = false;
-		while (current != null && !isEndKeyReached) {
-			ArrayList<BPlusTreeNode.Data> dataList = current.getDataList();
-			int i;
-			for (i = 0; i < current.getDataListSize(); i++) {
-				int currentKey = ((BPlusTreeNode.DataExternalNode) dataList.get(i)).key;
-				double currentValue = ((BPlusTreeNode.DataExternalNode) dataList.get(i)).value;
-				if (currentKey <= endKey && currentKey >= startKey) {
-					listValues.add(currentValue);
-				}
-				if (currentKey >= endKey) {
-					isEndKeyReached = true;
-					break;
-				}
-			}
-			current = current.getNextNode();
+		BPlusTreeCursor cursor = cursor(startKey, endKey);
+		while (cursor.advance()) {
+			listValues.add(cursor.getValue());
 		}
 		return listValues;
 	}
 
+	/**
+	 * Search all element between and including startKey and endKey in the result
+	 * cache, and in the tree if not cached. The search of one key is the range
+	 * from the key to itself, the values of a key come in the same order from
+	 * either search.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return list of values between startKey and endKey
+	 */
+	private ArrayList<Double> searchResultCache(int startKey, int endKey) {
+		Double[] values = this.resultCache.get(startKey, endKey);
+		if (values == null) {
+			ArrayList<Double> listValues = searchRange(startKey, endKey);
+			this.resultCache.put(startKey, endKey, listValues);
+			return listValues;
+		}
+		return new ArrayList<Double>(Arrays.asList(values));
+	}
+
+	/**
+	 * Cursor over all element that lies between and including startKey and
+	 * endKey, external nodes are visited as the cursor advances.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return the cursor, positioned before the first element
+	 */
+	public BPlusTreeCursor cursor(int startKey, int endKey) {
+		BPlusTreeNode startNode = findExternalNode(this.root, startKey);
+		// skip the keys of start node which are smaller than startKey
+		int i = startKey == Integer.MIN_VALUE ? 0 : startNode.getKeyIndex(startKey - 1);
+		return new BPlusTreeCursor(startNode, i, endKey);
+	}
+
+	/**
+	 * Spliterator over the values of all element that lies between and including
+	 * startKey and endKey, in increasing order of key. It splits the range on
+	 * internal node boundaries.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return the spliterator
+	 */
+	public Spliterator.OfDouble spliterator(int startKey, int endKey) {
+		return new BPlusTreeSpliterator(this.root, startKey, endKey);
+	}
+
+	/**
+	 * Stream of the values of all element that lies between and including
+	 * startKey and endKey, in increasing order of key.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return the stream
+	 */
+	public DoubleStream values(int startKey, int endKey) {
+		return StreamSupport.doubleStream(spliterator(startKey, endKey), false);
+	}
+
+	/**
+	 * Parallel stream of the values of all element that lies between and
+	 * including startKey and endKey, each subtree of the range is scanned by its
+	 * own task.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return the stream
+	 */
+	public DoubleStream parallelValues(int startKey, int endKey) {
+		return StreamSupport.doubleStream(spliterator(startKey, endKey), true);
+	}
+
+	/**
+	 * Count, sum, min and max of the values of all element that lies between and
+	 * including startKey and endKey, computed in parallel.
+	 * 
+	 * @param startKey starting Key of the elements.
+	 * @param endKey   ending key of the elements.
+	 * @return the statistics of the values
+	 */
+	public DoubleSummaryStatistics summaryStatistics(int startKey, int endKey) {
+		return parallelValues(startKey, endKey).summaryStatistics();
+	}
+
 	/**
 	 * The external node that may contain given key.
 	 * 
@@ -330,12 +1134,33 @@ public class BPlusTreeImpl {
 	 */
 	private BPlusTreeNode findExternalNode(BPlusTreeNode root, int key) {
 		BPlusTreeNode current = this.root;
-		while (!current.getChildrens().isEmpty()) {
-			current = current.getChildrens().get(current.getKeyIndex(key));
+		while (!current.isExternalNode()) {
+			current = current.getChild(current.getKeyIndex(key));
 		}
 		return current;
 	}
 
+	/**
+	 * Find the external node that may contain given key, recording the nodes and
+	 * child indexes of the path from the root.
+	 * 
+	 * @param key The key that needs to be found.
+	 * @return the external node, its depth is pathDepth
+	 */
+	private BPlusTreeNode findPath(int key) {
+		int depth = 0;
+		BPlusTreeNode current = this.root;
+		this.pathNodes[0] = current;
+		while (!current.isExternalNode()) {
+			int childIndex = current.getKeyIndex(key);
+			this.pathIndexes[depth] = childIndex;
+			current = current.getChild(childIndex);
+			this.pathNodes[++depth] = current;
+		}
+		this.pathDepth = depth;
+		return current;
+	}
+
 	/**
 	 * Add a new data to external node
 	 * 
@@ -347,153 +1172,299 @@ public class BPlusTreeImpl {
 		int keyIndex = node.getKeyIndex(key);
 		int matchedIndex = keyIndex - 1;
 		if (matchedIndex >= 0 && matchedIndex < node.getDataListSize() && node.containsKeyAtIndex(matchedIndex, key)) {
+			if (this.isMultiValue) {
+				node.addValue(matchedIndex, value);
+				return;
+			}
 			// key already exist, so update the value
 			node.updateDataValue(matchedIndex, value);
 		} else {
 			// add new data
 			node.addExternalData(keyIndex, key, value);
+			if (BPlusTreeMetrics.ENABLED) {
+				this.metrics.addKeys(1);
+			}
 		}
 	}
 
 	/**
-	 * Split external node making the middle key as parent and from middle key to
-	 * end as child.
+	 * Split an overfull node of the recorded path, the middle key and the new
+	 * right node are added to the parent which is split in turn when it becomes
+	 * overfull. A new root is added when the root is split.
 	 * 
-	 * @param node The external node
-	 * @return The middle node.
+	 * @param depth    depth of the overfull node on the recorded path
+	 * @param isAppend true to keep the nodes full, see isAppend
+	 * @return the new right node of the overfull node
 	 */
-	private BPlusTreeNode splitExternalNode(BPlusTreeNode node) {
-		int midIndex = this.order / 2;
-		BPlusTreeNode middleNode = new BPlusTreeNode();
-		BPlusTreeNode rightPartNode = new BPlusTreeNode();
-		rightPartNode.setDataList(node.getDataList().subList(midIndex, node.getDataListSize()));
-		rightPartNode.setParent(middleNode);
-//		middle.addInternalData(((BPlusTreeNode.DataExternalNode) curr.getDataList().get(midIndex)).key);
-		middleNode.addInternalData(0, node.getDataList().get(midIndex).key);
-		middleNode.addChild(0, rightPartNode);
-		// remove the right part from externalNode
-		node.clearDataList(midIndex, node.getDataListSize());
-		return middleNode;
+	private BPlusTreeNode splitPath(int depth, boolean isAppend) {
+		BPlusTreeSplitEvent event = new BPlusTreeSplitEvent();
+		event.begin();
+		BPlusTreeNode node = this.pathNodes[depth];
+		BPlusTreeNode firstRightNode = null;
+		int levels = 0;
+		boolean isRootSplit = false;
+		while (node.isOverfullNode(this.order)) {
+			levels++;
+			int splitIndex = getSplitIndex(node, isAppend);
+			int middleKey = node.getKeyAt(splitIndex);
+			BPlusTreeNode rightNode = node.isExternalNode() ? splitExternalNode(node, splitIndex)
+					: splitInternalNode(node, splitIndex);
+			if (firstRightNode == null) {
+				firstRightNode = rightNode;
+			}
+			if (depth == 0) {
+				// root node was split
+				BPlusTreeNode newRoot = new BPlusTreeNode(this.order, false);
+				newRoot.addInternalData(0, middleKey);
+				newRoot.addChild(0, node);
+				newRoot.addChild(1, rightNode);
+				this.root = newRoot;
+				isRootSplit = true;
+				if (BPlusTreeMetrics.ENABLED) {
+					this.metrics.countRootSplit();
+				}
+				break;
+			}
+			depth--;
+			node = this.pathNodes[depth];
+			int childIndex = this.pathIndexes[depth];
+			node.addInternalData(childIndex, middleKey);
+			node.addChild(childIndex + 1, rightNode);
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.order = this.order;
+			event.levels = levels;
+			event.isRootSplit = isRootSplit;
+			event.isAppend = isAppend;
+			event.commit();
+		}
+		return firstRightNode;
 	}
 
 	/**
-	 * Split internal node making the middle key as parent and middle+1 till end as
-	 * child
+	 * Check if the split of a full external node comes from a key appended after
+	 * all other keys of the tree and may leave the node full.
 	 * 
-	 * @param node The internal node
-	 * @return The middle node.
+	 * @param node the full external node
+	 * @param key  the last key added to the node
+	 * @return boolean value
 	 */
-	private BPlusTreeNode splitInternalNode(BPlusTreeNode node) {
-		int midIndex = this.order / 2;
-		BPlusTreeNode middleNode = new BPlusTreeNode();
-		BPlusTreeNode rightPartNode = new BPlusTreeNode();
-		rightPartNode.setDataList(node.getDataList().subList(midIndex + 1, node.getDataListSize()));
-		rightPartNode.setParent(middleNode);
-		middleNode.addInternalData(0, node.getDataList().get(midIndex).key);
-		middleNode.addChild(0, rightPartNode);
-		// remove the right part from externalNode
-		node.clearDataList(midIndex, node.getDataListSize());
-		// Move all the children belonging to right part from split node
-		ArrayList<BPlusTreeNode> splitNodeChildrens = node.getChildrens();
-		ArrayList<BPlusTreeNode> righPartChildrens = new ArrayList<>();
-		int indexLastChildOfLeft = splitNodeChildrens.size() - 1;
-		for (int i = splitNodeChildrens.size() - 1; i >= 0; i--) {
-			ArrayList<BPlusTreeNode.Data> iChildrenDataList = splitNodeChildrens.get(i).getDataList();
-			if (middleNode.getFirstKey() <= iChildrenDataList.get(0).key) {
-				splitNodeChildrens.get(i).setParent(rightPartNode);
-				righPartChildrens.add(0, splitNodeChildrens.get(i));
-				indexLastChildOfLeft--;
-			} else {
-				break;
-			}
+	private boolean isAppend(BPlusTreeNode node, int key) {
+		return this.isAppendSplit && node.getNextNode() == null
+				&& node.getKeyAt(node.getDataListSize() - 1) == key;
+	}
+
+	/**
+	 * Get the index of the key where a full node is split. An external node keeps
+	 * the keys before it, an internal node the keys before it and their children,
+	 * the key itself moves up.
+	 * 
+	 * @param node     the full node
+	 * @param isAppend true to keep the node full
+	 * @return the split index
+	 */
+	private int getSplitIndex(BPlusTreeNode node, boolean isAppend) {
+		// the new node of an internal node needs one key and two children
+		int maxIndex = node.isExternalNode() ? this.order - 1 : this.order - 2;
+		if (isAppend) {
+			return maxIndex;
 		}
-		rightPartNode.setChildrens(righPartChildrens);
-		node.clearChildrensList(indexLastChildOfLeft + 1, splitNodeChildrens.size());
-		node.clearDataList(midIndex, node.getDataListSize());
-		return middleNode;
+		return Math.max(1, Math.min(maxIndex, (int) (this.order * this.splitFactor)));
 	}
 
 	/**
-	 * Recursively Split and Merge internal Nodes, the generated middle node from
-	 * split needs to be merged with parent internal node.
+	 * Split external node moving the keys from the split index to the end to a
+	 * new node, which is linked after it.
 	 * 
-	 * @param internalNode    The parent internal node
-	 * @param newInternalNode The middle node
-	 * @param prevSplitNode   The split node
+	 * @param node       The external node
+	 * @param splitIndex index of the first key moved
+	 * @return The new right node.
 	 */
-	private void mergeNodes(BPlusTreeNode internalNode, BPlusTreeNode newInternalNode, BPlusTreeNode prevSplitNode) {
-		mergeInternalNodes(internalNode, newInternalNode, prevSplitNode);
-		if (internalNode != null && internalNode.isOverfullNode(order)) {
-			BPlusTreeNode middleNode = splitInternalNode(internalNode);
-			mergeNodes(internalNode.getParent(), middleNode, internalNode);
+	private BPlusTreeNode splitExternalNode(BPlusTreeNode node, int splitIndex) {
+		BPlusTreeNode rightPartNode = new BPlusTreeNode(this.order, true);
+		node.moveDataTo(splitIndex, rightPartNode);
+		// Adjust the doubly linked list
+		BPlusTreeNode nextNode = node.getNextNode();
+		rightPartNode.setNextNode(nextNode);
+		rightPartNode.setPrevNode(node);
+		if (nextNode != null) {
+			nextNode.setPrevNode(rightPartNode);
 		}
+		node.setNextNode(rightPartNode);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countExternalSplit();
+		}
+		return rightPartNode;
+	}
 
+	/**
+	 * Split internal node moving the keys after the middle key and their children
+	 * to a new node, the middle key is removed to be added to the parent.
+	 * 
+	 * @param node     The internal node
+	 * @param midIndex index of the middle key
+	 * @return The new right node.
+	 */
+	private BPlusTreeNode splitInternalNode(BPlusTreeNode node, int midIndex) {
+		BPlusTreeNode rightPartNode = new BPlusTreeNode(this.order, false);
+		// move the right part from split node, the middle key moves up
+		node.moveDataTo(midIndex + 1, rightPartNode);
+		node.deleteData(midIndex);
+		// Move all the children belonging to right part from split node
+		node.moveChildrensTo(midIndex + 1, rightPartNode);
+		if (BPlusTreeMetrics.ENABLED) {
+			this.metrics.countInternalSplit();
+		}
+		return rightPartNode;
 	}
 
 	/**
-	 * Merge two internal Nodes, the generated middle node from split needs to be
-	 * merged with parent internal node.
+	 * Re-packs sparse external nodes along the linked list: an external node with
+	 * fewer keys than the fill factor takes the first keys of the nodes after it,
+	 * and nodes left empty are removed. The internal levels are then rebuilt on
+	 * top of the external nodes, filled to the fill factor. Nodes as full as the
+	 * fill factor and before the first sparse node are not changed.
 	 * 
-	 * @param parentNode    The parent internal node
-	 * @param newSplitMiddleNode The middle node
-	 * @param prevSplitNode  The split node
+	 * The tree is not synchronized, to compact in the background the compaction
+	 * must hold the same lock as the writers, e.g. run it between batches of
+	 * deletes.
+	 * 
+	 * @param fillFactor Fraction of each node that is filled, between 0.5 and 1.
+	 * @return number of external nodes removed
 	 */
-	private void mergeInternalNodes(BPlusTreeNode parentNode, BPlusTreeNode newSplitMiddleNode,
-			BPlusTreeNode prevSplitNode) {
-		// root node was split
-		if (parentNode == null) {
-			boolean isRootExternaNode = this.root.getChildrens().size() == 0;
-			this.root = newSplitMiddleNode;
-			// find index in children list where external node needs to be placed
-			int indexMiddleKey = newSplitMiddleNode.getKeyIndex(prevSplitNode.getDataList().get(0).key);
-			prevSplitNode.setParent(newSplitMiddleNode);
-			newSplitMiddleNode.addChild(indexMiddleKey, prevSplitNode);
-			if (isRootExternaNode) {
-				newSplitMiddleNode.getChildrens().get(0).setNextNode(newSplitMiddleNode.getChildrens().get(1));
-				newSplitMiddleNode.getChildrens().get(1).setPrevNode(newSplitMiddleNode.getChildrens().get(0));
-			}
-		} else {
-			int keyToBeInserted = newSplitMiddleNode.getDataList().get(0).key;
-			BPlusTreeNode childToBeInserted = newSplitMiddleNode.getChildrens().get(0);
-			int newKeyIndex = parentNode.getKeyIndex(keyToBeInserted);
-			int childInsertPos = newKeyIndex;
-			// if new child has key greater than equal to new key than it comes to right of
-			// key in other words 1 position extra to key position.
-			if (keyToBeInserted <= childToBeInserted.getFirstKey()) {
-				childInsertPos = newKeyIndex + 1;
-			}
-			childToBeInserted.setParent(parentNode);
-			parentNode.addChild(childInsertPos, childToBeInserted);
-			parentNode.addInternalData(newKeyIndex, keyToBeInserted);
-
-			if (parentNode.isParentOfExternalNode()) {
-
-				if (childInsertPos == 0) {
-					BPlusTreeNode nextNode = parentNode.getChildrens().get(childInsertPos + 1);
-					childToBeInserted.setPrevNode(nextNode.getPrevNode());
-					if (nextNode.getPrevNode() != null) {
-						nextNode.getPrevNode().setNextNode(childToBeInserted);
-					}
-					childToBeInserted.setNextNode(nextNode);
-					nextNode.setPrevNode(childToBeInserted);
-				} else if (childInsertPos == parentNode.getChildrens().size() - 1) {
-					BPlusTreeNode prevNode = parentNode.getChildrens().get(childInsertPos - 1);
-					childToBeInserted.setNextNode(prevNode.getNextNode());
-					if (prevNode.getNextNode() != null) {
-						prevNode.getNextNode().setPrevNode(childToBeInserted);
+	public int compact(double fillFactor) {
+		BPlusTreeBulkLoader loader = new BPlusTreeBulkLoader(this.order, fillFactor);
+		int targetSize = loader.getExternalNodeSize();
+		BPlusTreeNode node = this.root;
+		while (!node.isExternalNode()) {
+			node = node.getChild(0);
+		}
+		ArrayList<BPlusTreeNode> externalNodes = new ArrayList<BPlusTreeNode>();
+		boolean isChanged = false;
+		int removedCount = 0;
+		while (node != null) {
+			BPlusTreeNode next = node.getNextNode();
+			while (node.getDataListSize() < targetSize && next != null) {
+				int length = Math.min(targetSize - node.getDataListSize(), next.getDataListSize());
+				next.moveFirstDataTo(length, node);
+				isChanged = true;
+				if (next.getDataListSize() == 0) {
+					// Adjust the doubly linked list
+					node.setNextNode(next.getNextNode());
+					if (next.getNextNode() != null) {
+						next.getNextNode().setPrevNode(node);
 					}
-					childToBeInserted.setPrevNode(prevNode);
-					prevNode.setNextNode(childToBeInserted);
-				} else {
-					BPlusTreeNode prevNode = parentNode.getChildrens().get(childInsertPos - 1);
-					childToBeInserted.setPrevNode(prevNode);
-					prevNode.setNextNode(childToBeInserted);
-					BPlusTreeNode nextNode = parentNode.getChildrens().get(childInsertPos + 1);
-					childToBeInserted.setNextNode(nextNode);
-					nextNode.setPrevNode(childToBeInserted);
+					next.clear();
+					removedCount++;
+					next = node.getNextNode();
 				}
 			}
+			externalNodes.add(node);
+			node = next;
 		}
+		if (isChanged) {
+			this.root = loader.buildInternalLevels(externalNodes);
+			if (BPlusTreeMetrics.ENABLED) {
+				countNodes();
+			}
+		}
+		return removedCount;
+	}
+
+	/**
+	 * Count the nodes and keys of the whole tree into the metrics, after it was
+	 * built or rebuilt.
+	 */
+	private void countNodes() {
+		int height = 1;
+		long internalNodeCount = 0;
+		ArrayList<BPlusTreeNode> level = new ArrayList<BPlusTreeNode>();
+		level.add(this.root);
+		while (!level.get(0).isExternalNode()) {
+			internalNodeCount += level.size();
+			ArrayList<BPlusTreeNode> nextLevel = new ArrayList<BPlusTreeNode>();
+			for (BPlusTreeNode node : level) {
+				for (int i = 0; i < node.getChildrensSize(); i++) {
+					nextLevel.add(node.getChild(i));
+				}
+			}
+			level = nextLevel;
+			height++;
+		}
+		long keyCount = 0;
+		for (BPlusTreeNode node : level) {
+			keyCount += node.getDataListSize();
+		}
+		this.metrics.setCounts(height, level.size(), internalNodeCount, keyCount);
+	}
+
+	/**
+	 * Compress the keys of every node whose keys lie within 65535 of its first
+	 * key, see BPlusTreeNode. Searches run on the compressed keys, a node changed
+	 * afterwards goes back to uncompressed keys, so compressing suits trees that
+	 * are mostly read, such as a bulk loaded tree of sequential timestamps.
+	 * 
+	 * @return number of nodes compressed
+	 */
+	public int compressKeys() {
+		int compressedCount = 0;
+		ArrayList<BPlusTreeNode> level = new ArrayList<BPlusTreeNode>();
+		level.add(this.root);
+		while (!level.isEmpty()) {
+			ArrayList<BPlusTreeNode> nextLevel = new ArrayList<BPlusTreeNode>();
+			for (BPlusTreeNode node : level) {
+				if (node.compressKeys()) {
+					compressedCount++;
+				}
+				for (int i = 0; i < node.getChildrensSize(); i++) {
+					nextLevel.add(node.getChild(i));
+				}
+			}
+			level = nextLevel;
+		}
+		return compressedCount;
+	}
+
+	/**
+	 * Verify the structure of the whole tree and collect its statistics, see
+	 * BPlusTreeVerifier. Unlike printBPlusTree this holds no more than the path
+	 * from the root, whatever the size of the tree.
+	 * 
+	 * @return the statistics and the errors found
+	 */
+	public BPlusTreeStats verify() {
+		return new BPlusTreeVerifier(this).run();
+	}
+
+	/**
+	 * Get a verifier of the tree that verifies it in steps of a given number of
+	 * nodes, so a large tree can be verified between writes.
+	 * 
+	 * @return the verifier
+	 * @see BPlusTreeVerifier
+	 */
+	public BPlusTreeVerifier verifier() {
+		return new BPlusTreeVerifier(this);
+	}
+
+	/**
+	 * Verify the structure of the whole tree, its subtrees in parallel. The tree
+	 * must not change until this returns.
+	 * 
+	 * @return the statistics and the errors found
+	 */
+	public BPlusTreeStats verifyParallel() {
+		return BPlusTreeVerifier.verifyParallel(this);
+	}
+
+	/**
+	 * Get the root of the tree
+	 * 
+	 * @return the root
+	 */
+	BPlusTreeNode getRoot() {
+		return this.root;
 	}
 
 	/**
@@ -519,11 +1490,11 @@ public class BPlusTreeImpl {
 			System.out.print(current.toString() + " | ");
 			// Once a external node is found break, than use linked list to print all the
 			// nodes data this way we can ensure tree is created correctly.
-			if (current.getChildrens().isEmpty()) {
+			if (current.isExternalNode()) {
 				break;
 			}
-			for (int i = 0; i < current.getChildrens().size(); i++) {
-				queue.add(current.getChildrens().get(i));
+			for (int i = 0; i < current.getChildrensSize(); i++) {
+				queue.add(current.getChild(i));
 			}
 		}
 
@@ -0,0 +1,295 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a BPlusTreeImpl: height, node and key counts, split, merge and
+ * borrow counters and latency histograms of inserts, deletes and searches.
+ * They are read with BPlusTreeImpl.getMetrics or over JMX once registered.
+ *
+ * Metrics are switched on with the system property bplustree.metrics=true. The
+ * property is read once into a static final field, so with metrics off the JIT
+ * removes every instrumentation point of the tree and no metrics are
+ * allocated. The node and key counts are kept up to date by the tree as it
+ * changes, they are not computed when read.
+ *
+ * Note that the metrics are not synchronized, values read by another thread
+ * than the one using the tree, e.g. over JMX, may lag behind.
+ */
+public class BPlusTreeMetrics implements BPlusTreeMetricsMXBean {
+
+	static final boolean ENABLED = Boolean.getBoolean("bplustree.metrics");
+
+	private final int order;
+	private int height;
+	private long externalNodeCount;
+	private long internalNodeCount;
+	private long keyCount;
+	private long externalSplitCount;
+	private long internalSplitCount;
+	private long rootSplitCount;
+	private long externalMergeCount;
+	private long internalMergeCount;
+	private long externalBorrowCount;
+	private long internalBorrowCount;
+	private long cascadingRebalanceCount;
+	private final LatencyHistogram insertLatency = new LatencyHistogram();
+	private final LatencyHistogram deleteLatency = new LatencyHistogram();
+	private final LatencyHistogram searchLatency = new LatencyHistogram();
+	private final LatencyHistogram rangeSearchLatency = new LatencyHistogram();
+	private ObjectName objectName;
+
+	/**
+	 * Constructs the metrics of a tree.
+	 *
+	 * @param order the order of the tree
+	 */
+	BPlusTreeMetrics(int order) {
+		this.order = order;
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server under
+	 * BPlusTree:type=BPlusTreeImpl,name=name.
+	 *
+	 * @param name name of the tree, unique among the registered trees
+	 */
+	public synchronized void register(String name) {
+		if (this.objectName != null) {
+			throw new IllegalStateException("Metrics are already registered as " + this.objectName);
+		}
+		try {
+			ObjectName objectName = new ObjectName("BPlusTree:type=BPlusTreeImpl,name=" + name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Can not register metrics as " + name, e);
+		}
+	}
+
+	/**
+	 * Remove the metrics from the platform MBean server, if registered.
+	 */
+	public synchronized void unregister() {
+		if (this.objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException("Can not unregister metrics " + this.objectName, e);
+		} finally {
+			this.objectName = null;
+		}
+	}
+
+	@Override
+	public int getOrder() {
+		return this.order;
+	}
+
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+
+	@Override
+	public long getExternalNodeCount() {
+		return this.externalNodeCount;
+	}
+
+	@Override
+	public long getInternalNodeCount() {
+		return this.internalNodeCount;
+	}
+
+	@Override
+	public long getKeyCount() {
+		return this.keyCount;
+	}
+
+	@Override
+	public double getAverageFill() {
+		long externalNodeCount = this.externalNodeCount;
+		return externalNodeCount == 0 ? 0 : (double) this.keyCount / (externalNodeCount * (this.order - 1));
+	}
+
+	@Override
+	public long getExternalSplitCount() {
+		return this.externalSplitCount;
+	}
+
+	@Override
+	public long getInternalSplitCount() {
+		return this.internalSplitCount;
+	}
+
+	@Override
+	public long getRootSplitCount() {
+		return this.rootSplitCount;
+	}
+
+	@Override
+	public long getExternalMergeCount() {
+		return this.externalMergeCount;
+	}
+
+	@Override
+	public long getInternalMergeCount() {
+		return this.internalMergeCount;
+	}
+
+	@Override
+	public long getExternalBorrowCount() {
+		return this.externalBorrowCount;
+	}
+
+	@Override
+	public long getInternalBorrowCount() {
+		return this.internalBorrowCount;
+	}
+
+	@Override
+	public long getCascadingRebalanceCount() {
+		return this.cascadingRebalanceCount;
+	}
+
+	@Override
+	public LatencyHistogram getInsertLatency() {
+		return this.insertLatency;
+	}
+
+	@Override
+	public LatencyHistogram getDeleteLatency() {
+		return this.deleteLatency;
+	}
+
+	@Override
+	public LatencyHistogram getSearchLatency() {
+		return this.searchLatency;
+	}
+
+	@Override
+	public LatencyHistogram getRangeSearchLatency() {
+		return this.rangeSearchLatency;
+	}
+
+	@Override
+	public void reset() {
+		this.externalSplitCount = 0;
+		this.internalSplitCount = 0;
+		this.rootSplitCount = 0;
+		this.externalMergeCount = 0;
+		this.internalMergeCount = 0;
+		this.externalBorrowCount = 0;
+		this.internalBorrowCount = 0;
+		this.cascadingRebalanceCount = 0;
+		this.insertLatency.reset();
+		this.deleteLatency.reset();
+		this.searchLatency.reset();
+		this.rangeSearchLatency.reset();
+	}
+
+	/**
+	 * Set the node and key counts after the tree was built or rebuilt.
+	 */
+	void setCounts(int height, long externalNodeCount, long internalNodeCount, long keyCount) {
+		this.height = height;
+		this.externalNodeCount = externalNodeCount;
+		this.internalNodeCount = internalNodeCount;
+		this.keyCount = keyCount;
+	}
+
+	void addKeys(long count) {
+		this.keyCount += count;
+	}
+
+	void countExternalSplit() {
+		this.externalSplitCount++;
+		this.externalNodeCount++;
+	}
+
+	void countInternalSplit() {
+		this.internalSplitCount++;
+		this.internalNodeCount++;
+	}
+
+	void countRootSplit() {
+		this.rootSplitCount++;
+		this.internalNodeCount++;
+		this.height++;
+	}
+
+	void countRootRemoval() {
+		this.internalNodeCount--;
+		this.height--;
+	}
+
+	void countExternalMerge() {
+		this.externalMergeCount++;
+		this.externalNodeCount--;
+	}
+
+	void countInternalMerge() {
+		this.internalMergeCount++;
+		this.internalNodeCount--;
+	}
+
+	void countExternalBorrow() {
+		this.externalBorrowCount++;
+	}
+
+	void countInternalBorrow() {
+		this.internalBorrowCount++;
+	}
+
+	void countCascadingRebalance() {
+		this.cascadingRebalanceCount++;
+	}
+
+	void recordInsert(long nanos) {
+		this.insertLatency.record(nanos);
+	}
+
+	void recordDelete(long nanos) {
+		this.deleteLatency.record(nanos);
+	}
+
+	void recordSearch(long nanos) {
+		this.searchLatency.record(nanos);
+	}
+
+	void recordRangeSearch(long nanos) {
+		this.rangeSearchLatency.record(nanos);
+	}
+
+	/**
+	 * Get the metrics in a human readable format.
+	 *
+	 * @return the metrics
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("height %d, %d external and %d internal nodes, %d keys, fill %.3f%n", this.height,
+				this.externalNodeCount, this.internalNodeCount, this.keyCount, getAverageFill()));
+		out.append(String.format(
+				"splits %d external, %d internal, %d root; merges %d external, %d internal;"
+						+ " borrows %d external, %d internal; %d cascading rebalances%n",
+				this.externalSplitCount, this.internalSplitCount, this.rootSplitCount, this.externalMergeCount,
+				this.internalMergeCount, this.externalBorrowCount, this.internalBorrowCount,
+				this.cascadingRebalanceCount));
+		appendLatency(out, "insert", this.insertLatency);
+		appendLatency(out, "delete", this.deleteLatency);
+		appendLatency(out, "search", this.searchLatency);
+		appendLatency(out, "rangesearch", this.rangeSearchLatency);
+		return out.toString();
+	}
+
+	private static void appendLatency(StringBuilder out, String name, LatencyHistogram histogram) {
+		out.append(String.format("%-11s count %d, mean %.0f ns, p50 %d, p99 %d, p99.9 %d, max %d ns%n", name,
+				histogram.getCount(), histogram.getMean(), histogram.getP50(), histogram.getP99(),
+				histogram.getP999(), histogram.getMax()));
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Management interface of the metrics of a B+ tree, see BPlusTreeMetrics.
+ * Latencies are shown as composite data holding the count, mean, maximum and
+ * percentiles in nanoseconds.
+ */
+public interface BPlusTreeMetricsMXBean {
+
+	/**
+	 * Get the order of the tree
+	 *
+	 * @return the order
+	 */
+	int getOrder();
+
+	/**
+	 * Get the number of levels of the tree
+	 *
+	 * @return the height, 1 when the root is an external node
+	 */
+	int getHeight();
+
+	/**
+	 * Get the number of external nodes
+	 *
+	 * @return the external node count
+	 */
+	long getExternalNodeCount();
+
+	/**
+	 * Get the number of internal nodes
+	 *
+	 * @return the internal node count
+	 */
+	long getInternalNodeCount();
+
+	/**
+	 * Get the number of keys
+	 *
+	 * @return the key count
+	 */
+	long getKeyCount();
+
+	/**
+	 * Get the average fraction of the keys an external node can hold that it
+	 * holds
+	 *
+	 * @return the average fill, between 0 and 1
+	 */
+	double getAverageFill();
+
+	/**
+	 * Get the number of external node splits
+	 *
+	 * @return the split count
+	 */
+	long getExternalSplitCount();
+
+	/**
+	 * Get the number of internal node splits, the root included
+	 *
+	 * @return the split count
+	 */
+	long getInternalSplitCount();
+
+	/**
+	 * Get the number of root splits, each adds a level
+	 *
+	 * @return the split count
+	 */
+	long getRootSplitCount();
+
+	/**
+	 * Get the number of external nodes merged into a sibling
+	 *
+	 * @return the merge count
+	 */
+	long getExternalMergeCount();
+
+	/**
+	 * Get the number of internal nodes merged into a sibling
+	 *
+	 * @return the merge count
+	 */
+	long getInternalMergeCount();
+
+	/**
+	 * Get the number of keys an external node borrowed from a sibling
+	 *
+	 * @return the borrow count
+	 */
+	long getExternalBorrowCount();
+
+	/**
+	 * Get the number of children an internal node borrowed from a sibling
+	 *
+	 * @return the borrow count
+	 */
+	long getInternalBorrowCount();
+
+	/**
+	 * Get the number of deletes whose rebalancing reached an internal node
+	 *
+	 * @return the cascading rebalance count
+	 */
+	long getCascadingRebalanceCount();
+
+	/**
+	 * Get the latencies of inserts
+	 *
+	 * @return the latency histogram
+	 */
+	LatencyHistogram getInsertLatency();
+
+	/**
+	 * Get the latencies of deletes
+	 *
+	 * @return the latency histogram
+	 */
+	LatencyHistogram getDeleteLatency();
+
+	/**
+	 * Get the latencies of searches of one key
+	 *
+	 * @return the latency histogram
+	 */
+	LatencyHistogram getSearchLatency();
+
+	/**
+	 * Get the latencies of range searches
+	 *
+	 * @return the latency histogram
+	 */
+	LatencyHistogram getRangeSearchLatency();
+
+	/**
+	 * Clear the counters and latencies, the node and key counts are kept.
+	 */
+	void reset();
+
+}
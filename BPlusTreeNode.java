@@ -1,177 +1,374 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Class to represent B+ tree node.
+ * Class to represent B+ tree node. Keys are stored in an int array, values of
+ * an external node in a parallel double array and children of an internal node
+ * in a fixed size array, all sized from the order of the tree.
+ * 
+ * In a multi-value tree a key of an external node with more than one value has
+ * a PostingList holding all its values, the double array then holds the first
+ * one. The posting list array is only allocated once a node has such a key.
+ * 
+ * The keys of a node can be compressed with frame of reference encoding: the
+ * int array is replaced by the offsets of the keys from the first key, one byte
+ * each when they all lie within 255 of it, else two bytes when within 65535.
+ * Searches work on the offsets directly, a change of the keys restores the int
+ * array first.
+ * 
+ * Nodes do not keep a reference to their parent, BPlusTreeImpl records the path
+ * from the root while it searches the external node of an insert or delete.
  * 
  * @author Shaileshbhai Gothi
  *
  */
 public class BPlusTreeNode {
+
+	static final int KEY_SEARCH_LINEAR = 0;
+	static final int KEY_SEARCH_BINARY = 1;
+	static final int KEY_SEARCH_BRANCH_FREE = 2;
+
 	/**
-	 * Nested class to hold B+ tree node data.
-	 * 
-	 * @author Shaileshbhai Gothi
-	 *
+	 * Key search strategy used by getKeyIndex, set with the system property
+	 * bplustree.keySearch (linear, binary or branchfree). The branch free binary
+	 * search is the default as it is the fastest for every order from 4 to 1024,
+	 * see BPlusTreeBenchmark.
 	 */
-	class Data {
+	private static final int KEY_SEARCH = parseKeySearch(System.getProperty("bplustree.keySearch", "branchfree"));
 
-		protected int key;
-	}
+	private int[] keys;
+	private double[] values;
+	private PostingList[] postingLists;
+	private int keyBase;
+	private byte[] byteKeyOffsets;
+	private char[] charKeyOffsets;
+	private BPlusTreeNode[] childrens;
+	private int dataListSize;
+	private int childrensSize;
+	private BPlusTreeNode nextNode;
+	private BPlusTreeNode prevNode;
 
 	/**
-	 * Represents data of external or leaf Node
+	 * Maps the name of a key search strategy to its constant.
 	 * 
-	 * @author Shaileshbhai Gothi
-	 *
+	 * @param name the strategy name
+	 * @return the strategy constant
 	 */
-	class DataExternalNode extends Data {
-
-		public double value;
-
-		public DataExternalNode(int key, Double value) {
-			this.key = key;
-			this.value = value;
+	static int parseKeySearch(String name) {
+		switch (name) {
+		case "linear":
+			return KEY_SEARCH_LINEAR;
+		case "binary":
+			return KEY_SEARCH_BINARY;
+		case "branchfree":
+			return KEY_SEARCH_BRANCH_FREE;
+		default:
+			throw new IllegalArgumentException("Unknown key search strategy: " + name);
 		}
-
 	}
 
 	/**
-	 * Represents data of internal Node
+	 * Constructs an empty B+ tree node. A node can hold order keys (one more than
+	 * allowed so it can be split after an insert) and order + 1 children.
 	 * 
-	 * @author Shaileshbhai Gothi
-	 *
+	 * @param order          Order of B+ tree
+	 * @param isExternalNode true if the node is an external (leaf) node
 	 */
-	class DataInternalNode extends Data {
-
-		public DataInternalNode(int key) {
-			this.key = key;
+	public BPlusTreeNode(int order, boolean isExternalNode) {
+		this.keys = new int[order];
+		if (isExternalNode) {
+			this.values = new double[order];
+		} else {
+			this.childrens = new BPlusTreeNode[order + 1];
 		}
+	}
 
+	/**
+	 * Check if B+ tree node is an external (leaf) node.
+	 * 
+	 * @return boolean value
+	 */
+	public boolean isExternalNode() {
+		return this.childrens == null;
 	}
 
-	private ArrayList<BPlusTreeNode> childrens;
-	private ArrayList<Data> dataList;
-	private BPlusTreeNode parent;
-	private BPlusTreeNode nextNode;
-	private BPlusTreeNode prevNode;
+	/**
+	 * Adds a child to B+ tree node at give position
+	 * 
+	 * @param index the position where to add child.
+	 * @param node  child to be added.
+	 */
+	public void addChild(int index, BPlusTreeNode node) {
+		System.arraycopy(this.childrens, index, this.childrens, index + 1, this.childrensSize - index);
+		this.childrens[index] = node;
+		this.childrensSize++;
+	}
 
 	/**
-	 * Constructs an empty B+ tree node
+	 * Get number of children of B+ tree node
+	 * 
+	 * @return the number of children
 	 */
-	public BPlusTreeNode() {
-		this.childrens = new ArrayList<BPlusTreeNode>();
-		this.dataList = new ArrayList<Data>();
+	public int getChildrensSize() {
+		return this.childrensSize;
 	}
 
 	/**
-	 * Get B+ tree node data
+	 * Get Next B+ tree node in linked list for external Node
 	 * 
-	 * @return the data list of B+ tree node
+	 * @return B+ tree node
 	 */
-	public ArrayList<Data> getDataList() {
-		return this.dataList;
+	public BPlusTreeNode getNextNode() {
+		return this.nextNode;
 	}
 
 	/**
-	 * Adds a child to B+ tree node at give position
+	 * Get Previous B+ tree node in linked list for external Node
 	 * 
-	 * @param index the position where to add child.
-	 * @param node  child to be added.
+	 * @return B+ tree node
 	 */
-	public void addChild(int index, BPlusTreeNode node) {
-		this.childrens.add(index, node);
+	public BPlusTreeNode getPrevNode() {
+		return this.prevNode;
 	}
 
 	/**
-	 * Set B+ tree data list
+	 * Set Next B+ tree node in linked list for external Node
 	 * 
-	 * @param dataList the data list that needs to be set.
+	 * @param node The B+ tree external node
 	 */
-	public void setDataList(List<Data> dataList) {
-		this.dataList = (ArrayList<Data>) new ArrayList<Data>(dataList);
+	public void setNextNode(BPlusTreeNode node) {
+		this.nextNode = node;
 	}
 
 	/**
+	 * Set Previous B+ tree node in linked list for external Node
 	 * 
-	 * @return Parent node of B+ tree
+	 * @param node The B+ tree external node
 	 */
-	public BPlusTreeNode getParent() {
-		return this.parent;
+	public void setPrevNode(BPlusTreeNode node) {
+		this.prevNode = node;
 	}
 
 	/**
-	 * Get B+ tree node children
+	 * Add new external node data to B+ tree node.
 	 * 
-	 * @return the children of B+ tree node
+	 * @param keyIndex position where to add external node data
+	 * @param key      the key of data to be added
+	 * @param value    the value of data to be added
 	 */
-	public ArrayList<BPlusTreeNode> getChildrens() {
-		return childrens;
+	public void addExternalData(int keyIndex, int key, double value) {
+		decompressKeys();
+		int length = this.dataListSize - keyIndex;
+		System.arraycopy(this.keys, keyIndex, this.keys, keyIndex + 1, length);
+		System.arraycopy(this.values, keyIndex, this.values, keyIndex + 1, length);
+		if (this.postingLists != null) {
+			System.arraycopy(this.postingLists, keyIndex, this.postingLists, keyIndex + 1, length);
+			this.postingLists[keyIndex] = null;
+		}
+		this.keys[keyIndex] = key;
+		this.values[keyIndex] = value;
+		this.dataListSize++;
 	}
 
 	/**
-	 * Set B+ tree node children
+	 * Add another value to the key at given index, in a multi-value tree.
 	 * 
-	 * @param childrens ArrayList of children of B+ tree node
+	 * @param keyIndex the position of data
+	 * @param value    the value to be added
 	 */
-	public void setChildrens(ArrayList<BPlusTreeNode> childrens) {
-		this.childrens = (ArrayList<BPlusTreeNode>) new ArrayList<BPlusTreeNode>(childrens);
+	public void addValue(int keyIndex, double value) {
+		decompressKeys();
+		if (this.postingLists == null) {
+			this.postingLists = new PostingList[this.keys.length];
+		}
+		PostingList postingList = this.postingLists[keyIndex];
+		if (postingList == null) {
+			postingList = new PostingList();
+			postingList.add(this.values[keyIndex]);
+			this.postingLists[keyIndex] = postingList;
+		}
+		postingList.add(value);
 	}
 
 	/**
-	 * Get Next B+ tree node in linked list for external Node
+	 * Remove one occurrence of a value from the key at given index, the key must
+	 * have more than one value.
 	 * 
-	 * @return B+ tree node
+	 * @param keyIndex the position of data
+	 * @param value    the value to be removed
+	 * @return false if the key does not have the value
+	 */
+	public boolean removeValue(int keyIndex, double value) {
+		PostingList postingList = this.postingLists[keyIndex];
+		int valueIndex = postingList.indexOf(value);
+		if (valueIndex < 0) {
+			return false;
+		}
+		postingList.removeAt(valueIndex);
+		this.values[keyIndex] = postingList.get(0);
+		if (postingList.size() == 1) {
+			this.postingLists[keyIndex] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of values of the key at given index
+	 * 
+	 * @param index the index of key in node
+	 * @return the value count, 1 unless the tree is multi-value
 	 */
-	public BPlusTreeNode getNextNode() {
-		return this.nextNode;
+	public int getValueCount(int index) {
+		if (this.postingLists == null || this.postingLists[index] == null) {
+			return 1;
+		}
+		return this.postingLists[index].size();
 	}
 
 	/**
-	 * Get Previous B+ tree node in linked list for external Node
+	 * Get the posting list of the key at given index
 	 * 
-	 * @return B+ tree node
+	 * @param index the index of key in node
+	 * @return the posting list, null if the key has one value
 	 */
-	public BPlusTreeNode getPrevNode() {
-		return this.prevNode;
+	public PostingList getPostingList(int index) {
+		return this.postingLists == null ? null : this.postingLists[index];
 	}
 
 	/**
+	 * Set the posting list of the key at given index
 	 * 
-	 * @param node Parent to be set for B+ tree node
+	 * @param index       the index of key in node
+	 * @param postingList the posting list, null if the key has one value
 	 */
-	public void setParent(BPlusTreeNode node) {
-		this.parent = node;
+	public void setPostingList(int index, PostingList postingList) {
+		if (postingList == null && this.postingLists == null) {
+			return;
+		}
+		if (this.postingLists == null) {
+			this.postingLists = new PostingList[this.keys.length];
+		}
+		this.postingLists[index] = postingList;
 	}
 
 	/**
-	 * Set Next B+ tree node in linked list for external Node
+	 * Merge elements sorted by key without duplicates into external node in one
+	 * pass. The node must have room for every key it does not hold yet.
 	 * 
-	 * @param node The B+ tree external node
+	 * @param keys        sorted keys of the elements
+	 * @param values      values of the elements
+	 * @param fromIndex   index of the first element to be merged
+	 * @param toIndex     index after the last element to be merged
+	 * @param isOverwrite true if keys already in node get the new value
+	 * @return number of keys added
 	 */
-	public void setNextNode(BPlusTreeNode node) {
-		this.nextNode = node;
+	public int mergeExternalData(int[] keys, double[] values, int fromIndex, int toIndex, boolean isOverwrite) {
+		decompressKeys();
+		if (fromIndex == toIndex) {
+			return 0;
+		}
+		int size = this.dataListSize;
+		int addedCount = 0;
+		int i = getLowerKeyIndex(keys[fromIndex]);
+		for (int j = fromIndex; j < toIndex; j++) {
+			while (i < size && this.keys[i] < keys[j]) {
+				i++;
+			}
+			if (i < size && this.keys[i] == keys[j]) {
+				if (isOverwrite) {
+					this.values[i] = values[j];
+				}
+			} else {
+				addedCount++;
+			}
+		}
+		// merge from the end, the keys before the first added key stay in place
+		int target = size + addedCount - 1;
+		i = size - 1;
+		for (int j = toIndex - 1; j >= fromIndex && target > i; j--) {
+			// keys in [0, i] are not moved yet, find how many are greater than keys[j]
+			int low = 0;
+			int high = i + 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (this.keys[mid] > keys[j]) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			int moveCount = i + 1 - low;
+			System.arraycopy(this.keys, low, this.keys, target - moveCount + 1, moveCount);
+			System.arraycopy(this.values, low, this.values, target - moveCount + 1, moveCount);
+			if (this.postingLists != null) {
+				System.arraycopy(this.postingLists, low, this.postingLists, target - moveCount + 1, moveCount);
+			}
+			target -= moveCount;
+			i = low - 1;
+			if (i < 0 || this.keys[i] != keys[j]) {
+				this.keys[target] = keys[j];
+				this.values[target] = values[j];
+				if (this.postingLists != null) {
+					this.postingLists[target] = null;
+				}
+				target--;
+			}
+		}
+		this.dataListSize = size + addedCount;
+		return addedCount;
 	}
 
 	/**
-	 * Set Previous B+ tree node in linked list for external Node
+	 * Delete the elements of external node whose key is in a sorted array, in one
+	 * pass.
 	 * 
-	 * @param node The B+ tree external node
+	 * @param keys      sorted keys to be deleted
+	 * @param fromIndex index of the first key to be deleted
+	 * @param toIndex   index after the last key to be deleted
+	 * @return number of elements deleted
 	 */
-	public void setPrevNode(BPlusTreeNode node) {
-		this.prevNode = node;
+	public int deleteExternalData(int[] keys, int fromIndex, int toIndex) {
+		decompressKeys();
+		if (fromIndex == toIndex) {
+			return 0;
+		}
+		int size = this.dataListSize;
+		int target = getLowerKeyIndex(keys[fromIndex]);
+		int i = target;
+		int j = fromIndex;
+		while (i < size && j < toIndex) {
+			if (keys[j] < this.keys[i]) {
+				j++;
+			} else if (keys[j] == this.keys[i]) {
+				i++;
+				j++;
+			} else {
+				this.keys[target] = this.keys[i];
+				this.values[target] = this.values[i];
+				if (this.postingLists != null) {
+					this.postingLists[target] = this.postingLists[i];
+				}
+				target++;
+				i++;
+			}
+		}
+		System.arraycopy(this.keys, i, this.keys, target, size - i);
+		System.arraycopy(this.values, i, this.values, target, size - i);
+		if (this.postingLists != null) {
+			System.arraycopy(this.postingLists, i, this.postingLists, target, size - i);
+			Arrays.fill(this.postingLists, target + size - i, size, null);
+		}
+		this.dataListSize = target + size - i;
+		return i - target;
 	}
 
 	/**
-	 * Add new external node data to B+ tree node.
+	 * Get the index of the first key not smaller than given key.
 	 * 
-	 * @param keyIndex position where to add external node data
-	 * @param key      the key of data to be added
-	 * @param value    the value of data to be added
+	 * @param key the key
+	 * @return the index
 	 */
-	public void addExternalData(int keyIndex, int key, Double value) {
-		this.dataList.add(keyIndex, new DataExternalNode(key, value));
+	private int getLowerKeyIndex(int key) {
+		return key == Integer.MIN_VALUE ? 0 : getKeyIndex(key - 1);
 	}
 
 	/**
@@ -181,7 +378,10 @@ public class BPlusTreeNode {
 	 * @param key      the key of data to be added
 	 */
 	public void addInternalData(int keyIndex, int key) {
-		this.dataList.add(keyIndex, new DataInternalNode(key));
+		decompressKeys();
+		System.arraycopy(this.keys, keyIndex, this.keys, keyIndex + 1, this.dataListSize - keyIndex);
+		this.keys[keyIndex] = key;
+		this.dataListSize++;
 	}
 
 	/**
@@ -191,10 +391,7 @@ public class BPlusTreeNode {
 	 * @return boolean value
 	 */
 	public boolean isOverfullNode(Integer order) {
-		if (this.dataList.size() == order) {
-			return true;
-		}
-		return false;
+		return this.dataListSize == order;
 	}
 
 	/**
@@ -204,15 +401,171 @@ public class BPlusTreeNode {
 	 * @return the index
 	 */
 	public int getKeyIndex(int key) {
-		int index = 0;
-		for (Data oData : this.dataList) {
-			if (oData.key > key) {
+		if (this.keys == null) {
+			return getKeyIndexCompressed(key);
+		}
+		switch (KEY_SEARCH) {
+		case KEY_SEARCH_LINEAR:
+			return getKeyIndexLinear(key);
+		case KEY_SEARCH_BINARY:
+			return getKeyIndexBinary(key);
+		default:
+			return getKeyIndexBranchFree(key);
+		}
+	}
+
+	/**
+	 * Get the (index+1) child index of given key by scanning all keys.
+	 * 
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	public int getKeyIndexLinear(int key) {
+		int[] keys = this.keys;
+		int size = this.dataListSize;
+		for (int index = 0; index < size; index++) {
+			if (keys[index] > key) {
 				return index;
 			}
-			index++;
 		}
-		return index;
+		return size;
+	}
+
+	/**
+	 * Get the (index+1) child index of given key using binary search.
+	 * 
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	public int getKeyIndexBinary(int key) {
+		int[] keys = this.keys;
+		int low = 0;
+		int high = this.dataListSize;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] > key) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
 
+	/**
+	 * Get the (index+1) child index of given key using a binary search whose loop
+	 * only depends on the node size, so the comparison compiles to a conditional
+	 * move instead of a hard to predict branch.
+	 * 
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	public int getKeyIndexBranchFree(int key) {
+		int[] keys = this.keys;
+		int size = this.dataListSize;
+		if (size == 0) {
+			return 0;
+		}
+		int base = 0;
+		while (size > 1) {
+			int half = size >>> 1;
+			base = keys[base + half] <= key ? base + half : base;
+			size -= half;
+		}
+		return keys[base] <= key ? base + 1 : base;
+	}
+
+	/**
+	 * Get the (index+1) child index of given key using a branch free binary search
+	 * over the offsets of compressed keys.
+	 * 
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	private int getKeyIndexCompressed(int key) {
+		int size = this.dataListSize;
+		long offset = (long) key - this.keyBase;
+		if (size == 0 || offset < 0) {
+			return 0;
+		}
+		if (offset > 0xFFFF) {
+			return size;
+		}
+		int target = (int) offset;
+		int base = 0;
+		if (this.byteKeyOffsets != null) {
+			byte[] offsets = this.byteKeyOffsets;
+			while (size > 1) {
+				int half = size >>> 1;
+				base = (offsets[base + half] & 0xFF) <= target ? base + half : base;
+				size -= half;
+			}
+			return (offsets[base] & 0xFF) <= target ? base + 1 : base;
+		}
+		char[] offsets = this.charKeyOffsets;
+		while (size > 1) {
+			int half = size >>> 1;
+			base = offsets[base + half] <= target ? base + half : base;
+			size -= half;
+		}
+		return offsets[base] <= target ? base + 1 : base;
+	}
+
+	/**
+	 * Compress the keys with frame of reference encoding if they all lie within
+	 * 65535 of the first key. The offsets array is sized to the keys present, a
+	 * change of the keys restores the int array.
+	 * 
+	 * @return true if the keys are compressed
+	 */
+	public boolean compressKeys() {
+		if (this.keys == null || this.dataListSize == 0) {
+			return isKeysCompressed();
+		}
+		int size = this.dataListSize;
+		long span = (long) this.keys[size - 1] - this.keys[0];
+		if (span > 0xFFFF) {
+			return false;
+		}
+		this.keyBase = this.keys[0];
+		if (span <= 0xFF) {
+			this.byteKeyOffsets = new byte[size];
+			for (int i = 0; i < size; i++) {
+				this.byteKeyOffsets[i] = (byte) (this.keys[i] - this.keyBase);
+			}
+		} else {
+			this.charKeyOffsets = new char[size];
+			for (int i = 0; i < size; i++) {
+				this.charKeyOffsets[i] = (char) (this.keys[i] - this.keyBase);
+			}
+		}
+		this.keys = null;
+		return true;
+	}
+
+	/**
+	 * Check if the keys are compressed.
+	 * 
+	 * @return boolean value
+	 */
+	public boolean isKeysCompressed() {
+		return this.byteKeyOffsets != null || this.charKeyOffsets != null;
+	}
+
+	/**
+	 * Restore the int array of compressed keys, sized from the order of the tree.
+	 */
+	private void decompressKeys() {
+		if (!isKeysCompressed()) {
+			return;
+		}
+		int[] keys = new int[isExternalNode() ? this.values.length : this.childrens.length - 1];
+		for (int i = 0; i < this.dataListSize; i++) {
+			keys[i] = getKeyAt(i);
+		}
+		this.keys = keys;
+		this.byteKeyOffsets = null;
+		this.charKeyOffsets = null;
 	}
 
 	/**
@@ -221,8 +574,8 @@ public class BPlusTreeNode {
 	 * @param keyIndex the position of data
 	 * @param value    the value to be updated
 	 */
-	public void updateDataValue(int keyIndex, Double value) {
-		((DataExternalNode) this.dataList.get(keyIndex)).value = value;
+	public void updateDataValue(int keyIndex, double value) {
+		this.values[keyIndex] = value;
 	}
 
 	/**
@@ -233,7 +586,7 @@ public class BPlusTreeNode {
 	 * @return boolean value
 	 */
 	public boolean containsKeyAtIndex(int keyIndex, int key) {
-		return this.dataList.get(keyIndex).key == key;
+		return getKeyAt(keyIndex) == key;
 	}
 
 	/**
@@ -242,107 +595,180 @@ public class BPlusTreeNode {
 	 * @return the size
 	 */
 	public int getDataListSize() {
-		return this.dataList.size();
+		return this.dataListSize;
 	}
 
 	/**
-	 * Clear B+ tree node data list
+	 * Move data from given index till end to the end of another B+ tree node, the
+	 * moved data is removed from this node.
 	 * 
-	 * @param fromIndex starting index from where data list needs to be cleared
-	 * @param toIndex   ending index till where data list needs to be cleared
+	 * @param fromIndex starting index of data to be moved
+	 * @param node      the node which receives the data
 	 */
-	public void clearDataList(int fromIndex, int toIndex) {
-		this.dataList.subList(fromIndex, toIndex).clear();
-
+	public void moveDataTo(int fromIndex, BPlusTreeNode node) {
+		decompressKeys();
+		node.decompressKeys();
+		int length = this.dataListSize - fromIndex;
+		System.arraycopy(this.keys, fromIndex, node.keys, node.dataListSize, length);
+		if (this.values != null) {
+			System.arraycopy(this.values, fromIndex, node.values, node.dataListSize, length);
+		}
+		if (this.postingLists != null) {
+			for (int i = 0; i < length; i++) {
+				node.setPostingList(node.dataListSize + i, this.postingLists[fromIndex + i]);
+				this.postingLists[fromIndex + i] = null;
+			}
+		}
+		node.dataListSize += length;
+		this.dataListSize = fromIndex;
 	}
 
 	/**
-	 * Get B+ tree node first key in data list
+	 * Move the first data of this external node to the end of another one, the
+	 * remaining data moves to the start of this node.
 	 * 
-	 * @return the first key
+	 * @param length number of data to be moved
+	 * @param node   the node which receives the data
 	 */
-	public int getFirstKey() {
-		return this.dataList.get(0).key;
+	public void moveFirstDataTo(int length, BPlusTreeNode node) {
+		decompressKeys();
+		node.decompressKeys();
+		int remaining = this.dataListSize - length;
+		System.arraycopy(this.keys, 0, node.keys, node.dataListSize, length);
+		System.arraycopy(this.values, 0, node.values, node.dataListSize, length);
+		System.arraycopy(this.keys, length, this.keys, 0, remaining);
+		System.arraycopy(this.values, length, this.values, 0, remaining);
+		if (this.postingLists != null) {
+			for (int i = 0; i < length; i++) {
+				node.setPostingList(node.dataListSize + i, this.postingLists[i]);
+			}
+			System.arraycopy(this.postingLists, length, this.postingLists, 0, remaining);
+			Arrays.fill(this.postingLists, remaining, this.dataListSize, null);
+		}
+		node.dataListSize += length;
+		this.dataListSize = remaining;
 	}
 
 	/**
-	 * Check if B+ tree is parent of External Node.
+	 * Move the last data of this external node to the start of another one, the
+	 * data of the other node moves up to make room.
 	 * 
-	 * @return the boolean value
+	 * @param length number of data to be moved
+	 * @param node   the node which receives the data
 	 */
-	public boolean isParentOfExternalNode() {
-		return !this.getChildrens().isEmpty() && this.getChildrens().get(0).getChildrens().isEmpty();
+	public void moveLastDataTo(int length, BPlusTreeNode node) {
+		decompressKeys();
+		node.decompressKeys();
+		int fromIndex = this.dataListSize - length;
+		System.arraycopy(node.keys, 0, node.keys, length, node.dataListSize);
+		System.arraycopy(node.values, 0, node.values, length, node.dataListSize);
+		System.arraycopy(this.keys, fromIndex, node.keys, 0, length);
+		System.arraycopy(this.values, fromIndex, node.values, 0, length);
+		if (node.postingLists != null) {
+			System.arraycopy(node.postingLists, 0, node.postingLists, length, node.dataListSize);
+			Arrays.fill(node.postingLists, 0, length, null);
+		}
+		if (this.postingLists != null) {
+			for (int i = 0; i < length; i++) {
+				node.setPostingList(i, this.postingLists[fromIndex + i]);
+				this.postingLists[fromIndex + i] = null;
+			}
+		}
+		node.dataListSize += length;
+		this.dataListSize = fromIndex;
 	}
 
 	/**
-	 * Clear B+ tree node children list
+	 * Copy sorted data into an empty external node, e.g. when a tree is loaded.
 	 * 
-	 * @param fromIndex starting index from where children list needs to be cleared
-	 * @param toIndex   ending index till where children list needs to be cleared
+	 * @param keys   keys of the data sorted in increasing order
+	 * @param values values of the data
+	 * @param length number of data to be copied, smaller than the order
 	 */
-	public void clearChildrensList(int fromIndex, int toIndex) {
-		this.childrens.subList(fromIndex, toIndex).clear();
-
+	public void setExternalData(int[] keys, double[] values, int length) {
+		decompressKeys();
+		System.arraycopy(keys, 0, this.keys, 0, length);
+		System.arraycopy(values, 0, this.values, 0, length);
+		this.dataListSize = length;
 	}
 
 	/**
-	 * Deletes data at provided index from B+ node
+	 * Move children from given index till end to the end of another B+ tree node,
+	 * the moved children are removed from this node.
 	 * 
-	 * @param index the position of data
+	 * @param fromIndex starting index of children to be moved
+	 * @param node      the node which receives the children
 	 */
-	public void deleteData(int index) {
-		this.dataList.remove(index);
+	public void moveChildrensTo(int fromIndex, BPlusTreeNode node) {
+		int length = this.childrensSize - fromIndex;
+		if (length <= 0) {
+			return;
+		}
+		System.arraycopy(this.childrens, fromIndex, node.childrens, node.childrensSize, length);
+		Arrays.fill(this.childrens, fromIndex, this.childrensSize, null);
+		node.childrensSize += length;
+		this.childrensSize = fromIndex;
 	}
 
 	/**
-	 * Get B+ tree node child at provided index
+	 * Get B+ tree node first key in data list
 	 * 
-	 * @param index the index of child
-	 * @return the B+ tree node
+	 * @return the first key
 	 */
-	public BPlusTreeNode getChild(int index) {
-		if (index < childrens.size() && index >= 0) {
-			return this.childrens.get(index);
-		}
-		return null;
+	public int getFirstKey() {
+		return getKeyAt(0);
 	}
 
 	/**
-	 * Update the key of B+ node data
+	 * Check if B+ tree is parent of External Node.
 	 * 
-	 * @param index the index at which data needs to be updated
-	 * @param key   the newKey value for update
+	 * @return the boolean value
 	 */
-	public void updateKey(int index, int key) {
-		this.dataList.get(index).key = key;
+	public boolean isParentOfExternalNode() {
+		return this.childrensSize > 0 && this.childrens[0].isExternalNode();
 	}
 
 	/**
-	 * Deletes the first data from B+ node
+	 * Deletes data at provided index from B+ node
 	 * 
-	 * @return the deleted data
+	 * @param index the position of data
 	 */
-	public Data removeFirstData() {
-		return this.dataList.remove(0);
+	public void deleteData(int index) {
+		decompressKeys();
+		int length = this.dataListSize - index - 1;
+		System.arraycopy(this.keys, index + 1, this.keys, index, length);
+		if (this.values != null) {
+			System.arraycopy(this.values, index + 1, this.values, index, length);
+		}
+		if (this.postingLists != null) {
+			System.arraycopy(this.postingLists, index + 1, this.postingLists, index, length);
+			this.postingLists[this.dataListSize - 1] = null;
+		}
+		this.dataListSize--;
 	}
 
 	/**
-	 * Deletes the last data from B+ node
+	 * Get B+ tree node child at provided index
 	 * 
-	 * @return the deleted data
+	 * @param index the index of child
+	 * @return the B+ tree node
 	 */
-	public Data removeLastData() {
-		return this.dataList.remove(getDataListSize() - 1);
+	public BPlusTreeNode getChild(int index) {
+		if (index < this.childrensSize && index >= 0) {
+			return this.childrens[index];
+		}
+		return null;
 	}
 
 	/**
-	 * Add data at given index in B+ node
+	 * Update the key of B+ node data
 	 * 
-	 * @param index position at which the data needs to be added
-	 * @param data  the data object that will be added
+	 * @param index the index at which data needs to be updated
+	 * @param key   the newKey value for update
 	 */
-	public void addData(int index, Data data) {
-		this.dataList.add(index, data);
+	public void updateKey(int index, int key) {
+		decompressKeys();
+		this.keys[index] = key;
 	}
 
 	/**
@@ -352,17 +778,36 @@ public class BPlusTreeNode {
 	 * @return the deleted child
 	 */
 	public BPlusTreeNode removeChild(int index) {
-		return this.childrens.remove(index);
+		BPlusTreeNode child = this.childrens[index];
+		System.arraycopy(this.childrens, index + 1, this.childrens, index, this.childrensSize - index - 1);
+		this.childrens[--this.childrensSize] = null;
+		return child;
 	}
 
 	/**
-	 * Get B+ tree node data
+	 * Get B+ tree node key
 	 * 
 	 * @param index the index of key in node
-	 * @return the data list of B+ tree node
+	 * @return the key at given index
 	 */
 	public int getKeyAt(int index) {
-		return this.dataList.get(index).key;
+		if (this.keys != null) {
+			return this.keys[index];
+		}
+		if (this.byteKeyOffsets != null) {
+			return this.keyBase + (this.byteKeyOffsets[index] & 0xFF);
+		}
+		return this.keyBase + this.charKeyOffsets[index];
+	}
+
+	/**
+	 * Get B+ tree external node value
+	 * 
+	 * @param index the index of value in node
+	 * @return the value at given index
+	 */
+	public double getValueAt(int index) {
+		return this.values[index];
 	}
 
 	/**
@@ -373,10 +818,8 @@ public class BPlusTreeNode {
 	public String toString() {
 		String out = "";
 		for (int i = 0; i < getDataListSize(); i++) {
-			out += (getDataList().get(i).key + ":(");
-			String value = "" + ((getDataList().get(i) instanceof BPlusTreeNode.DataExternalNode)
-					? ((BPlusTreeNode.DataExternalNode) getDataList().get(i)).value
-					: "?");
+			out += (getKeyAt(i) + ":(");
+			String value = "" + (isExternalNode() ? this.values[i] : "?");
 			out += (value.isEmpty() ? ");" : value.substring(0, value.length() - 1) + ");");
 		}
 		return out;
@@ -386,9 +829,14 @@ public class BPlusTreeNode {
 	 * Clear the node
 	 */
 	public void clear() {
-		this.dataList = null;
+		this.keys = null;
+		this.byteKeyOffsets = null;
+		this.charKeyOffsets = null;
+		this.values = null;
+		this.postingLists = null;
 		this.childrens = null;
-		this.parent = null;
+		this.dataListSize = 0;
+		this.childrensSize = 0;
 		this.nextNode = null;
 		this.prevNode = null;
 	}
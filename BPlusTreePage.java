@@ -0,0 +1,386 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class to represent a B+ tree node stored in a fixed size page. Children and
+ * the next and previous external nodes are referenced by page id, page id 0 is
+ * the meta page of the file so it is used as null reference.
+ *
+ * Page layout:
+ * <ul>
+ * <li>0: page type (free, external or internal node)</li>
+ * <li>4: number of keys</li>
+ * <li>8: next page id, also links the free pages</li>
+ * <li>12: previous page id</li>
+ * <li>16: keys, followed by the values of an external node or the child page
+ * ids of an internal node</li>
+ * </ul>
+ */
+public class BPlusTreePage {
+
+	static final int TYPE_FREE = 0;
+	static final int TYPE_EXTERNAL = 1;
+	static final int TYPE_INTERNAL = 2;
+
+	private static final int TYPE_OFFSET = 0;
+	private static final int SIZE_OFFSET = 4;
+	private static final int NEXT_OFFSET = 8;
+	private static final int PREV_OFFSET = 12;
+	private static final int KEYS_OFFSET = 16;
+
+	private final int pageId;
+	private final ByteBuffer buffer;
+	private final int capacity;
+
+	/**
+	 * Wraps a page holding a node with room for capacity keys.
+	 *
+	 * @param pageId   the page id
+	 * @param buffer   the content of the page
+	 * @param capacity maximum number of keys in the node
+	 */
+	public BPlusTreePage(int pageId, ByteBuffer buffer, int capacity) {
+		this.pageId = pageId;
+		this.buffer = buffer;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Get the largest order whose nodes fit in a page, a node must have room for
+	 * order keys so it can be split after an insert.
+	 *
+	 * @param pageSize the page size in bytes
+	 * @return the order
+	 */
+	public static int getMaxOrder(int pageSize) {
+		// internal node: order keys and order + 1 children of 4 bytes
+		int internalOrder = (pageSize - KEYS_OFFSET - 4) / 8;
+		// external node: order keys of 4 bytes and values of 8 bytes
+		int externalOrder = (pageSize - KEYS_OFFSET) / 12;
+		return Math.min(internalOrder, externalOrder);
+	}
+
+	/**
+	 * Initialize the page as an empty node.
+	 *
+	 * @param type TYPE_EXTERNAL or TYPE_INTERNAL
+	 */
+	public void init(int type) {
+		this.buffer.putInt(TYPE_OFFSET, type);
+		this.buffer.putInt(SIZE_OFFSET, 0);
+		this.buffer.putInt(NEXT_OFFSET, 0);
+		this.buffer.putInt(PREV_OFFSET, 0);
+	}
+
+	/**
+	 * Get the page id
+	 *
+	 * @return the page id
+	 */
+	public int getPageId() {
+		return this.pageId;
+	}
+
+	/**
+	 * Get the content of the page
+	 *
+	 * @return the buffer holding the page
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Get the page type
+	 *
+	 * @return TYPE_FREE, TYPE_EXTERNAL or TYPE_INTERNAL
+	 */
+	public int getType() {
+		return this.buffer.getInt(TYPE_OFFSET);
+	}
+
+	/**
+	 * Check if page holds an external (leaf) node.
+	 *
+	 * @return boolean value
+	 */
+	public boolean isExternalNode() {
+		return getType() == TYPE_EXTERNAL;
+	}
+
+	/**
+	 * Get node data list size
+	 *
+	 * @return the size
+	 */
+	public int getDataListSize() {
+		return this.buffer.getInt(SIZE_OFFSET);
+	}
+
+	/**
+	 * Get number of children of internal node
+	 *
+	 * @return the number of children
+	 */
+	public int getChildrensSize() {
+		return isExternalNode() ? 0 : getDataListSize() + 1;
+	}
+
+	private void setDataListSize(int size) {
+		this.buffer.putInt(SIZE_OFFSET, size);
+	}
+
+	/**
+	 * Get Next page id in linked list for external Node
+	 *
+	 * @return the page id, 0 if none
+	 */
+	public int getNextPageId() {
+		return this.buffer.getInt(NEXT_OFFSET);
+	}
+
+	/**
+	 * Set Next page id in linked list for external Node
+	 *
+	 * @param pageId the page id, 0 if none
+	 */
+	public void setNextPageId(int pageId) {
+		this.buffer.putInt(NEXT_OFFSET, pageId);
+	}
+
+	/**
+	 * Get Previous page id in linked list for external Node
+	 *
+	 * @return the page id, 0 if none
+	 */
+	public int getPrevPageId() {
+		return this.buffer.getInt(PREV_OFFSET);
+	}
+
+	/**
+	 * Set Previous page id in linked list for external Node
+	 *
+	 * @param pageId the page id, 0 if none
+	 */
+	public void setPrevPageId(int pageId) {
+		this.buffer.putInt(PREV_OFFSET, pageId);
+	}
+
+	/**
+	 * Mark the page as free and link it to the next free page.
+	 *
+	 * @param nextFreePageId the next free page id, 0 if none
+	 */
+	public void free(int nextFreePageId) {
+		init(TYPE_FREE);
+		setNextPageId(nextFreePageId);
+	}
+
+	private int keyOffset(int index) {
+		return KEYS_OFFSET + index * 4;
+	}
+
+	private int valueOffset(int index) {
+		return KEYS_OFFSET + this.capacity * 4 + index * 8;
+	}
+
+	private int childOffset(int index) {
+		return KEYS_OFFSET + this.capacity * 4 + index * 4;
+	}
+
+	/**
+	 * Get node key
+	 *
+	 * @param index the index of key in node
+	 * @return the key at given index
+	 */
+	public int getKeyAt(int index) {
+		return this.buffer.getInt(keyOffset(index));
+	}
+
+	/**
+	 * Update the key of node data
+	 *
+	 * @param index the index at which data needs to be updated
+	 * @param key   the newKey value for update
+	 */
+	public void updateKey(int index, int key) {
+		this.buffer.putInt(keyOffset(index), key);
+	}
+
+	/**
+	 * Get external node value
+	 *
+	 * @param index the index of value in node
+	 * @return the value at given index
+	 */
+	public double getValueAt(int index) {
+		return this.buffer.getDouble(valueOffset(index));
+	}
+
+	/**
+	 * Updates the data value at given index
+	 *
+	 * @param index the position of data
+	 * @param value the value to be updated
+	 */
+	public void updateDataValue(int index, double value) {
+		this.buffer.putDouble(valueOffset(index), value);
+	}
+
+	/**
+	 * Get child page id at provided index
+	 *
+	 * @param index the index of child
+	 * @return the page id
+	 */
+	public int getChild(int index) {
+		return this.buffer.getInt(childOffset(index));
+	}
+
+	private void setChild(int index, int pageId) {
+		this.buffer.putInt(childOffset(index), pageId);
+	}
+
+	/**
+	 * Get the (index+1) child index of given key, using a branch free binary
+	 * search.
+	 *
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	public int getKeyIndex(int key) {
+		int size = getDataListSize();
+		if (size == 0) {
+			return 0;
+		}
+		int base = 0;
+		while (size > 1) {
+			int half = size >>> 1;
+			base = getKeyAt(base + half) <= key ? base + half : base;
+			size -= half;
+		}
+		return getKeyAt(base) <= key ? base + 1 : base;
+	}
+
+	/**
+	 * Add new external node data.
+	 *
+	 * @param keyIndex position where to add external node data
+	 * @param key      the key of data to be added
+	 * @param value    the value of data to be added
+	 */
+	public void addExternalData(int keyIndex, int key, double value) {
+		int size = getDataListSize();
+		for (int i = size; i > keyIndex; i--) {
+			updateKey(i, getKeyAt(i - 1));
+			updateDataValue(i, getValueAt(i - 1));
+		}
+		updateKey(keyIndex, key);
+		updateDataValue(keyIndex, value);
+		setDataListSize(size + 1);
+	}
+
+	/**
+	 * Add a key and a child to internal node. The child is either left or right
+	 * of the key, i.e. childIndex is keyIndex or keyIndex + 1.
+	 *
+	 * @param keyIndex   position where to add key
+	 * @param key        the key of data to be added
+	 * @param childIndex position where to add child
+	 * @param pageId     page id of child to be added
+	 */
+	public void addInternalData(int keyIndex, int key, int childIndex, int pageId) {
+		int size = getDataListSize();
+		for (int i = size; i > keyIndex; i--) {
+			updateKey(i, getKeyAt(i - 1));
+		}
+		for (int i = size + 1; i > childIndex; i--) {
+			setChild(i, getChild(i - 1));
+		}
+		updateKey(keyIndex, key);
+		setChild(childIndex, pageId);
+		setDataListSize(size + 1);
+	}
+
+	/**
+	 * Deletes data at provided index
+	 *
+	 * @param index the position of data
+	 */
+	public void deleteData(int index) {
+		int size = getDataListSize();
+		for (int i = index; i < size - 1; i++) {
+			updateKey(i, getKeyAt(i + 1));
+			updateDataValue(i, getValueAt(i + 1));
+		}
+		setDataListSize(size - 1);
+	}
+
+	/**
+	 * Deletes a key and a child from internal node. The child is either left or
+	 * right of the key, i.e. childIndex is keyIndex or keyIndex + 1.
+	 *
+	 * @param keyIndex   the position of key
+	 * @param childIndex the position of child
+	 * @return the page id of deleted child
+	 */
+	public int deleteInternalData(int keyIndex, int childIndex) {
+		int size = getDataListSize();
+		int pageId = getChild(childIndex);
+		for (int i = keyIndex; i < size - 1; i++) {
+			updateKey(i, getKeyAt(i + 1));
+		}
+		for (int i = childIndex; i < size; i++) {
+			setChild(i, getChild(i + 1));
+		}
+		setDataListSize(size - 1);
+		return pageId;
+	}
+
+	/**
+	 * Move data from given index till end to the end of another page, for an
+	 * internal node the children to the right of the moved keys move as well.
+	 *
+	 * @param fromIndex starting index of data to be moved
+	 * @param page      the page which receives the data
+	 */
+	public void moveDataTo(int fromIndex, BPlusTreePage page) {
+		int size = getDataListSize();
+		int pageSize = page.getDataListSize();
+		boolean isExternalNode = isExternalNode();
+		for (int i = fromIndex; i < size; i++) {
+			page.updateKey(pageSize + i - fromIndex, getKeyAt(i));
+			if (isExternalNode) {
+				page.updateDataValue(pageSize + i - fromIndex, getValueAt(i));
+			} else {
+				page.setChild(pageSize + i - fromIndex + 1, getChild(i + 1));
+			}
+		}
+		page.setDataListSize(pageSize + size - fromIndex);
+		setDataListSize(fromIndex);
+	}
+
+	/**
+	 * Make this new internal node the parent of two nodes.
+	 *
+	 * @param left  page id of the left child
+	 * @param key   the separator key
+	 * @param right page id of the right child
+	 */
+	public void setChildrens(int left, int key, int right) {
+		setChild(0, left);
+		updateKey(0, key);
+		setChild(1, right);
+		setDataListSize(1);
+	}
+
+	/**
+	 * Set the first child of an internal node.
+	 *
+	 * @param pageId page id of the child
+	 */
+	public void setFirstChild(int pageId) {
+		setChild(0, pageId);
+	}
+
+}
@@ -0,0 +1,29 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a delete whose rebalancing cascaded from the
+ * external node to the internal nodes above it. Rebalances which end at the
+ * external node are not recorded.
+ */
+@Name("bplustree.CascadingRebalance")
+@Label("B+ Tree Cascading Rebalance")
+@Category("B+ Tree")
+@Description("Merge of an external node which left internal nodes above it empty")
+public final class BPlusTreeRebalanceEvent extends Event {
+
+	@Label("Order")
+	int order;
+
+	@Label("Levels")
+	@Description("Number of nodes balanced, from the external node up")
+	int levels;
+
+	@Label("Root Removed")
+	@Description("The root was removed and the tree lost a level")
+	boolean isRootRemoved;
+
+}
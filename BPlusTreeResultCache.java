@@ -0,0 +1,615 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Cache of the results of searches of a BPlusTreeImpl, of one key or of a range
+ * of keys, so that popular searches do not descend the tree and walk its
+ * external nodes again. The values of a result are kept as the array of boxed
+ * values returned by the search, so a hit copies references and boxes nothing.
+ * A search of one key is the range from the key to itself.
+ *
+ * Entries are evicted by W-TinyLFU: a new entry enters a small LRU window, an
+ * entry leaving the window is admitted to the main space only if it was
+ * searched more often than the entry it would evict, so a burst of searches
+ * that are never repeated can not flush the popular ones. Search frequencies
+ * are estimated by a count-min sketch of 4 bit counters, the 4 counters of a
+ * key lying in one cache line, halved after every 10 searches per entry so
+ * that old popularity fades. The main space is a segmented LRU: a probation
+ * segment, and a protected segment of 80% of the main space for entries hit
+ * again while in probation. The window is 1% of the cache.
+ *
+ * A result is cached from its second search, as the sketch counts it, so the
+ * many results searched only once do not pass through the cache.
+ *
+ * The memory bound covers the sketch and an estimate of the size of every
+ * entry, its values and its index entries. A result larger than a sixteenth of
+ * the bound is not cached.
+ *
+ * The tree invalidates the entries holding a key when the key is inserted or
+ * deleted: the search of the key and the ranges including it. Ranges are
+ * indexed by start key, a write looks at the ranges starting at most the
+ * longest cached range before the key, so writes stay cheap while the cached
+ * ranges are short.
+ *
+ * Hits, misses, evictions and invalidations are counted to size the cache.
+ *
+ * Note that the cache is not synchronized and searches change it as much as
+ * writes do, a hit refreshes its entry and a miss may add one, so a tree with a
+ * result cache must not be searched by several threads at once.
+ */
+public class BPlusTreeResultCache {
+
+	// estimated bytes of an entry object, its table slots and the header of its
+	// array of values
+	private static final int ENTRY_SIZE = 80;
+	// estimated bytes of a reference to a boxed value and the value
+	private static final int VALUE_SIZE = 20;
+	// estimated bytes of an entry of the range index
+	private static final int RANGE_INDEX_ENTRY_SIZE = 56;
+	private static final int MAX_ENTRY_FRACTION = 16;
+	private static final double WINDOW_FRACTION = 0.01;
+	private static final double PROTECTED_FRACTION = 0.8;
+	private static final int SAMPLES_PER_ENTRY = 10;
+	// searches of a result before it is cached
+	private static final int MIN_FREQUENCY = 2;
+
+	private static final byte WINDOW = 0;
+	private static final byte PROBATION = 1;
+	private static final byte PROTECTED = 2;
+
+	private final long maxWeight;
+	private final long maxWindowWeight;
+	private final long maxMainWeight;
+	private final long maxProtectedWeight;
+	private final FrequencySketch sketch;
+	// heads of the circular LRU lists, least recently used first
+	private final Entry window = new Entry(0, null, 0);
+	private final Entry probation = new Entry(0, null, 0);
+	private final Entry protectedHead = new Entry(0, null, 0);
+	private long windowWeight;
+	private long mainWeight;
+	private long protectedWeight;
+	// open addressing table from range to entry, the keys are copied so that
+	// probing does not read the entries
+	private Entry[] table = new Entry[16];
+	private long[] tableKeys = new long[16];
+	private int size;
+	// ranges of more than one key by start and end, see getRangeKey
+	private final TreeMap<Long, Entry> rangeIndex = new TreeMap<Long, Entry>();
+	private long maxRangeLength;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long invalidationCount;
+
+	/**
+	 * An entry of the cache, linked in the list of its segment.
+	 */
+	private static final class Entry {
+
+		private final long key;
+		private final Double[] values;
+		private final int weight;
+		private byte segment;
+		private Entry prev = this;
+		private Entry next = this;
+
+		private Entry(long key, Double[] values, int weight) {
+			this.key = key;
+			this.values = values;
+			this.weight = weight;
+		}
+
+	}
+
+	/**
+	 * Constructs an empty cache.
+	 *
+	 * @param maxBytes estimated memory the cache may use
+	 */
+	public BPlusTreeResultCache(long maxBytes) {
+		long maxEntryCount = Math.max(16, maxBytes / (ENTRY_SIZE + VALUE_SIZE));
+		this.sketch = new FrequencySketch(maxEntryCount);
+		this.maxWeight = maxBytes - this.sketch.getSize();
+		if (this.maxWeight < ENTRY_SIZE * MAX_ENTRY_FRACTION) {
+			throw new IllegalArgumentException("Cache size is too small: " + maxBytes);
+		}
+		this.maxWindowWeight = (long) (this.maxWeight * WINDOW_FRACTION);
+		this.maxMainWeight = this.maxWeight - this.maxWindowWeight;
+		this.maxProtectedWeight = (long) (this.maxMainWeight * PROTECTED_FRACTION);
+	}
+
+	/**
+	 * Get the cached values of all elements between and including startKey and
+	 * endKey, counting a hit or a miss.
+	 *
+	 * @param startKey starting key of the range
+	 * @param endKey   ending key of the range
+	 * @return the values, null if not cached
+	 */
+	Double[] get(int startKey, int endKey) {
+		long key = getRangeKey(startKey, endKey);
+		this.sketch.increment(key);
+		Entry entry = find(key);
+		if (entry == null) {
+			this.missCount++;
+			return null;
+		}
+		this.hitCount++;
+		if (entry.segment == WINDOW) {
+			moveToEnd(this.window, entry);
+		} else if (entry.segment == PROBATION) {
+			// a second hit in the main space protects the entry
+			unlink(entry);
+			entry.segment = PROTECTED;
+			addLast(this.protectedHead, entry);
+			this.protectedWeight += entry.weight;
+			while (this.protectedWeight > this.maxProtectedWeight) {
+				Entry demoted = this.protectedHead.next;
+				unlink(demoted);
+				demoted.segment = PROBATION;
+				addLast(this.probation, demoted);
+				this.protectedWeight -= demoted.weight;
+			}
+		} else {
+			moveToEnd(this.protectedHead, entry);
+		}
+		return entry.values;
+	}
+
+	/**
+	 * Cache the values of all elements between and including startKey and
+	 * endKey, after get found none.
+	 *
+	 * @param startKey starting key of the range
+	 * @param endKey   ending key of the range
+	 * @param values   the values
+	 */
+	void put(int startKey, int endKey, ArrayList<Double> values) {
+		long key = getRangeKey(startKey, endKey);
+		int weight = ENTRY_SIZE + VALUE_SIZE * values.size() + (startKey == endKey ? 0 : RANGE_INDEX_ENTRY_SIZE);
+		// results searched once in the sample period are not cached, they would
+		// only churn the window and the range index
+		if (weight > this.maxWeight / MAX_ENTRY_FRACTION || this.sketch.frequency(key) < MIN_FREQUENCY
+				|| find(key) != null) {
+			return;
+		}
+		Entry entry = new Entry(key, values.toArray(new Double[values.size()]), weight);
+		insert(entry);
+		if (startKey != endKey) {
+			this.rangeIndex.put(key, entry);
+			this.maxRangeLength = Math.max(this.maxRangeLength, (long) endKey - startKey);
+		}
+		entry.segment = WINDOW;
+		addLast(this.window, entry);
+		this.windowWeight += weight;
+		while (this.windowWeight > this.maxWindowWeight) {
+			Entry candidate = this.window.next;
+			unlink(candidate);
+			this.windowWeight -= candidate.weight;
+			admit(candidate);
+		}
+	}
+
+	/**
+	 * Move an entry leaving the window to the probation segment, if there is room
+	 * or it is more frequent than every one of the least recently used entries of
+	 * the main space that are evicted to make room for it.
+	 *
+	 * @param candidate the entry
+	 */
+	private void admit(Entry candidate) {
+		long room = this.maxMainWeight - this.mainWeight;
+		if (candidate.weight > room) {
+			int frequency = this.sketch.frequency(candidate.key);
+			Entry victim = getNextVictim(this.probation);
+			while (room < candidate.weight) {
+				if (victim == null || frequency <= this.sketch.frequency(victim.key)) {
+					remove(candidate);
+					this.evictionCount++;
+					return;
+				}
+				room += victim.weight;
+				victim = getNextVictim(victim);
+			}
+			while (this.mainWeight + candidate.weight > this.maxMainWeight) {
+				victim = getNextVictim(this.probation);
+				unlink(victim);
+				this.mainWeight -= victim.weight;
+				if (victim.segment == PROTECTED) {
+					this.protectedWeight -= victim.weight;
+				}
+				remove(victim);
+				this.evictionCount++;
+			}
+		}
+		candidate.segment = PROBATION;
+		addLast(this.probation, candidate);
+		this.mainWeight += candidate.weight;
+	}
+
+	/**
+	 * Get the entry of the main space evicted after another, the probation
+	 * segment being evicted before the protected one, least recently used first.
+	 *
+	 * @param entry the entry, or the head of the probation segment for the first
+	 * @return the next entry, null if none
+	 */
+	private Entry getNextVictim(Entry entry) {
+		Entry next = entry.next;
+		if (next == this.probation) {
+			next = this.protectedHead.next;
+		}
+		return next == this.protectedHead ? null : next;
+	}
+
+	/**
+	 * Remove the entries holding a key, the search of the key and the ranges
+	 * including it, after the key was inserted or deleted.
+	 *
+	 * @param key the key
+	 */
+	void invalidate(int key) {
+		if (this.size == 0) {
+			return;
+		}
+		Entry entry = find(getRangeKey(key, key));
+		if (entry != null) {
+			discard(entry);
+		}
+		if (this.rangeIndex.isEmpty()) {
+			return;
+		}
+		int fromKey = (int) Math.max(Integer.MIN_VALUE, key - this.maxRangeLength);
+		Iterator<Entry> ranges = this.rangeIndex
+				.subMap(getRangeKey(fromKey, Integer.MIN_VALUE), true, getRangeKey(key, Integer.MAX_VALUE), true)
+				.values().iterator();
+		while (ranges.hasNext()) {
+			Entry range = ranges.next();
+			if (getEndKey(range.key) >= key) {
+				ranges.remove();
+				discard(range);
+			}
+		}
+		if (this.rangeIndex.isEmpty()) {
+			this.maxRangeLength = 0;
+		}
+	}
+
+	/**
+	 * Remove all entries holding one of the keys of a batch.
+	 *
+	 * @param keys the keys
+	 */
+	void invalidateAll(int[] keys) {
+		for (int i = 0; i < keys.length && this.size > 0; i++) {
+			invalidate(keys[i]);
+		}
+	}
+
+	/**
+	 * Remove an invalidated entry from its segment and the table, the caller
+	 * removes it from the range index.
+	 *
+	 * @param entry the entry
+	 */
+	private void discard(Entry entry) {
+		unlink(entry);
+		if (entry.segment == WINDOW) {
+			this.windowWeight -= entry.weight;
+		} else {
+			this.mainWeight -= entry.weight;
+			if (entry.segment == PROTECTED) {
+				this.protectedWeight -= entry.weight;
+			}
+		}
+		delete(entry.key);
+		this.invalidationCount++;
+	}
+
+	/**
+	 * Remove an entry leaving the cache from the table and the range index.
+	 *
+	 * @param entry the entry
+	 */
+	private void remove(Entry entry) {
+		delete(entry.key);
+		if (getStartKey(entry.key) != getEndKey(entry.key)) {
+			this.rangeIndex.remove(entry.key);
+		}
+	}
+
+	/**
+	 * Remove all entries, the counts are kept.
+	 */
+	public void clear() {
+		this.window.prev = this.window.next = this.window;
+		this.probation.prev = this.probation.next = this.probation;
+		this.protectedHead.prev = this.protectedHead.next = this.protectedHead;
+		this.windowWeight = 0;
+		this.mainWeight = 0;
+		this.protectedWeight = 0;
+		this.table = new Entry[16];
+		this.tableKeys = new long[16];
+		this.size = 0;
+		this.rangeIndex.clear();
+		this.maxRangeLength = 0;
+	}
+
+	/**
+	 * Get the number of searches answered from the cache
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * Get the number of searches not answered from the cache
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * Get the fraction of the searches answered from the cache
+	 *
+	 * @return the hit rate, between 0 and 1
+	 */
+	public double getHitRate() {
+		long count = this.hitCount + this.missCount;
+		return count == 0 ? 0 : (double) this.hitCount / count;
+	}
+
+	/**
+	 * Get the number of entries evicted or not admitted for lack of room
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * Get the number of entries removed by inserts and deletes
+	 *
+	 * @return the invalidation count
+	 */
+	public long getInvalidationCount() {
+		return this.invalidationCount;
+	}
+
+	/**
+	 * Get the number of cached results
+	 *
+	 * @return the entry count
+	 */
+	public int getEntryCount() {
+		return this.size;
+	}
+
+	/**
+	 * Get the estimated memory used by the cache
+	 *
+	 * @return the memory in bytes
+	 */
+	public long getSize() {
+		return this.sketch.getSize() + this.windowWeight + this.mainWeight;
+	}
+
+	/**
+	 * Get the memory bound of the cache
+	 *
+	 * @return the memory in bytes
+	 */
+	public long getMaxSize() {
+		return this.sketch.getSize() + this.maxWeight;
+	}
+
+	/**
+	 * Clear the counts, the entries are kept.
+	 */
+	public void resetCounts() {
+		this.hitCount = 0;
+		this.missCount = 0;
+		this.evictionCount = 0;
+		this.invalidationCount = 0;
+	}
+
+	/**
+	 * Get the counts in a human readable format.
+	 *
+	 * @return the counts
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d of %d bytes, hit rate %.3f (%d hits, %d misses), %d evictions,"
+				+ " %d invalidations", this.size, getSize(), getMaxSize(), getHitRate(), this.hitCount,
+				this.missCount, this.evictionCount, this.invalidationCount);
+	}
+
+	/**
+	 * Get the key of a range in the table and the range index, ordered by start
+	 * key and then by end key.
+	 *
+	 * @param startKey starting key of the range
+	 * @param endKey   ending key of the range
+	 * @return the key
+	 */
+	private static long getRangeKey(int startKey, int endKey) {
+		return ((long) startKey << 32) | ((endKey ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	private static int getStartKey(long rangeKey) {
+		return (int) (rangeKey >> 32);
+	}
+
+	private static int getEndKey(long rangeKey) {
+		return (int) rangeKey ^ Integer.MIN_VALUE;
+	}
+
+	private static int hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	private Entry find(long key) {
+		int mask = this.table.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			Entry entry = this.table[i];
+			if (entry == null || this.tableKeys[i] == key) {
+				return entry;
+			}
+		}
+	}
+
+	private void insert(Entry entry) {
+		if (2 * (this.size + 1) > this.table.length) {
+			Entry[] oldTable = this.table;
+			this.table = new Entry[oldTable.length * 2];
+			this.tableKeys = new long[oldTable.length * 2];
+			for (Entry oldEntry : oldTable) {
+				if (oldEntry != null) {
+					place(oldEntry);
+				}
+			}
+		}
+		place(entry);
+		this.size++;
+	}
+
+	private void place(Entry entry) {
+		int mask = this.table.length - 1;
+		int i = hash(entry.key) & mask;
+		while (this.table[i] != null) {
+			i = (i + 1) & mask;
+		}
+		this.table[i] = entry;
+		this.tableKeys[i] = entry.key;
+	}
+
+	/**
+	 * Remove a key from the table, shifting back the entries of its probe
+	 * sequence.
+	 *
+	 * @param key the key
+	 */
+	private void delete(long key) {
+		int mask = this.table.length - 1;
+		int i = hash(key) & mask;
+		while (this.tableKeys[i] != key || this.table[i] == null) {
+			i = (i + 1) & mask;
+		}
+		int hole = i;
+		for (i = (i + 1) & mask; this.table[i] != null; i = (i + 1) & mask) {
+			int home = hash(this.tableKeys[i]) & mask;
+			// move the entry into the hole unless its home lies after the hole
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				this.table[hole] = this.table[i];
+				this.tableKeys[hole] = this.tableKeys[i];
+				hole = i;
+			}
+		}
+		this.table[hole] = null;
+		this.size--;
+	}
+
+	private static void addLast(Entry head, Entry entry) {
+		Entry last = head.prev;
+		last.next = entry;
+		entry.prev = last;
+		entry.next = head;
+		head.prev = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		entry.prev.next = entry.next;
+		entry.next.prev = entry.prev;
+	}
+
+	private static void moveToEnd(Entry head, Entry entry) {
+		unlink(entry);
+		addLast(head, entry);
+	}
+
+	/**
+	 * Count-min sketch of 4 rows of 4 bit counters packed in longs, estimating
+	 * how often a key was searched. The counters of a key lie in one block of 8
+	 * longs, a cache line, two longs per row, so a search reads one line. All
+	 * counters are halved once the number of increments reaches the sample size.
+	 */
+	private static final class FrequencySketch {
+
+		private static final long HALF_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+		private final int blockShift;
+		private final long sampleSize;
+		private long incrementCount;
+
+		private FrequencySketch(long maxEntryCount) {
+			// 8 counters per entry
+			int length = (int) Math.min(1 << 26, Long.highestOneBit(Math.max(16, maxEntryCount / 2)));
+			this.table = new long[length];
+			this.blockShift = 64 - Integer.numberOfTrailingZeros(length >>> 3);
+			this.sampleSize = SAMPLES_PER_ENTRY * maxEntryCount;
+		}
+
+		private long getSize() {
+			return 8L * this.table.length;
+		}
+
+		private static long spread(long key) {
+			long hash = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+			hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+			return hash ^ (hash >>> 33);
+		}
+
+		/**
+		 * Get the index in the table of the long holding the counter of a row, the
+		 * low 5 bits of each byte of the hash choosing the long and the counter.
+		 */
+		private int getIndex(long hash, int row) {
+			return ((int) (hash >>> this.blockShift) << 3) | (row << 1) | ((int) (hash >>> (row << 3)) & 1);
+		}
+
+		private static int getShift(long hash, int row) {
+			return ((int) (hash >>> ((row << 3) + 1)) & 15) << 2;
+		}
+
+		private void increment(long key) {
+			long hash = spread(key);
+			boolean isIncremented = false;
+			for (int row = 0; row < 4; row++) {
+				int index = getIndex(hash, row);
+				int shift = getShift(hash, row);
+				if (((this.table[index] >>> shift) & 15) < 15) {
+					this.table[index] += 1L << shift;
+					isIncremented = true;
+				}
+			}
+			if (isIncremented && ++this.incrementCount >= this.sampleSize) {
+				for (int i = 0; i < this.table.length; i++) {
+					this.table[i] = (this.table[i] >>> 1) & HALF_MASK;
+				}
+				this.incrementCount /= 2;
+			}
+		}
+
+		private int frequency(long key) {
+			long hash = spread(key);
+			int frequency = 15;
+			for (int row = 0; row < 4; row++) {
+				frequency = Math.min(frequency,
+						(int) (this.table[getIndex(hash, row)] >>> getShift(hash, row)) & 15);
+			}
+			return frequency;
+		}
+
+	}
+
+}
@@ -0,0 +1,32 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of an insert splitting an overfull external node, and
+ * the internal nodes above it which became overfull in turn.
+ */
+@Name("bplustree.Split")
+@Label("B+ Tree Split")
+@Category("B+ Tree")
+@Description("Split of an overfull external node and of the internal nodes above it")
+public final class BPlusTreeSplitEvent extends Event {
+
+	@Label("Order")
+	int order;
+
+	@Label("Levels")
+	@Description("Number of nodes split, from the external node up")
+	int levels;
+
+	@Label("Root Split")
+	@Description("The root was split and the tree gained a level")
+	boolean isRootSplit;
+
+	@Label("Append Split")
+	@Description("The nodes were left full for keys appended after all others")
+	boolean isAppend;
+
+}
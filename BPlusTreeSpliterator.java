@@ -0,0 +1,178 @@
+import java.util.Spliterator;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Spliterator over the values of a key range of a B+ tree, in increasing order
+ * of key. A split divides the range at a key of the highest internal node whose
+ * children hold more than one part of the range, so every half covers whole
+ * subtrees and parallel streams or ForkJoin tasks each walk their own external
+ * nodes.
+ *
+ * Splitting is only possible before the traversal started. The size is an
+ * estimate from the number of children of the nodes on the leftmost path. In a
+ * multi-value tree every value of a key is returned.
+ *
+ * The tree must not be modified while the spliterator is used.
+ */
+public class BPlusTreeSpliterator implements Spliterator.OfDouble {
+
+	private BPlusTreeNode top;
+	private int startKey;
+	private final int endKey;
+	private long estimatedSize;
+	private BPlusTreeNode node;
+	private int index;
+	// index of the next value of the current key in a multi-value tree
+	private int valueIndex;
+
+	/**
+	 * Constructs a spliterator over a key range lying below a node.
+	 *
+	 * @param top      a node whose subtree holds the whole range
+	 * @param startKey starting key of the range, included
+	 * @param endKey   ending key of the range, included
+	 */
+	BPlusTreeSpliterator(BPlusTreeNode top, int startKey, int endKey) {
+		this.top = top;
+		this.startKey = startKey;
+		this.endKey = endKey;
+		this.estimatedSize = estimateSize(top, startKey, endKey);
+	}
+
+	@Override
+	public Spliterator.OfDouble trySplit() {
+		if (this.node != null || this.startKey >= this.endKey) {
+			return null;
+		}
+		BPlusTreeNode current = this.top;
+		while (!current.isExternalNode()) {
+			int firstChild = current.getKeyIndex(this.startKey);
+			int lastChild = current.getKeyIndex(this.endKey);
+			if (firstChild < lastChild) {
+				// the key between the middle children is the first key of the right half
+				int splitKey = current.getKeyAt((firstChild + lastChild) >>> 1);
+				BPlusTreeSpliterator prefix = new BPlusTreeSpliterator(current, this.startKey, splitKey - 1);
+				this.top = current;
+				this.startKey = splitKey;
+				this.estimatedSize = estimateSize(current, splitKey, this.endKey);
+				return prefix;
+			}
+			current = current.getChild(firstChild);
+			this.top = current;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean tryAdvance(DoubleConsumer action) {
+		if (this.node == null) {
+			start();
+		}
+		while (this.index >= this.node.getDataListSize()) {
+			BPlusTreeNode next = this.node.getNextNode();
+			if (next == null) {
+				return false;
+			}
+			this.node = next;
+			this.index = 0;
+		}
+		if (this.node.getKeyAt(this.index) > this.endKey) {
+			return false;
+		}
+		PostingList postingList = this.node.getPostingList(this.index);
+		if (postingList == null) {
+			action.accept(this.node.getValueAt(this.index++));
+			return true;
+		}
+		action.accept(postingList.get(this.valueIndex++));
+		if (this.valueIndex == postingList.size()) {
+			this.valueIndex = 0;
+			this.index++;
+		}
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(DoubleConsumer action) {
+		if (this.node == null) {
+			start();
+		}
+		BPlusTreeNode current = this.node;
+		int i = this.index;
+		while (current != null) {
+			int size = current.getDataListSize();
+			for (; i < size; i++) {
+				if (current.getKeyAt(i) > this.endKey) {
+					this.node = current;
+					this.index = i;
+					return;
+				}
+				PostingList postingList = current.getPostingList(i);
+				if (postingList == null) {
+					action.accept(current.getValueAt(i));
+					continue;
+				}
+				for (int j = this.valueIndex; j < postingList.size(); j++) {
+					action.accept(postingList.get(j));
+				}
+				this.valueIndex = 0;
+			}
+			if (current.getNextNode() == null) {
+				break;
+			}
+			current = current.getNextNode();
+			i = 0;
+		}
+		this.node = current;
+		this.index = i;
+	}
+
+	/**
+	 * Position at the first key of the range.
+	 */
+	private void start() {
+		BPlusTreeNode current = this.top;
+		while (!current.isExternalNode()) {
+			current = current.getChild(current.getKeyIndex(this.startKey));
+		}
+		this.node = current;
+		// skip the keys of start node which are smaller than startKey
+		this.index = this.startKey == Integer.MIN_VALUE ? 0 : current.getKeyIndex(this.startKey - 1);
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.estimatedSize;
+	}
+
+	@Override
+	public int characteristics() {
+		return Spliterator.ORDERED | Spliterator.NONNULL;
+	}
+
+	/**
+	 * Estimate the number of elements of a range from the children of a node it
+	 * covers, assuming subtrees are as full as the leftmost one.
+	 *
+	 * @param node     a node whose subtree holds the whole range
+	 * @param startKey starting key of the range
+	 * @param endKey   ending key of the range
+	 * @return the estimated number of elements
+	 */
+	private static long estimateSize(BPlusTreeNode node, int startKey, int endKey) {
+		if (startKey > endKey) {
+			return 0;
+		}
+		if (node.isExternalNode()) {
+			return node.getDataListSize();
+		}
+		long estimate = node.getKeyIndex(endKey) - node.getKeyIndex(startKey) + 1;
+		BPlusTreeNode current = node.getChild(node.getKeyIndex(startKey));
+		while (!current.isExternalNode()) {
+			estimate *= current.getChildrensSize();
+			current = current.getChild(0);
+		}
+		return estimate * Math.max(1, current.getDataListSize());
+	}
+
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structural statistics of a B+ tree and the errors found while verifying it,
+ * collected by BPlusTreeVerifier. For every level, the root being level 0, it
+ * holds the number of nodes and keys, a histogram of the fill of the nodes in
+ * tenths of the order and for internal nodes a histogram of their fan-out.
+ */
+public class BPlusTreeStats {
+
+	static final int MAX_HEIGHT = 64;
+	static final int FILL_BUCKETS = 10;
+	static final int MAX_ERRORS = 100;
+
+	private final int order;
+	private final long[] nodeCounts = new long[MAX_HEIGHT];
+	private final long[] keyCounts = new long[MAX_HEIGHT];
+	private final long[][] fillHistograms = new long[MAX_HEIGHT][];
+	private final long[][] fanOutHistograms = new long[MAX_HEIGHT][];
+	private int height;
+	private int minExternalDepth = Integer.MAX_VALUE;
+	private int maxExternalDepth = -1;
+	private long valueCount;
+	private final ArrayList<String> errors = new ArrayList<String>();
+	private long errorCount;
+
+	/**
+	 * Constructs empty statistics of a tree.
+	 *
+	 * @param order the order of the tree
+	 */
+	BPlusTreeStats(int order) {
+		this.order = order;
+	}
+
+	/**
+	 * Add an internal node.
+	 *
+	 * @param depth         level of the node
+	 * @param keyCount      number of keys of the node
+	 * @param childrenCount number of children of the node
+	 */
+	void addInternalNode(int depth, int keyCount, int childrenCount) {
+		addNode(depth, keyCount);
+		if (this.fanOutHistograms[depth] == null) {
+			this.fanOutHistograms[depth] = new long[this.order + 2];
+		}
+		this.fanOutHistograms[depth][Math.min(childrenCount, this.order + 1)]++;
+	}
+
+	/**
+	 * Add an external node.
+	 *
+	 * @param depth      level of the node
+	 * @param keyCount   number of keys of the node
+	 * @param valueCount number of values of the node, more than the keys in a
+	 *                   multi-value tree
+	 */
+	void addExternalNode(int depth, int keyCount, long valueCount) {
+		addNode(depth, keyCount);
+		this.valueCount += valueCount;
+		this.minExternalDepth = Math.min(this.minExternalDepth, depth);
+		this.maxExternalDepth = Math.max(this.maxExternalDepth, depth);
+	}
+
+	private void addNode(int depth, int keyCount) {
+		this.nodeCounts[depth]++;
+		this.keyCounts[depth] += keyCount;
+		if (this.fillHistograms[depth] == null) {
+			this.fillHistograms[depth] = new long[FILL_BUCKETS];
+		}
+		this.fillHistograms[depth][Math.min(FILL_BUCKETS - 1, keyCount * FILL_BUCKETS / (this.order - 1))]++;
+		this.height = Math.max(this.height, depth + 1);
+	}
+
+	/**
+	 * Add an error, only the first MAX_ERRORS are kept.
+	 *
+	 * @param error description of the error
+	 */
+	void addError(String error) {
+		if (this.errors.size() < MAX_ERRORS) {
+			this.errors.add(error);
+		}
+		this.errorCount++;
+	}
+
+	/**
+	 * Add the statistics of another part of the same tree.
+	 *
+	 * @param stats statistics of the other part
+	 */
+	void add(BPlusTreeStats stats) {
+		for (int depth = 0; depth < stats.height; depth++) {
+			this.nodeCounts[depth] += stats.nodeCounts[depth];
+			this.keyCounts[depth] += stats.keyCounts[depth];
+			this.fillHistograms[depth] = addHistogram(this.fillHistograms[depth], stats.fillHistograms[depth]);
+			this.fanOutHistograms[depth] = addHistogram(this.fanOutHistograms[depth], stats.fanOutHistograms[depth]);
+		}
+		this.height = Math.max(this.height, stats.height);
+		this.minExternalDepth = Math.min(this.minExternalDepth, stats.minExternalDepth);
+		this.maxExternalDepth = Math.max(this.maxExternalDepth, stats.maxExternalDepth);
+		this.valueCount += stats.valueCount;
+		for (String error : stats.errors) {
+			addError(error);
+		}
+		this.errorCount += stats.errorCount - stats.errors.size();
+	}
+
+	private static long[] addHistogram(long[] histogram, long[] other) {
+		if (other == null) {
+			return histogram;
+		}
+		if (histogram == null) {
+			return other.clone();
+		}
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] += other[i];
+		}
+		return histogram;
+	}
+
+	/**
+	 * Check that all external nodes were found at the same depth, once every
+	 * node was added.
+	 */
+	void checkExternalDepths() {
+		if (this.maxExternalDepth > this.minExternalDepth) {
+			addError("External nodes found at depths " + this.minExternalDepth + " to " + this.maxExternalDepth);
+		}
+	}
+
+	/**
+	 * Get the order of the tree
+	 *
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Get the number of levels
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Get the number of nodes of a level
+	 *
+	 * @param depth the level, 0 for the root
+	 * @return the node count
+	 */
+	public long getNodeCount(int depth) {
+		return this.nodeCounts[depth];
+	}
+
+	/**
+	 * Get the number of keys of the nodes of a level
+	 *
+	 * @param depth the level, 0 for the root
+	 * @return the key count
+	 */
+	public long getKeyCount(int depth) {
+		return this.keyCounts[depth];
+	}
+
+	/**
+	 * Get the number of keys of the tree, those of the external nodes
+	 *
+	 * @return the key count
+	 */
+	public long getKeyCount() {
+		return this.height == 0 ? 0 : this.keyCounts[this.height - 1];
+	}
+
+	/**
+	 * Get the number of values of the tree, more than the keys in a multi-value
+	 * tree
+	 *
+	 * @return the value count
+	 */
+	public long getValueCount() {
+		return this.valueCount;
+	}
+
+	/**
+	 * Get the average fraction of the keys a node can hold that the nodes of a
+	 * level hold
+	 *
+	 * @param depth the level, 0 for the root
+	 * @return the average fill, between 0 and 1
+	 */
+	public double getAverageFill(int depth) {
+		long nodeCount = this.nodeCounts[depth];
+		return nodeCount == 0 ? 0 : (double) this.keyCounts[depth] / (nodeCount * (this.order - 1));
+	}
+
+	/**
+	 * Get the histogram of the fill of the nodes of a level
+	 *
+	 * @param depth the level, 0 for the root
+	 * @return the number of nodes filled to 0-10%, 10-20%, ... 90-100% of the
+	 *         order
+	 */
+	public long[] getFillHistogram(int depth) {
+		return this.fillHistograms[depth] == null ? new long[FILL_BUCKETS] : this.fillHistograms[depth].clone();
+	}
+
+	/**
+	 * Get the histogram of the number of children of the internal nodes of a
+	 * level
+	 *
+	 * @param depth the level, 0 for the root
+	 * @return the number of nodes with i children at index i, empty for the
+	 *         external level
+	 */
+	public long[] getFanOutHistogram(int depth) {
+		return this.fanOutHistograms[depth] == null ? new long[0] : this.fanOutHistograms[depth].clone();
+	}
+
+	/**
+	 * Check if no error was found
+	 *
+	 * @return boolean value
+	 */
+	public boolean isValid() {
+		return this.errorCount == 0;
+	}
+
+	/**
+	 * Get the number of errors found
+	 *
+	 * @return the error count
+	 */
+	public long getErrorCount() {
+		return this.errorCount;
+	}
+
+	/**
+	 * Get the first errors found
+	 *
+	 * @return at most MAX_ERRORS descriptions of errors
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(this.errors);
+	}
+
+	/**
+	 * Get the statistics in a human readable format, one line per level.
+	 *
+	 * @return the statistics
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("order %d, height %d, %d keys, %d values, %d errors%n", this.order, this.height,
+				getKeyCount(), this.valueCount, this.errorCount));
+		out.append(String.format("%5s %12s %14s %6s %19s %s%n", "level", "nodes", "keys", "fill",
+				"fan-out min/avg/max", "fill histogram by tenths"));
+		for (int depth = 0; depth < this.height; depth++) {
+			String fanOut = "";
+			long[] fanOutHistogram = this.fanOutHistograms[depth];
+			if (fanOutHistogram != null) {
+				int min = -1;
+				int max = 0;
+				long childCount = 0;
+				long nodeCount = 0;
+				for (int i = 0; i < fanOutHistogram.length; i++) {
+					if (fanOutHistogram[i] > 0) {
+						min = min < 0 ? i : min;
+						max = i;
+						childCount += i * fanOutHistogram[i];
+						nodeCount += fanOutHistogram[i];
+					}
+				}
+				fanOut = String.format("%d/%.1f/%d", min, (double) childCount / nodeCount, max);
+			}
+			StringBuilder fill = new StringBuilder();
+			for (long count : getFillHistogram(depth)) {
+				fill.append(' ').append(count);
+			}
+			out.append(String.format("%5d %12d %14d %6.3f %19s %s%n", depth, this.nodeCounts[depth],
+					this.keyCounts[depth], getAverageFill(depth), fanOut, fill));
+		}
+		for (String error : this.errors) {
+			out.append(error).append(String.format("%n"));
+		}
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Verifier of the structure of a B+ tree that collects its BPlusTreeStats on
+ * the way. Every node is checked for
+ *
+ * - keys in increasing order, within the bounds set by the separator keys of
+ * its ancestors, and at most order - 1 of them,
+ *
+ * - for an internal node, one child more than keys, no missing child and
+ * children all external or all internal,
+ *
+ * - for an external node, the same depth as every other external node, no
+ * empty external node but the root, and links to its neighbours that link back
+ * to it, the next one holding keys not lower than its upper bound.
+ *
+ * The tree is walked depth first in key order, with the path from the root
+ * kept in arrays, so a walk holds no more than the height of the tree. step
+ * visits a given number of nodes and returns, the next step goes down from the
+ * root again to the key where the last one stopped. A large tree can so be
+ * verified in short steps run between the writes, holding the same lock as the
+ * writers. Each node is checked against the bounds found on its path in the
+ * same step, so a tree changed between steps is not reported as broken, but a
+ * node split or merged between steps may be counted twice or skipped, and the
+ * statistics then describe a mix of the states of the tree.
+ *
+ * verifyParallel verifies the subtrees below the top levels of the tree in
+ * parallel, the tree must not change until it returns.
+ */
+public class BPlusTreeVerifier {
+
+	private static final int MAX_HEIGHT = 64;
+	// least number of subtrees per thread verified in parallel
+	private static final int SUBTREES_PER_THREAD = 4;
+
+	// the tree verified, null when verifying a subtree
+	private final BPlusTreeImpl tree;
+	private final BPlusTreeNode subtreeRoot;
+	private final int order;
+	private final long rootLowerBound;
+	private final long rootUpperBound;
+	private final int rootDepth;
+	private final BPlusTreeStats stats;
+	// lower bound of the first subtree not visited yet
+	private long resumeKey = Long.MIN_VALUE;
+	private boolean isDone;
+	private long visitedCount;
+	// depth of the external nodes found by the current step, -1 until one is
+	// found, as the height may change between steps
+	private int externalDepth = -1;
+	// nodes from the root to the node visited, their bounds and the index of the
+	// child visited in each of them
+	private final BPlusTreeNode[] pathNodes = new BPlusTreeNode[MAX_HEIGHT];
+	private final long[] lowerBounds = new long[MAX_HEIGHT];
+	private final long[] upperBounds = new long[MAX_HEIGHT];
+	private final int[] childIndexes = new int[MAX_HEIGHT];
+
+	/**
+	 * Constructs a verifier of a whole tree, the root is read again at every
+	 * step.
+	 *
+	 * @param tree the tree
+	 */
+	BPlusTreeVerifier(BPlusTreeImpl tree) {
+		this(tree, null, tree.getOrder(), Long.MIN_VALUE, Long.MAX_VALUE, 0);
+	}
+
+	private BPlusTreeVerifier(BPlusTreeImpl tree, BPlusTreeNode subtreeRoot, int order, long lowerBound,
+			long upperBound, int depth) {
+		this.tree = tree;
+		this.subtreeRoot = subtreeRoot;
+		this.order = order;
+		this.rootLowerBound = lowerBound;
+		this.rootUpperBound = upperBound;
+		this.rootDepth = depth;
+		this.stats = new BPlusTreeStats(order);
+	}
+
+	/**
+	 * Verify the nodes following the ones verified by the previous steps.
+	 *
+	 * @param nodeCount number of nodes to verify, a step may verify up to the
+	 *                  height of the tree more
+	 * @return true if the whole tree is verified
+	 */
+	public boolean step(int nodeCount) {
+		if (this.isDone) {
+			return true;
+		}
+		nodeCount = Math.max(1, nodeCount);
+		int depth = 0;
+		this.pathNodes[0] = this.tree != null ? this.tree.getRoot() : this.subtreeRoot;
+		this.lowerBounds[0] = this.rootLowerBound;
+		this.upperBounds[0] = this.rootUpperBound;
+		this.childIndexes[0] = 0;
+		int count = 0;
+		this.externalDepth = -1;
+		if (this.resumeKey <= this.rootLowerBound) {
+			visit(0);
+			count++;
+		} else {
+			// go down to the first node not visited, the nodes above it were visited
+			// by the previous steps
+			int key = (int) this.resumeKey;
+			while (true) {
+				BPlusTreeNode node = this.pathNodes[depth];
+				if (node.isExternalNode()) {
+					this.childIndexes[depth] = 0;
+					break;
+				}
+				int childIndex = Math.min(node.getKeyIndex(key), node.getDataListSize());
+				this.childIndexes[depth] = childIndex;
+				BPlusTreeNode child = node.getChild(childIndex);
+				if (child == null || getLowerBound(depth, childIndex) >= this.resumeKey) {
+					break;
+				}
+				setChild(depth, childIndex);
+				depth++;
+			}
+		}
+		long lastResumeKey = this.resumeKey;
+		while (true) {
+			BPlusTreeNode node = this.pathNodes[depth];
+			int childIndex = this.childIndexes[depth];
+			if (!node.isExternalNode() && childIndex <= node.getDataListSize()
+					&& childIndex < node.getChildrensSize()) {
+				if (node.getChild(childIndex) == null) {
+					this.childIndexes[depth]++;
+					continue;
+				}
+				// stop before a first child would visit its parent again
+				if (count >= nodeCount && childIndex > 0) {
+					this.resumeKey = getLowerBound(depth, childIndex);
+					if (this.resumeKey <= lastResumeKey) {
+						this.stats.addError("Separator keys do not increase at key " + this.resumeKey
+								+ ", verification stopped");
+						break;
+					}
+					return false;
+				}
+				setChild(depth, childIndex);
+				depth++;
+				visit(depth);
+				count++;
+				continue;
+			}
+			if (depth == 0) {
+				break;
+			}
+			depth--;
+			this.childIndexes[depth]++;
+		}
+		this.isDone = true;
+		return true;
+	}
+
+	/**
+	 * Verify the nodes not verified by the previous steps.
+	 *
+	 * @return the statistics
+	 */
+	public BPlusTreeStats run() {
+		step(Integer.MAX_VALUE);
+		return this.stats;
+	}
+
+	/**
+	 * Check if the whole tree is verified
+	 *
+	 * @return boolean value
+	 */
+	public boolean isDone() {
+		return this.isDone;
+	}
+
+	/**
+	 * Get the number of nodes verified so far
+	 *
+	 * @return the node count
+	 */
+	public long getVisitedCount() {
+		return this.visitedCount;
+	}
+
+	/**
+	 * Get the statistics of the nodes verified so far
+	 *
+	 * @return the statistics
+	 */
+	public BPlusTreeStats getStats() {
+		return this.stats;
+	}
+
+	private long getLowerBound(int depth, int childIndex) {
+		return childIndex > 0 ? this.pathNodes[depth].getKeyAt(childIndex - 1) : this.lowerBounds[depth];
+	}
+
+	private long getUpperBound(int depth, int childIndex) {
+		BPlusTreeNode node = this.pathNodes[depth];
+		return childIndex < node.getDataListSize() ? node.getKeyAt(childIndex) : this.upperBounds[depth];
+	}
+
+	private void setChild(int depth, int childIndex) {
+		this.pathNodes[depth + 1] = this.pathNodes[depth].getChild(childIndex);
+		this.lowerBounds[depth + 1] = getLowerBound(depth, childIndex);
+		this.upperBounds[depth + 1] = getUpperBound(depth, childIndex);
+		this.childIndexes[depth + 1] = 0;
+	}
+
+	/**
+	 * Verify the node at a depth of the path and add it to the statistics.
+	 */
+	private void visit(int depth) {
+		verifyNode(this.pathNodes[depth], this.rootDepth + depth, this.lowerBounds[depth], this.upperBounds[depth],
+				this.rootDepth + depth == 0);
+		this.visitedCount++;
+	}
+
+	private void verifyNode(BPlusTreeNode node, int depth, long lowerBound, long upperBound, boolean isRoot) {
+		int size = node.getDataListSize();
+		if (size >= this.order) {
+			addError(node, depth, lowerBound, upperBound, size + " keys, more than order - 1");
+		}
+		for (int i = 0; i < size; i++) {
+			int key = node.getKeyAt(i);
+			if (key < lowerBound || key >= upperBound) {
+				addError(node, depth, lowerBound, upperBound, "key " + key + " out of bounds");
+			}
+			if (i > 0 && key <= node.getKeyAt(i - 1)) {
+				addError(node, depth, lowerBound, upperBound, "key " + key + " not above the previous key");
+			}
+		}
+		if (node.isExternalNode()) {
+			verifyExternalNode(node, depth, lowerBound, upperBound, isRoot);
+			return;
+		}
+		int childrenCount = node.getChildrensSize();
+		if (childrenCount != size + 1) {
+			addError(node, depth, lowerBound, upperBound, size + " keys and " + childrenCount + " children");
+		}
+		if (size == 0) {
+			addError(node, depth, lowerBound, upperBound, "internal node without keys");
+		}
+		int externalCount = 0;
+		for (int i = 0; i < childrenCount; i++) {
+			BPlusTreeNode child = node.getChild(i);
+			if (child == null) {
+				addError(node, depth, lowerBound, upperBound, "child " + i + " missing");
+			} else if (child.isExternalNode()) {
+				externalCount++;
+			}
+		}
+		if (externalCount > 0 && externalCount < childrenCount) {
+			addError(node, depth, lowerBound, upperBound, "external and internal children");
+		}
+		this.stats.addInternalNode(depth, size, childrenCount);
+	}
+
+	private void verifyExternalNode(BPlusTreeNode node, int depth, long lowerBound, long upperBound,
+			boolean isRoot) {
+		int size = node.getDataListSize();
+		if (this.externalDepth < 0) {
+			this.externalDepth = depth;
+		} else if (depth != this.externalDepth) {
+			addError(node, depth, lowerBound, upperBound, "external nodes also found at depth " + this.externalDepth);
+		}
+		if (size == 0 && !isRoot) {
+			addError(node, depth, lowerBound, upperBound, "empty external node");
+		}
+		BPlusTreeNode prev = node.getPrevNode();
+		BPlusTreeNode next = node.getNextNode();
+		if (prev == null ? lowerBound != Long.MIN_VALUE : prev.getNextNode() != node) {
+			addError(node, depth, lowerBound, upperBound, "previous node does not link back");
+		}
+		if (next == null) {
+			if (upperBound != Long.MAX_VALUE) {
+				addError(node, depth, lowerBound, upperBound, "next node missing");
+			}
+		} else if (next.getPrevNode() != node) {
+			addError(node, depth, lowerBound, upperBound, "next node does not link back");
+		} else if (next.getDataListSize() > 0 && next.getKeyAt(0) < upperBound) {
+			addError(node, depth, lowerBound, upperBound, "next node starts at key " + next.getKeyAt(0));
+		}
+		long valueCount = size;
+		for (int i = 0; i < size; i++) {
+			valueCount += node.getValueCount(i) - 1;
+		}
+		this.stats.addExternalNode(depth, size, valueCount);
+	}
+
+	private void addError(BPlusTreeNode node, int depth, long lowerBound, long upperBound, String error) {
+		this.stats.addError((node.isExternalNode() ? "External" : "Internal") + " node at depth " + depth + " ["
+				+ (lowerBound == Long.MIN_VALUE ? "-inf" : lowerBound) + ", "
+				+ (upperBound == Long.MAX_VALUE ? "+inf" : upperBound) + "): " + error);
+	}
+
+	/**
+	 * Verify a tree, the subtrees below its top levels in parallel in the common
+	 * fork join pool. The top levels are expanded until there are enough subtrees
+	 * for every thread of the pool. The tree must not change until verified.
+	 *
+	 * @param tree the tree
+	 * @return the statistics
+	 */
+	static BPlusTreeStats verifyParallel(BPlusTreeImpl tree) {
+		BPlusTreeVerifier top = new BPlusTreeVerifier(tree);
+		int parallelism = Runtime.getRuntime().availableProcessors() * SUBTREES_PER_THREAD;
+		ArrayList<BPlusTreeVerifier> subtrees = new ArrayList<BPlusTreeVerifier>();
+		subtrees.add(new BPlusTreeVerifier(null, tree.getRoot(), top.order, Long.MIN_VALUE, Long.MAX_VALUE, 0));
+		while (!subtrees.isEmpty() && subtrees.size() < parallelism
+				&& !subtrees.get(0).subtreeRoot.isExternalNode()) {
+			ArrayList<BPlusTreeVerifier> nextSubtrees = new ArrayList<BPlusTreeVerifier>();
+			for (BPlusTreeVerifier subtree : subtrees) {
+				BPlusTreeNode node = subtree.subtreeRoot;
+				top.verifyNode(node, subtree.rootDepth, subtree.rootLowerBound, subtree.rootUpperBound,
+						subtree.rootDepth == 0);
+				top.visitedCount++;
+				if (node.isExternalNode()) {
+					continue;
+				}
+				int size = node.getDataListSize();
+				for (int i = 0; i <= size && i < node.getChildrensSize(); i++) {
+					BPlusTreeNode child = node.getChild(i);
+					if (child != null) {
+						nextSubtrees.add(new BPlusTreeVerifier(null, child, top.order,
+								i > 0 ? node.getKeyAt(i - 1) : subtree.rootLowerBound,
+								i < size ? node.getKeyAt(i) : subtree.rootUpperBound, subtree.rootDepth + 1));
+					}
+				}
+			}
+			subtrees = nextSubtrees;
+		}
+		List<BPlusTreeStats> results = subtrees.parallelStream().map(BPlusTreeVerifier::run)
+				.collect(Collectors.toList());
+		for (BPlusTreeStats stats : results) {
+			top.stats.add(stats);
+		}
+		top.stats.checkExternalDepths();
+		return top.stats;
+	}
+
+}
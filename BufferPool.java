@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Keeps a fixed number of pages of a PageFile in memory, so the memory used by
+ * a paged tree does not grow with the file. Frames are allocated outside of the
+ * heap once, a page is read into a frame when it is pinned and not in the pool,
+ * evicting the page chosen by the eviction policy. Changed pages are written
+ * back when they are evicted or flushed.
+ *
+ * Hits, misses, evictions and writes are counted to size the pool against the
+ * working set.
+ *
+ * With a write-ahead log every changed page is given the lsn of the log record
+ * holding its content, the log is forced up to that lsn before the page is
+ * written back.
+ *
+ * Note that the pool is not synchronized, pinning a page changes the page
+ * table and the state of the eviction policy, so threads sharing a pool must
+ * guard reads as well as writes.
+ */
+public class BufferPool implements PageStore {
+
+	private static final int NO_PAGE = -1;
+
+	private final PageFile pageFile;
+	private final EvictionPolicy policy;
+	private final ByteBuffer[] frames;
+	private final int[] framePageIds;
+	private final int[] pinCounts;
+	private final boolean[] isDirty;
+	private final long[] pageLsns;
+	private final int[] freeFrames;
+	private int freeFrameCount;
+	// open addressing table from page id to frame
+	private final int[] tablePageIds;
+	private final int[] tableFrames;
+	private final int tableMask;
+	private final int tableShift;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long writeCount;
+	private WriteAheadLog log;
+
+	/**
+	 * Constructs a pool in front of a page file.
+	 *
+	 * @param pageFile   the page file
+	 * @param frameCount number of pages kept in memory
+	 * @param policy     the eviction policy, sized for frameCount frames
+	 */
+	public BufferPool(PageFile pageFile, int frameCount, EvictionPolicy policy) {
+		if (frameCount < 1) {
+			throw new IllegalArgumentException("Frame count must be positive but was " + frameCount);
+		}
+		int pageSize = pageFile.getPageSize();
+		this.pageFile = pageFile;
+		this.policy = policy;
+		this.frames = new ByteBuffer[frameCount];
+		ByteBuffer memory = ByteBuffer.allocateDirect(frameCount * pageSize);
+		for (int i = 0; i < frameCount; i++) {
+			this.frames[i] = memory.slice(i * pageSize, pageSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		this.framePageIds = new int[frameCount];
+		this.pinCounts = new int[frameCount];
+		this.isDirty = new boolean[frameCount];
+		this.pageLsns = new long[frameCount];
+		this.freeFrames = new int[frameCount];
+		for (int i = 0; i < frameCount; i++) {
+			this.freeFrames[i] = frameCount - 1 - i;
+		}
+		this.freeFrameCount = frameCount;
+		int tableSize = Integer.highestOneBit(frameCount * 2 - 1) << 1;
+		this.tablePageIds = new int[tableSize];
+		this.tableFrames = new int[tableSize];
+		this.tableMask = tableSize - 1;
+		this.tableShift = Integer.numberOfLeadingZeros(tableSize) + 1;
+		Arrays.fill(this.tablePageIds, NO_PAGE);
+	}
+
+	/**
+	 * Create an eviction policy by name.
+	 *
+	 * @param name       lru, clock or 2q
+	 * @param frameCount number of frames of the pool
+	 * @return the policy
+	 */
+	public static EvictionPolicy createPolicy(String name, int frameCount) {
+		switch (name) {
+		case "lru":
+			return new LruEvictionPolicy(frameCount);
+		case "clock":
+			return new ClockEvictionPolicy(frameCount);
+		case "2q":
+			return new TwoQueueEvictionPolicy(frameCount);
+		default:
+			throw new IllegalArgumentException("Unknown eviction policy " + name);
+		}
+	}
+
+	@Override
+	public int getPageSize() {
+		return this.pageFile.getPageSize();
+	}
+
+	@Override
+	public boolean isEmpty() throws IOException {
+		return this.pageFile.isEmpty() && this.freeFrameCount == this.frames.length;
+	}
+
+	/**
+	 * The file grows when new pages are written back, nothing to do here.
+	 */
+	@Override
+	public void ensureCapacity(int pageCount) {
+	}
+
+	@Override
+	public ByteBuffer pinPage(int pageId) {
+		int frame = findFrame(pageId);
+		if (frame >= 0) {
+			this.hitCount++;
+			this.pinCounts[frame]++;
+			this.policy.pageAccessed(frame);
+			return this.frames[frame];
+		}
+		this.missCount++;
+		if (this.freeFrameCount > 0) {
+			frame = this.freeFrames[--this.freeFrameCount];
+		} else {
+			frame = this.policy.selectVictim(this.pinCounts);
+			if (frame < 0) {
+				throw new IllegalStateException("All " + this.frames.length + " frames of the buffer pool are pinned");
+			}
+			evict(frame);
+		}
+		try {
+			this.pageFile.readPage(pageId, this.frames[frame]);
+		} catch (IOException e) {
+			this.freeFrames[this.freeFrameCount++] = frame;
+			throw new UncheckedIOException(e);
+		}
+		this.framePageIds[frame] = pageId;
+		this.pinCounts[frame] = 1;
+		this.isDirty[frame] = false;
+		this.pageLsns[frame] = 0;
+		putFrame(pageId, frame);
+		this.policy.pageLoaded(frame, pageId);
+		return this.frames[frame];
+	}
+
+	@Override
+	public void unpinPage(int pageId) {
+		int frame = findFrame(pageId);
+		if (frame < 0 || this.pinCounts[frame] == 0) {
+			throw new IllegalStateException("Page " + pageId + " is not pinned");
+		}
+		this.pinCounts[frame]--;
+	}
+
+	@Override
+	public void markDirty(int pageId) {
+		int frame = findFrame(pageId);
+		if (frame < 0 || this.pinCounts[frame] == 0) {
+			throw new IllegalStateException("Page " + pageId + " is not pinned");
+		}
+		this.isDirty[frame] = true;
+	}
+
+	/**
+	 * Set the write-ahead log which must be forced before pages are written back.
+	 *
+	 * @param log the log, null for none
+	 */
+	public void setWriteAheadLog(WriteAheadLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Set the lsn of the log record holding the current content of a pinned
+	 * page.
+	 *
+	 * @param pageId the page id
+	 * @param lsn    the lsn
+	 */
+	public void setPageLsn(int pageId, long lsn) {
+		int frame = findFrame(pageId);
+		if (frame < 0 || this.pinCounts[frame] == 0) {
+			throw new IllegalStateException("Page " + pageId + " is not pinned");
+		}
+		this.pageLsns[frame] = lsn;
+	}
+
+	/**
+	 * Write back all dirty pages and force the file to the storage device.
+	 */
+	@Override
+	public void flush() {
+		for (int frame = 0; frame < this.frames.length; frame++) {
+			if (this.isDirty[frame]) {
+				writeBack(frame);
+			}
+		}
+		this.pageFile.flush();
+	}
+
+	/**
+	 * Writes back dirty pages and closes the page file.
+	 *
+	 * @throws IOException if the file can not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		this.pageFile.close();
+	}
+
+	/**
+	 * Get the number of pins of a page found in the pool
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * Get the number of pins of a page read from the file
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * Get the number of pages evicted from the pool
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * Get the number of dirty pages written back to the file
+	 *
+	 * @return the write count
+	 */
+	public long getWriteCount() {
+		return this.writeCount;
+	}
+
+	/**
+	 * Get the fraction of pins that found the page in the pool
+	 *
+	 * @return the hit ratio, 0 if no page was pinned
+	 */
+	public double getHitRatio() {
+		long pins = this.hitCount + this.missCount;
+		return pins == 0 ? 0 : (double) this.hitCount / pins;
+	}
+
+	/**
+	 * Reset the hit, miss, eviction and write counters.
+	 */
+	public void resetCounters() {
+		this.hitCount = 0;
+		this.missCount = 0;
+		this.evictionCount = 0;
+		this.writeCount = 0;
+	}
+
+	/**
+	 * Remove the page of a frame chosen for eviction, writing it back if dirty.
+	 *
+	 * @param frame the frame
+	 */
+	private void evict(int frame) {
+		if (this.isDirty[frame]) {
+			writeBack(frame);
+		}
+		removeFrame(this.framePageIds[frame]);
+		this.evictionCount++;
+	}
+
+	/**
+	 * Write a dirty page to the file.
+	 *
+	 * @param frame the frame holding the page
+	 */
+	private void writeBack(int frame) {
+		if (this.log != null && this.pageLsns[frame] > this.log.getDurableLsn()) {
+			// write-ahead rule
+			this.log.flush(this.pageLsns[frame]);
+		}
+		try {
+			this.pageFile.writePage(this.framePageIds[frame], this.frames[frame]);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.isDirty[frame] = false;
+		this.writeCount++;
+	}
+
+	private int slot(int pageId) {
+		return (pageId * 0x9E3779B9) >>> this.tableShift;
+	}
+
+	/**
+	 * Find the frame holding a page.
+	 *
+	 * @param pageId the page id
+	 * @return the frame, or -1 if the page is not in the pool
+	 */
+	private int findFrame(int pageId) {
+		for (int i = slot(pageId);; i = (i + 1) & this.tableMask) {
+			if (this.tablePageIds[i] == pageId) {
+				return this.tableFrames[i];
+			}
+			if (this.tablePageIds[i] == NO_PAGE) {
+				return -1;
+			}
+		}
+	}
+
+	private void putFrame(int pageId, int frame) {
+		int i = slot(pageId);
+		while (this.tablePageIds[i] != NO_PAGE) {
+			i = (i + 1) & this.tableMask;
+		}
+		this.tablePageIds[i] = pageId;
+		this.tableFrames[i] = frame;
+	}
+
+	/**
+	 * Remove a page from the table, moving back the entries that follow it so
+	 * lookups never stop early.
+	 *
+	 * @param pageId the page id
+	 */
+	private void removeFrame(int pageId) {
+		int i = slot(pageId);
+		while (this.tablePageIds[i] != pageId) {
+			i = (i + 1) & this.tableMask;
+		}
+		int j = i;
+		while (true) {
+			j = (j + 1) & this.tableMask;
+			if (this.tablePageIds[j] == NO_PAGE) {
+				break;
+			}
+			int home = slot(this.tablePageIds[j]);
+			// move entry j to the hole at i unless its home lies in (i, j]
+			if (((j - home) & this.tableMask) >= ((j - i) & this.tableMask)) {
+				this.tablePageIds[i] = this.tablePageIds[j];
+				this.tableFrames[i] = this.tableFrames[j];
+				i = j;
+			}
+		}
+		this.tablePageIds[i] = NO_PAGE;
+	}
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Approximates LRU with a reference bit per frame. A hand sweeps over the
+ * frames, clearing the reference bit of used frames and evicting the first
+ * unpinned frame whose bit is already clear. A hit only sets a bit, which makes
+ * it cheaper than moving a frame in a list.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+	private final boolean[] isLoaded;
+	private final boolean[] isReferenced;
+	private int hand;
+
+	/**
+	 * Constructs a policy for a pool with given number of frames.
+	 *
+	 * @param frameCount number of frames
+	 */
+	public ClockEvictionPolicy(int frameCount) {
+		this.isLoaded = new boolean[frameCount];
+		this.isReferenced = new boolean[frameCount];
+	}
+
+	@Override
+	public void pageLoaded(int frame, int pageId) {
+		this.isLoaded[frame] = true;
+		this.isReferenced[frame] = true;
+	}
+
+	@Override
+	public void pageAccessed(int frame) {
+		this.isReferenced[frame] = true;
+	}
+
+	@Override
+	public int selectVictim(int[] pinCounts) {
+		// two rounds clear all reference bits of unpinned frames
+		for (int i = 0; i <= 2 * this.isLoaded.length; i++) {
+			int frame = this.hand;
+			this.hand = frame + 1 == this.isLoaded.length ? 0 : frame + 1;
+			if (!this.isLoaded[frame] || pinCounts[frame] > 0) {
+				continue;
+			}
+			if (this.isReferenced[frame]) {
+				this.isReferenced[frame] = false;
+			} else {
+				this.isLoaded[frame] = false;
+				return frame;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,514 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Parser of the command log read by the bplustree driver, one command per line
+ * such as {@code Insert(21, 0.3534)}. The file is memory-mapped and parsed byte
+ * by byte in place, without creating a String per line, into batches of
+ * commands which the driver applies to the tree.
+ *
+ * A line is split at '(', ',' and ')' as before, and its command is the first
+ * of Initialize, Insert, Search and Delete contained in the text before the
+ * first of them. Lines without a command are skipped. Numbers are parsed
+ * directly from the bytes when they have few enough digits to be exact, others
+ * fall back to Integer.parseInt and Double.parseDouble so every value parses to
+ * the same number as before.
+ *
+ * Files larger than 2 GB are mapped in windows, a window ends at the last
+ * complete line it holds.
+ */
+public class CommandLogParser implements Closeable {
+
+	static final byte INITIALIZE = 1;
+	static final byte INSERT = 2;
+	static final byte DELETE = 3;
+	static final byte SEARCH = 4;
+	static final byte SEARCH_RANGE = 5;
+
+	private static final int WINDOW_SIZE = 1 << 30;
+	private static final int MAX_FIELDS = 4;
+	private static final byte[][] COMMAND_NAMES = { "Initialize".getBytes(StandardCharsets.US_ASCII),
+			"Insert".getBytes(StandardCharsets.US_ASCII), "Delete".getBytes(StandardCharsets.US_ASCII),
+			"Search".getBytes(StandardCharsets.US_ASCII) };
+	// exact powers of ten, a double holds 10^22 without rounding
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position;
+	private long lineNumber;
+	// start and end of the fields of the current line, in the window
+	private final int[] fieldStarts = new int[MAX_FIELDS + 1];
+	private final int[] fieldEnds = new int[MAX_FIELDS + 1];
+
+	/**
+	 * Opens a command log.
+	 *
+	 * @param path path of the file
+	 * @throws IOException if the file can not be opened
+	 */
+	public CommandLogParser(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = this.channel.size();
+		map(0);
+	}
+
+	/**
+	 * Parses the next commands into a batch, until the batch is full or the file
+	 * ends.
+	 *
+	 * @param batch the batch, cleared first
+	 * @return false if the file has no more commands
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean next(Batch batch) throws IOException {
+		batch.clear();
+		while (!batch.isFull()) {
+			int lineEnd = findLineEnd();
+			if (lineEnd < 0) {
+				if (this.windowStart + this.position >= this.fileSize) {
+					break;
+				}
+				// the line continues after the window
+				map(this.windowStart + this.position);
+				continue;
+			}
+			this.lineNumber++;
+			parseLine(this.position, lineEnd, batch);
+			this.position = skipLineSeparator(lineEnd);
+		}
+		return batch.size() > 0;
+	}
+
+	/**
+	 * Get the number of the last line parsed
+	 *
+	 * @return the line number, starting at 1
+	 */
+	public long getLineNumber() {
+		return this.lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.window = null;
+		this.channel.close();
+	}
+
+	/**
+	 * Map the window starting at an offset of the file.
+	 */
+	private void map(long start) throws IOException {
+		long size = Math.min(WINDOW_SIZE, this.fileSize - start);
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		this.windowStart = start;
+		this.position = 0;
+	}
+
+	/**
+	 * Find the end of the line at the current position. The last line of the file
+	 * needs no line separator.
+	 *
+	 * @return the index of the line separator, -1 if the line does not end in the
+	 *         window
+	 */
+	private int findLineEnd() {
+		int limit = this.window.limit();
+		for (int i = this.position; i < limit; i++) {
+			byte b = this.window.get(i);
+			if (b == '\n' || b == '\r') {
+				return i;
+			}
+		}
+		if (this.windowStart + limit == this.fileSize && this.position < limit) {
+			return limit;
+		}
+		if (this.position == 0 && limit == WINDOW_SIZE) {
+			throw new IllegalArgumentException("Line " + (this.lineNumber + 1) + " is longer than " + WINDOW_SIZE);
+		}
+		return -1;
+	}
+
+	/**
+	 * Skip a line separator, which is \n, \r or \r\n.
+	 *
+	 * @param lineEnd index of the line separator
+	 * @return index of the next line
+	 */
+	private int skipLineSeparator(int lineEnd) {
+		int limit = this.window.limit();
+		if (lineEnd < limit && this.window.get(lineEnd) == '\r' && lineEnd + 1 < limit
+				&& this.window.get(lineEnd + 1) == '\n') {
+			return lineEnd + 2;
+		}
+		return Math.min(lineEnd + 1, limit);
+	}
+
+	/**
+	 * Parse a line into the batch, nothing is added for a line without a command.
+	 */
+	private void parseLine(int start, int end, Batch batch) {
+		int fieldCount = splitFields(start, end);
+		int command = getCommand(this.fieldStarts[0], this.fieldEnds[0]);
+		switch (command) {
+		case INITIALIZE:
+			batch.add(INITIALIZE, parseIntField(1, fieldCount), 0, 0);
+			break;
+		case INSERT:
+			int key = parseIntField(1, fieldCount);
+			batch.add(INSERT, key, 0, parseDoubleField(2, fieldCount));
+			break;
+		case DELETE:
+			batch.add(DELETE, parseIntField(1, fieldCount), 0, 0);
+			break;
+		case SEARCH:
+			if (fieldCount == 3) {
+				int startKey = parseIntField(1, fieldCount);
+				batch.add(SEARCH_RANGE, startKey, parseIntField(2, fieldCount), 0);
+			} else if (fieldCount == 2) {
+				batch.add(SEARCH, parseIntField(1, fieldCount), 0, 0);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Split a line at '(', ',' and ')', trailing empty fields are dropped. Only
+	 * the first fields are recorded, the count covers all of them.
+	 *
+	 * @return the number of fields
+	 */
+	private int splitFields(int start, int end) {
+		int fieldCount = 0;
+		int nonEmptyCount = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i < end) {
+				byte b = this.window.get(i);
+				if (b != '(' && b != ',' && b != ')') {
+					continue;
+				}
+			}
+			if (fieldCount <= MAX_FIELDS) {
+				this.fieldStarts[fieldCount] = fieldStart;
+				this.fieldEnds[fieldCount] = i;
+			}
+			fieldCount++;
+			if (i > fieldStart) {
+				nonEmptyCount = fieldCount;
+			}
+			fieldStart = i + 1;
+		}
+		// the first field is kept even if empty
+		return Math.max(1, nonEmptyCount);
+	}
+
+	/**
+	 * Get the command named in the text before the first delimiter.
+	 *
+	 * @return the command, 0 if the text holds no command name
+	 */
+	private int getCommand(int start, int end) {
+		if (contains(start, end, COMMAND_NAMES[0])) {
+			return INITIALIZE;
+		}
+		if (contains(start, end, COMMAND_NAMES[1])) {
+			return INSERT;
+		}
+		if (contains(start, end, COMMAND_NAMES[3])) {
+			return SEARCH;
+		}
+		if (contains(start, end, COMMAND_NAMES[2])) {
+			return DELETE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Check if the bytes between start and end contain a name.
+	 */
+	private boolean contains(int start, int end, byte[] name) {
+		for (int i = start; i <= end - name.length; i++) {
+			int j = 0;
+			while (j < name.length && this.window.get(i + j) == name[j]) {
+				j++;
+			}
+			if (j == name.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse a field holding an int, surrounded by optional white space.
+	 */
+	private int parseIntField(int field, int fieldCount) {
+		checkField(field, fieldCount);
+		int start = trimStart(this.fieldStarts[field], this.fieldEnds[field]);
+		int end = trimEnd(start, this.fieldEnds[field]);
+		int i = start;
+		boolean isNegative = false;
+		if (i < end && (this.window.get(i) == '-' || this.window.get(i) == '+')) {
+			isNegative = this.window.get(i) == '-';
+			i++;
+		}
+		long value = 0;
+		// ten digits hold every int, more are parsed by Integer.parseInt
+		if (i == end || end - i > 10) {
+			return Integer.parseInt(getString(start, end));
+		}
+		for (; i < end; i++) {
+			int digit = this.window.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(getString(start, end));
+			}
+			value = value * 10 + digit;
+		}
+		value = isNegative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return Integer.parseInt(getString(start, end));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parse a field holding a double, surrounded by optional white space. A
+	 * decimal of at most 15 significant digits whose exponent is within 22 is
+	 * the product or quotient of two doubles held exactly, which IEEE arithmetic
+	 * rounds correctly as Double.parseDouble does.
+	 */
+	private double parseDoubleField(int field, int fieldCount) {
+		checkField(field, fieldCount);
+		int start = trimStart(this.fieldStarts[field], this.fieldEnds[field]);
+		int end = trimEnd(start, this.fieldEnds[field]);
+		int i = start;
+		boolean isNegative = false;
+		if (i < end && (this.window.get(i) == '-' || this.window.get(i) == '+')) {
+			isNegative = this.window.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digitCount = 0;
+		int significantCount = 0;
+		int fractionCount = 0;
+		boolean isFraction = false;
+		for (; i < end; i++) {
+			byte b = this.window.get(i);
+			if (b == '.' && !isFraction) {
+				isFraction = true;
+				continue;
+			}
+			int digit = b - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			digitCount++;
+			if (mantissa > 0 || digit > 0) {
+				significantCount++;
+			}
+			if (isFraction) {
+				fractionCount++;
+			}
+			mantissa = mantissa * 10 + digit;
+			if (significantCount > 15) {
+				return Double.parseDouble(getString(start, end));
+			}
+		}
+		int exponent = 0;
+		if (i < end && (this.window.get(i) == 'e' || this.window.get(i) == 'E')) {
+			i++;
+			boolean isNegativeExponent = false;
+			if (i < end && (this.window.get(i) == '-' || this.window.get(i) == '+')) {
+				isNegativeExponent = this.window.get(i) == '-';
+				i++;
+			}
+			int exponentStart = i;
+			for (; i < end && i - exponentStart < 4; i++) {
+				int digit = this.window.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				exponent = exponent * 10 + digit;
+			}
+			if (i == exponentStart) {
+				return Double.parseDouble(getString(start, end));
+			}
+			exponent = isNegativeExponent ? -exponent : exponent;
+		}
+		if (i != end || digitCount == 0) {
+			// a suffix, hexadecimal, NaN, Infinity or malformed
+			return Double.parseDouble(getString(start, end));
+		}
+		exponent -= fractionCount;
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= 0 && exponent <= 22) {
+			value = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && exponent >= -22) {
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return Double.parseDouble(getString(start, end));
+		}
+		return isNegative ? -value : value;
+	}
+
+	/**
+	 * Check that the line has a field.
+	 */
+	private void checkField(int field, int fieldCount) {
+		if (field >= fieldCount) {
+			throw new IllegalArgumentException("Missing argument " + field + " at line " + this.lineNumber);
+		}
+	}
+
+	/**
+	 * Skip white space as String.trim does.
+	 */
+	private int trimStart(int start, int end) {
+		while (start < end && (this.window.get(start) & 0xFF) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Drop trailing white space as String.trim does.
+	 */
+	private int trimEnd(int start, int end) {
+		while (end > start && (this.window.get(end - 1) & 0xFF) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Get the text between start and end, for the slow path of the parsers.
+	 */
+	private String getString(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		this.window.get(start, bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * A batch of parsed commands in parallel arrays, reused for the following
+	 * batches once applied.
+	 */
+	public static final class Batch {
+
+		private final byte[] commands;
+		private final int[] keys;
+		private final int[] endKeys;
+		private final double[] values;
+		private int size;
+
+		/**
+		 * Constructs an empty batch.
+		 *
+		 * @param capacity maximum number of commands
+		 */
+		public Batch(int capacity) {
+			this.commands = new byte[capacity];
+			this.keys = new int[capacity];
+			this.endKeys = new int[capacity];
+			this.values = new double[capacity];
+		}
+
+		void add(byte command, int key, int endKey, double value) {
+			this.commands[this.size] = command;
+			this.keys[this.size] = key;
+			this.endKeys[this.size] = endKey;
+			this.values[this.size++] = value;
+		}
+
+		void clear() {
+			this.size = 0;
+		}
+
+		boolean isFull() {
+			return this.size == this.commands.length;
+		}
+
+		/**
+		 * Get the number of commands
+		 *
+		 * @return the number of commands
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Get the command at an index, one of the command constants
+		 *
+		 * @param index the index
+		 * @return the command
+		 */
+		public byte getCommand(int index) {
+			return this.commands[index];
+		}
+
+		/**
+		 * Get the key, the order of Initialize or the start key of a range search
+		 *
+		 * @param index the index
+		 * @return the key
+		 */
+		public int getKey(int index) {
+			return this.keys[index];
+		}
+
+		/**
+		 * Get the end key of a range search
+		 *
+		 * @param index the index
+		 * @return the end key
+		 */
+		public int getEndKey(int index) {
+			return this.endKeys[index];
+		}
+
+		/**
+		 * Get the value of an Insert
+		 *
+		 * @param index the index
+		 * @return the value
+		 */
+		public double getValue(int index) {
+			return this.values[index];
+		}
+
+		/**
+		 * Get the keys of the commands, used to pass a run of Inserts or Deletes to
+		 * the tree
+		 *
+		 * @return the key array
+		 */
+		int[] getKeys() {
+			return this.keys;
+		}
+
+		/**
+		 * Get the values of the commands
+		 *
+		 * @return the value array
+		 */
+		double[] getValues() {
+			return this.values;
+		}
+
+	}
+
+}
@@ -0,0 +1,331 @@
+import java.util.ArrayList;
+
+/**
+ * Thread safe B+ tree using optimistic lock coupling. Searches never lock: they
+ * read the version of every node before using it and validate it afterwards,
+ * restarting from the root when a writer changed the node in between. Inserts
+ * and deletes descend the same way and only lock the nodes they modify, i.e.
+ * the external node, plus its parent and sibling while splitting, merging or
+ * borrowing.
+ *
+ * Full nodes are split on the way down so that a split never has to go back up
+ * the tree. An external node that becomes empty is merged with its sibling, an
+ * internal node left without keys is merged with or borrows from its sibling by
+ * the next delete passing through it. External nodes are only linked to the
+ * next node, range searches walk that list.
+ */
+public class ConcurrentBPlusTreeImpl {
+
+	private final int order;
+	private volatile ConcurrentBPlusTreeNode root;
+
+	/**
+	 * Constructs an empty B+Tree or order provided.
+	 *
+	 * @param order The order of B+ Tree. Normally an integer greater than 2.
+	 */
+	public ConcurrentBPlusTreeImpl(int order) {
+		if (order < 3) {
+			throw new IllegalArgumentException("Order must be greater than 2 but was " + order);
+		}
+		this.order = order;
+		this.root = new ConcurrentBPlusTreeNode(order, true);
+	}
+
+	/**
+	 * Inserts an element with given key and value in the tree.
+	 *
+	 * @param key   key of the element to be inserted
+	 * @param value value of the element to be inserted
+	 */
+	public void insert(int key, double value) {
+		while (!tryInsert(key, value)) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Deletes an element with given key from the tree.
+	 *
+	 * @param key key of the element to be deleted
+	 */
+	public void delete(int key) {
+		while (!tryDelete(key)) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Search an element with given key in the tree.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return list containing the value whose key is searched.
+	 */
+	public ArrayList<Double> search(int key) {
+		return search(key, key);
+	}
+
+	/**
+	 * Search all element that lies between and including startKey and endKey.
+	 * Values of each external node are validated before they are added, a change
+	 * by a writer restarts the search after the last value added.
+	 *
+	 * @param startKey starting Key of the element to be searched.
+	 * @param endKey   ending key of the element to be searched.
+	 * @return list of values between startKey and endKey
+	 */
+	public ArrayList<Double> search(int startKey, int endKey) {
+		ArrayList<Double> listValues = new ArrayList<Double>();
+		int fromKey = startKey;
+		restart: while (fromKey <= endKey) {
+			ConcurrentBPlusTreeNode node = this.root;
+			long version = node.readLockOrRestart();
+			if (version == ConcurrentBPlusTreeNode.RESTART || node != this.root) {
+				continue;
+			}
+			while (!node.isExternalNode()) {
+				ConcurrentBPlusTreeNode child = node.getChild(node.getKeyIndex(fromKey));
+				long childVersion = child == null ? ConcurrentBPlusTreeNode.RESTART : child.readLockOrRestart();
+				if (childVersion == ConcurrentBPlusTreeNode.RESTART || !node.validate(version)) {
+					continue restart;
+				}
+				node = child;
+				version = childVersion;
+			}
+			int i = fromKey == Integer.MIN_VALUE ? 0 : node.getKeyIndex(fromKey - 1);
+			while (true) {
+				int validSize = listValues.size();
+				int lastKey = fromKey;
+				boolean isEndKeyReached = false;
+				int size = node.getDataListSize();
+				for (; i < size; i++) {
+					int currentKey = node.getKeyAt(i);
+					if (currentKey > endKey) {
+						isEndKeyReached = true;
+						break;
+					}
+					listValues.add(node.getValueAt(i));
+					lastKey = currentKey;
+				}
+				ConcurrentBPlusTreeNode next = node.getNextNode();
+				if (!node.validate(version)) {
+					listValues.subList(validSize, listValues.size()).clear();
+					continue restart;
+				}
+				if (listValues.size() > validSize) {
+					if (lastKey == Integer.MAX_VALUE) {
+						return listValues;
+					}
+					fromKey = lastKey + 1;
+				}
+				if (isEndKeyReached || next == null) {
+					return listValues;
+				}
+				long nextVersion = next.readLockOrRestart();
+				if (nextVersion == ConcurrentBPlusTreeNode.RESTART || !node.validate(version)) {
+					continue restart;
+				}
+				node = next;
+				version = nextVersion;
+				i = 0;
+			}
+		}
+		return listValues;
+	}
+
+	/**
+	 * One attempt to insert an element, full nodes on the path are split first.
+	 *
+	 * @param key   key of the element to be inserted
+	 * @param value value of the element to be inserted
+	 * @return false if the insert needs to be restarted
+	 */
+	private boolean tryInsert(int key, double value) {
+		ConcurrentBPlusTreeNode node = this.root;
+		long version = node.readLockOrRestart();
+		if (version == ConcurrentBPlusTreeNode.RESTART || node != this.root) {
+			return false;
+		}
+		ConcurrentBPlusTreeNode parent = null;
+		long parentVersion = 0;
+		while (true) {
+			if (node.isFull()) {
+				splitNode(parent, parentVersion, node, version);
+				return false;
+			}
+			if (node.isExternalNode()) {
+				if (!node.upgradeToWriteLock(version)) {
+					return false;
+				}
+				node.putExternalData(key, value);
+				node.writeUnlock();
+				return true;
+			}
+			ConcurrentBPlusTreeNode child = node.getChild(node.getKeyIndex(key));
+			long childVersion = child == null ? ConcurrentBPlusTreeNode.RESTART : child.readLockOrRestart();
+			if (childVersion == ConcurrentBPlusTreeNode.RESTART || !node.validate(version)) {
+				return false;
+			}
+			parent = node;
+			parentVersion = version;
+			node = child;
+			version = childVersion;
+		}
+	}
+
+	/**
+	 * Split a full node, locking only the node and its parent. The root is split
+	 * by making a new root.
+	 *
+	 * @param parent        the parent of node, null for the root
+	 * @param parentVersion the version of parent read on the way down
+	 * @param node          the full node
+	 * @param version       the version of node read on the way down
+	 */
+	private void splitNode(ConcurrentBPlusTreeNode parent, long parentVersion, ConcurrentBPlusTreeNode node,
+			long version) {
+		if (parent != null && !parent.upgradeToWriteLock(parentVersion)) {
+			return;
+		}
+		if (!node.upgradeToWriteLock(version)) {
+			if (parent != null) {
+				parent.writeUnlock();
+			}
+			return;
+		}
+		if (parent == null && node != this.root) {
+			// another writer made a new root
+			node.writeUnlock();
+			return;
+		}
+		int splitKey = node.getSplitKey();
+		ConcurrentBPlusTreeNode right = node.split(this.order);
+		if (parent != null) {
+			parent.addInternalData(splitKey, right);
+		} else {
+			ConcurrentBPlusTreeNode newRoot = new ConcurrentBPlusTreeNode(this.order, false);
+			newRoot.setChildrens(node, splitKey, right);
+			this.root = newRoot;
+		}
+		node.writeUnlock();
+		if (parent != null) {
+			parent.writeUnlock();
+		}
+	}
+
+	/**
+	 * One attempt to delete an element. Internal nodes without keys found on the
+	 * way down are balanced first.
+	 *
+	 * @param key key of the element to be deleted
+	 * @return false if the delete needs to be restarted
+	 */
+	private boolean tryDelete(int key) {
+		ConcurrentBPlusTreeNode node = this.root;
+		long version = node.readLockOrRestart();
+		if (version == ConcurrentBPlusTreeNode.RESTART || node != this.root) {
+			return false;
+		}
+		ConcurrentBPlusTreeNode parent = null;
+		long parentVersion = 0;
+		int index = 0;
+		while (!node.isExternalNode()) {
+			if (parent != null && node.getDataListSize() == 0) {
+				if (node.validate(version)) {
+					balanceNode(parent, parentVersion, index, node, version, -1);
+				}
+				return false;
+			}
+			int childIndex = node.getKeyIndex(key);
+			ConcurrentBPlusTreeNode child = node.getChild(childIndex);
+			long childVersion = child == null ? ConcurrentBPlusTreeNode.RESTART : child.readLockOrRestart();
+			if (childVersion == ConcurrentBPlusTreeNode.RESTART || !node.validate(version)) {
+				return false;
+			}
+			parent = node;
+			parentVersion = version;
+			index = childIndex;
+			node = child;
+			version = childVersion;
+		}
+		int keyIndex = node.getKeyIndex(key) - 1;
+		boolean isFound = keyIndex >= 0 && node.getKeyAt(keyIndex) == key;
+		boolean isLastKey = node.getDataListSize() == 1;
+		if (!node.validate(version)) {
+			return false;
+		}
+		if (!isFound) {
+			return true;
+		}
+		if (parent != null && isLastKey) {
+			// deficient external node as root is fine.
+			return balanceNode(parent, parentVersion, index, node, version, keyIndex);
+		}
+		if (!node.upgradeToWriteLock(version)) {
+			return false;
+		}
+		node.deleteData(keyIndex);
+		node.writeUnlock();
+		return true;
+	}
+
+	/**
+	 * Merge a node with its sibling, or share their data if they do not fit in
+	 * one node. Locks the parent, the node and the sibling.
+	 *
+	 * @param parent        the parent of node
+	 * @param parentVersion the version of parent read on the way down
+	 * @param index         index of node in parent
+	 * @param node          the node to be balanced
+	 * @param version       the version of node read on the way down
+	 * @param keyIndex      index of data to be deleted from node first, or -1
+	 * @return false if the operation needs to be restarted
+	 */
+	private boolean balanceNode(ConcurrentBPlusTreeNode parent, long parentVersion, int index,
+			ConcurrentBPlusTreeNode node, long version, int keyIndex) {
+		if (!parent.upgradeToWriteLock(parentVersion)) {
+			return false;
+		}
+		if (!node.upgradeToWriteLock(version)) {
+			parent.writeUnlock();
+			return false;
+		}
+		boolean isRight = index + 1 < parent.getChildrensSize();
+		ConcurrentBPlusTreeNode sibling = parent.getChild(isRight ? index + 1 : index - 1);
+		if (sibling == null) {
+			// parent has a single child, it is balanced when parent is
+			if (keyIndex >= 0) {
+				node.deleteData(keyIndex);
+			}
+			node.writeUnlock();
+			parent.writeUnlock();
+			return true;
+		}
+		if (!sibling.tryWriteLock()) {
+			node.writeUnlock();
+			parent.writeUnlock();
+			return false;
+		}
+		if (keyIndex >= 0) {
+			node.deleteData(keyIndex);
+		}
+		ConcurrentBPlusTreeNode left = isRight ? node : sibling;
+		ConcurrentBPlusTreeNode right = isRight ? sibling : node;
+		boolean isMerged = parent.mergeOrShareChildren(isRight ? index : index - 1, left, right);
+		if (isMerged && parent == this.root && parent.getDataListSize() == 0) {
+			// reached empty root case, make child as root
+			this.root = left;
+			parent.writeUnlockObsolete();
+		} else {
+			parent.writeUnlock();
+		}
+		left.writeUnlock();
+		if (isMerged) {
+			right.writeUnlockObsolete();
+		} else {
+			right.writeUnlock();
+		}
+		return true;
+	}
+
+}
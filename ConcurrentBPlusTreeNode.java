@@ -0,0 +1,410 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Class to represent a versioned node of the concurrent B+ tree. Every node has
+ * a version word which is used as an optimistic lock: readers remember the
+ * version before reading the node and validate it afterwards, writers lock the
+ * node by setting the lock bit with a compare and set on the version they read.
+ *
+ * The version word holds the obsolete flag in bit 0, the lock flag in bit 1 and
+ * a counter in the remaining bits that changes whenever a writer unlocks the
+ * node.
+ */
+public class ConcurrentBPlusTreeNode {
+
+	/**
+	 * Version returned by readLockOrRestart if the node was removed from the tree.
+	 */
+	static final long RESTART = -1;
+
+	private static final long OBSOLETE_BIT = 0b01;
+	private static final long LOCKED_BIT = 0b10;
+	private static final VarHandle VERSION;
+
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(ConcurrentBPlusTreeNode.class, "version", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile long version;
+	private final int[] keys;
+	private final double[] values;
+	private final ConcurrentBPlusTreeNode[] childrens;
+	private int dataListSize;
+	private ConcurrentBPlusTreeNode nextNode;
+
+	/**
+	 * Constructs an empty node. Full nodes are split on the way down before an
+	 * element is added below them, so a node holds at most order keys and order
+	 * + 1 children, the same as a B+ tree node just before it is split. Splitting
+	 * a full internal node of order 3 then still leaves a key on both sides.
+	 *
+	 * @param order          Order of B+ tree
+	 * @param isExternalNode true if the node is an external (leaf) node
+	 */
+	public ConcurrentBPlusTreeNode(int order, boolean isExternalNode) {
+		this.keys = new int[order];
+		this.values = isExternalNode ? new double[order] : null;
+		this.childrens = isExternalNode ? null : new ConcurrentBPlusTreeNode[order + 1];
+	}
+
+	/**
+	 * Waits until the node is not locked and returns its version.
+	 *
+	 * @return the version, or RESTART if the node is obsolete
+	 */
+	public long readLockOrRestart() {
+		long version = this.version;
+		for (int spins = 1; (version & LOCKED_BIT) != 0; spins++) {
+			// let the writer run in case it was descheduled while holding the lock
+			if ((spins & 63) == 0) {
+				Thread.yield();
+			} else {
+				Thread.onSpinWait();
+			}
+			version = this.version;
+		}
+		if ((version & OBSOLETE_BIT) != 0) {
+			return RESTART;
+		}
+		return version;
+	}
+
+	/**
+	 * Check that the node did not change since the given version was read, all
+	 * data read from the node in between is consistent if it did not.
+	 *
+	 * @param version version returned by readLockOrRestart
+	 * @return true if the node did not change
+	 */
+	public boolean validate(long version) {
+		VarHandle.acquireFence();
+		return this.version == version;
+	}
+
+	/**
+	 * Lock the node for writing if it did not change since the given version was
+	 * read. Never waits, so locks can be taken in any order without deadlock.
+	 *
+	 * @param version version returned by readLockOrRestart
+	 * @return true if the node is locked
+	 */
+	public boolean upgradeToWriteLock(long version) {
+		return version != RESTART && VERSION.compareAndSet(this, version, version + LOCKED_BIT);
+	}
+
+	/**
+	 * Lock the node for writing if it is not locked by another writer. Never
+	 * waits, so it can be used while other nodes are locked.
+	 *
+	 * @return true if the node is locked
+	 */
+	public boolean tryWriteLock() {
+		long version = this.version;
+		return (version & (LOCKED_BIT | OBSOLETE_BIT)) == 0 && upgradeToWriteLock(version);
+	}
+
+	/**
+	 * Unlock the node and change its version.
+	 */
+	public void writeUnlock() {
+		VERSION.getAndAdd(this, LOCKED_BIT);
+	}
+
+	/**
+	 * Unlock a node that has been removed from the tree, readers that still see
+	 * it will restart.
+	 */
+	public void writeUnlockObsolete() {
+		VERSION.getAndAdd(this, LOCKED_BIT | OBSOLETE_BIT);
+	}
+
+	/**
+	 * Check if B+ tree node is an external (leaf) node.
+	 *
+	 * @return boolean value
+	 */
+	public boolean isExternalNode() {
+		return this.childrens == null;
+	}
+
+	/**
+	 * Check if node can not take another key without a split.
+	 *
+	 * @return boolean value
+	 */
+	public boolean isFull() {
+		return this.dataListSize == this.keys.length;
+	}
+
+	/**
+	 * Get node data list size
+	 *
+	 * @return the size
+	 */
+	public int getDataListSize() {
+		return this.dataListSize;
+	}
+
+	/**
+	 * Get number of children of the node
+	 *
+	 * @return the number of children
+	 */
+	public int getChildrensSize() {
+		return isExternalNode() ? 0 : this.dataListSize + 1;
+	}
+
+	/**
+	 * Get the (index+1) child index of given key, using a branch free binary
+	 * search. The size is read once so a concurrent change can not make the
+	 * search read outside of the keys.
+	 *
+	 * @param key The key whose index needs to be found.
+	 * @return the index
+	 */
+	public int getKeyIndex(int key) {
+		int[] keys = this.keys;
+		int size = Math.min(this.dataListSize, keys.length);
+		if (size == 0) {
+			return 0;
+		}
+		int base = 0;
+		while (size > 1) {
+			int half = size >>> 1;
+			base = keys[base + half] <= key ? base + half : base;
+			size -= half;
+		}
+		return keys[base] <= key ? base + 1 : base;
+	}
+
+	/**
+	 * Get node key
+	 *
+	 * @param index the index of key in node
+	 * @return the key at given index
+	 */
+	public int getKeyAt(int index) {
+		return this.keys[index];
+	}
+
+	/**
+	 * Get external node value
+	 *
+	 * @param index the index of value in node
+	 * @return the value at given index
+	 */
+	public double getValueAt(int index) {
+		return this.values[index];
+	}
+
+	/**
+	 * Get node child at provided index
+	 *
+	 * @param index the index of child
+	 * @return the node, or null if the index is out of range
+	 */
+	public ConcurrentBPlusTreeNode getChild(int index) {
+		ConcurrentBPlusTreeNode[] childrens = this.childrens;
+		if (index >= 0 && index < childrens.length) {
+			return childrens[index];
+		}
+		return null;
+	}
+
+	/**
+	 * Get Next node in linked list for external Node
+	 *
+	 * @return the next node
+	 */
+	public ConcurrentBPlusTreeNode getNextNode() {
+		return this.nextNode;
+	}
+
+	/**
+	 * Set Next node in linked list for external Node
+	 *
+	 * @param node The external node
+	 */
+	public void setNextNode(ConcurrentBPlusTreeNode node) {
+		this.nextNode = node;
+	}
+
+	/**
+	 * Add or update an element of external node. The node must not be full.
+	 *
+	 * @param key   the key of data to be added
+	 * @param value the value of data to be added
+	 */
+	public void putExternalData(int key, double value) {
+		int keyIndex = getKeyIndex(key);
+		if (keyIndex > 0 && this.keys[keyIndex - 1] == key) {
+			this.values[keyIndex - 1] = value;
+			return;
+		}
+		int length = this.dataListSize - keyIndex;
+		System.arraycopy(this.keys, keyIndex, this.keys, keyIndex + 1, length);
+		System.arraycopy(this.values, keyIndex, this.values, keyIndex + 1, length);
+		this.keys[keyIndex] = key;
+		this.values[keyIndex] = value;
+		this.dataListSize++;
+	}
+
+	/**
+	 * Add a key and the child to the right of it to internal node. The node must
+	 * not be full.
+	 *
+	 * @param key   the key to be added
+	 * @param child the child holding keys greater than or equal to key
+	 */
+	public void addInternalData(int key, ConcurrentBPlusTreeNode child) {
+		int keyIndex = getKeyIndex(key);
+		System.arraycopy(this.keys, keyIndex, this.keys, keyIndex + 1, this.dataListSize - keyIndex);
+		System.arraycopy(this.childrens, keyIndex + 1, this.childrens, keyIndex + 2, this.dataListSize - keyIndex);
+		this.keys[keyIndex] = key;
+		this.childrens[keyIndex + 1] = child;
+		this.dataListSize++;
+	}
+
+	/**
+	 * Deletes data at provided index, for an internal node the child to the right
+	 * of the key is deleted as well.
+	 *
+	 * @param index the position of data
+	 */
+	public void deleteData(int index) {
+		int length = this.dataListSize - index - 1;
+		System.arraycopy(this.keys, index + 1, this.keys, index, length);
+		if (isExternalNode()) {
+			System.arraycopy(this.values, index + 1, this.values, index, length);
+		} else {
+			System.arraycopy(this.childrens, index + 2, this.childrens, index + 1, length);
+			this.childrens[this.dataListSize] = null;
+		}
+		this.dataListSize--;
+	}
+
+	/**
+	 * Get the key that moves up to the parent when the node is split.
+	 *
+	 * @return the separator key
+	 */
+	public int getSplitKey() {
+		return this.keys[this.dataListSize / 2];
+	}
+
+	/**
+	 * Split the node in half, moving the right half to a new node. For an
+	 * internal node the split key is removed as it moves up to the parent.
+	 *
+	 * @param order Order of B+ tree
+	 * @return the new right node
+	 */
+	public ConcurrentBPlusTreeNode split(int order) {
+		ConcurrentBPlusTreeNode right = new ConcurrentBPlusTreeNode(order, isExternalNode());
+		int midIndex = this.dataListSize / 2;
+		if (isExternalNode()) {
+			int length = this.dataListSize - midIndex;
+			System.arraycopy(this.keys, midIndex, right.keys, 0, length);
+			System.arraycopy(this.values, midIndex, right.values, 0, length);
+			right.dataListSize = length;
+			right.nextNode = this.nextNode;
+			this.nextNode = right;
+		} else {
+			int length = this.dataListSize - midIndex - 1;
+			System.arraycopy(this.keys, midIndex + 1, right.keys, 0, length);
+			System.arraycopy(this.childrens, midIndex + 1, right.childrens, 0, length + 1);
+			right.dataListSize = length;
+			Arrays.fill(this.childrens, midIndex + 1, this.dataListSize + 1, null);
+		}
+		this.dataListSize = midIndex;
+		return right;
+	}
+
+	/**
+	 * Make this new internal node the parent of two nodes.
+	 *
+	 * @param left  the left child
+	 * @param key   the separator key
+	 * @param right the right child
+	 */
+	public void setChildrens(ConcurrentBPlusTreeNode left, int key, ConcurrentBPlusTreeNode right) {
+		this.childrens[0] = left;
+		this.keys[0] = key;
+		this.childrens[1] = right;
+		this.dataListSize = 1;
+	}
+
+	/**
+	 * Merge or share the data of two adjacent nodes, left and right being
+	 * children of this node at index and index + 1. The right node is emptied
+	 * and removed from this node if everything fits in the left node.
+	 *
+	 * @param index index of the left node
+	 * @param left  the left node
+	 * @param right the right node
+	 * @return true if right node was merged into left node
+	 */
+	public boolean mergeOrShareChildren(int index, ConcurrentBPlusTreeNode left, ConcurrentBPlusTreeNode right) {
+		int capacity = left.keys.length;
+		if (left.isExternalNode()) {
+			int total = left.dataListSize + right.dataListSize;
+			int[] keys = new int[total];
+			double[] values = new double[total];
+			System.arraycopy(left.keys, 0, keys, 0, left.dataListSize);
+			System.arraycopy(left.values, 0, values, 0, left.dataListSize);
+			System.arraycopy(right.keys, 0, keys, left.dataListSize, right.dataListSize);
+			System.arraycopy(right.values, 0, values, left.dataListSize, right.dataListSize);
+			if (total <= capacity) {
+				System.arraycopy(keys, 0, left.keys, 0, total);
+				System.arraycopy(values, 0, left.values, 0, total);
+				left.dataListSize = total;
+				left.nextNode = right.nextNode;
+				deleteData(index);
+				return true;
+			}
+			int leftSize = total / 2;
+			System.arraycopy(keys, 0, left.keys, 0, leftSize);
+			System.arraycopy(values, 0, left.values, 0, leftSize);
+			System.arraycopy(keys, leftSize, right.keys, 0, total - leftSize);
+			System.arraycopy(values, leftSize, right.values, 0, total - leftSize);
+			left.dataListSize = leftSize;
+			right.dataListSize = total - leftSize;
+			this.keys[index] = right.keys[0];
+			return false;
+		}
+		// the separator from this node moves down between the keys of both nodes
+		int total = left.dataListSize + 1 + right.dataListSize;
+		int[] keys = new int[total];
+		ConcurrentBPlusTreeNode[] childrens = new ConcurrentBPlusTreeNode[total + 1];
+		System.arraycopy(left.keys, 0, keys, 0, left.dataListSize);
+		keys[left.dataListSize] = this.keys[index];
+		System.arraycopy(right.keys, 0, keys, left.dataListSize + 1, right.dataListSize);
+		System.arraycopy(left.childrens, 0, childrens, 0, left.dataListSize + 1);
+		System.arraycopy(right.childrens, 0, childrens, left.dataListSize + 1, right.dataListSize + 1);
+		if (total <= capacity) {
+			System.arraycopy(keys, 0, left.keys, 0, total);
+			System.arraycopy(childrens, 0, left.childrens, 0, total + 1);
+			left.dataListSize = total;
+			deleteData(index);
+			return true;
+		}
+		int leftSize = total / 2;
+		System.arraycopy(keys, 0, left.keys, 0, leftSize);
+		System.arraycopy(childrens, 0, left.childrens, 0, leftSize + 1);
+		Arrays.fill(left.childrens, leftSize + 1, left.childrens.length, null);
+		System.arraycopy(keys, leftSize + 1, right.keys, 0, total - leftSize - 1);
+		System.arraycopy(childrens, leftSize + 1, right.childrens, 0, total - leftSize);
+		Arrays.fill(right.childrens, total - leftSize, right.childrens.length, null);
+		left.dataListSize = leftSize;
+		right.dataListSize = total - leftSize - 1;
+		this.keys[index] = keys[leftSize];
+		return false;
+	}
+
+}
@@ -0,0 +1,508 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+/**
+ * B+ tree with copy-on-write nodes, giving readers consistent snapshots while
+ * writers go on. Nodes are never changed once published: an insert or delete
+ * copies the nodes on the path from the root to the external node it changes,
+ * plus a sibling when it splits, borrows or merges, and publishes the new root
+ * with a volatile write. Every other node is shared with the previous version.
+ *
+ * snapshot returns the current version, an immutable tree that can be searched
+ * and scanned from any number of threads without locking while writers go on.
+ * A version takes no memory of its own beyond the nodes copied by later
+ * writes, it is reclaimed by the garbage collector once no snapshot references
+ * it. Searches of the tree itself read the current version the same way.
+ *
+ * Writers are serialized by the lock of the tree. Nodes hold arrays of exactly
+ * their number of keys, and external nodes are not linked since a link would
+ * make a write copy all nodes before it, so range scans walk down from the
+ * internal nodes. A node holds at most order - 1 keys and, except the root, at
+ * least (order - 1) / 2.
+ */
+public class CopyOnWriteBPlusTree {
+
+	private static final int[] NO_KEYS = new int[0];
+	private static final double[] NO_VALUES = new double[0];
+
+	private final int order;
+	private final int minKeys;
+	private volatile Snapshot current;
+	// change of the number of elements by the running insert
+	private int sizeChange;
+	// key moving to the parent by the last split
+	private int splitKey;
+
+	/**
+	 * Constructs an empty B+Tree or order provided.
+	 *
+	 * @param order The order of B+ Tree. Normally an integer greater than 2.
+	 */
+	public CopyOnWriteBPlusTree(int order) {
+		if (order < 3) {
+			throw new IllegalArgumentException("Order must be greater than 2 but was " + order);
+		}
+		this.order = order;
+		this.minKeys = (order - 1) / 2;
+		this.current = new Snapshot(new Node(NO_KEYS, NO_VALUES), 0);
+	}
+
+	/**
+	 * Get the order
+	 *
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Get the current version of the tree, which never changes.
+	 *
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		return this.current;
+	}
+
+	/**
+	 * Get the number of elements
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return this.current.size;
+	}
+
+	/**
+	 * Inserts an element with given key and value in the tree, an existing key
+	 * gets the new value.
+	 *
+	 * @param key   key of the element to be inserted
+	 * @param value value of the element to be inserted
+	 */
+	public synchronized void insert(int key, double value) {
+		Snapshot version = this.current;
+		this.sizeChange = 0;
+		Node root = insert(version.root, key, value);
+		if (root.keys.length == this.order) {
+			Node[] halves = split(root);
+			root = new Node(new int[] { this.splitKey }, halves);
+		}
+		this.current = new Snapshot(root, version.size + this.sizeChange);
+	}
+
+	/**
+	 * Deletes an element with given key from the tree.
+	 *
+	 * @param key key of the element to be deleted
+	 * @return true if the key was in the tree
+	 */
+	public synchronized boolean delete(int key) {
+		Snapshot version = this.current;
+		Node root = delete(version.root, key);
+		if (root == version.root) {
+			return false;
+		}
+		if (root.children != null && root.keys.length == 0) {
+			root = root.children[0];
+		}
+		this.current = new Snapshot(root, version.size - 1);
+		return true;
+	}
+
+	/**
+	 * Get the value of an element with given key in the current version.
+	 *
+	 * @param key          key of the element to be searched.
+	 * @param defaultValue value returned if the key is not in the tree
+	 * @return the value
+	 */
+	public double getOrDefault(int key, double defaultValue) {
+		return this.current.getOrDefault(key, defaultValue);
+	}
+
+	/**
+	 * Check if the current version has an element with given key.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return boolean value
+	 */
+	public boolean containsKey(int key) {
+		return this.current.containsKey(key);
+	}
+
+	/**
+	 * Search all element of the current version that lies between and including
+	 * startKey and endKey
+	 *
+	 * @param startKey starting Key of the element to be searched.
+	 * @param endKey   ending key of the element to be searched.
+	 * @return list of values between startKey and endKey
+	 */
+	public ArrayList<Double> search(int startKey, int endKey) {
+		return this.current.search(startKey, endKey);
+	}
+
+	/**
+	 * Insert below a node.
+	 *
+	 * @param node  the node
+	 * @param key   the key
+	 * @param value the value
+	 * @return the copy of node with the element, overfull if it has order keys
+	 */
+	private Node insert(Node node, int key, double value) {
+		int keyIndex = getKeyIndex(node.keys, key);
+		if (node.children == null) {
+			if (keyIndex > 0 && node.keys[keyIndex - 1] == key) {
+				// key already exist, so update the value
+				double[] values = node.values.clone();
+				values[keyIndex - 1] = value;
+				return new Node(node.keys, values);
+			}
+			this.sizeChange = 1;
+			return new Node(insertAt(node.keys, keyIndex, key), insertAt(node.values, keyIndex, value));
+		}
+		Node child = insert(node.children[keyIndex], key, value);
+		if (child.keys.length < this.order) {
+			Node[] children = node.children.clone();
+			children[keyIndex] = child;
+			return new Node(node.keys, children);
+		}
+		Node[] halves = split(child);
+		Node[] children = insertAt(node.children, keyIndex + 1, halves[1]);
+		children[keyIndex] = halves[0];
+		return new Node(insertAt(node.keys, keyIndex, this.splitKey), children);
+	}
+
+	/**
+	 * Split an overfull node in two halves, the first key of the right half of
+	 * an external node is copied to the parent, the middle key of an internal
+	 * node moves up. The key for the parent is kept in splitKey.
+	 *
+	 * @param node the overfull node
+	 * @return the left and right halves
+	 */
+	private Node[] split(Node node) {
+		int midIndex = this.order / 2;
+		int size = node.keys.length;
+		Node left;
+		Node right;
+		if (node.children == null) {
+			left = new Node(Arrays.copyOfRange(node.keys, 0, midIndex),
+					Arrays.copyOfRange(node.values, 0, midIndex));
+			right = new Node(Arrays.copyOfRange(node.keys, midIndex, size),
+					Arrays.copyOfRange(node.values, midIndex, size));
+		} else {
+			left = new Node(Arrays.copyOfRange(node.keys, 0, midIndex),
+					Arrays.copyOfRange(node.children, 0, midIndex + 1));
+			right = new Node(Arrays.copyOfRange(node.keys, midIndex + 1, size),
+					Arrays.copyOfRange(node.children, midIndex + 1, size + 1));
+		}
+		this.splitKey = node.keys[midIndex];
+		return new Node[] { left, right };
+	}
+
+	/**
+	 * Delete below a node.
+	 *
+	 * @param node the node
+	 * @param key  the key
+	 * @return the copy of node without the element, node itself if the key was
+	 *         not found
+	 */
+	private Node delete(Node node, int key) {
+		int keyIndex = getKeyIndex(node.keys, key);
+		if (node.children == null) {
+			if (keyIndex == 0 || node.keys[keyIndex - 1] != key) {
+				return node;
+			}
+			return new Node(removeAt(node.keys, keyIndex - 1), removeAt(node.values, keyIndex - 1));
+		}
+		Node child = node.children[keyIndex];
+		Node newChild = delete(child, key);
+		if (newChild == child) {
+			return node;
+		}
+		if (newChild.keys.length >= this.minKeys) {
+			Node[] children = node.children.clone();
+			children[keyIndex] = newChild;
+			return new Node(node.keys, children);
+		}
+		return balance(node, keyIndex, newChild);
+	}
+
+	/**
+	 * Balance a deficient child by borrowing from a sibling that has keys to
+	 * spare, or else by merging it with a sibling.
+	 *
+	 * @param parent     the parent
+	 * @param childIndex index of the deficient child
+	 * @param child      the new deficient child
+	 * @return the copy of parent with the balanced children
+	 */
+	private Node balance(Node parent, int childIndex, Node child) {
+		Node left = childIndex > 0 ? parent.children[childIndex - 1] : null;
+		Node right = childIndex < parent.keys.length ? parent.children[childIndex + 1] : null;
+		int[] keys = parent.keys.clone();
+		Node[] children = parent.children.clone();
+		if (left != null && left.keys.length > this.minKeys) {
+			int last = left.keys.length - 1;
+			if (child.children == null) {
+				children[childIndex] = new Node(insertAt(child.keys, 0, left.keys[last]),
+						insertAt(child.values, 0, left.values[last]));
+				children[childIndex - 1] = new Node(removeAt(left.keys, last), removeAt(left.values, last));
+				keys[childIndex - 1] = left.keys[last];
+			} else {
+				children[childIndex] = new Node(insertAt(child.keys, 0, parent.keys[childIndex - 1]),
+						insertAt(child.children, 0, left.children[last + 1]));
+				children[childIndex - 1] = new Node(removeAt(left.keys, last), removeAt(left.children, last + 1));
+				keys[childIndex - 1] = left.keys[last];
+			}
+			return new Node(keys, children);
+		}
+		if (right != null && right.keys.length > this.minKeys) {
+			int size = child.keys.length;
+			if (child.children == null) {
+				children[childIndex] = new Node(insertAt(child.keys, size, right.keys[0]),
+						insertAt(child.values, size, right.values[0]));
+				children[childIndex + 1] = new Node(removeAt(right.keys, 0), removeAt(right.values, 0));
+				keys[childIndex] = right.keys[1];
+			} else {
+				children[childIndex] = new Node(insertAt(child.keys, size, parent.keys[childIndex]),
+						insertAt(child.children, size + 1, right.children[0]));
+				children[childIndex + 1] = new Node(removeAt(right.keys, 0), removeAt(right.children, 0));
+				keys[childIndex] = right.keys[0];
+			}
+			return new Node(keys, children);
+		}
+		int leftIndex = left != null ? childIndex - 1 : childIndex;
+		Node mergedLeft = left != null ? left : child;
+		Node mergedRight = left != null ? child : right;
+		Node merged;
+		if (child.children == null) {
+			merged = new Node(concat(mergedLeft.keys, mergedRight.keys), concat(mergedLeft.values, mergedRight.values));
+		} else {
+			int[] mergedKeys = insertAt(mergedLeft.keys, mergedLeft.keys.length, parent.keys[leftIndex]);
+			merged = new Node(concat(mergedKeys, mergedRight.keys), concat(mergedLeft.children, mergedRight.children));
+		}
+		children = removeAt(children, leftIndex + 1);
+		children[leftIndex] = merged;
+		return new Node(removeAt(keys, leftIndex), children);
+	}
+
+	/**
+	 * Get the (index+1) child index of given key, using binary search.
+	 *
+	 * @param keys the keys of a node
+	 * @param key  The key whose index needs to be found.
+	 * @return the index
+	 */
+	private static int getKeyIndex(int[] keys, int key) {
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] > key) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	private static int[] insertAt(int[] array, int index, int element) {
+		int[] copy = new int[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		copy[index] = element;
+		System.arraycopy(array, index, copy, index + 1, array.length - index);
+		return copy;
+	}
+
+	private static double[] insertAt(double[] array, int index, double element) {
+		double[] copy = new double[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		copy[index] = element;
+		System.arraycopy(array, index, copy, index + 1, array.length - index);
+		return copy;
+	}
+
+	private static Node[] insertAt(Node[] array, int index, Node element) {
+		Node[] copy = new Node[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		copy[index] = element;
+		System.arraycopy(array, index, copy, index + 1, array.length - index);
+		return copy;
+	}
+
+	private static int[] removeAt(int[] array, int index) {
+		int[] copy = new int[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		System.arraycopy(array, index + 1, copy, index, copy.length - index);
+		return copy;
+	}
+
+	private static double[] removeAt(double[] array, int index) {
+		double[] copy = new double[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		System.arraycopy(array, index + 1, copy, index, copy.length - index);
+		return copy;
+	}
+
+	private static Node[] removeAt(Node[] array, int index) {
+		Node[] copy = new Node[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		System.arraycopy(array, index + 1, copy, index, copy.length - index);
+		return copy;
+	}
+
+	private static int[] concat(int[] first, int[] second) {
+		int[] copy = new int[first.length + second.length];
+		System.arraycopy(first, 0, copy, 0, first.length);
+		System.arraycopy(second, 0, copy, first.length, second.length);
+		return copy;
+	}
+
+	private static double[] concat(double[] first, double[] second) {
+		double[] copy = new double[first.length + second.length];
+		System.arraycopy(first, 0, copy, 0, first.length);
+		System.arraycopy(second, 0, copy, first.length, second.length);
+		return copy;
+	}
+
+	private static Node[] concat(Node[] first, Node[] second) {
+		Node[] copy = new Node[first.length + second.length];
+		System.arraycopy(first, 0, copy, 0, first.length);
+		System.arraycopy(second, 0, copy, first.length, second.length);
+		return copy;
+	}
+
+	/**
+	 * Immutable version of the tree. Any number of threads can search and scan
+	 * it without locking, it is not affected by later writes to the tree.
+	 */
+	public static final class Snapshot {
+
+		private final Node root;
+		private final int size;
+
+		private Snapshot(Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		/**
+		 * Get the number of elements
+		 *
+		 * @return the size
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Get the value of an element with given key.
+		 *
+		 * @param key          key of the element to be searched.
+		 * @param defaultValue value returned if the key is not in the tree
+		 * @return the value
+		 */
+		public double getOrDefault(int key, double defaultValue) {
+			Node current = this.root;
+			while (current.children != null) {
+				current = current.children[getKeyIndex(current.keys, key)];
+			}
+			int keyIndex = getKeyIndex(current.keys, key) - 1;
+			if (keyIndex >= 0 && current.keys[keyIndex] == key) {
+				return current.values[keyIndex];
+			}
+			return defaultValue;
+		}
+
+		/**
+		 * Check if the tree has an element with given key.
+		 *
+		 * @param key key of the element to be searched.
+		 * @return boolean value
+		 */
+		public boolean containsKey(int key) {
+			Node current = this.root;
+			while (current.children != null) {
+				current = current.children[getKeyIndex(current.keys, key)];
+			}
+			int keyIndex = getKeyIndex(current.keys, key) - 1;
+			return keyIndex >= 0 && current.keys[keyIndex] == key;
+		}
+
+		/**
+		 * Search all element that lies between and including startKey and endKey
+		 *
+		 * @param startKey starting Key of the element to be searched.
+		 * @param endKey   ending key of the element to be searched.
+		 * @return list of values between startKey and endKey
+		 */
+		public ArrayList<Double> search(int startKey, int endKey) {
+			ArrayList<Double> listValues = new ArrayList<Double>();
+			forEach(startKey, endKey, value -> listValues.add(value));
+			return listValues;
+		}
+
+		/**
+		 * Pass the values of all elements between and including startKey and endKey
+		 * to an action, in increasing order of key.
+		 *
+		 * @param startKey starting Key of the elements.
+		 * @param endKey   ending key of the elements.
+		 * @param action   the action
+		 */
+		public void forEach(int startKey, int endKey, DoubleConsumer action) {
+			if (startKey <= endKey) {
+				forEach(this.root, startKey, endKey, action);
+			}
+		}
+
+		private static void forEach(Node node, int startKey, int endKey, DoubleConsumer action) {
+			if (node.children == null) {
+				// skip the keys of node which are smaller than startKey
+				int i = startKey == Integer.MIN_VALUE ? 0 : getKeyIndex(node.keys, startKey - 1);
+				for (; i < node.keys.length && node.keys[i] <= endKey; i++) {
+					action.accept(node.values[i]);
+				}
+				return;
+			}
+			int lastChild = getKeyIndex(node.keys, endKey);
+			for (int i = getKeyIndex(node.keys, startKey); i <= lastChild; i++) {
+				forEach(node.children[i], startKey, endKey, action);
+			}
+		}
+
+	}
+
+	/**
+	 * Node of the tree, never changed once published. An external node has
+	 * values, an internal node has one child more than keys.
+	 */
+	private static final class Node {
+
+		private final int[] keys;
+		private final double[] values;
+		private final Node[] children;
+
+		private Node(int[] keys, double[] values) {
+			this.keys = keys;
+			this.values = values;
+			this.children = null;
+		}
+
+		private Node(int[] keys, Node[] children) {
+			this.keys = keys;
+			this.values = null;
+			this.children = children;
+		}
+
+	}
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Decides which frame of a BufferPool is reused when a page that is not in the
+ * pool is pinned. Frames are numbered from 0 to the number of frames - 1.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Called after a page was read into a frame.
+	 *
+	 * @param frame  the frame
+	 * @param pageId the page id
+	 */
+	void pageLoaded(int frame, int pageId);
+
+	/**
+	 * Called when a page already in a frame is pinned again.
+	 *
+	 * @param frame the frame
+	 */
+	void pageAccessed(int frame);
+
+	/**
+	 * Choose a loaded frame whose page is evicted, frames with a pin count above
+	 * zero must not be chosen. The chosen frame is no longer tracked until its
+	 * next page is loaded.
+	 *
+	 * @param pinCounts pin count of every frame
+	 * @return the frame, or -1 if all frames are pinned
+	 */
+	int selectVictim(int[] pinCounts);
+
+}
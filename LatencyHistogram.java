@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, in the manner
+ * of HdrHistogram. Values below 128 have a bucket each, above that every power
+ * of two is divided in 64 buckets, so a percentile is within 1.6% of the
+ * recorded value whatever its magnitude, in a fixed array of 3712 counts.
+ * Recording is an index computation and an increment, nothing is allocated.
+ *
+ * Note that recording is not synchronized, a histogram read by another thread
+ * than the one recording may lag behind.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long count;
+	private long sum;
+	private long max;
+
+	/**
+	 * Record a value.
+	 *
+	 * @param value the value in nanoseconds, negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		this.counts[getBucketIndex(value)]++;
+		this.count++;
+		this.sum += value;
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	/**
+	 * Get the number of recorded values
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Get the mean of the recorded values
+	 *
+	 * @return the mean in nanoseconds, 0 if nothing was recorded
+	 */
+	public double getMean() {
+		return this.count == 0 ? 0 : (double) this.sum / this.count;
+	}
+
+	/**
+	 * Get the largest recorded value
+	 *
+	 * @return the maximum in nanoseconds
+	 */
+	public long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * Get the median
+	 *
+	 * @return the 50th percentile in nanoseconds
+	 */
+	public long getP50() {
+		return getValueAtPercentile(50);
+	}
+
+	/**
+	 * Get the 90th percentile
+	 *
+	 * @return the 90th percentile in nanoseconds
+	 */
+	public long getP90() {
+		return getValueAtPercentile(90);
+	}
+
+	/**
+	 * Get the 99th percentile
+	 *
+	 * @return the 99th percentile in nanoseconds
+	 */
+	public long getP99() {
+		return getValueAtPercentile(99);
+	}
+
+	/**
+	 * Get the 99.9th percentile
+	 *
+	 * @return the 99.9th percentile in nanoseconds
+	 */
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * Get the value below or at which a percentage of the recorded values lie,
+	 * the highest value of its bucket.
+	 *
+	 * @param percentile the percentage, between 0 and 100
+	 * @return the value in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = this.count;
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += this.counts[i];
+			if (seen >= target) {
+				return Math.min(this.max, getHighestValue(i));
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * Add the values recorded by another histogram.
+	 *
+	 * @param histogram the other histogram
+	 */
+	public void add(LatencyHistogram histogram) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			this.counts[i] += histogram.counts[i];
+		}
+		this.count += histogram.count;
+		this.sum += histogram.sum;
+		this.max = Math.max(this.max, histogram.max);
+	}
+
+	/**
+	 * Forget all recorded values.
+	 */
+	public void reset() {
+		Arrays.fill(this.counts, 0);
+		this.count = 0;
+		this.sum = 0;
+		this.max = 0;
+	}
+
+	/**
+	 * Get the bucket of a value: values below SUB_BUCKET_COUNT are their own
+	 * index, larger ones are indexed by the position of their highest bit and the
+	 * SUB_BUCKET_BITS bits starting there.
+	 *
+	 * @param value the value, not negative
+	 * @return the bucket index
+	 */
+	static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the highest value falling in a bucket.
+	 *
+	 * @param index the bucket index
+	 * @return the value
+	 */
+	static long getHighestValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * HALF_SUB_BUCKET_COUNT;
+		return (subBucket << shift) + (1L << shift) - 1;
+	}
+
+}
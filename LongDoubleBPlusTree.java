@@ -0,0 +1,398 @@
+import java.util.Arrays;
+
+/**
+ * B+ tree mapping long keys to double values, hand-specialized from BPlusTree
+ * so keys and values stay in primitive arrays and are never boxed. Useful for
+ * keys such as timestamps.
+ *
+ * The tree has no parent pointers, insert and delete recurse from the root and
+ * split, borrow or merge on the way back. A node holds at most order - 1 keys
+ * and, except the root, at least (order - 1) / 2.
+ *
+ * Note that this implementation is not synchronized, like BPlusTree.
+ */
+public class LongDoubleBPlusTree {
+
+	private final int order;
+	private final int minKeys;
+	private Node root;
+	private int size;
+
+	/**
+	 * Constructs an empty B+ tree.
+	 *
+	 * @param order The order of B+ Tree. Normally an integer greater than 2.
+	 */
+	public LongDoubleBPlusTree(int order) {
+		if (order < 3) {
+			throw new IllegalArgumentException("Order must be greater than 2 but was " + order);
+		}
+		this.order = order;
+		this.minKeys = (order - 1) / 2;
+		this.root = new Node(order, true);
+	}
+
+	/**
+	 * Get the order
+	 *
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Get the number of elements
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Inserts an element with given key and value, an existing key gets the new
+	 * value.
+	 *
+	 * @param key   key of the element to be inserted.
+	 * @param value value of the element to be inserted.
+	 */
+	public void insert(long key, double value) {
+		insert(this.root, key, value);
+		if (this.root.size == this.order) {
+			Node newRoot = new Node(this.order, false);
+			newRoot.children[0] = this.root;
+			split(newRoot, 0);
+			this.root = newRoot;
+		}
+	}
+
+	/**
+	 * Deletes an element with given key.
+	 *
+	 * @param key key of the element to be deleted.
+	 * @return true if the key was in the tree
+	 */
+	public boolean delete(long key) {
+		boolean isDeleted = delete(this.root, key);
+		if (!this.root.isExternal && this.root.size == 0) {
+			this.root = this.root.children[0];
+		}
+		return isDeleted;
+	}
+
+	/**
+	 * Get the value of an element with given key.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return the value, NaN if the key is not in the tree
+	 */
+	public double get(long key) {
+		return getOrDefault(key, Double.NaN);
+	}
+
+	/**
+	 * Get the value of an element with given key.
+	 *
+	 * @param key          key of the element to be searched.
+	 * @param defaultValue value returned if the key is not in the tree
+	 * @return the value
+	 */
+	public double getOrDefault(long key, double defaultValue) {
+		Node externalNode = findExternalNode(key);
+		int keyIndex = getKeyIndex(externalNode, key) - 1;
+		if (keyIndex >= 0 && externalNode.keys[keyIndex] == key) {
+			return externalNode.values[keyIndex];
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Check if the tree has an element with given key.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return boolean value
+	 */
+	public boolean containsKey(long key) {
+		Node externalNode = findExternalNode(key);
+		int keyIndex = getKeyIndex(externalNode, key) - 1;
+		return keyIndex >= 0 && externalNode.keys[keyIndex] == key;
+	}
+
+	/**
+	 * Search all element that lies between and including startKey and endKey
+	 *
+	 * @param startKey starting Key of the element to be searched.
+	 * @param endKey   ending key of the element to be searched.
+	 * @return values between startKey and endKey in increasing order of key
+	 */
+	public double[] search(long startKey, long endKey) {
+		double[] values = new double[16];
+		int count = 0;
+		Node current = findExternalNode(startKey);
+		int i = getLowerKeyIndex(current, startKey);
+		while (current != null) {
+			for (; i < current.size; i++) {
+				if (current.keys[i] > endKey) {
+					return Arrays.copyOf(values, count);
+				}
+				if (count == values.length) {
+					values = Arrays.copyOf(values, count * 2);
+				}
+				values[count++] = current.values[i];
+			}
+			current = current.nextNode;
+			i = 0;
+		}
+		return Arrays.copyOf(values, count);
+	}
+
+	/**
+	 * Insert below a node, splitting the child that became overfull.
+	 *
+	 * @param node  the node
+	 * @param key   the key
+	 * @param value the value
+	 */
+	private void insert(Node node, long key, double value) {
+		int keyIndex = getKeyIndex(node, key);
+		if (node.isExternal) {
+			if (keyIndex > 0 && node.keys[keyIndex - 1] == key) {
+				node.values[keyIndex - 1] = value;
+				return;
+			}
+			System.arraycopy(node.keys, keyIndex, node.keys, keyIndex + 1, node.size - keyIndex);
+			System.arraycopy(node.values, keyIndex, node.values, keyIndex + 1, node.size - keyIndex);
+			node.keys[keyIndex] = key;
+			node.values[keyIndex] = value;
+			node.size++;
+			this.size++;
+			return;
+		}
+		Node child = node.children[keyIndex];
+		insert(child, key, value);
+		if (child.size == this.order) {
+			split(node, keyIndex);
+		}
+	}
+
+	/**
+	 * Split an overfull child in two halves, the first key of the right half of
+	 * an external node is copied to the parent, the middle key of an internal
+	 * node moves up.
+	 *
+	 * @param parent     the parent
+	 * @param childIndex index of the overfull child
+	 */
+	private void split(Node parent, int childIndex) {
+		Node child = parent.children[childIndex];
+		Node right = new Node(this.order, child.isExternal);
+		int midIndex = this.order / 2;
+		long middleKey = child.keys[midIndex];
+		if (child.isExternal) {
+			right.size = child.size - midIndex;
+			System.arraycopy(child.keys, midIndex, right.keys, 0, right.size);
+			System.arraycopy(child.values, midIndex, right.values, 0, right.size);
+			right.nextNode = child.nextNode;
+			child.nextNode = right;
+		} else {
+			right.size = child.size - midIndex - 1;
+			System.arraycopy(child.keys, midIndex + 1, right.keys, 0, right.size);
+			System.arraycopy(child.children, midIndex + 1, right.children, 0, right.size + 1);
+			Arrays.fill(child.children, midIndex + 1, child.size + 1, null);
+		}
+		child.size = midIndex;
+		System.arraycopy(parent.keys, childIndex, parent.keys, childIndex + 1, parent.size - childIndex);
+		System.arraycopy(parent.children, childIndex + 1, parent.children, childIndex + 2, parent.size - childIndex);
+		parent.keys[childIndex] = middleKey;
+		parent.children[childIndex + 1] = right;
+		parent.size++;
+	}
+
+	/**
+	 * Delete below a node, balancing the child that became deficient.
+	 *
+	 * @param node the node
+	 * @param key  the key
+	 * @return true if the key was found
+	 */
+	private boolean delete(Node node, long key) {
+		int keyIndex = getKeyIndex(node, key);
+		if (node.isExternal) {
+			if (keyIndex == 0 || node.keys[keyIndex - 1] != key) {
+				return false;
+			}
+			System.arraycopy(node.keys, keyIndex, node.keys, keyIndex - 1, node.size - keyIndex);
+			System.arraycopy(node.values, keyIndex, node.values, keyIndex - 1, node.size - keyIndex);
+			node.size--;
+			this.size--;
+			return true;
+		}
+		Node child = node.children[keyIndex];
+		boolean isDeleted = delete(child, key);
+		if (child.size < this.minKeys) {
+			balance(node, keyIndex);
+		}
+		return isDeleted;
+	}
+
+	/**
+	 * Balance a deficient child by borrowing from a sibling that has keys to
+	 * spare, or else by merging it with a sibling.
+	 *
+	 * @param parent     the parent
+	 * @param childIndex index of the deficient child
+	 */
+	private void balance(Node parent, int childIndex) {
+		Node child = parent.children[childIndex];
+		Node left = childIndex > 0 ? parent.children[childIndex - 1] : null;
+		Node right = childIndex < parent.size ? parent.children[childIndex + 1] : null;
+		if (left != null && left.size > this.minKeys) {
+			System.arraycopy(child.keys, 0, child.keys, 1, child.size);
+			if (child.isExternal) {
+				System.arraycopy(child.values, 0, child.values, 1, child.size);
+				child.keys[0] = left.keys[left.size - 1];
+				child.values[0] = left.values[left.size - 1];
+				parent.keys[childIndex - 1] = child.keys[0];
+			} else {
+				System.arraycopy(child.children, 0, child.children, 1, child.size + 1);
+				child.keys[0] = parent.keys[childIndex - 1];
+				child.children[0] = left.children[left.size];
+				left.children[left.size] = null;
+				parent.keys[childIndex - 1] = left.keys[left.size - 1];
+			}
+			left.size--;
+			child.size++;
+		} else if (right != null && right.size > this.minKeys) {
+			if (child.isExternal) {
+				child.keys[child.size] = right.keys[0];
+				child.values[child.size] = right.values[0];
+				System.arraycopy(right.values, 1, right.values, 0, right.size - 1);
+			} else {
+				child.keys[child.size] = parent.keys[childIndex];
+				child.children[child.size + 1] = right.children[0];
+				parent.keys[childIndex] = right.keys[0];
+				System.arraycopy(right.children, 1, right.children, 0, right.size);
+				right.children[right.size] = null;
+			}
+			System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+			right.size--;
+			child.size++;
+			if (child.isExternal) {
+				parent.keys[childIndex] = right.keys[0];
+			}
+		} else if (left != null) {
+			merge(parent, childIndex - 1);
+		} else {
+			merge(parent, childIndex);
+		}
+	}
+
+	/**
+	 * Merge a child with its right sibling, the key between them is removed from
+	 * the parent.
+	 *
+	 * @param parent    the parent
+	 * @param leftIndex index of the left child
+	 */
+	private void merge(Node parent, int leftIndex) {
+		Node left = parent.children[leftIndex];
+		Node right = parent.children[leftIndex + 1];
+		if (left.isExternal) {
+			System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+			System.arraycopy(right.values, 0, left.values, left.size, right.size);
+			left.size += right.size;
+			left.nextNode = right.nextNode;
+		} else {
+			left.keys[left.size] = parent.keys[leftIndex];
+			System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+			System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+			left.size += right.size + 1;
+		}
+		System.arraycopy(parent.keys, leftIndex + 1, parent.keys, leftIndex, parent.size - leftIndex - 1);
+		System.arraycopy(parent.children, leftIndex + 2, parent.children, leftIndex + 1, parent.size - leftIndex - 1);
+		parent.size--;
+		parent.children[parent.size + 1] = null;
+	}
+
+	/**
+	 * The external node that may contain given key.
+	 *
+	 * @param key The key that needs to be found.
+	 * @return The external node.
+	 */
+	private Node findExternalNode(long key) {
+		Node current = this.root;
+		while (!current.isExternal) {
+			current = current.children[getKeyIndex(current, key)];
+		}
+		return current;
+	}
+
+	/**
+	 * Get the (index+1) child index of given key using binary search.
+	 *
+	 * @param node the node
+	 * @param key  The key whose index needs to be found.
+	 * @return the index
+	 */
+	private int getKeyIndex(Node node, long key) {
+		int low = 0;
+		int high = node.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (node.keys[mid] > key) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Get the index of the first key of a node not smaller than given key.
+	 *
+	 * @param node the node
+	 * @param key  the key
+	 * @return the index
+	 */
+	private int getLowerKeyIndex(Node node, long key) {
+		int low = 0;
+		int high = node.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (node.keys[mid] >= key) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * Node of the tree, an external node has values and a next node, an internal
+	 * node has one child more than keys.
+	 */
+	private static final class Node {
+
+		private final boolean isExternal;
+		private final long[] keys;
+		private final double[] values;
+		private final Node[] children;
+		private Node nextNode;
+		private int size;
+
+		private Node(int order, boolean isExternal) {
+			this.isExternal = isExternal;
+			// room for one key more than a full node until it is split
+			this.keys = new long[order];
+			this.values = isExternal ? new double[order] : null;
+			this.children = isExternal ? null : new Node[order + 1];
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Evicts the least recently used page. Frames are kept in a doubly linked list
+ * in order of use, stored in two int arrays so no node objects are allocated.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+	private final int head;
+	private final int[] next;
+	private final int[] prev;
+
+	/**
+	 * Constructs a policy for a pool with given number of frames.
+	 *
+	 * @param frameCount number of frames
+	 */
+	public LruEvictionPolicy(int frameCount) {
+		// the extra entry is the head of the circular list
+		this.head = frameCount;
+		this.next = new int[frameCount + 1];
+		this.prev = new int[frameCount + 1];
+		this.next[this.head] = this.head;
+		this.prev[this.head] = this.head;
+	}
+
+	@Override
+	public void pageLoaded(int frame, int pageId) {
+		addLast(frame);
+	}
+
+	@Override
+	public void pageAccessed(int frame) {
+		remove(frame);
+		addLast(frame);
+	}
+
+	@Override
+	public int selectVictim(int[] pinCounts) {
+		for (int frame = this.next[this.head]; frame != this.head; frame = this.next[frame]) {
+			if (pinCounts[frame] == 0) {
+				remove(frame);
+				return frame;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a frame as most recently used.
+	 *
+	 * @param frame the frame
+	 */
+	private void addLast(int frame) {
+		int last = this.prev[this.head];
+		this.next[last] = frame;
+		this.prev[frame] = last;
+		this.next[frame] = this.head;
+		this.prev[this.head] = frame;
+	}
+
+	/**
+	 * Remove a frame from the list.
+	 *
+	 * @param frame the frame
+	 */
+	private void remove(int frame) {
+		this.next[this.prev[frame]] = this.next[frame];
+		this.prev[this.next[frame]] = this.prev[frame];
+	}
+
+}
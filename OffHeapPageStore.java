@@ -0,0 +1,129 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Pages kept in direct memory outside of the Java heap, so a large paged B+
+ * tree adds almost nothing to the heap and garbage collection pauses stay the
+ * same whatever the size of the tree. Memory is allocated in slabs of equal
+ * size which are added as the tree grows, so pages never move in memory. Pages
+ * of removed nodes are reused by the tree through its free pages.
+ *
+ * Closing the store drops its slabs, their memory is given back once the
+ * garbage collector notices the slabs are unreachable. Nothing is written to a
+ * storage device, the pages are lost when the store is closed.
+ *
+ * Note that the store is not synchronized, pinning a page beyond the last slab
+ * allocates slabs, which must not race with other pins.
+ */
+public class OffHeapPageStore implements PageStore {
+
+	static final int DEFAULT_SLAB_SIZE = 1 << 24;
+
+	private final int pageSize;
+	private final int slabSize;
+	private final int pagesPerSlab;
+	private final ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+	/**
+	 * Constructs an empty store with slabs of the default size.
+	 *
+	 * @param pageSize the page size in bytes, a power of two between 512 and 16M
+	 */
+	public OffHeapPageStore(int pageSize) {
+		this(pageSize, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Constructs an empty store.
+	 *
+	 * @param pageSize the page size in bytes, a power of two between 512 and 16M
+	 * @param slabSize size in bytes of the blocks of memory allocated at once, a
+	 *                 power of two not smaller than the page size
+	 */
+	public OffHeapPageStore(int pageSize, int slabSize) {
+		if (pageSize < 512 || pageSize > DEFAULT_SLAB_SIZE || Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Page size must be a power of two between 512 and "
+					+ DEFAULT_SLAB_SIZE + " but was " + pageSize);
+		}
+		if (slabSize < pageSize || Integer.bitCount(slabSize) != 1) {
+			throw new IllegalArgumentException(
+					"Slab size must be a power of two not smaller than " + pageSize + " but was " + slabSize);
+		}
+		this.pageSize = pageSize;
+		this.slabSize = slabSize;
+		this.pagesPerSlab = slabSize / pageSize;
+	}
+
+	@Override
+	public int getPageSize() {
+		return this.pageSize;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.slabs.isEmpty();
+	}
+
+	/**
+	 * Allocate slabs so that the store holds at least the given number of pages.
+	 */
+	@Override
+	public void ensureCapacity(int pageCount) {
+		while ((long) this.slabs.size() * this.pagesPerSlab < pageCount) {
+			this.slabs.add(ByteBuffer.allocateDirect(this.slabSize).order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	/**
+	 * Get the content of a page in place.
+	 */
+	@Override
+	public ByteBuffer pinPage(int pageId) {
+		int slabIndex = pageId / this.pagesPerSlab;
+		if (slabIndex >= this.slabs.size()) {
+			ensureCapacity(pageId + 1);
+		}
+		return this.slabs.get(slabIndex).slice((pageId % this.pagesPerSlab) * this.pageSize, this.pageSize)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Pages in memory need no unpinning.
+	 */
+	@Override
+	public void unpinPage(int pageId) {
+	}
+
+	/**
+	 * Pages in memory are never written back.
+	 */
+	@Override
+	public void markDirty(int pageId) {
+	}
+
+	/**
+	 * Pages in memory are never written back.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Get the number of bytes of direct memory allocated by the store
+	 *
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return (long) this.slabs.size() * this.slabSize;
+	}
+
+	/**
+	 * Drops the slabs holding all pages.
+	 */
+	@Override
+	public void close() {
+		this.slabs.clear();
+	}
+
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A file of fixed size pages. Pages are either accessed in place through memory
+ * mapping or copied with readPage and writePage, e.g. by a BufferPool. The file
+ * is mapped in segments of equal size which are added as the file grows, so
+ * mapped pages never move in memory. Nothing is mapped until a page is pinned.
+ *
+ * Note that the file is not synchronized, pinning a page beyond the mapped
+ * segments maps a new one, so pages must not be pinned by several threads
+ * while the file grows.
+ */
+public class PageFile implements PageStore {
+
+	private static final int SEGMENT_SIZE = 1 << 24;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int pagesPerSegment;
+	private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * Opens or creates a page file.
+	 *
+	 * @param path     path of the file
+	 * @param pageSize the page size in bytes, a power of two between 512 and 16M
+	 * @throws IOException if the file can not be opened
+	 */
+	public PageFile(Path path, int pageSize) throws IOException {
+		if (pageSize < 512 || pageSize > SEGMENT_SIZE || Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Page size must be a power of two between 512 and " + SEGMENT_SIZE
+					+ " but was " + pageSize);
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.pageSize = pageSize;
+		this.pagesPerSegment = SEGMENT_SIZE / pageSize;
+	}
+
+	@Override
+	public int getPageSize() {
+		return this.pageSize;
+	}
+
+	@Override
+	public boolean isEmpty() throws IOException {
+		return this.channel.size() == 0;
+	}
+
+	/**
+	 * Map the file so that it holds at least the given number of pages, the file
+	 * grows as needed.
+	 */
+	@Override
+	public void ensureCapacity(int pageCount) throws IOException {
+		while ((long) this.segments.size() * this.pagesPerSegment < pageCount) {
+			long position = (long) this.segments.size() * SEGMENT_SIZE;
+			MappedByteBuffer segment = this.channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+			this.segments.add(segment);
+		}
+	}
+
+	/**
+	 * Get the content of a page mapped in place, changes to the buffer are
+	 * written to the file.
+	 */
+	@Override
+	public ByteBuffer pinPage(int pageId) {
+		int segmentIndex = pageId / this.pagesPerSegment;
+		if (segmentIndex >= this.segments.size()) {
+			try {
+				ensureCapacity(pageId + 1);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		MappedByteBuffer segment = this.segments.get(segmentIndex);
+		return segment.slice((pageId % this.pagesPerSegment) * this.pageSize, this.pageSize)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Mapped pages need no unpinning.
+	 */
+	@Override
+	public void unpinPage(int pageId) {
+	}
+
+	/**
+	 * Changes to mapped pages are written to the file by the operating system.
+	 */
+	@Override
+	public void markDirty(int pageId) {
+	}
+
+	/**
+	 * Copy a page from the file into a buffer, without mapping it. Pages beyond
+	 * the end of the file read as zeros.
+	 *
+	 * @param pageId the page id
+	 * @param buffer the buffer receiving the page
+	 * @throws IOException if the file can not be read
+	 */
+	public void readPage(int pageId, ByteBuffer buffer) throws IOException {
+		ByteBuffer target = buffer.duplicate();
+		target.clear().limit(this.pageSize);
+		long position = (long) pageId * this.pageSize;
+		while (target.hasRemaining()) {
+			int count = this.channel.read(target, position + target.position());
+			if (count < 0) {
+				while (target.hasRemaining()) {
+					target.put((byte) 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy a page from a buffer to the file, without mapping it.
+	 *
+	 * @param pageId the page id
+	 * @param buffer the buffer holding the page
+	 * @throws IOException if the file can not be written
+	 */
+	public void writePage(int pageId, ByteBuffer buffer) throws IOException {
+		ByteBuffer source = buffer.duplicate();
+		source.clear().limit(this.pageSize);
+		long position = (long) pageId * this.pageSize;
+		while (source.hasRemaining()) {
+			this.channel.write(source, position + source.position());
+		}
+	}
+
+	/**
+	 * Write all changed pages to the storage device.
+	 */
+	@Override
+	public void flush() {
+		for (MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+		try {
+			this.channel.force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes changed pages and closes the file.
+	 *
+	 * @throws IOException if the file can not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		this.segments.clear();
+		this.channel.close();
+	}
+
+}
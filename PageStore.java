@@ -0,0 +1,63 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Gives access to the fixed size pages of a paged B+ tree. A page is pinned
+ * while it is used and must be unpinned afterwards, pages changed while pinned
+ * are marked dirty so the store knows to write them back.
+ */
+public interface PageStore extends Closeable {
+
+	/**
+	 * Get the page size
+	 *
+	 * @return the page size in bytes
+	 */
+	int getPageSize();
+
+	/**
+	 * Check if the store has no pages yet.
+	 *
+	 * @return boolean value
+	 * @throws IOException if the store can not be read
+	 */
+	boolean isEmpty() throws IOException;
+
+	/**
+	 * Make room for at least the given number of pages.
+	 *
+	 * @param pageCount number of pages
+	 * @throws IOException if the store can not grow
+	 */
+	void ensureCapacity(int pageCount) throws IOException;
+
+	/**
+	 * Pin a page and get its content. The buffer stays valid until the page is
+	 * unpinned.
+	 *
+	 * @param pageId the page id
+	 * @return the buffer holding the page
+	 */
+	ByteBuffer pinPage(int pageId);
+
+	/**
+	 * Unpin a page pinned before.
+	 *
+	 * @param pageId the page id
+	 */
+	void unpinPage(int pageId);
+
+	/**
+	 * Mark a pinned page as changed.
+	 *
+	 * @param pageId the page id
+	 */
+	void markDirty(int pageId);
+
+	/**
+	 * Write all changed pages to the storage device.
+	 */
+	void flush();
+
+}
@@ -0,0 +1,827 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * B+ tree stored in a page file, each node is a fixed size page. Children and
+ * the linked list of external nodes are stored as page ids, so the tree is
+ * reopened by reading its meta page instead of being rebuilt.
+ *
+ * Nodes do not keep a reference to their parent, inserts and deletes record the
+ * path from the root while searching for the external node and balance the tree
+ * along that path. Balancing follows BPlusTreeImpl: nodes are split when they
+ * reach order keys and rebalanced when they become empty.
+ *
+ * Pages are accessed through a PageStore, either mapped in place by a PageFile,
+ * through a BufferPool which bounds the memory used, or kept in direct memory
+ * outside of the Java heap by an OffHeapPageStore. Every page used by an
+ * operation is pinned until the operation ends, searches only keep the current
+ * node pinned while they descend or walk the external nodes, inserts and deletes
+ * unpin the pages of a level before balancing the level above. A buffer pool
+ * needs at least 8 frames.
+ *
+ * With a WriteAheadLog each insert or delete appends the after-image of every
+ * page it changed as one log record, and the changed pages stay pinned until
+ * the record is appended, so a buffer pool needs 2 more frames per level. A
+ * change is durable once commit returns, flush writes all pages and empties the
+ * log. Opening the tree replays the log, so a crash in the middle of a split or
+ * merge leaves either the whole operation or none of it.
+ *
+ * Meta page layout (page 0):
+ * <ul>
+ * <li>0: magic number</li>
+ * <li>4: page size</li>
+ * <li>8: order</li>
+ * <li>12: root page id</li>
+ * <li>16: number of pages</li>
+ * <li>20: first free page id</li>
+ * <li>24: number of elements</li>
+ * <li>32: number of free pages</li>
+ * </ul>
+ *
+ * Note that this implementation is not synchronized, searches pin pages and
+ * record them to unpin afterwards, so even readers sharing a tree need an
+ * external lock.
+ */
+public class PagedBPlusTree implements Closeable {
+
+	static final int DEFAULT_PAGE_SIZE = 4096;
+
+	private static final int MAGIC = 0x42505431;
+	private static final int MAX_HEIGHT = 64;
+	private static final int META_PAGE_ID = 0;
+
+	private final PageStore pageStore;
+	private final int order;
+	private int rootPageId;
+	private int pageCount;
+	private int freePageId;
+	private int freePageCount;
+	private long size;
+	private final int[] pathPageIds = new int[MAX_HEIGHT];
+	private final int[] pathIndexes = new int[MAX_HEIGHT];
+	private int pathDepth;
+	private int[] pinnedPageIds = new int[16];
+	private int pinnedCount;
+	private final WriteAheadLog log;
+	private final BufferPool bufferPool;
+	private int[] changedPageIds = new int[16];
+	private ByteBuffer[] changedPages = new ByteBuffer[16];
+	private int changedCount;
+	private long lastLsn;
+
+	/**
+	 * Opens a tree stored in a file with the default page size, an empty tree is
+	 * created if the file does not exist.
+	 *
+	 * @param path  path of the file
+	 * @param order The order of B+ Tree, used only when the tree is created.
+	 * @return the tree
+	 * @throws IOException if the file can not be opened or is not a tree
+	 */
+	public static PagedBPlusTree open(Path path, int order) throws IOException {
+		return open(path, order, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Opens a tree stored in a file, an empty tree is created if the file does
+	 * not exist.
+	 *
+	 * @param path     path of the file
+	 * @param order    The order of B+ Tree, used only when the tree is created.
+	 * @param pageSize the page size in bytes, used only when the tree is created.
+	 * @return the tree
+	 * @throws IOException if the file can not be opened or is not a tree
+	 */
+	public static PagedBPlusTree open(Path path, int order, int pageSize) throws IOException {
+		return open(new PageFile(path, pageSize), order);
+	}
+
+	/**
+	 * Opens a tree stored in a page store, an empty tree is created if the store
+	 * is empty. The tree closes the store when it is closed.
+	 *
+	 * @param pageStore the page store, e.g. a PageFile or a BufferPool
+	 * @param order     The order of B+ Tree, used only when the tree is created.
+	 * @return the tree
+	 * @throws IOException if the store can not be read or is not a tree
+	 */
+	public static PagedBPlusTree open(PageStore pageStore, int order) throws IOException {
+		try {
+			return new PagedBPlusTree(pageStore, order, null);
+		} catch (IOException | RuntimeException e) {
+			pageStore.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a tree stored through a buffer pool with a write-ahead log, the log
+	 * is replayed first. An empty tree is created if the store is empty. The tree
+	 * closes the pool and the log when it is closed. Pages mapped in place can
+	 * not be logged since the operating system writes them back at any time.
+	 *
+	 * @param bufferPool the buffer pool
+	 * @param order      The order of B+ Tree, used only when the tree is created.
+	 * @param log        the write-ahead log
+	 * @return the tree
+	 * @throws IOException if the store or the log can not be read or is not a
+	 *                     tree
+	 */
+	public static PagedBPlusTree open(BufferPool bufferPool, int order, WriteAheadLog log) throws IOException {
+		if (log.getPageSize() != bufferPool.getPageSize()) {
+			throw new IllegalArgumentException("Page size of log " + log.getPageSize()
+					+ " does not match page size of buffer pool " + bufferPool.getPageSize());
+		}
+		try {
+			return new PagedBPlusTree(bufferPool, order, log);
+		} catch (IOException | RuntimeException e) {
+			bufferPool.close();
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the meta page of a page store, or initializes an empty tree if the
+	 * store is empty.
+	 *
+	 * @param pageStore the page store
+	 * @param order     The order of B+ Tree, used only when the tree is created.
+	 * @param log       the write-ahead log, null for none
+	 * @throws IOException if the store is not a tree
+	 */
+	private PagedBPlusTree(PageStore pageStore, int order, WriteAheadLog log) throws IOException {
+		this.pageStore = pageStore;
+		this.log = log;
+		this.bufferPool = log != null ? (BufferPool) pageStore : null;
+		if (log != null) {
+			this.bufferPool.setWriteAheadLog(log);
+			log.recover(pageStore);
+		}
+		if (pageStore.isEmpty()) {
+			if (order < 3 || order > BPlusTreePage.getMaxOrder(pageStore.getPageSize())) {
+				throw new IllegalArgumentException("Order must be between 3 and "
+						+ BPlusTreePage.getMaxOrder(pageStore.getPageSize()) + " but was " + order);
+			}
+			this.order = order;
+			this.pageCount = 1;
+			try {
+				this.rootPageId = allocatePage(BPlusTreePage.TYPE_EXTERNAL).getPageId();
+				writeMetaPage();
+				logChangedPages();
+			} finally {
+				unpinPages();
+				unpinChangedPages();
+			}
+			return;
+		}
+		ByteBuffer meta = pageStore.pinPage(META_PAGE_ID);
+		try {
+			if (meta.getInt(0) != MAGIC || meta.getInt(4) != pageStore.getPageSize()) {
+				throw new IOException("Not a B+ tree file with page size " + pageStore.getPageSize());
+			}
+			this.order = meta.getInt(8);
+			this.rootPageId = meta.getInt(12);
+			this.pageCount = meta.getInt(16);
+			this.freePageId = meta.getInt(20);
+			this.size = meta.getLong(24);
+			this.freePageCount = meta.getInt(32);
+		} finally {
+			pageStore.unpinPage(META_PAGE_ID);
+		}
+	}
+
+	/**
+	 * Get the order of the tree
+	 *
+	 * @return the order
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Get the number of pages of the tree, including the meta page and free pages
+	 *
+	 * @return the number of pages
+	 */
+	public int getPageCount() {
+		return this.pageCount;
+	}
+
+	/**
+	 * Get the number of pages of removed nodes waiting to be reused
+	 *
+	 * @return the number of free pages
+	 */
+	public int getFreePageCount() {
+		return this.freePageCount;
+	}
+
+	/**
+	 * Get the number of bytes of the pages holding the meta page and the nodes,
+	 * free pages are not counted.
+	 *
+	 * @return the bytes in use
+	 */
+	public long getUsedBytes() {
+		return (long) (this.pageCount - this.freePageCount) * this.pageStore.getPageSize();
+	}
+
+	/**
+	 * Get the number of elements in the tree
+	 *
+	 * @return the number of elements
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Inserts an element with given key and value in the tree.
+	 *
+	 * @param key   key of the element to be inserted
+	 * @param value value of the element to be inserted
+	 */
+	public void insert(int key, double value) {
+		try {
+			insertData(key, value);
+			logChangedPages();
+		} finally {
+			unpinPages();
+			unpinChangedPages();
+		}
+	}
+
+	private void insertData(int key, double value) {
+		BPlusTreePage node = findExternalNode(key);
+		int depth = this.pathDepth;
+		markDirty(node);
+		int keyIndex = node.getKeyIndex(key);
+		if (keyIndex > 0 && node.getKeyAt(keyIndex - 1) == key) {
+			// key already exist, so update the value
+			node.updateDataValue(keyIndex - 1, value);
+			return;
+		}
+		node.addExternalData(keyIndex, key, value);
+		this.size++;
+		while (node.getDataListSize() == this.order) {
+			BPlusTreePage rightNode = splitNode(node);
+			int middleKey = node.isExternalNode() ? rightNode.getKeyAt(0) : node.getKeyAt(node.getDataListSize() - 1);
+			if (!node.isExternalNode()) {
+				// the middle key moves up
+				node.deleteInternalData(node.getDataListSize() - 1, node.getDataListSize());
+			}
+			if (depth == 0) {
+				BPlusTreePage newRoot = allocatePage(BPlusTreePage.TYPE_INTERNAL);
+				newRoot.setChildrens(node.getPageId(), middleKey, rightNode.getPageId());
+				this.rootPageId = newRoot.getPageId();
+				break;
+			}
+			int rightPageId = rightNode.getPageId();
+			// keep the number of pinned pages independent of the height
+			unpinPages();
+			depth--;
+			node = getPage(this.pathPageIds[depth]);
+			markDirty(node);
+			int childIndex = this.pathIndexes[depth];
+			node.addInternalData(childIndex, middleKey, childIndex + 1, rightPageId);
+		}
+		writeMetaPage();
+	}
+
+	/**
+	 * Split node moving the right half to a new node. For an internal node the
+	 * middle key is left as last key of node, to be moved up by the caller.
+	 *
+	 * @param node The node to be split
+	 * @return the new right node
+	 */
+	private BPlusTreePage splitNode(BPlusTreePage node) {
+		int midIndex = this.order / 2;
+		BPlusTreePage rightNode = allocatePage(node.getType());
+		if (node.isExternalNode()) {
+			node.moveDataTo(midIndex, rightNode);
+			// Adjust the doubly linked list
+			rightNode.setNextPageId(node.getNextPageId());
+			rightNode.setPrevPageId(node.getPageId());
+			if (node.getNextPageId() != 0) {
+				BPlusTreePage nextNode = getPage(node.getNextPageId());
+				markDirty(nextNode);
+				nextNode.setPrevPageId(rightNode.getPageId());
+			}
+			node.setNextPageId(rightNode.getPageId());
+		} else {
+			rightNode.setFirstChild(node.getChild(midIndex + 1));
+			node.moveDataTo(midIndex + 1, rightNode);
+		}
+		return rightNode;
+	}
+
+	/**
+	 * Deletes an element with given key from the tree.
+	 *
+	 * @param key key of the element to be deleted
+	 */
+	public void delete(int key) {
+		try {
+			deleteData(key);
+			logChangedPages();
+		} finally {
+			unpinPages();
+			unpinChangedPages();
+		}
+	}
+
+	private void deleteData(int key) {
+		BPlusTreePage node = findExternalNode(key);
+		int depth = this.pathDepth;
+		int keyIndex = node.getKeyIndex(key) - 1;
+		// key not found
+		if (keyIndex < 0 || node.getKeyAt(keyIndex) != key) {
+			return;
+		}
+		markDirty(node);
+		node.deleteData(keyIndex);
+		this.size--;
+		// deficient external node as root is fine.
+		if (depth > 0 && node.getDataListSize() == 0) {
+			balanceExternalNode(node, depth);
+		}
+		writeMetaPage();
+	}
+
+	/**
+	 * Balance an empty external node by borrowing from a sibling with more than
+	 * one key, or else removing it from its parent.
+	 *
+	 * @param node  the empty external node
+	 * @param depth depth of node on the recorded path
+	 */
+	private void balanceExternalNode(BPlusTreePage node, int depth) {
+		BPlusTreePage parent = getPage(this.pathPageIds[depth - 1]);
+		int childIndex = this.pathIndexes[depth - 1];
+		BPlusTreePage rightSibling = childIndex < parent.getDataListSize() ? getPage(parent.getChild(childIndex + 1))
+				: null;
+		BPlusTreePage leftSibling = childIndex > 0 ? getPage(parent.getChild(childIndex - 1)) : null;
+		markDirty(parent);
+		if (rightSibling != null && rightSibling.getDataListSize() > 1) {
+			markDirty(rightSibling);
+			node.addExternalData(0, rightSibling.getKeyAt(0), rightSibling.getValueAt(0));
+			rightSibling.deleteData(0);
+			parent.updateKey(childIndex, rightSibling.getKeyAt(0));
+		} else if (leftSibling != null && leftSibling.getDataListSize() > 1) {
+			markDirty(leftSibling);
+			int lastIndex = leftSibling.getDataListSize() - 1;
+			int lastKey = leftSibling.getKeyAt(lastIndex);
+			node.addExternalData(0, lastKey, leftSibling.getValueAt(lastIndex));
+			leftSibling.deleteData(lastIndex);
+			parent.updateKey(childIndex - 1, lastKey);
+		} else {
+			parent.deleteInternalData(rightSibling != null ? childIndex : childIndex - 1, childIndex);
+			// Adjust the doubly linked list
+			if (node.getNextPageId() != 0) {
+				BPlusTreePage nextNode = getPage(node.getNextPageId());
+				markDirty(nextNode);
+				nextNode.setPrevPageId(node.getPrevPageId());
+			}
+			if (node.getPrevPageId() != 0) {
+				BPlusTreePage prevNode = getPage(node.getPrevPageId());
+				markDirty(prevNode);
+				prevNode.setNextPageId(node.getNextPageId());
+			}
+			freePage(node);
+			// deficient internal node
+			if (parent.getDataListSize() == 0) {
+				unpinPages();
+				balanceInternalNode(depth - 1);
+			}
+		}
+	}
+
+	/**
+	 * Balance an internal node without keys by borrowing from a sibling with more
+	 * than one key, or else merging it with a sibling and the parent key.
+	 *
+	 * @param depth depth of the internal node with a single child on the recorded
+	 *              path
+	 */
+	private void balanceInternalNode(int depth) {
+		BPlusTreePage node = getPage(this.pathPageIds[depth]);
+		if (depth == 0) {
+			// reached empty root case, delete the root and make child as root
+			this.rootPageId = node.getChild(0);
+			freePage(node);
+			return;
+		}
+		BPlusTreePage parent = getPage(this.pathPageIds[depth - 1]);
+		int childIndex = this.pathIndexes[depth - 1];
+		BPlusTreePage rightSibling = childIndex < parent.getDataListSize() ? getPage(parent.getChild(childIndex + 1))
+				: null;
+		BPlusTreePage leftSibling = childIndex > 0 ? getPage(parent.getChild(childIndex - 1)) : null;
+		markDirty(parent);
+		markDirty(node);
+		if (leftSibling != null && leftSibling.getDataListSize() > 1) {
+			markDirty(leftSibling);
+			int lastIndex = leftSibling.getDataListSize() - 1;
+			int borrowedKey = leftSibling.getKeyAt(lastIndex);
+			int borrowedChild = leftSibling.deleteInternalData(lastIndex, lastIndex + 1);
+			node.addInternalData(0, parent.getKeyAt(childIndex - 1), 0, borrowedChild);
+			parent.updateKey(childIndex - 1, borrowedKey);
+		} else if (rightSibling != null && rightSibling.getDataListSize() > 1) {
+			markDirty(rightSibling);
+			int borrowedKey = rightSibling.getKeyAt(0);
+			int borrowedChild = rightSibling.deleteInternalData(0, 0);
+			node.addInternalData(0, parent.getKeyAt(childIndex), 1, borrowedChild);
+			parent.updateKey(childIndex, borrowedKey);
+		} else {
+			if (rightSibling != null) {
+				markDirty(rightSibling);
+				rightSibling.addInternalData(0, parent.getKeyAt(childIndex), 0, node.getChild(0));
+				parent.deleteInternalData(childIndex, childIndex);
+			} else {
+				markDirty(leftSibling);
+				int siblingSize = leftSibling.getDataListSize();
+				leftSibling.addInternalData(siblingSize, parent.getKeyAt(childIndex - 1), siblingSize + 1,
+						node.getChild(0));
+				parent.deleteInternalData(childIndex - 1, childIndex);
+			}
+			freePage(node);
+			// deficient internal node
+			if (parent.getDataListSize() == 0) {
+				unpinPages();
+				balanceInternalNode(depth - 1);
+			}
+		}
+	}
+
+	/**
+	 * Search an element with given key in the tree.
+	 *
+	 * @param key key of the element to be searched.
+	 * @return list containing the value whose key is searched.
+	 */
+	public ArrayList<Double> search(int key) {
+		return search(key, key);
+	}
+
+	/**
+	 * Search all element that lies between and including startKey and endKey
+	 *
+	 * @param startKey starting Key of the element to be searched.
+	 * @param endKey   ending key of the element to be searched.
+	 * @return list of values between startKey and endKey
+	 */
+	public ArrayList<Double> search(int startKey, int endKey) {
+		ArrayList<Double> listValues = new ArrayList<Double>();
+		try {
+			BPlusTreePage current = findExternalNode(startKey);
+			int i = startKey == Integer.MIN_VALUE ? 0 : current.getKeyIndex(startKey - 1);
+			while (true) {
+				for (; i < current.getDataListSize(); i++) {
+					if (current.getKeyAt(i) > endKey) {
+						return listValues;
+					}
+					listValues.add(current.getValueAt(i));
+				}
+				int nextPageId = current.getNextPageId();
+				if (nextPageId == 0) {
+					return listValues;
+				}
+				unpinPages();
+				current = getPage(nextPageId);
+				i = 0;
+			}
+		} finally {
+			unpinPages();
+		}
+	}
+
+	/**
+	 * Find the external node that may contain given key, recording the page ids
+	 * and child indexes of the path from the root. Only the external node is left
+	 * pinned.
+	 *
+	 * @param key The key that needs to be found.
+	 * @return the external node, its depth is pathDepth
+	 */
+	private BPlusTreePage findExternalNode(int key) {
+		int depth = 0;
+		BPlusTreePage current = getPage(this.rootPageId);
+		this.pathPageIds[0] = this.rootPageId;
+		while (!current.isExternalNode()) {
+			int childIndex = current.getKeyIndex(key);
+			this.pathIndexes[depth] = childIndex;
+			depth++;
+			this.pathPageIds[depth] = current.getChild(childIndex);
+			unpinPages();
+			current = getPage(this.pathPageIds[depth]);
+		}
+		this.pathDepth = depth;
+		return current;
+	}
+
+	/**
+	 * Get the node stored in a page, the page stays pinned until unpinPages is
+	 * called.
+	 *
+	 * @param pageId the page id
+	 * @return the node
+	 */
+	private BPlusTreePage getPage(int pageId) {
+		ByteBuffer buffer = this.pageStore.pinPage(pageId);
+		if (this.pinnedCount == this.pinnedPageIds.length) {
+			this.pinnedPageIds = Arrays.copyOf(this.pinnedPageIds, this.pinnedCount * 2);
+		}
+		this.pinnedPageIds[this.pinnedCount++] = pageId;
+		return new BPlusTreePage(pageId, buffer, this.order);
+	}
+
+	/**
+	 * Mark a node as changed, must be called before the node is changed.
+	 *
+	 * @param node the node
+	 */
+	private void markDirty(BPlusTreePage node) {
+		int pageId = node.getPageId();
+		this.pageStore.markDirty(pageId);
+		if (this.log == null) {
+			return;
+		}
+		for (int i = 0; i < this.changedCount; i++) {
+			if (this.changedPageIds[i] == pageId) {
+				return;
+			}
+		}
+		if (this.changedCount == this.changedPageIds.length) {
+			this.changedPageIds = Arrays.copyOf(this.changedPageIds, this.changedCount * 2);
+			this.changedPages = Arrays.copyOf(this.changedPages, this.changedCount * 2);
+		}
+		// pinned again so it is not written back before it is logged
+		this.changedPages[this.changedCount] = this.pageStore.pinPage(pageId);
+		this.changedPageIds[this.changedCount++] = pageId;
+	}
+
+	/**
+	 * Append the pages changed by the operation to the write-ahead log.
+	 */
+	private void logChangedPages() {
+		if (this.log == null || this.changedCount == 0) {
+			return;
+		}
+		long lsn = this.log.append(this.changedPageIds, this.changedPages, this.changedCount);
+		for (int i = 0; i < this.changedCount; i++) {
+			this.bufferPool.setPageLsn(this.changedPageIds[i], lsn);
+		}
+		this.lastLsn = lsn;
+	}
+
+	/**
+	 * Unpin the pages pinned by markDirty.
+	 */
+	private void unpinChangedPages() {
+		while (this.changedCount > 0) {
+			this.changedCount--;
+			this.changedPages[this.changedCount] = null;
+			this.pageStore.unpinPage(this.changedPageIds[this.changedCount]);
+		}
+	}
+
+	/**
+	 * Unpin all pages pinned by getPage.
+	 */
+	private void unpinPages() {
+		while (this.pinnedCount > 0) {
+			this.pageStore.unpinPage(this.pinnedPageIds[--this.pinnedCount]);
+		}
+	}
+
+	/**
+	 * Allocate a page for a new node, reusing a free page if there is one.
+	 *
+	 * @param type TYPE_EXTERNAL or TYPE_INTERNAL
+	 * @return the new node
+	 */
+	private BPlusTreePage allocatePage(int type) {
+		int pageId;
+		if (this.freePageId != 0) {
+			pageId = this.freePageId;
+			this.freePageId = getPage(pageId).getNextPageId();
+			this.freePageCount--;
+		} else {
+			pageId = this.pageCount++;
+			try {
+				this.pageStore.ensureCapacity(this.pageCount);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		BPlusTreePage page = getPage(pageId);
+		markDirty(page);
+		page.init(type);
+		return page;
+	}
+
+	/**
+	 * Add the page of a removed node to the free pages.
+	 *
+	 * @param node the removed node
+	 */
+	private void freePage(BPlusTreePage node) {
+		markDirty(node);
+		node.free(this.freePageId);
+		this.freePageId = node.getPageId();
+		this.freePageCount++;
+	}
+
+	/**
+	 * Write the root, page count, free pages and size to the meta page.
+	 */
+	private void writeMetaPage() {
+		BPlusTreePage metaPage = getPage(META_PAGE_ID);
+		markDirty(metaPage);
+		ByteBuffer meta = metaPage.getBuffer();
+		meta.putInt(0, MAGIC);
+		meta.putInt(4, this.pageStore.getPageSize());
+		meta.putInt(8, this.order);
+		meta.putInt(12, this.rootPageId);
+		meta.putInt(16, this.pageCount);
+		meta.putInt(20, this.freePageId);
+		meta.putLong(24, this.size);
+		meta.putInt(32, this.freePageCount);
+	}
+
+	/**
+	 * Verify the structure of the whole tree and collect its statistics, as
+	 * BPlusTreeImpl.verify does: keys in order and within the bounds of their
+	 * parents, fan-out, depth of the external nodes and their links. The element
+	 * count and page count of the meta page must match the nodes found, so the
+	 * tree can be checked after the write-ahead log was replayed.
+	 *
+	 * @return the statistics and the errors found
+	 */
+	public BPlusTreeStats verify() {
+		BPlusTreeStats stats = new BPlusTreeStats(this.order);
+		// page id of the last external node visited and the next page id it links to
+		int[] lastExternal = new int[2];
+		long nodeCount;
+		try {
+			nodeCount = verifyPage(this.rootPageId, 0, Long.MIN_VALUE, Long.MAX_VALUE, stats, lastExternal);
+		} finally {
+			unpinPages();
+		}
+		stats.checkExternalDepths();
+		if (lastExternal[1] != 0) {
+			stats.addError("Last external node on page " + lastExternal[0] + " links to page " + lastExternal[1]);
+		}
+		if (stats.getKeyCount() != this.size) {
+			stats.addError("Meta page counts " + this.size + " elements but the nodes hold " + stats.getKeyCount());
+		}
+		if (nodeCount + this.freePageCount + 1 != this.pageCount) {
+			stats.addError("Meta page counts " + this.pageCount + " pages but " + nodeCount + " nodes and "
+					+ this.freePageCount + " free pages were found");
+		}
+		return stats;
+	}
+
+	/**
+	 * Verify the node of a page and its subtree, the node is unpinned before its
+	 * children are visited.
+	 *
+	 * @param pageId       page id of the node
+	 * @param depth        depth of the node, 0 for the root
+	 * @param lowerBound   inclusive lower bound of the keys of the node
+	 * @param upperBound   exclusive upper bound of the keys of the node
+	 * @param stats        the statistics receiving the node and the errors
+	 * @param lastExternal page id and next page id of the last external node
+	 *                     visited, updated
+	 * @return number of nodes of the subtree
+	 */
+	private long verifyPage(int pageId, int depth, long lowerBound, long upperBound, BPlusTreeStats stats,
+			int[] lastExternal) {
+		if (pageId <= META_PAGE_ID || pageId >= this.pageCount || depth >= BPlusTreeStats.MAX_HEIGHT) {
+			addError(stats, "Node", pageId, depth, lowerBound, upperBound, "page out of the tree");
+			return 0;
+		}
+		BPlusTreePage node = getPage(pageId);
+		int size = node.getDataListSize();
+		if (node.getType() != BPlusTreePage.TYPE_EXTERNAL && node.getType() != BPlusTreePage.TYPE_INTERNAL) {
+			addError(stats, "Node", pageId, depth, lowerBound, upperBound, "free page");
+			unpinPages();
+			return 0;
+		}
+		String name = node.isExternalNode() ? "External node" : "Internal node";
+		if (size >= this.order) {
+			addError(stats, name, pageId, depth, lowerBound, upperBound, size + " keys, more than order - 1");
+			size = this.order - 1;
+		}
+		int[] keys = new int[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = node.getKeyAt(i);
+			if (keys[i] < lowerBound || keys[i] >= upperBound) {
+				addError(stats, name, pageId, depth, lowerBound, upperBound, "key " + keys[i] + " out of bounds");
+			}
+			if (i > 0 && keys[i] <= keys[i - 1]) {
+				addError(stats, name, pageId, depth, lowerBound, upperBound,
+						"key " + keys[i] + " not above the previous key");
+			}
+		}
+		if (node.isExternalNode()) {
+			if (size == 0 && depth > 0) {
+				addError(stats, name, pageId, depth, lowerBound, upperBound, "empty external node");
+			}
+			if (node.getPrevPageId() != lastExternal[0]) {
+				addError(stats, name, pageId, depth, lowerBound, upperBound,
+						"links back to page " + node.getPrevPageId() + " instead of " + lastExternal[0]);
+			}
+			if (lastExternal[0] != 0 && lastExternal[1] != pageId) {
+				addError(stats, name, pageId, depth, lowerBound, upperBound,
+						"previous node links to page " + lastExternal[1]);
+			}
+			lastExternal[0] = pageId;
+			lastExternal[1] = node.getNextPageId();
+			stats.addExternalNode(depth, size, size);
+			unpinPages();
+			return 1;
+		}
+		if (size == 0) {
+			addError(stats, name, pageId, depth, lowerBound, upperBound, "internal node without keys");
+		}
+		int[] children = new int[size + 1];
+		for (int i = 0; i <= size; i++) {
+			children[i] = node.getChild(i);
+		}
+		stats.addInternalNode(depth, size, size + 1);
+		unpinPages();
+		long nodeCount = 1;
+		for (int i = 0; i <= size; i++) {
+			nodeCount += verifyPage(children[i], depth + 1, i == 0 ? lowerBound : keys[i - 1],
+					i < size ? keys[i] : upperBound, stats, lastExternal);
+		}
+		return nodeCount;
+	}
+
+	private static void addError(BPlusTreeStats stats, String name, int pageId, int depth, long lowerBound,
+			long upperBound, String error) {
+		stats.addError(name + " on page " + pageId + " at depth " + depth + " ["
+				+ (lowerBound == Long.MIN_VALUE ? "-inf" : lowerBound) + ", "
+				+ (upperBound == Long.MAX_VALUE ? "+inf" : upperBound) + "): " + error);
+	}
+
+	/**
+	 * Get the lsn of the log record of the last insert or delete, to be passed to
+	 * WriteAheadLog.commit by callers that commit outside of their lock.
+	 *
+	 * @return the lsn, 0 if nothing was logged
+	 */
+	public long getLastLsn() {
+		return this.lastLsn;
+	}
+
+	/**
+	 * Wait until the last insert or delete is durable in the write-ahead log.
+	 */
+	public void commit() {
+		if (this.log != null) {
+			this.log.commit(this.lastLsn);
+		}
+	}
+
+	/**
+	 * Write all changed pages to the storage device, the write-ahead log is
+	 * emptied afterwards.
+	 */
+	public void flush() {
+		this.pageStore.flush();
+		if (this.log != null) {
+			try {
+				this.log.truncate();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes changed pages and closes the page store and the write-ahead log.
+	 *
+	 * @throws IOException if the file can not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			this.pageStore.close();
+		} finally {
+			if (this.log != null) {
+				this.log.close();
+			}
+		}
+	}
+
+}
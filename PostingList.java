@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of the double values of one key of a multi-value B+ tree, in
+ * insertion order. The first PAGE_SIZE values are kept in one array which
+ * doubles as it grows, later values go to overflow pages of PAGE_SIZE values
+ * each, so a hot key with many values never copies its whole list to grow.
+ */
+public class PostingList {
+
+	static final int PAGE_SHIFT = 10;
+	static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+	private double[] values = new double[2];
+	private double[][] overflowPages;
+	private int size;
+
+	/**
+	 * Get the number of values
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Append a value.
+	 *
+	 * @param value the value
+	 */
+	public void add(double value) {
+		if (this.size < PAGE_SIZE) {
+			if (this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Math.min(this.size * 2, PAGE_SIZE));
+			}
+			this.values[this.size++] = value;
+			return;
+		}
+		int page = (this.size >>> PAGE_SHIFT) - 1;
+		if (this.overflowPages == null) {
+			this.overflowPages = new double[4][];
+		} else if (page == this.overflowPages.length) {
+			this.overflowPages = Arrays.copyOf(this.overflowPages, page * 2);
+		}
+		if (this.overflowPages[page] == null) {
+			this.overflowPages[page] = new double[PAGE_SIZE];
+		}
+		this.overflowPages[page][this.size & (PAGE_SIZE - 1)] = value;
+		this.size++;
+	}
+
+	/**
+	 * Get the value at an index
+	 *
+	 * @param index the index
+	 * @return the value
+	 */
+	public double get(int index) {
+		if (index < PAGE_SIZE) {
+			return this.values[index];
+		}
+		return this.overflowPages[(index >>> PAGE_SHIFT) - 1][index & (PAGE_SIZE - 1)];
+	}
+
+	/**
+	 * Find the first occurrence of a value.
+	 *
+	 * @param value the value
+	 * @return its index, -1 if the list does not hold it
+	 */
+	public int indexOf(double value) {
+		for (int i = 0; i < this.size; i++) {
+			if (Double.compare(get(i), value) == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the value at an index, the values after it move down by one. An
+	 * overflow page left empty is released.
+	 *
+	 * @param index the index
+	 */
+	public void removeAt(int index) {
+		for (int i = index; i < this.size - 1; i++) {
+			set(i, get(i + 1));
+		}
+		this.size--;
+		if (this.size >= PAGE_SIZE && (this.size & (PAGE_SIZE - 1)) == 0) {
+			this.overflowPages[(this.size >>> PAGE_SHIFT) - 1] = null;
+		}
+	}
+
+	private void set(int index, double value) {
+		if (index < PAGE_SIZE) {
+			this.values[index] = value;
+		} else {
+			this.overflowPages[(index >>> PAGE_SHIFT) - 1][index & (PAGE_SIZE - 1)] = value;
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Full 2Q eviction. Pages read for the first time enter a FIFO queue (A1in), so
+ * a single scan can not flush the pages used repeatedly. Page ids evicted from
+ * A1in are remembered in a ghost queue (A1out), a page read again while it is
+ * remembered enters the LRU queue (Am) of frequently used pages. A1in is kept
+ * to a quarter of the frames and A1out remembers half as many pages as there
+ * are frames.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+	private static final byte IN_QUEUE = 0;
+	private static final byte MAIN_QUEUE = 1;
+
+	private final int inHead;
+	private final int mainHead;
+	private final int[] next;
+	private final int[] prev;
+	private final byte[] queues;
+	private final int[] pageIds;
+	private final int maxInSize;
+	private final int maxOutSize;
+	private final LinkedHashSet<Integer> outPageIds = new LinkedHashSet<Integer>();
+	private int inSize;
+
+	/**
+	 * Constructs a policy for a pool with given number of frames.
+	 *
+	 * @param frameCount number of frames
+	 */
+	public TwoQueueEvictionPolicy(int frameCount) {
+		// the two extra entries are the heads of the circular lists
+		this.inHead = frameCount;
+		this.mainHead = frameCount + 1;
+		this.next = new int[frameCount + 2];
+		this.prev = new int[frameCount + 2];
+		this.next[this.inHead] = this.inHead;
+		this.prev[this.inHead] = this.inHead;
+		this.next[this.mainHead] = this.mainHead;
+		this.prev[this.mainHead] = this.mainHead;
+		this.queues = new byte[frameCount];
+		this.pageIds = new int[frameCount];
+		this.maxInSize = Math.max(1, frameCount / 4);
+		this.maxOutSize = Math.max(1, frameCount / 2);
+	}
+
+	@Override
+	public void pageLoaded(int frame, int pageId) {
+		this.pageIds[frame] = pageId;
+		if (this.outPageIds.remove(pageId)) {
+			this.queues[frame] = MAIN_QUEUE;
+			addLast(this.mainHead, frame);
+		} else {
+			this.queues[frame] = IN_QUEUE;
+			addLast(this.inHead, frame);
+			this.inSize++;
+		}
+	}
+
+	@Override
+	public void pageAccessed(int frame) {
+		// hits in A1in are ignored, they are likely correlated references
+		if (this.queues[frame] == MAIN_QUEUE) {
+			remove(frame);
+			addLast(this.mainHead, frame);
+		}
+	}
+
+	@Override
+	public int selectVictim(int[] pinCounts) {
+		int frame = -1;
+		if (this.inSize > this.maxInSize) {
+			frame = findUnpinned(this.inHead, pinCounts);
+		}
+		if (frame < 0) {
+			frame = findUnpinned(this.mainHead, pinCounts);
+		}
+		if (frame < 0) {
+			frame = findUnpinned(this.inHead, pinCounts);
+		}
+		if (frame < 0) {
+			return -1;
+		}
+		remove(frame);
+		if (this.queues[frame] == IN_QUEUE) {
+			this.inSize--;
+			this.outPageIds.add(this.pageIds[frame]);
+			if (this.outPageIds.size() > this.maxOutSize) {
+				Iterator<Integer> oldest = this.outPageIds.iterator();
+				oldest.next();
+				oldest.remove();
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Find the oldest unpinned frame of a queue.
+	 *
+	 * @param head      head of the queue
+	 * @param pinCounts pin count of every frame
+	 * @return the frame, or -1 if none
+	 */
+	private int findUnpinned(int head, int[] pinCounts) {
+		for (int frame = this.next[head]; frame != head; frame = this.next[frame]) {
+			if (pinCounts[frame] == 0) {
+				return frame;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a frame at the end of a queue.
+	 *
+	 * @param head  head of the queue
+	 * @param frame the frame
+	 */
+	private void addLast(int head, int frame) {
+		int last = this.prev[head];
+		this.next[last] = frame;
+		this.prev[frame] = last;
+		this.next[frame] = head;
+		this.prev[head] = frame;
+	}
+
+	/**
+	 * Remove a frame from its queue.
+	 *
+	 * @param frame the frame
+	 */
+	private void remove(int frame) {
+		this.next[this.prev[frame]] = this.next[frame];
+		this.prev[this.next[frame]] = this.prev[frame];
+	}
+
+}
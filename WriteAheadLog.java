@@ -0,0 +1,372 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of a paged B+ tree. Every insert or delete appends one record
+ * holding the after-image of all pages it changed, so replaying the complete
+ * records on open redoes every logged operation entirely, a split or merge
+ * cascading to the root included, and a torn last record is dropped. The buffer
+ * pool writes a changed page back only after the record holding it is durable.
+ *
+ * Record layout: length, log sequence number (lsn), page count, page count
+ * times (page id, page content), CRC32C of everything before it.
+ *
+ * A record becomes durable when commit is called with its lsn. With a group
+ * commit window of 0 commit writes and forces the log itself. Otherwise a
+ * flusher thread waits the window once a record is pending, then writes and
+ * forces all records appended so far with one fsync, waking up every commit
+ * they cover.
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final int HEADER_SIZE = 16;
+	private static final int CHECKSUM_SIZE = 4;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final long groupCommitNanos;
+	private final Thread flusher;
+	private final CRC32C checksum = new CRC32C();
+	private ByteBuffer buffer;
+	private ByteBuffer spareBuffer;
+	private long appendedLsn;
+	private long durableLsn;
+	private long forceCount;
+	private boolean isFlushing;
+	private boolean isClosed;
+	private IOException failure;
+
+	/**
+	 * Opens or creates a log file. Records left by a crash stay in the file until
+	 * recover is called.
+	 *
+	 * @param path             path of the log file
+	 * @param pageSize         page size of the tree in bytes
+	 * @param groupCommitNanos group commit window, 0 to force the log on every
+	 *                         commit
+	 * @throws IOException if the file can not be opened
+	 */
+	public WriteAheadLog(Path path, int pageSize, long groupCommitNanos) throws IOException {
+		if (groupCommitNanos < 0) {
+			throw new IllegalArgumentException("Group commit window must not be negative but was " + groupCommitNanos);
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.pageSize = pageSize;
+		this.groupCommitNanos = groupCommitNanos;
+		this.buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		this.spareBuffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		this.channel.position(this.channel.size());
+		if (groupCommitNanos > 0) {
+			this.flusher = new Thread(this::runFlusher, "wal-flusher");
+			this.flusher.setDaemon(true);
+			this.flusher.start();
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	/**
+	 * Get the page size
+	 *
+	 * @return the page size in bytes
+	 */
+	public int getPageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Append a record holding the current content of pages, the content is copied
+	 * so the pages may change afterwards.
+	 *
+	 * @param pageIds   ids of the pages
+	 * @param pages     content of the pages
+	 * @param pageCount number of pages
+	 * @return the lsn of the record
+	 */
+	public synchronized long append(int[] pageIds, ByteBuffer[] pages, int pageCount) {
+		int length = HEADER_SIZE + pageCount * (4 + this.pageSize) + CHECKSUM_SIZE;
+		if (this.buffer.remaining() < length) {
+			int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + length);
+			ByteBuffer newBuffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+			this.buffer.flip();
+			newBuffer.put(this.buffer);
+			this.buffer = newBuffer;
+		}
+		long lsn = ++this.appendedLsn;
+		int start = this.buffer.position();
+		this.buffer.putInt(length);
+		this.buffer.putLong(lsn);
+		this.buffer.putInt(pageCount);
+		for (int i = 0; i < pageCount; i++) {
+			this.buffer.putInt(pageIds[i]);
+			this.buffer.put(this.buffer.position(), pages[i], 0, this.pageSize);
+			this.buffer.position(this.buffer.position() + this.pageSize);
+		}
+		this.checksum.reset();
+		this.checksum.update(this.buffer.array(), start, length - CHECKSUM_SIZE);
+		this.buffer.putInt((int) this.checksum.getValue());
+		if (this.flusher != null) {
+			notifyAll();
+		}
+		return lsn;
+	}
+
+	/**
+	 * Wait until a record is durable. Without group commit the log is written and
+	 * forced by the caller.
+	 *
+	 * @param lsn the lsn of the record
+	 */
+	public void commit(long lsn) {
+		if (this.flusher == null) {
+			flush(lsn);
+			return;
+		}
+		synchronized (this) {
+			while (this.durableLsn < lsn) {
+				if (this.failure != null) {
+					throw new UncheckedIOException(this.failure);
+				}
+				if (this.isClosed) {
+					throw new IllegalStateException("Write-ahead log is closed");
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(new InterruptedIOException());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the lsn up to which all records are durable
+	 *
+	 * @return the lsn
+	 */
+	public synchronized long getDurableLsn() {
+		return this.durableLsn;
+	}
+
+	/**
+	 * Get the number of times the log was forced to the storage device, each one
+	 * makes a group of records durable
+	 *
+	 * @return the force count
+	 */
+	public synchronized long getForceCount() {
+		return this.forceCount;
+	}
+
+	/**
+	 * Write and force the log up to a record, unless it already is durable.
+	 * Records appended meanwhile are written with it.
+	 *
+	 * @param lsn the lsn of the record
+	 */
+	public void flush(long lsn) {
+		ByteBuffer records;
+		long flushLsn;
+		synchronized (this) {
+			while (this.isFlushing && this.durableLsn < lsn) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(new InterruptedIOException());
+				}
+			}
+			if (this.durableLsn >= lsn) {
+				return;
+			}
+			this.isFlushing = true;
+			records = this.buffer;
+			this.buffer = this.spareBuffer;
+			this.spareBuffer = records;
+			flushLsn = this.appendedLsn;
+		}
+		boolean isWritten = false;
+		try {
+			records.flip();
+			while (records.hasRemaining()) {
+				this.channel.write(records);
+			}
+			this.channel.force(false);
+			isWritten = true;
+		} catch (IOException e) {
+			synchronized (this) {
+				this.failure = e;
+			}
+			throw new UncheckedIOException(e);
+		} finally {
+			synchronized (this) {
+				records.clear();
+				this.isFlushing = false;
+				if (isWritten) {
+					this.durableLsn = flushLsn;
+					this.forceCount++;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Flush loop of group commit, waits for a pending record and then the group
+	 * commit window before forcing the log.
+	 */
+	private void runFlusher() {
+		while (true) {
+			synchronized (this) {
+				while (!this.isClosed && this.appendedLsn == this.durableLsn) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (this.isClosed) {
+					return;
+				}
+			}
+			long deadline = System.nanoTime() + this.groupCommitNanos;
+			for (long remaining = this.groupCommitNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+				LockSupport.parkNanos(remaining);
+			}
+			try {
+				long lsn;
+				synchronized (this) {
+					lsn = this.appendedLsn;
+				}
+				flush(lsn);
+			} catch (UncheckedIOException e) {
+				synchronized (this) {
+					notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Replay all complete records to a page store, then force the store and empty
+	 * the log. Replay stops at the first torn or corrupt record.
+	 *
+	 * @param pageStore the page store of the tree
+	 * @return number of records replayed
+	 * @throws IOException if the log or the store can not be read or written
+	 */
+	public int recover(PageStore pageStore) throws IOException {
+		int recordCount = 0;
+		long position = 0;
+		long size = this.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			int length = header.getInt(0);
+			int pageCount = header.getInt(12);
+			if (pageCount < 0 || length != HEADER_SIZE + (long) pageCount * (4 + this.pageSize) + CHECKSUM_SIZE
+					|| position + length > size) {
+				break;
+			}
+			ByteBuffer record = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(record, position);
+			this.checksum.reset();
+			this.checksum.update(record.array(), 0, length - CHECKSUM_SIZE);
+			if (record.getInt(length - CHECKSUM_SIZE) != (int) this.checksum.getValue()) {
+				break;
+			}
+			int offset = HEADER_SIZE;
+			for (int i = 0; i < pageCount; i++) {
+				int pageId = record.getInt(offset);
+				ByteBuffer page = pageStore.pinPage(pageId);
+				page.put(0, record, offset + 4, this.pageSize);
+				pageStore.markDirty(pageId);
+				pageStore.unpinPage(pageId);
+				offset += 4 + this.pageSize;
+			}
+			position += length;
+			recordCount++;
+		}
+		pageStore.flush();
+		truncate();
+		return recordCount;
+	}
+
+	private void readFully(ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			if (this.channel.read(target, position + target.position()) < 0) {
+				throw new IOException("Unexpected end of write-ahead log");
+			}
+		}
+	}
+
+	/**
+	 * Empty the log, called when all changed pages are written to the page file.
+	 * Records not yet written are dropped as well.
+	 *
+	 * @throws IOException if the log can not be truncated
+	 */
+	public void truncate() throws IOException {
+		synchronized (this) {
+			while (this.isFlushing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			this.buffer.clear();
+			this.channel.truncate(0);
+			this.channel.position(0);
+			this.channel.force(false);
+			this.durableLsn = this.appendedLsn;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Forces all appended records and closes the log.
+	 *
+	 * @throws IOException if the log can not be written or closed
+	 */
+	@Override
+	public void close() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = this.appendedLsn;
+		}
+		try {
+			flush(lsn);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			synchronized (this) {
+				this.isClosed = true;
+				notifyAll();
+			}
+			if (this.flusher != null) {
+				try {
+					this.flusher.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			this.channel.close();
+		}
+	}
+
+}
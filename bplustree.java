@@ -1,75 +1,196 @@
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 /**
  * A java Application to test b+ tree.
+ *
+ * The input file is parsed by CommandLogParser on a separate thread, which hands
+ * batches of commands to the tree thread through a bounded queue and reuses them
+ * once applied. Runs of consecutive Insert or Delete commands are passed to the
+ * tree as one batch. Search results are formatted into a reusable buffer, the
+ * output is the same as writing every result with Arrays.toString.
  * @author Shaileshbhai Gothi
  *
  */
 public class bplustree {
 	private static final String OUTPUT_FILENAME = "output_file.txt";
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	private static final int BATCH_SIZE = 4096;
+	private static final int QUEUE_CAPACITY = 4;
+	// shorter runs of Insert or Delete are applied one by one
+	private static final int MIN_RUN_LENGTH = 8;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	private static final CommandLogParser.Batch END_OF_LOG = new CommandLogParser.Batch(0);
 /**
  * Reads the input file and instantiates a B+ Tree based on provided input, and writes output to file.
  * @param args The input file name
  */
 	public static void main(String[] args) {
-		Scanner inputScanner = null;
+		Thread parserThread = null;
 		try {
 			String inputFileName = args.length > 0 ? args[0] : "input.txt";
-			File oInputFile = new File(inputFileName);
-			inputScanner = new Scanner(oInputFile);
-			File oOutputFile = new File(OUTPUT_FILENAME);
-			BufferedWriter outputBufferWriter = new BufferedWriter(new FileWriter(oOutputFile));
+			CommandLogParser parser = new CommandLogParser(Paths.get(inputFileName));
+			ArrayBlockingQueue<CommandLogParser.Batch> parsedBatches = new ArrayBlockingQueue<CommandLogParser.Batch>(
+					QUEUE_CAPACITY + 1);
+			ArrayBlockingQueue<CommandLogParser.Batch> freeBatches = new ArrayBlockingQueue<CommandLogParser.Batch>(
+					QUEUE_CAPACITY + 2);
+			for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+				freeBatches.add(new CommandLogParser.Batch(BATCH_SIZE));
+			}
+			Exception[] parseFailure = new Exception[1];
+			parserThread = new Thread(() -> parse(parser, parsedBatches, freeBatches, parseFailure), "parser");
+			parserThread.setDaemon(true);
+			parserThread.start();
 
-			BPlusTreeImpl oBPlusTree = null;
-			while (inputScanner.hasNextLine()) {
-				String newLine = inputScanner.nextLine();
-				String[] input = newLine.split("\\(|,|\\)");
-				if (input[0].contains("Initialize")) {
-					oBPlusTree = new BPlusTreeImpl(Integer.parseInt(input[1].trim()));
-				} else if (input[0].contains("Insert")) {
-					oBPlusTree.insert(Integer.parseInt(input[1]), Double.parseDouble(input[2].trim()));
-				} else if (input[0].contains("Search")) {
-					ArrayList<Double> listValues = null;
-					if (input.length == 3) {
-						listValues = oBPlusTree.search(Integer.parseInt(input[1].trim()), Integer.parseInt(input[2].trim()));
-					} else if (input.length == 2) {
-						listValues = oBPlusTree.search(Integer.parseInt(input[1].trim()));
+			try (OutputStream outputStream = new FileOutputStream(OUTPUT_FILENAME)) {
+				StringBuilder output = new StringBuilder(OUTPUT_BUFFER_SIZE + 1024);
+				byte[] outputBytes = new byte[OUTPUT_BUFFER_SIZE];
+				BPlusTreeImpl oBPlusTree = null;
+				while (true) {
+					CommandLogParser.Batch batch = parsedBatches.take();
+					if (batch == END_OF_LOG) {
+						break;
 					}
-					if (listValues != null) {
-						writeToFile(outputBufferWriter, listValues);
+					oBPlusTree = apply(oBPlusTree, batch, output);
+					if (output.length() >= OUTPUT_BUFFER_SIZE) {
+						writeToFile(outputStream, output, outputBytes);
 					}
-				} else if (input[0].contains("Delete")) {
-					oBPlusTree.delete(Integer.parseInt(input[1].trim()));
+					freeBatches.put(batch);
 				}
+//				oBPlusTree.printBPlusTree();
+				writeToFile(outputStream, output, outputBytes);
+			}
+			parserThread.join();
+			if (parseFailure[0] != null) {
+				throw parseFailure[0];
 			}
-//			oBPlusTree.printBPlusTree();
-			outputBufferWriter.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
-			if (inputScanner != null) {
-				inputScanner.close();
+			if (parserThread != null) {
+				parserThread.interrupt();
 			}
 		}
 
 	}
 /**
- * Writes search values to output file.
- * @param outputBufferWriter Buffer writer for output file.
- * @param listValues List of values found in search.
+ * Parses the input file into batches until it ends or a line can not be parsed,
+ * the commands before that line are still applied.
+ * @param parser Parser of the input file.
+ * @param parsedBatches Queue of batches to be applied, ends with END_OF_LOG.
+ * @param freeBatches Queue of batches which may be reused.
+ * @param parseFailure Receives the exception which stopped the parser.
+ */
+	private static void parse(CommandLogParser parser, ArrayBlockingQueue<CommandLogParser.Batch> parsedBatches,
+			ArrayBlockingQueue<CommandLogParser.Batch> freeBatches, Exception[] parseFailure) {
+		try (parser) {
+			boolean hasMore = true;
+			while (hasMore) {
+				CommandLogParser.Batch batch = freeBatches.take();
+				try {
+					hasMore = parser.next(batch);
+				} catch (IOException | RuntimeException e) {
+					parseFailure[0] = e;
+					hasMore = false;
+				}
+				if (batch.size() > 0) {
+					parsedBatches.put(batch);
+				}
+			}
+			parsedBatches.put(END_OF_LOG);
+		} catch (IOException e) {
+			parseFailure[0] = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+/**
+ * Applies a batch of commands to the tree and formats the search results.
+ * @param oBPlusTree The tree, null before Initialize.
+ * @param batch The commands.
+ * @param output Buffer receiving the search results.
+ * @return The tree after the commands, a new one after Initialize.
+ */
+	private static BPlusTreeImpl apply(BPlusTreeImpl oBPlusTree, CommandLogParser.Batch batch, StringBuilder output) {
+		int size = batch.size();
+		int i = 0;
+		while (i < size) {
+			byte command = batch.getCommand(i);
+			if (command == CommandLogParser.INSERT || command == CommandLogParser.DELETE) {
+				int end = i + 1;
+				while (end < size && batch.getCommand(end) == command) {
+					end++;
+				}
+				if (end - i >= MIN_RUN_LENGTH) {
+					// the last of equal keys wins as with separate Inserts
+					int[] keys = Arrays.copyOfRange(batch.getKeys(), i, end);
+					if (command == CommandLogParser.INSERT) {
+						oBPlusTree.upsertAll(keys, Arrays.copyOfRange(batch.getValues(), i, end));
+					} else {
+						oBPlusTree.deleteAll(keys);
+					}
+				} else {
+					for (int j = i; j < end; j++) {
+						if (command == CommandLogParser.INSERT) {
+							oBPlusTree.insert(batch.getKey(j), batch.getValue(j));
+						} else {
+							oBPlusTree.delete(batch.getKey(j));
+						}
+					}
+				}
+				i = end;
+				continue;
+			}
+			if (command == CommandLogParser.INITIALIZE) {
+				oBPlusTree = new BPlusTreeImpl(batch.getKey(i));
+			} else if (command == CommandLogParser.SEARCH) {
+				writeValues(oBPlusTree.cursor(batch.getKey(i), batch.getKey(i)), output);
+			} else if (command == CommandLogParser.SEARCH_RANGE) {
+				writeValues(oBPlusTree.cursor(batch.getKey(i), batch.getEndKey(i)), output);
+			}
+			i++;
+		}
+		return oBPlusTree;
+	}
+/**
+ * Formats the values found in search as one line, separated by commas, or Null when none is found.
+ * @param cursor Cursor over the values found in search.
+ * @param output Buffer receiving the line.
+ */
+	private static void writeValues(BPlusTreeCursor cursor, StringBuilder output) {
+		int start = output.length();
+		while (cursor.advance()) {
+			if (output.length() > start) {
+				output.append(',');
+			}
+			output.append(cursor.getValue());
+		}
+		if (output.length() == start) {
+			output.append("Null");
+		}
+		output.append(LINE_SEPARATOR);
+	}
+/**
+ * Writes the formatted search results to output file, and clears the buffer.
+ * @param outputStream Stream of the output file.
+ * @param output Buffer holding the search results, all ASCII.
+ * @param outputBytes Buffer used to write the results.
  * @throws IOException
  */
-	private static void writeToFile(BufferedWriter outputBufferWriter, ArrayList<Double> listValues)
+	private static void writeToFile(OutputStream outputStream, StringBuilder output, byte[] outputBytes)
 			throws IOException {
-		String values = Arrays.toString(listValues.toArray());
-		values = values.replaceAll("\\[|\\s|\\]", "");
-		if (values.length() == 0) {
-			values = "Null";
+		int length = output.length();
+		for (int start = 0; start < length; start += outputBytes.length) {
+			int count = Math.min(outputBytes.length, length - start);
+			for (int i = 0; i < count; i++) {
+				outputBytes[i] = (byte) output.charAt(start + i);
+			}
+			outputStream.write(outputBytes, 0, count);
 		}
-		outputBufferWriter.write(values);
-		outputBufferWriter.newLine();
+		output.setLength(0);
 	}
 
 }